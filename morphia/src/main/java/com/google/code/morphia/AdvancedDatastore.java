@@ -1,6 +1,8 @@
 package com.google.code.morphia;
 
 
+import java.util.List;
+
 import com.google.code.morphia.query.Query;
 import com.google.code.morphia.query.UpdateOperations;
 import com.mongodb.DBDecoderFactory;
@@ -32,6 +34,11 @@ public interface AdvancedDatastore extends Datastore {
    */
   <T> T get(Class<T> clazz, DBRef ref);
 
+  /**
+   * Find the given entities (by id), in the order of the keys; with a null for each missing entity if includeMissing is set
+   */
+  <T> List<T> getByKeys(Class<T> clazz, Iterable<Key<T>> keys, boolean includeMissing);
+
   /**
    * Gets the count this kind
    */
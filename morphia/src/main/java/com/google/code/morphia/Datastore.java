@@ -4,6 +4,8 @@ package com.google.code.morphia;
 import java.util.List;
 import java.util.Map;
 
+import com.google.code.morphia.mapping.lazy.LazyRef;
+import com.google.code.morphia.mapping.lazy.LazyRefList;
 import com.google.code.morphia.query.Query;
 import com.google.code.morphia.query.UpdateOperations;
 import com.google.code.morphia.query.UpdateResults;
@@ -111,6 +113,20 @@ public interface Datastore {
    */
   <T> T getByKey(Class<T> clazz, Key<T> key);
 
+  /**
+   * Fetches the entities referenced by the {@link LazyRef}/{@link LazyRefList} fields of the entities (only the given fields, if any)
+   * which were not fetched yet, with one query per collection for all of them.
+   */
+  void resolveLazyRefs(Iterable<?> entities, String... fields);
+
+  /**
+   * Copies the snapshot fields (see {@link com.google.code.morphia.annotations.Reference#snapshot()}) of the entity into the snapshots of
+   * it held by the documents which reference it, with one multi update per referencing field; returns the number of documents updated.
+   * Only the first snapshot of the entity in a collection of references is updated, and only the references of the fields of entities
+   * (not of embedded objects) have their snapshots updated.
+   */
+  <T> int updateSnapshots(T entity);
+
   /**
    * Gets the count this kind ({@link DBCollection})
    */
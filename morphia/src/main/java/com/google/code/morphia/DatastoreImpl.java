@@ -2,16 +2,27 @@ package com.google.code.morphia;
 
 
 import java.lang.annotation.Annotation;
+import java.lang.management.ManagementFactory;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.ConcurrentModificationException;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
-
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+import org.bson.types.ObjectId;
 import com.google.code.morphia.annotations.CappedAt;
 import com.google.code.morphia.annotations.Entity;
 import com.google.code.morphia.annotations.Index;
@@ -21,15 +32,23 @@ import com.google.code.morphia.annotations.NotSaved;
 import com.google.code.morphia.annotations.PostPersist;
 import com.google.code.morphia.annotations.Reference;
 import com.google.code.morphia.annotations.Serialized;
-import com.google.code.morphia.annotations.Version;
 import com.google.code.morphia.logging.Logr;
 import com.google.code.morphia.logging.MorphiaLoggerFactory;
+import com.google.code.morphia.mapping.EntityDBDecoder;
+import com.google.code.morphia.mapping.EntityDBEncoder;
 import com.google.code.morphia.mapping.MappedClass;
 import com.google.code.morphia.mapping.MappedField;
 import com.google.code.morphia.mapping.Mapper;
 import com.google.code.morphia.mapping.MappingException;
+import com.google.code.morphia.mapping.cache.DefaultEntityCache;
 import com.google.code.morphia.mapping.cache.EntityCache;
+import com.google.code.morphia.mapping.cache.EntityCacheCounters;
+import com.google.code.morphia.mapping.cache.EntityCacheMetrics;
+import com.google.code.morphia.mapping.cache.LightweightEntityCache;
+import com.google.code.morphia.mapping.cache.SecondLevelCache;
 import com.google.code.morphia.mapping.lazy.DatastoreHolder;
+import com.google.code.morphia.mapping.lazy.LazyRef;
+import com.google.code.morphia.mapping.lazy.LazyRefList;
 import com.google.code.morphia.mapping.lazy.proxy.ProxyHelper;
 import com.google.code.morphia.query.Query;
 import com.google.code.morphia.query.QueryException;
@@ -46,6 +65,7 @@ import com.mongodb.BasicDBObjectBuilder;
 import com.mongodb.CommandResult;
 import com.mongodb.DB;
 import com.mongodb.DBCollection;
+import com.mongodb.DBCursor;
 import com.mongodb.DBDecoderFactory;
 import com.mongodb.DBObject;
 import com.mongodb.DBRef;
@@ -73,6 +93,10 @@ public class DatastoreImpl implements AdvancedDatastore {
   protected final DB db;
   protected WriteConcern defConcern = WriteConcern.SAFE;
   protected DBDecoderFactory decoderFactory;
+  protected ExecutorService queryExecutor;
+  protected ExecutorService mappingExecutor;
+  // the counts of all the entity caches of this datastore
+  protected final EntityCacheCounters cacheCounters = new EntityCacheCounters();
 
   public DatastoreImpl(final Mapper mapper, final Mongo mongo, final String dbName) {
     this.mapper = mapper;
@@ -132,6 +156,7 @@ public class DatastoreImpl implements AdvancedDatastore {
   public <T> WriteResult delete(final String kind, final T id) {
     final DBCollection dbColl = getCollection(kind);
     final WriteResult wr = dbColl.remove(BasicDBObjectBuilder.start().add(Mapper.ID_KEY, id).get());
+    invalidate(kind, id);
     throwOnError(null, wr);
     return wr;
   }
@@ -205,6 +230,7 @@ public class DatastoreImpl implements AdvancedDatastore {
     } else {
       wr = dbColl.remove(new BasicDBObject(), wc);
     }
+    invalidate(dbColl.getName(), q.getQueryObject());
 
     throwOnError(wc, wr);
 
@@ -489,7 +515,14 @@ public class DatastoreImpl implements AdvancedDatastore {
 
 
   public <T> T get(final Class<T> clazz, final DBRef ref) {
-    return (T) mapper.fromDBObject(clazz, ref.fetch(), createCache());
+    DBObject dbObj = mapper.getCachedDocument(ref.getRef(), ref.getId());
+    if (dbObj == null) {
+      dbObj = ref.fetch();
+      if (dbObj != null) {
+        mapper.cacheDocument(clazz, ref.getRef(), dbObj);
+      }
+    }
+    return (T) mapper.fromDBObject(clazz, dbObj, createCache());
   }
 
 
@@ -501,32 +534,31 @@ public class DatastoreImpl implements AdvancedDatastore {
    * Queries the server to check for each DBRef
    */
   public <T> List<Key<T>> getKeysByRefs(final List<DBRef> refs) {
-    final ArrayList<Key<T>> tempKeys = new ArrayList<Key<T>>(refs.size());
-
-    final Map<String, List<DBRef>> kindMap = new HashMap<String, List<DBRef>>();
+    final Map<String, List<Object>> idsByKind = new LinkedHashMap<String, List<Object>>();
     for (final DBRef ref : refs) {
-      if (kindMap.containsKey(ref.getRef())) {
-        kindMap.get(ref.getRef()).add(ref);
-      } else {
-        kindMap.put(ref.getRef(), new ArrayList<DBRef>(Collections.singletonList(ref)));
-      }
+      addId(idsByKind, ref.getRef(), ref.getId());
     }
-    for (final String kind : kindMap.keySet()) {
-      final List<Object> objIds = new ArrayList<Object>();
-      final List<DBRef> kindRefs = kindMap.get(kind);
-      for (final DBRef key : kindRefs) {
-        objIds.add(key.getId());
+
+    final Map<String, List<Key<T>>> found = findByIds(idsByKind, new IdQuery<Key<T>>() {
+      public List<Key<T>> find(final String kind, final List<Object> ids) {
+        return DatastoreImpl.this.<T>find(kind, null).disableValidation().filter("_id in", ids).asKeyList();
       }
-      final List<Key<T>> kindResults = this.<T>find(kind, null).disableValidation().filter("_id in", objIds).asKeyList();
-      tempKeys.addAll(kindResults);
+    });
+    final Map<String, Set<Object>> foundIds = new HashMap<String, Set<Object>>();
+    for (final Map.Entry<String, List<Key<T>>> entry : found.entrySet()) {
+      final Set<Object> ids = new HashSet<Object>();
+      for (final Key<T> key : entry.getValue()) {
+        ids.add(key.getId());
+      }
+      foundIds.put(entry.getKey(), ids);
     }
 
     //put them back in order, minus the missing ones.
     final ArrayList<Key<T>> keys = new ArrayList<Key<T>>(refs.size());
     for (final DBRef ref : refs) {
-      final Key<T> testKey = mapper.refToKey(ref);
-      if (tempKeys.contains(testKey)) {
-        keys.add(testKey);
+      final Set<Object> ids = foundIds.get(ref.getRef());
+      if (ids != null && ids.contains(ref.getId())) {
+        keys.add((Key<T>) mapper.refToKey(ref));
       }
     }
     return keys;
@@ -536,43 +568,189 @@ public class DatastoreImpl implements AdvancedDatastore {
     return getByKeys(null, keys);
   }
 
-  @SuppressWarnings("rawtypes")
   public <T> List<T> getByKeys(final Class<T> clazz, final Iterable<Key<T>> keys) {
+    return getByKeys(clazz, keys, false);
+  }
 
-    final Map<String, List<Key>> kindMap = new HashMap<String, List<Key>>();
-    final List<T> entities = new ArrayList<T>();
-    // String clazzKind = (clazz==null) ? null :
-    // getMapper().getCollectionName(clazz);
-    for (final Key<?> key : keys) {
+  public <T> List<T> getByKeys(final Class<T> clazz, final Iterable<Key<T>> keys, final boolean includeMissing) {
+    final List<Key<T>> keyList = new ArrayList<Key<T>>();
+    final Map<String, List<Object>> idsByKind = new LinkedHashMap<String, List<Object>>();
+    for (final Key<T> key : keys) {
       mapper.updateKind(key);
+      keyList.add(key);
+      addId(idsByKind, key.getKind(), key.getId());
+    }
 
-      // if (clazzKind != null && !key.getKind().equals(clazzKind))
-      // throw new IllegalArgumentException("Types are not equal (" +
-      // clazz + "!=" + key.getKindClass() +
-      // ") for key and method parameter clazz");
-      //
-      if (kindMap.containsKey(key.getKind())) {
-        kindMap.get(key.getKind()).add(key);
-      } else {
-        kindMap.put(key.getKind(), new ArrayList<Key>(Collections.singletonList((Key) key)));
+    final Map<String, List<T>> found = mapper.getOptions().secondLevelCache == null ? findByIds(idsByKind, new IdQuery<T>() {
+      public List<T> find(final String kind, final List<Object> ids) {
+        return DatastoreImpl.this.find(kind, clazz).disableValidation().filter("_id in", ids).asList();
+      }
+    }) : findCached(clazz, idsByKind);
+    final Map<String, Map<Object, T>> entitiesByKind = new HashMap<String, Map<Object, T>>();
+    for (final Map.Entry<String, List<T>> entry : found.entrySet()) {
+      final Map<Object, T> entities = new HashMap<Object, T>();
+      for (final T entity : entry.getValue()) {
+        entities.put(mapper.getId(entity), entity);
       }
+      entitiesByKind.put(entry.getKey(), entities);
     }
-    for (final String kind : kindMap.keySet()) {
-      final List<Object> objIds = new ArrayList<Object>();
-      final List<Key> kindKeys = kindMap.get(kind);
-      for (final Key key : kindKeys) {
-        objIds.add(key.getId());
+
+    final List<T> entities = new ArrayList<T>(keyList.size());
+    for (final Key<T> key : keyList) {
+      final Map<Object, T> kindEntities = entitiesByKind.get(key.getKind());
+      final T entity = kindEntities == null ? null : kindEntities.get(key.getId());
+      if (entity != null || includeMissing) {
+        entities.add(entity);
       }
-      final List kindResults = find(kind, null).disableValidation().filter("_id in", objIds).asList();
-      entities.addAll(kindResults);
     }
+    return entities;
+  }
 
-    //TODO: order them based on the incoming Keys.
+  /**
+   * Finds the entities of the ids of each kind, taking their documents from the second level cache where it has them, and putting the
+   * fetched ones in it.
+   */
+  private <T> Map<String, List<T>> findCached(final Class<T> clazz, final Map<String, List<Object>> idsByKind) {
+    final Map<String, List<DBObject>> docs = new LinkedHashMap<String, List<DBObject>>();
+    final Map<String, List<Object>> missing = new LinkedHashMap<String, List<Object>>();
+    for (final Map.Entry<String, List<Object>> entry : idsByKind.entrySet()) {
+      final List<DBObject> cached = new ArrayList<DBObject>();
+      for (final Object id : entry.getValue()) {
+        final DBObject dbObj = mapper.getCachedDocument(entry.getKey(), id);
+        if (dbObj == null) {
+          addId(missing, entry.getKey(), id);
+        } else {
+          cached.add(dbObj);
+        }
+      }
+      docs.put(entry.getKey(), cached);
+    }
+
+    final Map<String, List<DBObject>> fetched = findByIds(missing, new IdQuery<DBObject>() {
+      public List<DBObject> find(final String kind, final List<Object> ids) {
+        return findDocuments(DatastoreImpl.this.find(kind, clazz).disableValidation().filter("_id in", ids));
+      }
+    });
+    final List<DBObject> all = new ArrayList<DBObject>();
+    for (final Map.Entry<String, List<DBObject>> entry : docs.entrySet()) {
+      final List<DBObject> kindFetched = fetched.get(entry.getKey());
+      if (kindFetched != null) {
+        for (final DBObject dbObj : kindFetched) {
+          mapper.cacheDocument(clazz, entry.getKey(), dbObj);
+        }
+        entry.getValue().addAll(kindFetched);
+      }
+      all.addAll(entry.getValue());
+    }
+
+    final EntityCache cache = mapper.prefetchReferences(clazz, all, createCache());
+    final Map<String, List<T>> entities = new HashMap<String, List<T>>();
+    for (final Map.Entry<String, List<DBObject>> entry : docs.entrySet()) {
+      final List<T> kindEntities = new ArrayList<T>(entry.getValue().size());
+      for (final DBObject dbObj : entry.getValue()) {
+        kindEntities.add((T) mapper.fromDBObject(clazz, dbObj, cache));
+      }
+      entities.put(entry.getKey(), kindEntities);
+    }
     return entities;
   }
 
+  /**
+   * Returns the (unmapped) documents the query finds.
+   */
+  private static List<DBObject> findDocuments(final Query<?> query) {
+    final DBCursor cursor = ((QueryImpl<?>) query).prepareCursor();
+    try {
+      final List<DBObject> docs = new ArrayList<DBObject>();
+      while (cursor.hasNext()) {
+        docs.add(cursor.next());
+      }
+      return docs;
+    } finally {
+      cursor.close();
+    }
+  }
+
+  private static void addId(final Map<String, List<Object>> idsByKind, final String kind, final Object id) {
+    List<Object> ids = idsByKind.get(kind);
+    if (ids == null) {
+      ids = new ArrayList<Object>();
+      idsByKind.put(kind, ids);
+    }
+    ids.add(id);
+  }
+
+  /**
+   * Finds the results for some ids of a kind.
+   */
+  private interface IdQuery<R> {
+    List<R> find(String kind, List<Object> ids);
+  }
+
+  /**
+   * Runs the query for the (distinct) ids of each kind, at most {@link #getMaxIdsPerQuery()} ids at a time; on the query executor, if
+   * there is one. Returns the results of each kind.
+   */
+  private <R> Map<String, List<R>> findByIds(final Map<String, List<Object>> idsByKind, final IdQuery<R> query) {
+    final List<String> kinds = new ArrayList<String>();
+    final List<List<Object>> chunks = new ArrayList<List<Object>>();
+    final List<Callable<List<R>>> tasks = new ArrayList<Callable<List<R>>>();
+    for (final Map.Entry<String, List<Object>> entry : idsByKind.entrySet()) {
+      final String kind = entry.getKey();
+      final List<Object> ids = new ArrayList<Object>(new LinkedHashSet<Object>(entry.getValue()));
+      final int maxIdsPerQuery = getMaxIdsPerQuery();
+      final int chunkSize = maxIdsPerQuery > 0 ? maxIdsPerQuery : ids.size();
+      for (int i = 0; i < ids.size(); i += chunkSize) {
+        final List<Object> chunk = ids.subList(i, Math.min(ids.size(), i + chunkSize));
+        kinds.add(kind);
+        chunks.add(chunk);
+        tasks.add(new Callable<List<R>>() {
+          public List<R> call() {
+            return query.find(kind, chunk);
+          }
+        });
+      }
+    }
+
+    final Map<String, List<R>> results = new HashMap<String, List<R>>();
+    final ExecutorService executor = queryExecutor;
+    if (executor == null || tasks.size() < 2) {
+      for (int i = 0; i < tasks.size(); i++) {
+        addResults(results, kinds.get(i), query.find(kinds.get(i), chunks.get(i)));
+      }
+      return results;
+    }
+
+    try {
+      final List<Future<List<R>>> futures = executor.invokeAll(tasks);
+      for (int i = 0; i < futures.size(); i++) {
+        addResults(results, kinds.get(i), futures.get(i).get());
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException(e);
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) e.getCause();
+      }
+      throw new RuntimeException(e.getCause());
+    }
+    return results;
+  }
+
+  private static <R> void addResults(final Map<String, List<R>> results, final String kind, final List<R> kindResults) {
+    final List<R> existing = results.get(kind);
+    if (existing == null) {
+      results.put(kind, new ArrayList<R>(kindResults));
+    } else {
+      existing.addAll(kindResults);
+    }
+  }
 
   public <T, V> T get(final String kind, final Class<T> clazz, final V id) {
+    if (mapper.getOptions().secondLevelCache != null) {
+      return getCached(kind, clazz, id);
+    }
     final List<T> results = find(kind, clazz, Mapper.ID_KEY, id, 0, 1).asList();
     if (results == null || results.isEmpty()) {
       return null;
@@ -582,10 +760,29 @@ public class DatastoreImpl implements AdvancedDatastore {
 
 
   public <T, V> T get(final Class<T> clazz, final V id) {
+    if (mapper.getOptions().secondLevelCache != null) {
+      return getCached(getCollection(clazz).getName(), clazz, id);
+    }
     return find(getCollection(clazz).getName(), clazz, Mapper.ID_KEY, id, 0, 1, true).get();
   }
 
 
+  /**
+   * Gets the entity from its document in the second level cache, or fetches the document and puts it there.
+   */
+  private <T> T getCached(final String kind, final Class<T> clazz, final Object id) {
+    DBObject dbObj = mapper.getCachedDocument(kind, id);
+    if (dbObj == null) {
+      final List<DBObject> docs = findDocuments(find(kind, clazz).disableValidation().filter(Mapper.ID_KEY, id).limit(1));
+      if (docs.isEmpty()) {
+        return null;
+      }
+      dbObj = docs.get(0);
+      mapper.cacheDocument(clazz, kind, dbObj);
+    }
+    return (T) mapper.fromDBObject(clazz, dbObj, createCache());
+  }
+
   public <T> T getByKey(final Class<T> clazz, final Key<T> key) {
     final String kind = mapper.getCollectionName(clazz);
     final String keyKind = mapper.updateKind(key);
@@ -596,6 +793,110 @@ public class DatastoreImpl implements AdvancedDatastore {
     return get(clazz, key.getId());
   }
 
+  @SuppressWarnings("rawtypes")
+  public void resolveLazyRefs(final Iterable<?> entities, final String... fields) {
+    final List<String> names = Arrays.asList(fields);
+    final Map<Class, Set<Key>> keysByClass = new LinkedHashMap<Class, Set<Key>>();
+    final List<Object> refs = new ArrayList<Object>();
+    for (final Object entity : entities) {
+      if (entity == null) {
+        continue;
+      }
+      final Object unwrapped = ProxyHelper.unwrap(entity);
+      for (final MappedField mf : mapper.getMappedClass(unwrapped).getPersistenceFields()) {
+        if (!mf.isLazyRef() || (!names.isEmpty() && !names.contains(mf.getJavaFieldName()))) {
+          continue;
+        }
+        final Object ref = mf.getFieldValue(unwrapped);
+        if (ref instanceof LazyRef && !((LazyRef) ref).isFetched()) {
+          addKeys(keysByClass, ((LazyRef) ref).getReferenceObjClass(), Collections.singletonList(((LazyRef) ref).getKey()));
+          refs.add(ref);
+        } else if (ref instanceof LazyRefList && !((LazyRefList) ref).isFetched()) {
+          addKeys(keysByClass, ((LazyRefList) ref).getReferenceObjClass(), ((LazyRefList) ref).getKeys());
+          refs.add(ref);
+        }
+      }
+    }
+
+    final Map<Key, Object> found = new HashMap<Key, Object>();
+    for (final Map.Entry<Class, Set<Key>> entry : keysByClass.entrySet()) {
+      final List<Key> keys = new ArrayList<Key>(entry.getValue());
+      final List<Object> fetched = getByKeys(entry.getKey(), (List) keys, true);
+      for (int i = 0; i < keys.size(); i++) {
+        found.put(keys.get(i), fetched.get(i));
+      }
+    }
+
+    for (final Object ref : refs) {
+      if (ref instanceof LazyRef) {
+        ((LazyRef) ref).__resolve(found.get(((LazyRef) ref).getKey()));
+      } else {
+        final List<Object> listed = new ArrayList<Object>();
+        for (final Object key : ((LazyRefList) ref).getKeys()) {
+          listed.add(found.get(key));
+        }
+        ((LazyRefList) ref).__resolve(listed);
+      }
+    }
+  }
+
+  public <T> int updateSnapshots(final T entity) {
+    final Object unwrapped = ProxyHelper.unwrap(entity);
+    final MappedClass entityMC = mapper.getMappedClass(unwrapped);
+    int updated = 0;
+    for (final MappedClass mc : mapper.getMappedClasses()) {
+      if (mc.getEntityAnnotation() == null) {
+        continue;
+      }
+      for (final MappedField mf : mc.getPersistenceFields()) {
+        final String snapshotName = mapper.getSnapshotName(mf);
+        if (snapshotName == null || !(mf.isSingleValue() ? mf.getType() : mf.getSubClass()).isInstance(unwrapped)) {
+          continue;
+        }
+
+        final DBObject snapshot = mapper.createSnapshot(mf, unwrapped);
+        // the positional operator stands for the (first) snapshot the query matched in a collection
+        final String prefix = snapshotName + (mf.isSingleValue() ? "." : ".$.");
+        final BasicDBObject set = new BasicDBObject();
+        final BasicDBObject unset = new BasicDBObject();
+        for (final String name : mf.getAnnotation(Reference.class).snapshot()) {
+          final String stored = entityMC.getMappedFieldByJavaField(name).getNameToStore();
+          if (snapshot.get(stored) != null) {
+            set.put(prefix + stored, snapshot.get(stored));
+          } else {
+            unset.put(prefix + stored, 1);
+          }
+        }
+        final BasicDBObject ops = new BasicDBObject();
+        if (!set.isEmpty()) {
+          ops.put("$set", set);
+        }
+        if (!unset.isEmpty()) {
+          ops.put("$unset", unset);
+        }
+
+        final DBObject q = new BasicDBObject(snapshotName + "." + Mapper.ID_KEY, snapshot.get(Mapper.ID_KEY));
+        if (LOG.isTraceEnabled()) {
+          LOG.trace("Updating snapshots in " + mc.getCollectionName() + ": " + q + " -> " + ops);
+        }
+        updated += getCollection(mc.getClazz()).update(q, ops, false, true, getWriteConcern(mc.getClazz())).getN();
+        // not an _id query, so all the cached documents of the kind go
+        invalidate(mc.getCollectionName(), q);
+      }
+    }
+    return updated;
+  }
+
+  @SuppressWarnings("rawtypes")
+  private static void addKeys(final Map<Class, Set<Key>> keysByClass, final Class referenceObjClass, final List<? extends Key> keys) {
+    Set<Key> classKeys = keysByClass.get(referenceObjClass);
+    if (classKeys == null) {
+      classKeys = new LinkedHashSet<Key>();
+      keysByClass.put(referenceObjClass, classKeys);
+    }
+    classKeys.addAll(keys);
+  }
+
   public <T> T get(final T entity) {
     final T unwrapped = ProxyHelper.unwrap(entity);
     final Object id = getId(unwrapped);
@@ -702,19 +1003,31 @@ public class DatastoreImpl implements AdvancedDatastore {
         : new ArrayList<DBObject>();
 
     final Map<Object, DBObject> involvedObjects = new LinkedHashMap<Object, DBObject>();
+    boolean encodable = false;
     for (final T ent : entities) {
       final MappedClass mc = mapper.getMappedClass(ent);
       if (mc.getAnnotation(NotSaved.class) != null) {
         throw new MappingException(
             "Entity type: " + mc.getClazz().getName() + " is marked as NotSaved which means you should not try to save it!");
       }
-      list.add(entityToDBObj(ent, involvedObjects));
+      checkNotPartial(ent);
+      DBObject dbObj = entityToEncodableDBObj(dbColl, ent, involvedObjects);
+      if (dbObj == null) {
+        dbObj = entityToDBObj(ent, involvedObjects);
+      } else {
+        encodable = true;
+      }
+      list.add(dbObj);
     }
 
     final WriteResult wr = null;
 
-    final DBObject[] dbObjects = new DBObject[list.size()];
-    dbColl.insert(list.toArray(dbObjects), wc);
+    if (encodable) {
+      dbColl.insert(list, wc, EntityDBEncoder.FACTORY.create());
+    } else {
+      final DBObject[] dbObjects = new DBObject[list.size()];
+      dbColl.insert(list.toArray(dbObjects), wc);
+    }
 
     throwOnError(wc, wr);
 
@@ -758,13 +1071,19 @@ public class DatastoreImpl implements AdvancedDatastore {
   }
 
   protected <T> Key<T> insert(final DBCollection dbColl, final T entity, final WriteConcern wc) {
+    checkNotPartial(entity);
     final LinkedHashMap<Object, DBObject> involvedObjects = new LinkedHashMap<Object, DBObject>();
-    final DBObject dbObj = entityToDBObj(entity, involvedObjects);
+    DBObject dbObj = entityToEncodableDBObj(dbColl, entity, involvedObjects);
     final WriteResult wr;
-    if (wc == null) {
-      wr = dbColl.insert(dbObj);
+    if (dbObj != null) {
+      wr = dbColl.insert(Arrays.asList(dbObj), wc == null ? dbColl.getWriteConcern() : wc, EntityDBEncoder.FACTORY.create());
     } else {
-      wr = dbColl.insert(dbObj, wc);
+      dbObj = entityToDBObj(entity, involvedObjects);
+      if (wc == null) {
+        wr = dbColl.insert(dbObj);
+      } else {
+        wr = dbColl.insert(dbObj, wc);
+      }
     }
 
     throwOnError(wc, wr);
@@ -777,6 +1096,33 @@ public class DatastoreImpl implements AdvancedDatastore {
     return mapper.toDBObject(ProxyHelper.unwrap(entity), involvedObjects);
   }
 
+  /**
+   * Returns a DBObject for the entity which must be written with the {@link EntityDBEncoder}, or null if the entity needs to be mapped
+   * to a DBObject (see {@link Mapper#toEncodableDBObject(Object, Map)}) or the collection has its own encoder.
+   */
+  protected DBObject entityToEncodableDBObj(final DBCollection dbColl, final Object entity, final Map<Object, DBObject> involvedObjects) {
+    if (dbColl.getDBEncoderFactory() != null) {
+      return null;
+    }
+    return mapper.toEncodableDBObject(ProxyHelper.unwrap(entity), involvedObjects);
+  }
+
+  /**
+   * Does what {@link DBCollection#save(DBObject, WriteConcern)} does (insert, or upsert by _id), with the {@link EntityDBEncoder}.
+   */
+  private WriteResult saveEncodable(final DBCollection dbColl, final DBObject dbObj, final WriteConcern wc) {
+    final WriteConcern concern = wc == null ? dbColl.getWriteConcern() : wc;
+    final Object id = dbObj.get(Mapper.ID_KEY);
+    if (id == null || (id instanceof ObjectId && ((ObjectId) id).isNew())) {
+      if (id != null) {
+        ((ObjectId) id).notNew();
+      }
+      return dbColl.insert(Arrays.asList(dbObj), concern, EntityDBEncoder.FACTORY.create());
+    }
+
+    return dbColl.update(new BasicDBObject(Mapper.ID_KEY, id), dbObj, true, false, concern, EntityDBEncoder.FACTORY.create());
+  }
+
   /**
    * call postSaveOperations and returns Key for entity
    */
@@ -786,6 +1132,7 @@ public class DatastoreImpl implements AdvancedDatastore {
       throw new MappingException("Missing _id after save!");
     }
 
+    invalidate(dbColl.getName(), dbObj.get(Mapper.ID_KEY));
     postSaveOperations(entity, dbObj, involvedObjects);
     final Key<T> key = new Key<T>(dbColl.getName(), getId(entity));
     key.setKindClass((Class<? extends T>) entity.getClass());
@@ -820,6 +1167,17 @@ public class DatastoreImpl implements AdvancedDatastore {
     return savedKeys;
   }
 
+  /**
+   * Fails if the entity was loaded with only some of its fields (see {@link com.google.code.morphia.annotations.Reference#fields()}),
+   * since storing it would drop the others.
+   */
+  private void checkNotPartial(final Object entity) {
+    if (mapper.isPartial(entity)) {
+      throw new MappingException("Entity " + entity.getClass().getName() + " was loaded with only some of its fields (as a reference)"
+          + " which means it cannot be saved; load it on its own to change it");
+    }
+  }
+
   protected <T> Key<T> save(final DBCollection dbColl, final T entity, final WriteConcern wc) {
     if (entity == null) {
       throw new UpdateException("Can not persist a null entity");
@@ -830,22 +1188,28 @@ public class DatastoreImpl implements AdvancedDatastore {
       throw new MappingException(
           "Entity type: " + mc.getClazz().getName() + " is marked as NotSaved which means you should not try to save it!");
     }
+    checkNotPartial(entity);
 
     WriteResult wr;
 
     //involvedObjects is used not only as a cache but also as a list of what needs to be called for life-cycle methods at the end.
     final LinkedHashMap<Object, DBObject> involvedObjects = new LinkedHashMap<Object, DBObject>();
-    final DBObject dbObj = entityToDBObj(entity, involvedObjects);
+    DBObject dbObj = entityToEncodableDBObj(dbColl, entity, involvedObjects);
+    if (dbObj != null) {
+      wr = saveEncodable(dbColl, dbObj, wc);
+    } else {
+      dbObj = entityToDBObj(entity, involvedObjects);
 
-    //try to do an update if there is a @Version field
-    final Object idValue = dbObj.get(Mapper.ID_KEY);
-    wr = tryVersionedUpdate(dbColl, entity, dbObj, idValue, wc, db, mc);
+      //try to do an update if there is a @Version field
+      final Object idValue = dbObj.get(Mapper.ID_KEY);
+      wr = tryVersionedUpdate(dbColl, entity, dbObj, idValue, wc, db, mc);
 
-    if (wr == null) {
-      if (wc == null) {
-        wr = dbColl.save(dbObj);
-      } else {
-        wr = dbColl.save(dbObj, wc);
+      if (wr == null) {
+        if (wc == null) {
+          wr = dbColl.save(dbObj);
+        } else {
+          wr = dbColl.save(dbObj, wc);
+        }
       }
     }
 
@@ -856,11 +1220,11 @@ public class DatastoreImpl implements AdvancedDatastore {
   protected <T> WriteResult tryVersionedUpdate(final DBCollection dbColl, final T entity, final DBObject dbObj, final Object idValue,
       final WriteConcern wc, final DB database, final MappedClass mc) {
     WriteResult wr = null;
-    if (mc.getFieldsAnnotatedWith(Version.class).isEmpty()) {
+    final MappedField mfVersion = mc.getMappedVersionField();
+    if (mfVersion == null) {
       return wr;
     }
 
-    final MappedField mfVersion = mc.getFieldsAnnotatedWith(Version.class).get(0);
     final String versionKeyName = mfVersion.getNameToStore();
     final Long oldVersion = (Long) mfVersion.getFieldValue(entity);
     final long newVersion = VersionHelper.nextValue(oldVersion);
@@ -943,8 +1307,8 @@ public class DatastoreImpl implements AdvancedDatastore {
     final Query<T> q = (Query<T>) createQuery(mc.getClazz());
     q.disableValidation().filter(Mapper.ID_KEY, getId(ent));
 
-    if (!mc.getFieldsAnnotatedWith(Version.class).isEmpty()) {
-      final MappedField versionMF = mc.getFieldsAnnotatedWith(Version.class).get(0);
+    final MappedField versionMF = mc.getMappedVersionField();
+    if (versionMF != null) {
       final Long oldVer = (Long) versionMF.getFieldValue(ent);
       q.filter(versionMF.getNameToStore(), oldVer);
       ops.set(versionMF.getNameToStore(), VersionHelper.nextValue(oldVer));
@@ -981,6 +1345,7 @@ public class DatastoreImpl implements AdvancedDatastore {
   }
 
   public <T> UpdateResults<T> updateFirst(final Query<T> query, final T entity, final boolean createIfMissing) {
+    checkNotPartial(entity);
     final LinkedHashMap<Object, DBObject> involvedObjects = new LinkedHashMap<Object, DBObject>();
     final DBObject dbObj = mapper.toDBObject(entity, involvedObjects);
 
@@ -1001,6 +1366,7 @@ public class DatastoreImpl implements AdvancedDatastore {
   }
 
   public <T> Key<T> merge(final T entity, final WriteConcern wc) {
+    checkNotPartial(entity);
     T unwrapped = entity;
     final LinkedHashMap<Object, DBObject> involvedObjects = new LinkedHashMap<Object, DBObject>();
     final DBObject dbObj = mapper.toDBObject(unwrapped, involvedObjects);
@@ -1029,6 +1395,7 @@ public class DatastoreImpl implements AdvancedDatastore {
     }
 
     final UpdateResults<T> res = new UpdateResults<T>(wr);
+    invalidate(dbColl.getName(), idValue);
 
     throwOnError(wc, wr);
 
@@ -1108,6 +1475,7 @@ public class DatastoreImpl implements AdvancedDatastore {
     } else {
       wr = dbColl.update(q, u, createIfMissing, multi, wc);
     }
+    invalidate(dbColl.getName(), q);
 
     throwOnError(wc, wr);
 
@@ -1129,6 +1497,7 @@ public class DatastoreImpl implements AdvancedDatastore {
     }
 
     final DBObject result = dbColl.findAndModify(qi.getQueryObject(), qi.getFieldsObject(), qi.getSortObject(), true, null, false, false);
+    invalidate(dbColl.getName(), result, qi.getQueryObject());
 
     if (result != null) {
       return (T) mapper.fromDBObject(qi.getEntityClass(), result, cache);
@@ -1166,6 +1535,7 @@ public class DatastoreImpl implements AdvancedDatastore {
         throw e;
       }
     }
+    invalidate(dbColl.getName(), res, qi.getQueryObject());
 
     if (res == null) {
       return null;
@@ -1223,7 +1593,8 @@ public class DatastoreImpl implements AdvancedDatastore {
     }
 
     final MapReduceOutput mpo = dbColl.mapReduce(baseCommand);
-    final EntityCache cache = createCache();
+    // the inline results may be many
+    final EntityCache cache = createEntityCache();
     final MapreduceResults results = (MapreduceResults) mapper.fromDBObject(MapreduceResults.class, mpo.getCommandResult(), cache);
 
     results.setType(type);
@@ -1304,8 +1675,99 @@ public class DatastoreImpl implements AdvancedDatastore {
     return keys;
   }
 
+  /**
+   * Removes the document of the id from the second level cache, if there is one.
+   */
+  private void invalidate(final String kind, final Object id) {
+    final SecondLevelCache secondLevelCache = mapper.getOptions().secondLevelCache;
+    if (secondLevelCache != null && id != null) {
+      secondLevelCache.remove(new Key<Object>(kind, id));
+    }
+  }
+
+  /**
+   * Removes the documents the query may match from the second level cache, if there is one: the ones of its _id (or _id $in) if it has
+   * one, or else all of the kind.
+   */
+  private void invalidate(final String kind, final DBObject query) {
+    final SecondLevelCache secondLevelCache = mapper.getOptions().secondLevelCache;
+    if (secondLevelCache == null) {
+      return;
+    }
+    final Object id = query == null ? null : query.get(Mapper.ID_KEY);
+    if (id == null) {
+      secondLevelCache.removeKind(kind);
+    } else if (!(id instanceof DBObject) || !isOperator((DBObject) id)) {
+      secondLevelCache.remove(new Key<Object>(kind, id));
+    } else if (((DBObject) id).keySet().size() == 1 && ((DBObject) id).get("$in") instanceof Iterable) {
+      for (final Object inId : (Iterable<?>) ((DBObject) id).get("$in")) {
+        invalidate(kind, inId);
+      }
+    } else {
+      secondLevelCache.removeKind(kind);
+    }
+  }
+
+  /**
+   * Removes the document findAndModify returned (or, lacking its _id, the ones the query may match) from the second level cache.
+   */
+  private void invalidate(final String kind, final DBObject result, final DBObject query) {
+    if (result == null || result.get(Mapper.ID_KEY) == null) {
+      invalidate(kind, query);
+    } else {
+      invalidate(kind, result.get(Mapper.ID_KEY));
+    }
+  }
+
+  private static boolean isOperator(final DBObject value) {
+    for (final String key : value.keySet()) {
+      if (key.startsWith("$")) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Returns a cache for one operation (see {@link LightweightEntityCache}).
+   */
   private EntityCache createCache() {
-    return mapper.createEntityCache();
+    return createOperationCache();
+  }
+
+  /**
+   * Returns a cache for the results of a query, which counts towards {@link #getEntityCacheMetrics()}.
+   */
+  public EntityCache createEntityCache() {
+    return new DefaultEntityCache(cacheCounters);
+  }
+
+  /**
+   * Returns a cache for one short operation (see {@link LightweightEntityCache}), which counts towards {@link #getEntityCacheMetrics()}.
+   */
+  public EntityCache createOperationCache() {
+    return new LightweightEntityCache(cacheCounters);
+  }
+
+  /**
+   * Returns the counts of all the entity caches of this datastore, per kind.
+   */
+  public EntityCacheMetrics getEntityCacheMetrics() {
+    return cacheCounters;
+  }
+
+  /**
+   * Registers the entity cache counts of this datastore (see {@link #getEntityCacheMetrics()}) with the platform MBean server, as {@code
+   * com.google.code.morphia:type=EntityCache,database=<name>}, and returns that name.
+   */
+  public ObjectName registerEntityCacheMBean() {
+    try {
+      final ObjectName name = new ObjectName("com.google.code.morphia:type=EntityCache,database=" + ObjectName.quote(db.getName()));
+      ManagementFactory.getPlatformMBeanServer().registerMBean(cacheCounters, name);
+      return name;
+    } catch (JMException e) {
+      throw new RuntimeException("Could not register the entity cache MBean", e);
+    }
   }
 
   /**
@@ -1336,7 +1798,54 @@ public class DatastoreImpl implements AdvancedDatastore {
     return decoderFactory;
   }
 
+  /**
+   * Returns the most ids {@link #getByKeys}, {@link #getKeysByRefs} and the reference batches of query results send in one query (see
+   * {@link com.google.code.morphia.mapping.MapperOptions#maxIdsPerQuery})
+   */
+  public int getMaxIdsPerQuery() {
+    return mapper.getOptions().maxIdsPerQuery;
+  }
+
+  /**
+   * Sets the most ids {@link #getByKeys}, {@link #getKeysByRefs} and the reference batches of query results send in one query; larger
+   * lists are split in several queries (0 sends all the ids of a collection in one). It is an option of the mapper, so it applies to the
+   * other datastores of the mapper too.
+   */
+  public void setMaxIdsPerQuery(final int maxIdsPerQuery) {
+    mapper.getOptions().maxIdsPerQuery = maxIdsPerQuery;
+  }
+
+  public ExecutorService getQueryExecutor() {
+    return queryExecutor;
+  }
+
+  /**
+   * Sets the executor (a bounded pool, say) to run the queries of {@link #getByKeys} and {@link #getKeysByRefs} concurrently; they are
+   * run one after the other, by the calling thread, if it is null (the default).
+   */
+  public void setQueryExecutor(final ExecutorService queryExecutor) {
+    this.queryExecutor = queryExecutor;
+  }
+
+  public ExecutorService getMappingExecutor() {
+    return mappingExecutor;
+  }
+
+  /**
+   * Sets the executor which maps the chunks of {@link com.google.code.morphia.query.Query#asList(int)}, besides the calling thread; a
+   * pool shared by all datastores (of a daemon thread per processor) is used if it is null (the default). It must not be the query
+   * executor, nor a bounded pool the callers of asList run on: the caller waits for the chunks, so a pool busy with callers would never
+   * get to them. It also runs the workers of pipelined queries (see {@link com.google.code.morphia.query.Query#pipelined(int)}), each of
+   * which holds a thread until its iterator is done or closed, so a bounded pool needs room for them.
+   */
+  public void setMappingExecutor(final ExecutorService mappingExecutor) {
+    this.mappingExecutor = mappingExecutor;
+  }
+
   public DBDecoderFactory getDecoderFact() {
-    return decoderFactory != null ? decoderFactory : DefaultDBDecoder.FACTORY;
+    if (decoderFactory != null) {
+      return decoderFactory;
+    }
+    return mapper.getOptions().directDecoding ? EntityDBDecoder.FACTORY : DefaultDBDecoder.FACTORY;
   }
 }
@@ -61,7 +61,7 @@ public class Morphia {
     if (entityClasses != null && entityClasses.length > 0) {
       for (final Class entityClass : entityClasses) {
         if (!mapper.isMapped(entityClass)) {
-          mapper.addMappedClass(entityClass);
+          mapper.getConverters().resolveConverters(mapper.addMappedClass(entityClass));
         }
       }
     }
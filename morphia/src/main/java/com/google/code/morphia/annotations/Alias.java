@@ -0,0 +1,25 @@
+package com.google.code.morphia.annotations;
+
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+import com.google.code.morphia.mapping.Mapper;
+
+
+/**
+ * <p>A short name stored in the {@link Mapper#CLASS_NAME_FIELDNAME} field instead of the fully qualified class name of an {@link Entity}
+ * or {@link Embedded} class.</p>
+ * <p/>
+ * <p>Aliases are not inherited; each subclass declares its own. An alias is only known to a {@link Mapper} once the class has been mapped,
+ * so map aliased classes up front (like {@link Entity}s with indexes). Documents which still have the class name keep loading.</p>
+ */
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+@Target({ ElementType.TYPE })
+public @interface Alias {
+  String value();
+}
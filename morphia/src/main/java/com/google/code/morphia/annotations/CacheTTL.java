@@ -0,0 +1,26 @@
+package com.google.code.morphia.annotations;
+
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Inherited;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * <p>How long the documents of an {@link Entity} are kept in the second level cache (see {@link
+ * com.google.code.morphia.mapping.MapperOptions#secondLevelCache}); without it (or with a value of 0 or less) they are kept until they
+ * are evicted or invalidated.</p>
+ */
+@Documented
+@Inherited
+@Retention(RetentionPolicy.RUNTIME)
+@Target({ ElementType.TYPE })
+public @interface CacheTTL {
+  long value();
+
+  TimeUnit unit() default TimeUnit.SECONDS;
+}
@@ -58,4 +58,26 @@ public @interface Reference {
    * Create a proxy around the reference which will be resolved on the first method call.
    */
   boolean lazy() default false;
+
+  /**
+   * Store only the id of each referenced entity instead of a {@link com.mongodb.DBRef}; the collection is the one of the declared type (so
+   * the referenced entities cannot be stored in other collections). Either format is read, so existing documents need not be migrated.
+   */
+  boolean idOnly() default false;
+
+  /**
+   * The (java or stored) names of the fields of the referenced entities to fetch; all of them, if none. The entities loaded with only
+   * some of their fields are marked as partial (see {@link Mapper#isPartial(Object)}) and cannot be saved. A query can fetch other
+   * fields instead (see {@link com.google.code.morphia.query.Query#referenceFields(String, String...)}). Lazy references are fetched
+   * whole when used, unless prefetched.
+   */
+  String[] fields() default {};
+
+  /**
+   * The (java) names of the fields of the referenced entities to keep a copy of in the referencing document, next to the reference (in
+   * {@code <name>_snapshot}); the references are then loaded from those copies, as partial entities, without being fetched. Only single
+   * references and collections of them have snapshots. See {@link com.google.code.morphia.Datastore#updateSnapshots(Object)} to keep them
+   * up to date.
+   */
+  String[] snapshot() default {};
 }
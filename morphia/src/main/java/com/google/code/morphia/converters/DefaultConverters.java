@@ -9,6 +9,7 @@ import java.util.concurrent.ConcurrentHashMap;
 
 import com.google.code.morphia.logging.Logr;
 import com.google.code.morphia.logging.MorphiaLoggerFactory;
+import com.google.code.morphia.mapping.MappedClass;
 import com.google.code.morphia.mapping.MappedField;
 import com.google.code.morphia.mapping.Mapper;
 import com.google.code.morphia.mapping.MapperOptions;
@@ -32,6 +33,10 @@ public class DefaultConverters {
   private final List<Class<? extends TypeConverter>> registeredConverterClasses = new LinkedList<Class<? extends TypeConverter>>();
 
   private Mapper mapper;
+  // changed whenever converters are added/removed
+  private volatile int version;
+  // the converters found so far; replaced whenever converters are added/removed
+  private volatile ResolvedConverters resolved = new ResolvedConverters();
 
   public DefaultConverters() {
     // some converters are commented out since the pass-through converter is enabled, at the end of the list.
@@ -83,6 +88,7 @@ public class DefaultConverters {
     tc.setMapper(mapper);
 
     registeredConverterClasses.add(tc.getClass());
+    converterChanged();
     return tc;
   }
 
@@ -105,6 +111,43 @@ public class DefaultConverters {
     }
 
     registeredConverterClasses.remove(tc.getClass());
+    converterChanged();
+  }
+
+  private void converterChanged() {
+    version++;
+    resolved = new ResolvedConverters();
+  }
+
+  /**
+   * Finds (and caches) the converters for the persisted fields of the class, and for the values of its collection/map fields, so they
+   * are not looked up while (de)coding entities.
+   */
+  public void resolveConverters(final MappedClass mc) {
+    for (final MappedField mf : mc.getPersistenceFields()) {
+      try {
+        getEncoder((Class) null, mf);
+        if (mf.getSubClass() != null) {
+          getEncoder(mf.getSubClass());
+        }
+      } catch (ConverterNotFoundException e) {
+        // reported when a value of the field is converted
+      }
+    }
+  }
+
+  /**
+   * @return true if the converter for the field (see {@link #resolveConverters(MappedClass)}) is cached
+   */
+  boolean isResolved(final MappedField mf) {
+    return resolved.byField.containsKey(new FieldKey(null, mf));
+  }
+
+  /**
+   * Returns a number which changes each time a converter is added or removed; used to know if resolved converters are still valid.
+   */
+  public int getVersion() {
+    return version;
   }
 
   public boolean isRegistered(final Class<? extends TypeConverter> tcClass) {
@@ -123,11 +166,18 @@ public class DefaultConverters {
   }
 
   public void fromDBObject(final DBObject dbObj, final MappedField mf, final Object targetEntity) {
+    fromDBObject(dbObj, mf, targetEntity, null);
+  }
+
+  /**
+   * Decodes the value for the field, using the given converter (see {@link #getDecoder(MappedField)}) or, if null, the one registered.
+   */
+  public void fromDBObject(final DBObject dbObj, final MappedField mf, final Object targetEntity, final TypeConverter decoder) {
     final Object object = mf.getDbObjectValue(dbObj);
     if (object == null) {
       processMissingField(mf);
     } else {
-      final TypeConverter enc = getEncoder(mf);
+      final TypeConverter enc = decoder != null ? decoder : getEncoder(mf);
       final Object decodedValue = enc.decode(mf.getType(), object, mf);
       try {
         mf.setFieldValue(targetEntity, decodedValue);
@@ -143,63 +193,104 @@ public class DefaultConverters {
   }
 
   private TypeConverter getEncoder(final MappedField mf) {
-    return getEncoder(null, mf);
+    return getEncoder((Class) null, mf);
   }
 
-  private TypeConverter getEncoder(final Object val, final MappedField mf) {
-
-    List<TypeConverter> tcs = null;
+  /**
+   * Returns the converter used to decode values of the field; only valid until converters are added/removed (see {@link #getVersion()})
+   */
+  public TypeConverter getDecoder(final MappedField mf) {
+    return getEncoder(mf);
+  }
 
-    if (val != null) {
-      tcs = tcMap.get(val.getClass());
-    }
+  private TypeConverter getEncoder(final Object val, final MappedField mf) {
+    return getEncoder(val == null ? null : val.getClass(), mf);
+  }
 
-    if (tcs == null || (!tcs.isEmpty() && tcs.get(0) instanceof PassthroughConverter)) {
-      tcs = tcMap.get(mf.getType());
+  private TypeConverter getEncoder(final Class c) {
+    final ResolvedConverters r = resolved;
+    TypeConverter tc = r.byClass.get(c);
+    if (tc == null) {
+      tc = findEncoder(c);
+      r.byClass.put(c, tc);
     }
+    return tc;
+  }
 
+  private TypeConverter findEncoder(final Class c) {
+    final List<TypeConverter> tcs = tcMap.get(c);
     if (tcs != null) {
       if (tcs.size() > 1) {
-        LOG.warning("Duplicate converter for " + mf.getType() + ", returning first one from " + tcs);
+        LOG.warning("Duplicate converter for " + c + ", returning first one from " + tcs);
       }
       return tcs.get(0);
     }
 
     for (final TypeConverter tc : untypedTypeEncoders) {
-      if (tc.canHandle(mf) || (val != null && tc.isSupported(val.getClass(), mf))) {
+      if (tc.canHandle(c)) {
         return tc;
       }
     }
 
-    throw new ConverterNotFoundException("Cannot find encoder for " + mf.getType() + " as need for " + mf.getFullName());
+    throw new ConverterNotFoundException("Cannot find encoder for " + c.getName());
   }
 
-  private TypeConverter getEncoder(final Class c) {
-    final List<TypeConverter> tcs = tcMap.get(c);
+  public void toDBObject(final Object containingObject, final MappedField mf, final DBObject dbObj, final MapperOptions opts) {
+    final Object encoded = encodeFieldValue(containingObject, mf);
+    if (encoded != null || opts.storeNulls) {
+      dbObj.put(mf.getNameToStore(), encoded);
+    }
+  }
+
+  /**
+   * Returns the encoded value of the field, as it is stored by {@link #toDBObject(Object, MappedField, DBObject, MapperOptions)}
+   */
+  public Object encodeFieldValue(final Object containingObject, final MappedField mf) {
+    final Object fieldValue = mf.getFieldValue(containingObject);
+    final TypeConverter enc = getEncoder(fieldValue, mf);
+
+    return enc.encode(fieldValue, mf);
+  }
+
+  /**
+   * Returns the converter used to encode values of the given class for the field; see {@link #getDecoder(MappedField)}
+   */
+  public TypeConverter getEncoder(final Class valueClass, final MappedField mf) {
+    final ResolvedConverters r = resolved;
+    final FieldKey key = new FieldKey(valueClass, mf);
+    TypeConverter tc = r.byField.get(key);
+    if (tc == null) {
+      tc = findEncoder(valueClass, mf);
+      r.byField.put(key, tc);
+    }
+    return tc;
+  }
+
+  private TypeConverter findEncoder(final Class valueClass, final MappedField mf) {
+    List<TypeConverter> tcs = null;
+
+    if (valueClass != null) {
+      tcs = tcMap.get(valueClass);
+    }
+
+    if (tcs == null || (!tcs.isEmpty() && tcs.get(0) instanceof PassthroughConverter)) {
+      tcs = tcMap.get(mf.getType());
+    }
+
     if (tcs != null) {
       if (tcs.size() > 1) {
-        LOG.warning("Duplicate converter for " + c + ", returning first one from " + tcs);
+        LOG.warning("Duplicate converter for " + mf.getType() + ", returning first one from " + tcs);
       }
       return tcs.get(0);
     }
 
     for (final TypeConverter tc : untypedTypeEncoders) {
-      if (tc.canHandle(c)) {
+      if (tc.canHandle(mf) || (valueClass != null && tc.isSupported(valueClass, mf))) {
         return tc;
       }
     }
 
-    throw new ConverterNotFoundException("Cannot find encoder for " + c.getName());
-  }
-
-  public void toDBObject(final Object containingObject, final MappedField mf, final DBObject dbObj, final MapperOptions opts) {
-    final Object fieldValue = mf.getFieldValue(containingObject);
-    final TypeConverter enc = getEncoder(fieldValue, mf);
-
-    final Object encoded = enc.encode(fieldValue, mf);
-    if (encoded != null || opts.storeNulls) {
-      dbObj.put(mf.getNameToStore(), encoded);
-    }
+    throw new ConverterNotFoundException("Cannot find encoder for " + mf.getType() + " as need for " + mf.getFullName());
   }
 
   public Object decode(final Class c, final Object fromDBObject, final MappedField mf) {
@@ -268,4 +359,42 @@ public class DefaultConverters {
     final TypeConverter converter = getEncoder(c);
     return converter != null && !(converter instanceof PassthroughConverter) && !(converter instanceof SimpleValueConverter);
   }
+
+  /**
+   * The converters found for classes and fields, for one set of registered converters.
+   */
+  private static class ResolvedConverters {
+    private final Map<Class, TypeConverter> byClass = new ConcurrentHashMap<Class, TypeConverter>();
+    private final Map<FieldKey, TypeConverter> byField = new ConcurrentHashMap<FieldKey, TypeConverter>();
+  }
+
+  /**
+   * A (value class, field) pair, for one version of the annotations of the field (which converters can check); the value class may be
+   * null.
+   */
+  private static class FieldKey {
+    private final Class valueClass;
+    private final MappedField mf;
+    private final int metadataVersion;
+
+    FieldKey(final Class valueClass, final MappedField mf) {
+      this.valueClass = valueClass;
+      this.mf = mf;
+      metadataVersion = mf.getMetadataVersion();
+    }
+
+    @Override
+    public boolean equals(final Object o) {
+      if (!(o instanceof FieldKey)) {
+        return false;
+      }
+      final FieldKey other = (FieldKey) o;
+      return mf == other.mf && valueClass == other.valueClass && metadataVersion == other.metadataVersion;
+    }
+
+    @Override
+    public int hashCode() {
+      return 31 * System.identityHashCode(mf) + (valueClass == null ? 0 : valueClass.hashCode());
+    }
+  }
 }
@@ -0,0 +1,374 @@
+package com.google.code.morphia.mapping;
+
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import com.google.code.morphia.annotations.Embedded;
+import com.google.code.morphia.annotations.NotSaved;
+import com.google.code.morphia.annotations.PostPersist;
+import com.google.code.morphia.annotations.PrePersist;
+import com.google.code.morphia.annotations.PreSave;
+import com.google.code.morphia.annotations.Property;
+import com.google.code.morphia.annotations.Reference;
+import com.google.code.morphia.annotations.Serialized;
+import com.google.code.morphia.converters.BooleanConverter;
+import com.google.code.morphia.converters.ConverterNotFoundException;
+import com.google.code.morphia.converters.DefaultConverters;
+import com.google.code.morphia.converters.DoubleConverter;
+import com.google.code.morphia.converters.IntegerConverter;
+import com.google.code.morphia.converters.LongConverter;
+import com.google.code.morphia.converters.TypeConverter;
+import com.google.code.morphia.logging.Logr;
+import com.google.code.morphia.logging.MorphiaLoggerFactory;
+import com.google.code.morphia.mapping.cache.EntityCache;
+import com.google.code.morphia.mapping.lazy.LazyFeatureDependencies;
+import com.mongodb.DBObject;
+
+
+/**
+ * The (immutable) steps needed to write/read the fields of a {@link MappedClass}; which {@link CustomMapper} handles each field, and for
+ * simple values, the {@link TypeConverter} used to decode it. The decisions are made once, instead of per field per entity.
+ * <p/>
+ * A plan is only used while the metadata it was built from is current (see {@link #isCurrent()}): the mapped fields and annotations, the
+ * registered converters and the {@link MapperOptions} of the {@link Mapper}. {@link MappedClass#getCodecPlan()} rebuilds it otherwise.
+ */
+final class CodecPlan {
+  private static final Logr log = MorphiaLoggerFactory.get(CodecPlan.class);
+
+  // how a primitive field can be written without boxing (NONE: use the step's mapper)
+  private static final int NONE = 0;
+  private static final int INT = 1;
+  private static final int LONG = 2;
+  private static final int DOUBLE = 3;
+  private static final int BOOLEAN = 4;
+
+  private final MappedClass mc;
+  private final Mapper mapper;
+  private final FieldStep[] writeSteps;
+  private final FieldStep[] readSteps;
+  // the fields whose references ReferenceMapper loads eagerly/lazily, and the embedded fields (which may hold more); see ReferenceBatch
+  private final MappedField[] eagerReferenceFields;
+  private final MappedField[] lazyReferenceFields;
+  private final MappedField[] embeddedFields;
+  // whether reading may touch the EntityCache (anything but plain values can hold references); see Mapper.fromDb
+  private final boolean usesEntityCache;
+  // nothing but the encoder needs the DBObject of an entity; see Mapper.toEncodableDBObject
+  private final boolean encodable;
+
+  // the state this plan was built from
+  private final int metadataVersion;
+  private final int fieldsModCount;
+  private final int convertersVersion;
+  private final MapperOptions opts;
+
+  CodecPlan(final MappedClass mc, final Mapper mapper) {
+    this.mc = mc;
+    this.mapper = mapper;
+    metadataVersion = mc.getMetadataVersion();
+    fieldsModCount = mc.getPersistenceFieldsModCount();
+    convertersVersion = mapper.converters.getVersion();
+    opts = mapper.getOptions();
+
+    final List<FieldStep> writes = new ArrayList<FieldStep>();
+    final List<FieldStep> reads = new ArrayList<FieldStep>();
+    for (final MappedField mf : mc.getPersistenceFields()) {
+      if (!mf.hasAnnotation(NotSaved.class)) {
+        writes.add(createWriteStep(mf));
+      }
+      reads.add(createReadStep(mf));
+    }
+    writeSteps = writes.toArray(new FieldStep[writes.size()]);
+    readSteps = reads.toArray(new FieldStep[reads.size()]);
+
+    final List<MappedField> references = new ArrayList<MappedField>();
+    final List<MappedField> lazyReferences = new ArrayList<MappedField>();
+    final List<MappedField> embedded = new ArrayList<MappedField>();
+    boolean usesCache = !(opts.valueMapper instanceof ValueMapper);
+    for (final FieldStep step : readSteps) {
+      usesCache |= step.mapper != opts.valueMapper;
+      if (step.mapper == opts.referenceMapper && opts.referenceMapper instanceof ReferenceMapper) {
+        final Reference refAnn = step.mf.getAnnotation(Reference.class);
+        // LazyRef fields are fetched when used, unless prefetched (see FetchPlan)
+        if (!step.mf.isLazyRef() && (!refAnn.lazy() || !LazyFeatureDependencies.testDependencyFullFilled())) {
+          references.add(step.mf);
+        } else {
+          lazyReferences.add(step.mf);
+        }
+      } else if (step.mapper == opts.embeddedMapper && opts.embeddedMapper instanceof EmbeddedMapper) {
+        embedded.add(step.mf);
+      }
+    }
+    eagerReferenceFields = references.toArray(new MappedField[references.size()]);
+    lazyReferenceFields = lazyReferences.toArray(new MappedField[lazyReferences.size()]);
+    embeddedFields = embedded.toArray(new MappedField[embedded.size()]);
+    usesEntityCache = usesCache;
+
+    encodable = !mc.hasLifecycleMethods(PrePersist.class) && !mc.hasLifecycleMethods(PreSave.class)
+      && !mc.hasLifecycleMethods(PostPersist.class) && mc.getMappedVersionField() == null;
+  }
+
+  /**
+   * @return true if nothing this plan depends on has changed since it was built
+   */
+  boolean isCurrent() {
+    return metadataVersion == mc.getMetadataVersion()
+      && fieldsModCount == mc.getPersistenceFieldsModCount()
+      && convertersVersion == mapper.converters.getVersion()
+      && opts == mapper.getOptions();
+  }
+
+  private FieldStep createWriteStep(final MappedField mf) {
+    final DefaultConverters converters = mapper.converters;
+    // same order as the annotations were checked for each write: Property, Embedded, Serialized, Reference
+    final boolean isValue;
+    final CustomMapper other;
+    if (mf.hasAnnotation(Property.class)) {
+      isValue = true;
+      other = null;
+    } else if (mf.hasAnnotation(Embedded.class)) {
+      isValue = mf.isTypeMongoCompatible() || converters.hasSimpleValueConverter(mf);
+      other = opts.embeddedMapper;
+    } else if (mf.hasAnnotation(Serialized.class)) {
+      isValue = true;
+      other = null;
+    } else if (mf.hasAnnotation(Reference.class)) {
+      isValue = mf.isTypeMongoCompatible() || converters.hasSimpleValueConverter(mf);
+      other = opts.referenceMapper;
+    } else {
+      isValue = mf.isTypeMongoCompatible() || converters.hasSimpleValueConverter(mf);
+      other = opts.defaultMapper;
+      if (!isValue) {
+        log.debug("No annotation was found, using default mapper " + opts.defaultMapper + " for " + mf);
+      }
+    }
+
+    if (isValue) {
+      return new FieldStep(mf, opts.valueMapper, null, false, getPrimitive(mf));
+    }
+    // the runtime value may still have a simple converter
+    return new FieldStep(mf, other, null, true, NONE);
+  }
+
+  /**
+   * Primitive fields can be written as they are if their converter is the default one (which doesn't change the value)
+   */
+  private int getPrimitive(final MappedField mf) {
+    final Class type = mf.getType();
+    if (!type.isPrimitive() || mf.hasAnnotation(Serialized.class) || !(opts.valueMapper instanceof ValueMapper)) {
+      return NONE;
+    }
+
+    final DefaultConverters converters = mapper.converters;
+    try {
+      if (type == int.class && converters.getEncoder(Integer.class, mf).getClass() == IntegerConverter.class) {
+        return INT;
+      } else if (type == long.class && converters.getEncoder(Long.class, mf).getClass() == LongConverter.class) {
+        return LONG;
+      } else if (type == double.class && converters.getEncoder(Double.class, mf).getClass() == DoubleConverter.class) {
+        return DOUBLE;
+      } else if (type == boolean.class && converters.getEncoder(Boolean.class, mf).getClass() == BooleanConverter.class) {
+        return BOOLEAN;
+      }
+    } catch (ConverterNotFoundException e) {
+      // not a simple value after all
+    }
+    return NONE;
+  }
+
+  private FieldStep createReadStep(final MappedField mf) {
+    final DefaultConverters converters = mapper.converters;
+    if (mf.hasAnnotation(Property.class) || mf.hasAnnotation(Serialized.class) || mf.isTypeMongoCompatible()
+      || converters.hasSimpleValueConverter(mf)) {
+      TypeConverter decoder = null;
+      if (opts.valueMapper instanceof ValueMapper) {
+        try {
+          decoder = converters.getDecoder(mf);
+        } catch (ConverterNotFoundException e) {
+          // resolved (and reported) when a value is read
+        }
+      }
+      return new FieldStep(mf, opts.valueMapper, decoder, false, NONE);
+    } else if (mf.hasAnnotation(Embedded.class)) {
+      return new FieldStep(mf, opts.embeddedMapper, null, false, NONE);
+    } else if (mf.hasAnnotation(Reference.class)) {
+      return new FieldStep(mf, opts.referenceMapper, null, false, NONE);
+    } else {
+      return new FieldStep(mf, opts.defaultMapper, null, false, NONE);
+    }
+  }
+
+  /**
+   * Writes all the (saved) fields of the entity into the dbObject
+   */
+  void write(final Object entity, final DBObject dbObject, final Map<Object, DBObject> involvedObjects) {
+    for (final FieldStep step : writeSteps) {
+      write(step, entity, dbObject, involvedObjects);
+    }
+  }
+
+  /**
+   * Writes only the field of the entity into the dbObject
+   */
+  void write(final MappedField mf, final Object entity, final DBObject dbObject) {
+    for (final FieldStep step : writeSteps) {
+      if (step.mf == mf) {
+        write(step, entity, dbObject, null);
+      }
+    }
+  }
+
+  /**
+   * Writes only the id field of the entity into the dbObject
+   */
+  void writeId(final Object entity, final DBObject dbObject, final Map<Object, DBObject> involvedObjects) {
+    for (final FieldStep step : writeSteps) {
+      if (step.isId) {
+        write(step, entity, dbObject, involvedObjects);
+      }
+    }
+  }
+
+  private void write(final FieldStep step, final Object entity, final DBObject dbObject, final Map<Object, DBObject> involvedObjects) {
+    try {
+      CustomMapper cm = step.mapper;
+      if (step.checkValue && mapper.converters.hasSimpleValueConverter(step.mf.getFieldValue(entity))) {
+        cm = opts.valueMapper;
+      }
+      cm.toDBObject(entity, step.mf, dbObject, involvedObjects, mapper);
+    } catch (Exception e) {
+      throw new MappingException("Error mapping field:" + step.mf.getFullName(), e);
+    }
+  }
+
+  /**
+   * Reads all the fields of the entity from the dbObject
+   */
+  void read(final DBObject dbObject, final Object entity, final EntityCache cache) {
+    for (final FieldStep step : readSteps) {
+      if (step.decoder != null) {
+        mapper.converters.fromDBObject(dbObject, step.mf, entity, step.decoder);
+      } else {
+        step.mapper.fromDBObject(dbObject, step.mf, entity, cache, mapper);
+      }
+    }
+  }
+
+  /**
+   * @return the (non-lazy) {@link Reference} fields which are resolved when an entity is read
+   */
+  MappedField[] getEagerReferenceFields() {
+    return eagerReferenceFields;
+  }
+
+  /**
+   * @return false if the fields are all plain values, which cannot reference an entity (or the entity itself)
+   */
+  boolean usesEntityCache() {
+    return usesEntityCache;
+  }
+
+  /**
+   * @return the lazy {@link Reference} fields and the {@link com.google.code.morphia.mapping.lazy.LazyRef} ones, which are not fetched when
+   *         an entity is read
+   */
+  MappedField[] getLazyReferenceFields() {
+    return lazyReferenceFields;
+  }
+
+  /**
+   * @return the fields read by the {@link EmbeddedMapper}
+   */
+  MappedField[] getEmbeddedFields() {
+    return embeddedFields;
+  }
+
+  /**
+   * @return true if the entities can be encoded by {@link EntityDBEncoder}; there are no lifecycle methods which get the DBObject, or
+   *         a version which is set on it
+   */
+  boolean isEncodable() {
+    return encodable;
+  }
+
+  /**
+   * Writes all the (saved) fields, except the id, of the entity to the encoder
+   */
+  void encode(final EntityDBEncoder encoder, final Object entity, final Map<Object, DBObject> involvedObjects) {
+    final boolean primitives = encoder.canWritePrimitives();
+    for (final FieldStep step : writeSteps) {
+      if (step.isId) {
+        continue;
+      }
+
+      if (primitives && step.primitive != NONE) {
+        final FieldAccessor accessor = step.mf.getFieldAccessor();
+        switch (step.primitive) {
+          case INT:
+            encoder.putInt(step.name, accessor.getInt(entity));
+            break;
+          case LONG:
+            encoder.putLong(step.name, accessor.getLong(entity));
+            break;
+          case DOUBLE:
+            encoder.putDouble(step.name, accessor.getDouble(entity));
+            break;
+          default:
+            encoder.putBoolean(step.name, accessor.getBoolean(entity));
+            break;
+        }
+        continue;
+      }
+
+      DBObject fieldDBObject = null;
+      Object value = null;
+      try {
+        CustomMapper cm = step.mapper;
+        if (step.checkValue && mapper.converters.hasSimpleValueConverter(step.mf.getFieldValue(entity))) {
+          cm = opts.valueMapper;
+        }
+        if (cm instanceof ValueMapper) {
+          value = mapper.converters.encodeFieldValue(entity, step.mf);
+        } else {
+          fieldDBObject = encoder.getFieldDBObject();
+          cm.toDBObject(entity, step.mf, fieldDBObject, involvedObjects, mapper);
+        }
+      } catch (Exception e) {
+        throw new MappingException("Error mapping field:" + step.mf.getFullName(), e);
+      }
+
+      if (fieldDBObject == null) {
+        if (value != null || opts.storeNulls) {
+          encoder.putField(step.name, value);
+        }
+      } else {
+        for (final String key : fieldDBObject.keySet()) {
+          encoder.putField(key, fieldDBObject.get(key));
+        }
+      }
+    }
+  }
+
+  private static final class FieldStep {
+    private final MappedField mf;
+    private final String name;
+    private final boolean isId;
+    private final CustomMapper mapper;
+    private final TypeConverter decoder;
+    // use the value mapper if the runtime value has a simple converter
+    private final boolean checkValue;
+    private final int primitive;
+
+    FieldStep(final MappedField mf, final CustomMapper mapper, final TypeConverter decoder, final boolean checkValue,
+      final int primitive) {
+      this.mf = mf;
+      this.mapper = mapper;
+      this.decoder = decoder;
+      this.checkValue = checkValue;
+      this.primitive = primitive;
+      name = mf.getNameToStore();
+      isId = Mapper.ID_KEY.equals(name);
+    }
+  }
+}
@@ -0,0 +1,251 @@
+package com.google.code.morphia.mapping;
+
+
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import org.bson.BSONObject;
+import com.mongodb.DBObject;
+import com.mongodb.util.JSON;
+
+
+/**
+ * A {@link DBObject} which keeps its fields in arrays (in insertion order) rather than a hash map; used by {@link EntityDBDecoder}
+ * for documents which are read once, field by field, by the {@link Mapper} and then thrown away.
+ * <p/>
+ * Small documents are searched linearly; once a document has more than a few fields, an open addressing table of the field indexes is
+ * kept as well, so that decoding (which looks each field up before adding it) and the lookups stay linear in the number of fields. Reads
+ * do not change any state, so a document which is no longer changed can be read by several threads.
+ */
+@SuppressWarnings({"unchecked", "rawtypes"})
+public class CompactDBObject implements DBObject {
+  private static final int INITIAL_CAPACITY = 8;
+  // the number of fields searched linearly, without the table
+  private static final int LINEAR_LIMIT = 8;
+
+  private String[] keys = new String[INITIAL_CAPACITY];
+  private int[] hashes = new int[INITIAL_CAPACITY];
+  private Object[] values = new Object[INITIAL_CAPACITY];
+  private int size;
+  // index + 1 of the fields, by hash (0 for a free slot); null while there are at most LINEAR_LIMIT fields
+  private int[] table;
+  private boolean partial;
+
+  private int indexOf(final String key) {
+    final int hash = key.hashCode();
+    if (table == null) {
+      for (int i = 0; i < size; i++) {
+        if (hashes[i] == hash && key.equals(keys[i])) {
+          return i;
+        }
+      }
+      return -1;
+    }
+    final int mask = table.length - 1;
+    for (int slot = spread(hash) & mask;; slot = (slot + 1) & mask) {
+      final int i = table[slot] - 1;
+      if (i < 0) {
+        return -1;
+      }
+      if (hashes[i] == hash && key.equals(keys[i])) {
+        return i;
+      }
+    }
+  }
+
+  private static int spread(final int hash) {
+    return hash ^ (hash >>> 16);
+  }
+
+  private void index(final int i) {
+    final int mask = table.length - 1;
+    int slot = spread(hashes[i]) & mask;
+    while (table[slot] != 0) {
+      slot = (slot + 1) & mask;
+    }
+    table[slot] = i + 1;
+  }
+
+  // (re)builds the table for the fields, or drops it if there are few enough to search linearly
+  private void reindex() {
+    if (size <= LINEAR_LIMIT) {
+      table = null;
+      return;
+    }
+    int capacity = table == null ? 32 : table.length;
+    while (capacity < size * 2) {
+      capacity *= 2;
+    }
+    table = new int[capacity];
+    for (int i = 0; i < size; i++) {
+      index(i);
+    }
+  }
+
+  public Object put(final String key, final Object v) {
+    final int i = indexOf(key);
+    if (i >= 0) {
+      final Object old = values[i];
+      values[i] = v;
+      return old;
+    }
+    if (size == keys.length) {
+      final String[] newKeys = new String[size * 2];
+      final int[] newHashes = new int[size * 2];
+      final Object[] newValues = new Object[size * 2];
+      System.arraycopy(keys, 0, newKeys, 0, size);
+      System.arraycopy(hashes, 0, newHashes, 0, size);
+      System.arraycopy(values, 0, newValues, 0, size);
+      keys = newKeys;
+      hashes = newHashes;
+      values = newValues;
+    }
+    keys[size] = key;
+    hashes[size] = key.hashCode();
+    values[size] = v;
+    size++;
+    if (table != null && size * 2 <= table.length) {
+      index(size - 1);
+    } else if (size > LINEAR_LIMIT) {
+      reindex();
+    }
+    return null;
+  }
+
+  public void putAll(final BSONObject o) {
+    for (final String key : o.keySet()) {
+      put(key, o.get(key));
+    }
+  }
+
+  public void putAll(final Map m) {
+    for (final Map.Entry entry : (Set<Map.Entry>) m.entrySet()) {
+      put(entry.getKey().toString(), entry.getValue());
+    }
+  }
+
+  public Object get(final String key) {
+    final int i = indexOf(key);
+    return i < 0 ? null : values[i];
+  }
+
+  public Map toMap() {
+    final Map<String, Object> map = new LinkedHashMap<String, Object>();
+    for (int i = 0; i < size; i++) {
+      map.put(keys[i], values[i]);
+    }
+    return map;
+  }
+
+  public Object removeField(final String key) {
+    final int i = indexOf(key);
+    if (i < 0) {
+      return null;
+    }
+    final Object old = values[i];
+    remove(i);
+    return old;
+  }
+
+  private void remove(final int i) {
+    final int moved = size - i - 1;
+    if (moved > 0) {
+      System.arraycopy(keys, i + 1, keys, i, moved);
+      System.arraycopy(hashes, i + 1, hashes, i, moved);
+      System.arraycopy(values, i + 1, values, i, moved);
+    }
+    size--;
+    keys[size] = null;
+    values[size] = null;
+    if (table != null) {
+      reindex();
+    }
+  }
+
+  @Deprecated
+  public boolean containsKey(final String s) {
+    return containsField(s);
+  }
+
+  public boolean containsField(final String s) {
+    return indexOf(s) >= 0;
+  }
+
+  public Set<String> keySet() {
+    return new KeySet();
+  }
+
+  public void markAsPartialObject() {
+    partial = true;
+  }
+
+  public boolean isPartialObject() {
+    return partial;
+  }
+
+  /**
+   * Returns the number of fields.
+   */
+  public int size() {
+    return size;
+  }
+
+  @Override
+  public boolean equals(final Object o) {
+    return o instanceof BSONObject && toMap().equals(((BSONObject) o).toMap());
+  }
+
+  @Override
+  public int hashCode() {
+    return toMap().hashCode();
+  }
+
+  @Override
+  public String toString() {
+    return JSON.serialize(this);
+  }
+
+  private class KeySet extends AbstractSet<String> {
+    @Override
+    public Iterator<String> iterator() {
+      return new Iterator<String>() {
+        private int next;
+        private boolean canRemove;
+
+        public boolean hasNext() {
+          return next < size;
+        }
+
+        public String next() {
+          if (next >= size) {
+            throw new NoSuchElementException();
+          }
+          canRemove = true;
+          return keys[next++];
+        }
+
+        public void remove() {
+          if (!canRemove) {
+            throw new IllegalStateException();
+          }
+          canRemove = false;
+          CompactDBObject.this.remove(--next);
+        }
+      };
+    }
+
+    @Override
+    public int size() {
+      return size;
+    }
+
+    @Override
+    public boolean contains(final Object o) {
+      return o instanceof String && containsField((String) o);
+    }
+  }
+}
@@ -1,14 +1,21 @@
 package com.google.code.morphia.mapping;
 
 
+import java.lang.ref.Reference;
+import java.lang.ref.SoftReference;
+import java.lang.ref.WeakReference;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationTargetException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import com.google.code.morphia.ObjectFactory;
 import com.google.code.morphia.annotations.ConstructorArgs;
@@ -24,11 +31,53 @@ import com.mongodb.DBObject;
 public class DefaultCreator implements ObjectFactory {
   private static final Logr log = MorphiaLoggerFactory.get(DefaultCreator.class);
 
+  /**
+   * The classes and constructors cached for a class loader, by class name. The classes are held weakly and the constructors softly (they
+   * refer to their class), so that (webapp) class loaders can still be collected.
+   */
+  private static final class LoaderCache {
+    private final Reference<ClassLoader> loader;
+    private final ConcurrentMap<String, Reference<Class>> classes = new ConcurrentHashMap<String, Reference<Class>>();
+    private final ConcurrentMap<String, Reference<Constructor>> noArgsConstructors
+      = new ConcurrentHashMap<String, Reference<Constructor>>();
+
+    LoaderCache(final ClassLoader loader) {
+      this.loader = new WeakReference<ClassLoader>(loader);
+    }
+  }
+
+  // only looked at when the loader is not the one of the last cache used
+  private final Map<ClassLoader, LoaderCache> loaderCaches = Collections.synchronizedMap(new WeakHashMap<ClassLoader, LoaderCache>());
+  private volatile LoaderCache lastLoaderCache;
+
+  private LoaderCache getLoaderCache(final ClassLoader loader) {
+    LoaderCache cache = lastLoaderCache;
+    if (cache != null && cache.loader.get() == loader) {
+      return cache;
+    }
+    synchronized (loaderCaches) {
+      cache = loaderCaches.get(loader);
+      if (cache == null) {
+        cache = new LoaderCache(loader);
+        loaderCaches.put(loader, cache);
+      }
+    }
+    lastLoaderCache = cache;
+    return cache;
+  }
+
   /* (non-Javadoc)
    * @see com.google.code.morphia.ObjectFactory#createInstance(java.lang.Class)
    */
   public Object createInstance(final Class clazz) {
-    return createInst(clazz);
+    final ConcurrentMap<String, Reference<Constructor>> constructors = getLoaderCache(clazz.getClassLoader()).noArgsConstructors;
+    final Reference<Constructor> ref = constructors.get(clazz.getName());
+    Constructor constructor = ref == null ? null : ref.get();
+    if (constructor == null) {
+      constructor = getNoArgsConstructor(clazz);
+      constructors.put(clazz.getName(), new SoftReference<Constructor>(constructor));
+    }
+    return newInstance(constructor);
   }
 
   /* (non-Javadoc)
@@ -46,12 +95,15 @@ public class DefaultCreator implements ObjectFactory {
    * @see com.google.code.morphia.ObjectFactory#createInstance(com.google.code.morphia.mapping.Mapper, com.google.code.morphia.mapping.MappedField, com.mongodb.DBObject)
    */
   public Object createInstance(final Mapper mapper, final MappedField mf, final DBObject dbObj) {
-    Class c = getClass(dbObj);
+    Class c = mapper.getAliasedClass(dbObj);
+    if (c == null) {
+      c = getClass(dbObj);
+    }
     if (c == null) {
-      c = mf.isSingleValue ? mf.getConcreteType() : mf.getSubClass();
+      c = mf.isSingleValue && !mf.isLazyRef ? mf.getConcreteType() : mf.getSubClass();
     }
     try {
-      return createInstance(c, dbObj);
+      return createInstance(c);
     } catch (RuntimeException e) {
       final ConstructorArgs argAnn = mf.getAnnotation(ConstructorArgs.class);
       if (argAnn == null) {
@@ -79,18 +131,31 @@ public class DefaultCreator implements ObjectFactory {
   private Class getClass(final DBObject dbObj) {
     // see if there is a className value
     final String className = (String) dbObj.get(Mapper.CLASS_NAME_FIELDNAME);
-    Class c = null;
-    if (className != null) {
-      // try to Class.forName(className) as defined in the dbObject first,
-      // otherwise return the entityClass
-      try {
-        c = Class.forName(className, true, getClassLoaderForClass(className, dbObj));
-      } catch (ClassNotFoundException e) {
-        if (log.isWarningEnabled()) {
-          log.warning("Class not found defined in dbObj: ", e);
-        }
+    if (className == null) {
+      return null;
+    }
+
+    // try to Class.forName(className) as defined in the dbObject first,
+    // otherwise return the entityClass
+    // names which could not be loaded are not cached, since the class may turn up later
+    final ClassLoader loader = getClassLoaderForClass(className, dbObj);
+    final ConcurrentMap<String, Reference<Class>> classes = getLoaderCache(loader).classes;
+    final Reference<Class> ref = classes.get(className);
+    final Class cached = ref == null ? null : ref.get();
+    if (cached != null) {
+      return cached;
+    }
+
+    final Class c;
+    try {
+      c = Class.forName(className, true, loader);
+    } catch (ClassNotFoundException e) {
+      if (log.isWarningEnabled()) {
+        log.warning("Class not found defined in dbObj: ", e);
       }
+      return null;
     }
+    classes.put(className, new WeakReference<Class>(c));
     return c;
   }
 
@@ -121,8 +186,12 @@ public class DefaultCreator implements ObjectFactory {
 
 
   public static Object createInst(final Class clazz) {
+    return newInstance(getNoArgsConstructor(clazz));
+  }
+
+  private static Object newInstance(final Constructor constructor) {
     try {
-      return getNoArgsConstructor(clazz).newInstance();
+      return constructor.newInstance();
     } catch (InstantiationException e) {
       throw new RuntimeException(e.getMessage(), e);
     } catch (InvocationTargetException e) {
@@ -136,8 +205,8 @@ public class DefaultCreator implements ObjectFactory {
    * creates an instance of testType (if it isn't Object.class or null) or fallbackType
    */
   private static Object newInstance(final Constructor tryMe, final Class fallbackType) {
+    // made accessible by the MappedField
     if (tryMe != null) {
-      tryMe.setAccessible(true);
       try {
         return tryMe.newInstance();
       } catch (Exception e) {
@@ -0,0 +1,74 @@
+package com.google.code.morphia.mapping;
+
+
+import java.util.List;
+
+import org.bson.BSONObject;
+import com.mongodb.BasicDBList;
+import com.mongodb.DBCallback;
+import com.mongodb.DBCollection;
+import com.mongodb.DBDecoder;
+import com.mongodb.DBDecoderFactory;
+import com.mongodb.DefaultDBCallback;
+import com.mongodb.DefaultDBDecoder;
+
+
+/**
+ * A {@link DBDecoder} for query results which are going to be mapped to entities: documents are decoded to {@link CompactDBObject}s
+ * instead of {@link com.mongodb.BasicDBObject}s (so no hash map is built per document), and the decoding callback is reused for all the
+ * documents of a cursor.
+ * <p/>
+ * Collections which have their own object class ({@link DBCollection#setObjectClass(Class)}) are decoded like the {@link
+ * DefaultDBDecoder} does.
+ */
+public class EntityDBDecoder extends DefaultDBDecoder {
+  public static final DBDecoderFactory FACTORY = new Factory();
+
+  private EntityDBCallback callback;
+
+  @Override
+  public DBCallback getDBCallback(final DBCollection collection) {
+    if (collection != null && collection.getObjectClass() != null) {
+      return super.getDBCallback(collection);
+    }
+    if (callback == null || callback.collection != collection) {
+      callback = new EntityDBCallback(collection);
+    }
+    return callback;
+  }
+
+  @Override
+  public String toString() {
+    return getClass().getSimpleName();
+  }
+
+  private static class EntityDBCallback extends DefaultDBCallback {
+    private final DBCollection collection;
+
+    EntityDBCallback(final DBCollection collection) {
+      super(collection);
+      this.collection = collection;
+    }
+
+    @Override
+    public BSONObject create() {
+      return new CompactDBObject();
+    }
+
+    @Override
+    public BSONObject create(final boolean array, final List<String> path) {
+      return array ? new BasicDBList() : new CompactDBObject();
+    }
+  }
+
+  private static class Factory implements DBDecoderFactory {
+    public DBDecoder create() {
+      return new EntityDBDecoder();
+    }
+
+    @Override
+    public String toString() {
+      return "EntityDBDecoder.Factory";
+    }
+  }
+}
@@ -0,0 +1,185 @@
+package com.google.code.morphia.mapping;
+
+
+import java.util.List;
+import java.util.Map;
+
+import org.bson.BSON;
+import org.bson.BSONObject;
+import org.bson.LazyDBList;
+import org.bson.io.OutputBuffer;
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBEncoder;
+import com.mongodb.DBEncoderFactory;
+import com.mongodb.DBObject;
+import com.mongodb.DefaultDBEncoder;
+import com.mongodb.LazyDBObject;
+
+
+/**
+ * A {@link DBEncoder} which writes {@link EntityDBObject}s straight from the entity to BSON, using the {@link MappedClass} metadata and
+ * the converters; other {@link DBObject}s (queries, for example) are encoded like the {@link DefaultDBEncoder} does.
+ * <p/>
+ * Simple values (and primitives, without boxing) are written as they are read from the entity; embedded, reference and other complex
+ * fields are mapped by their {@link CustomMapper} and the result is written. Because the driver can't check the keys of an {@link
+ * EntityDBObject}, this encoder does the same checks (no '.' and no leading '$') while writing.
+ * <p/>
+ * The {@link #FACTORY} hands out one (reusable) encoder per thread.
+ */
+@SuppressWarnings({"unchecked", "rawtypes"})
+public class EntityDBEncoder extends DefaultDBEncoder {
+  public static final DBEncoderFactory FACTORY = new Factory();
+
+  private static final Integer INT_PROBE = 0;
+  private static final Long LONG_PROBE = 0L;
+  private static final Double DOUBLE_PROBE = 0d;
+
+  // holds the output of the CustomMapper for a complex field
+  private final BasicDBObject fieldDBObject = new BasicDBObject();
+  private boolean inUse;
+
+  @Override
+  public int writeObject(final OutputBuffer buf, final BSONObject o) {
+    if (!(o instanceof EntityDBObject)) {
+      return super.writeObject(buf, o);
+    }
+
+    inUse = true;
+    set(buf);
+    try {
+      return putEntity((EntityDBObject) o);
+    } finally {
+      done();
+      inUse = false;
+    }
+  }
+
+  private int putEntity(final EntityDBObject dbObj) {
+    final Object entity = dbObj.getEntity();
+    final MappedClass mc = dbObj.getMappedClass();
+
+    final int start = _buf.getPosition();
+    _buf.writeInt(0);
+
+    final Object id = dbObj.get(Mapper.ID_KEY);
+    if (id != null) {
+      putField(Mapper.ID_KEY, id);
+    }
+    if (mc.getEntityAnnotation() == null || !mc.getEntityAnnotation().noClassnameStored()) {
+      putString(Mapper.CLASS_NAME_FIELDNAME, mc.getAlias() == null ? entity.getClass().getName() : mc.getAlias());
+    }
+
+    mc.getCodecPlan().encode(this, entity, dbObj.getInvolvedObjects());
+
+    _buf.write(0);
+    _buf.writeInt(start, _buf.getPosition() - start);
+
+    if (dbObj.getInvolvedObjects() != null) {
+      dbObj.getInvolvedObjects().put(entity, dbObj);
+    }
+    return _buf.getPosition() - start;
+  }
+
+  /**
+   * @return true if no BSON encoding hooks change the boxed primitives, so they can be written directly
+   */
+  boolean canWritePrimitives() {
+    return BSON.applyEncodingHooks(INT_PROBE) == INT_PROBE && BSON.applyEncodingHooks(LONG_PROBE) == LONG_PROBE
+      && BSON.applyEncodingHooks(DOUBLE_PROBE) == DOUBLE_PROBE && BSON.applyEncodingHooks(Boolean.TRUE) == Boolean.TRUE;
+  }
+
+  /**
+   * Returns an empty DBObject for the output of a {@link CustomMapper}; it is reused for the next field.
+   */
+  DBObject getFieldDBObject() {
+    fieldDBObject.clear();
+    return fieldDBObject;
+  }
+
+  void putField(final String name, final Object value) {
+    validateKey(name);
+    checkValue(value);
+    _putObjectField(name, value);
+  }
+
+  void putInt(final String name, final int value) {
+    validateKey(name);
+    _put(BSON.NUMBER_INT, name);
+    _buf.writeInt(value);
+  }
+
+  void putLong(final String name, final long value) {
+    validateKey(name);
+    _put(BSON.NUMBER_LONG, name);
+    _buf.writeLong(value);
+  }
+
+  void putDouble(final String name, final double value) {
+    validateKey(name);
+    _put(BSON.NUMBER, name);
+    _buf.writeDouble(value);
+  }
+
+  void putBoolean(final String name, final boolean value) {
+    validateKey(name);
+    _put(BSON.BOOLEAN, name);
+    _buf.write(value ? 1 : 0);
+  }
+
+  // the same checks the driver does for a DBObject before saving it
+  private static void checkValue(final Object value) {
+    if (value instanceof DBObject) {
+      if (value instanceof LazyDBObject || value instanceof LazyDBList) {
+        return;
+      }
+      final DBObject dbObj = (DBObject) value;
+      for (final String key : dbObj.keySet()) {
+        validateKey(key);
+        checkValue(dbObj.get(key));
+      }
+    } else if (value instanceof Map) {
+      for (final Map.Entry<String, Object> entry : ((Map<String, Object>) value).entrySet()) {
+        validateKey(entry.getKey());
+        checkValue(entry.getValue());
+      }
+    } else if (value instanceof List) {
+      for (final Object o : (List) value) {
+        checkValue(o);
+      }
+    }
+  }
+
+  private static void validateKey(final String s) {
+    if (s.contains(".")) {
+      throw new IllegalArgumentException("fields stored in the db can't have . in them. (Bad Key: '" + s + "')");
+    }
+    if (s.startsWith("$")) {
+      throw new IllegalArgumentException("fields stored in the db can't start with '$' (Bad Key: '" + s + "')");
+    }
+  }
+
+  @Override
+  public String toString() {
+    return "EntityDBEncoder";
+  }
+
+  private static class Factory implements DBEncoderFactory {
+    private final ThreadLocal<EntityDBEncoder> encoders = new ThreadLocal<EntityDBEncoder>() {
+      @Override
+      protected EntityDBEncoder initialValue() {
+        return new EntityDBEncoder();
+      }
+    };
+
+    public DBEncoder create() {
+      final EntityDBEncoder encoder = encoders.get();
+      // a new one if the thread's encoder is busy (encoding from within an encode)
+      return encoder.inUse ? new EntityDBEncoder() : encoder;
+    }
+
+    @Override
+    public String toString() {
+      return "EntityDBEncoder.Factory";
+    }
+  }
+}
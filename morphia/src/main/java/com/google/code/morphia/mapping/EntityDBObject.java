@@ -0,0 +1,111 @@
+package com.google.code.morphia.mapping;
+
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+import org.bson.BSONObject;
+import com.mongodb.DBObject;
+
+
+/**
+ * Stands in for the mapped {@link DBObject} of an entity which is written straight to BSON by {@link EntityDBEncoder}; the fields are
+ * read from the entity while encoding, so there is no intermediate map of the whole document.
+ * <p/>
+ * Only the {@link Mapper#ID_KEY} field is available (the driver reads it, and sets it for new documents); all other keys are only written
+ * by the encoder. Created by {@link Mapper#toEncodableDBObject(Object, Map)}.
+ */
+@SuppressWarnings("rawtypes")
+public class EntityDBObject implements DBObject {
+  private final Object entity;
+  private final MappedClass mc;
+  private final Map<Object, DBObject> involvedObjects;
+  private Object id;
+
+  EntityDBObject(final Object entity, final MappedClass mc, final Object id, final Map<Object, DBObject> involvedObjects) {
+    this.entity = entity;
+    this.mc = mc;
+    this.id = id;
+    this.involvedObjects = involvedObjects;
+  }
+
+  public Object getEntity() {
+    return entity;
+  }
+
+  MappedClass getMappedClass() {
+    return mc;
+  }
+
+  Map<Object, DBObject> getInvolvedObjects() {
+    return involvedObjects;
+  }
+
+  public void markAsPartialObject() {
+    throw new UnsupportedOperationException("An entity can't be partial");
+  }
+
+  public boolean isPartialObject() {
+    return false;
+  }
+
+  public Object put(final String key, final Object v) {
+    checkKey(key);
+    final Object old = id;
+    id = v;
+    return old;
+  }
+
+  public void putAll(final BSONObject o) {
+    throw new UnsupportedOperationException("Only " + Mapper.ID_KEY + " can be set on " + getClass().getSimpleName());
+  }
+
+  public void putAll(final Map m) {
+    throw new UnsupportedOperationException("Only " + Mapper.ID_KEY + " can be set on " + getClass().getSimpleName());
+  }
+
+  public Object get(final String key) {
+    return Mapper.ID_KEY.equals(key) ? id : null;
+  }
+
+  public Map toMap() {
+    final Map<String, Object> map = new HashMap<String, Object>();
+    if (id != null) {
+      map.put(Mapper.ID_KEY, id);
+    }
+    return map;
+  }
+
+  public Object removeField(final String key) {
+    checkKey(key);
+    final Object old = id;
+    id = null;
+    return old;
+  }
+
+  @Deprecated
+  public boolean containsKey(final String s) {
+    return containsField(s);
+  }
+
+  public boolean containsField(final String s) {
+    return id != null && Mapper.ID_KEY.equals(s);
+  }
+
+  public Set<String> keySet() {
+    return id == null ? Collections.<String>emptySet() : Collections.singleton(Mapper.ID_KEY);
+  }
+
+  private void checkKey(final String key) {
+    if (!Mapper.ID_KEY.equals(key)) {
+      throw new UnsupportedOperationException("Only " + Mapper.ID_KEY + " can be set on " + getClass().getSimpleName());
+    }
+  }
+
+  @Override
+  public String toString() {
+    return getClass().getSimpleName() + "{" + Mapper.ID_KEY + ": " + id + ", entity: " + entity.getClass().getName() + "}";
+  }
+}
@@ -0,0 +1,76 @@
+package com.google.code.morphia.mapping;
+
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.mongodb.DBObject;
+
+
+/**
+ * How the references of a batch of query results are loaded, instead of as their {@link com.google.code.morphia.annotations.Reference}s
+ * say (see {@link Mapper#prefetchReferences(Class, java.util.List, com.google.code.morphia.mapping.cache.EntityCache, FetchPlan)}):
+ * <ul>
+ * <li>the references at the prefetch paths (of java field names, such as {@code "customer.address"}) are fetched along with the
+ * non-lazy ones, with one query per collection and level, and loaded as the entities even if they are lazy (or {@link
+ * com.google.code.morphia.mapping.lazy.LazyRef}s)</li>
+ * <li>or, with stubs, no reference is fetched (nor checked for existence); each one is loaded as an instance with only its id set</li>
+ * <li>the references of some fields are fetched with only the fields given, instead of the ones of their {@link
+ * com.google.code.morphia.annotations.Reference#fields()}</li>
+ * </ul>
+ */
+public class FetchPlan {
+  private final String[] prefetchPaths;
+  private final boolean stubs;
+  // referencing field -> the fields its references are fetched with
+  private final Map<MappedField, DBObject> referenceFields;
+
+  public FetchPlan(final String[] prefetchPaths, final boolean stubs) {
+    this(prefetchPaths, stubs, null);
+  }
+
+  public FetchPlan(final String[] prefetchPaths, final boolean stubs, final Map<MappedField, DBObject> referenceFields) {
+    this.prefetchPaths = prefetchPaths == null ? new String[0] : prefetchPaths.clone();
+    this.stubs = stubs;
+    this.referenceFields = referenceFields == null ? Collections.<MappedField, DBObject>emptyMap()
+      : new HashMap<MappedField, DBObject>(referenceFields);
+  }
+
+  /**
+   * Returns true if the reference at the path is to be fetched: the path is one of the prefetch paths, or leads to one.
+   */
+  public boolean prefetches(final String path) {
+    for (final String prefetchPath : prefetchPaths) {
+      if (prefetchPath.equals(path) || (prefetchPath.startsWith(path) && prefetchPath.charAt(path.length()) == '.')) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Returns true if the paths of the fields need to be tracked; that is, there are prefetch paths (and no stubs).
+   */
+  public boolean hasPrefetchPaths() {
+    return prefetchPaths.length > 0 && !stubs;
+  }
+
+  public boolean isStubs() {
+    return stubs;
+  }
+
+  /**
+   * Returns the fields the references of the field are fetched with (see {@link Mapper#createReferenceFields(MappedField, String...)}),
+   * or null if the plan does not say.
+   */
+  public DBObject getReferenceFields(final MappedField mf) {
+    return referenceFields.get(mf);
+  }
+
+  @Override
+  public String toString() {
+    return "FetchPlan(prefetch=" + Arrays.toString(prefetchPaths) + ", stubs=" + stubs + ", referenceFields=" + referenceFields + ")";
+  }
+}
@@ -0,0 +1,33 @@
+package com.google.code.morphia.mapping;
+
+
+/**
+ * Reads and writes the value of a single java field. Implementations are bound to the field once (when the {@link MappedField} is
+ * created) so the per-entity calls don't have to go through the reflection checks again.
+ * <p/>
+ * The primitive-specialized methods avoid boxing for {@code int}/{@code long}/{@code double}/{@code boolean} fields; they throw an
+ * {@link IllegalArgumentException} if the field is not of that type.
+ *
+ * @see FieldAccessorFactory
+ */
+public interface FieldAccessor {
+  Object get(Object target);
+
+  void set(Object target, Object value);
+
+  int getInt(Object target);
+
+  void setInt(Object target, int value);
+
+  long getLong(Object target);
+
+  void setLong(Object target, long value);
+
+  double getDouble(Object target);
+
+  void setDouble(Object target, double value);
+
+  boolean getBoolean(Object target);
+
+  void setBoolean(Object target, boolean value);
+}
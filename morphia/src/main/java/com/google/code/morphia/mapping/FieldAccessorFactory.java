@@ -0,0 +1,12 @@
+package com.google.code.morphia.mapping;
+
+
+import java.lang.reflect.Field;
+
+
+/**
+ * Creates the {@link FieldAccessor}s used by the {@link MappedField}s; see {@link MapperOptions#fieldAccessorFactory}.
+ */
+public interface FieldAccessorFactory {
+  FieldAccessor createAccessor(Field field);
+}
@@ -0,0 +1,23 @@
+package com.google.code.morphia.mapping;
+
+
+/**
+ * How the existence of the entities referenced by lazy {@link com.google.code.morphia.annotations.Reference}s is checked when their
+ * proxies are created (see {@link MapperOptions#lazyReferenceCheck}).
+ */
+public enum LazyReferenceCheck {
+  /**
+   * One query per reference (or per list of references)
+   */
+  EACH,
+  /**
+   * One (keys only) query per collection for all the references of a batch of query results (see {@link MapperOptions#referenceBatchSize}),
+   * or one per reference outside a batch
+   */
+  BATCH,
+  /**
+   * No check; a missing entity is only noticed when the proxy is used (a single reference then throws a {@link
+   * com.google.code.morphia.mapping.lazy.proxy.LazyReferenceFetchingException}, even with ignoreMissing)
+   */
+  NONE
+}
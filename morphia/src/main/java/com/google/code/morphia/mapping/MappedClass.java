@@ -10,11 +10,16 @@ import java.lang.reflect.Modifier;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import com.google.code.morphia.EntityInterceptor;
+import com.google.code.morphia.annotations.Alias;
+import com.google.code.morphia.annotations.CacheTTL;
 import com.google.code.morphia.annotations.Converters;
 import com.google.code.morphia.annotations.Embedded;
 import com.google.code.morphia.annotations.Entity;
@@ -60,6 +65,108 @@ public class MappedClass {
     }
   }
 
+  /**
+   * Calls a life-cycle method, on the entity or on an EntityListener instance.
+   */
+  private static final class LifecycleInvoker {
+    private final Method method;
+    // null when the method is on the entity
+    private final Object listener;
+    private final int paramCount;
+
+    LifecycleInvoker(final Method method, final Object listener) {
+      method.setAccessible(true);
+      this.method = method;
+      this.listener = listener;
+      paramCount = method.getParameterTypes().length;
+    }
+
+    Object invoke(final Object entity, final DBObject dbObj) throws IllegalAccessException, InvocationTargetException {
+      if (listener == null) {
+        return paramCount == 0 ? method.invoke(entity) : method.invoke(entity, dbObj);
+      } else if (paramCount == 0) {
+        return method.invoke(listener);
+      } else if (paramCount == 1) {
+        return method.invoke(listener, entity);
+      } else {
+        return method.invoke(listener, entity, dbObj);
+      }
+    }
+  }
+
+  private static final LifecycleInvoker[] NO_INVOKERS = new LifecycleInvoker[0];
+
+  /**
+   * A list of fields which exposes its modification count, so derived data can tell if it changed.
+   */
+  private static class FieldList extends ArrayList<MappedField> {
+    private static final long serialVersionUID = 1L;
+
+    int getModCount() {
+      return modCount;
+    }
+  }
+
+  /**
+   * Lookup tables for the persisted fields; rebuilt (see {@link MappedClass#getFieldIndex()}) when the fields or the metadata change.
+   */
+  private static final class FieldIndex {
+    private final int metadataVersion;
+    private final int fieldsModCount;
+    private final MappedField[] fields;
+    private final Map<String, MappedField> byStoredName = new HashMap<String, MappedField>();
+    private final Map<String, MappedField> byJavaName = new HashMap<String, MappedField>();
+    private final Map<Class<? extends Annotation>, List<MappedField>> byAnnotation
+      = new ConcurrentHashMap<Class<? extends Annotation>, List<MappedField>>();
+    private final MappedField idField;
+    private final MappedField versionField;
+
+    FieldIndex(final int metadataVersion, final int fieldsModCount, final List<MappedField> persistenceFields) {
+      this.metadataVersion = metadataVersion;
+      this.fieldsModCount = fieldsModCount;
+      fields = persistenceFields.toArray(new MappedField[persistenceFields.size()]);
+      // the first field wins, as when searching the list
+      for (final MappedField mf : fields) {
+        for (final String n : mf.getLoadNames()) {
+          if (!byStoredName.containsKey(n)) {
+            byStoredName.put(n, mf);
+          }
+        }
+        if (!byJavaName.containsKey(mf.getJavaFieldName())) {
+          byJavaName.put(mf.getJavaFieldName(), mf);
+        }
+      }
+      idField = first(getFieldsAnnotatedWith(Id.class));
+      versionField = first(getFieldsAnnotatedWith(Version.class));
+    }
+
+    private static MappedField first(final List<MappedField> fields) {
+      return fields.isEmpty() ? null : fields.get(0);
+    }
+
+    List<MappedField> getFieldsAnnotatedWith(final Class<? extends Annotation> clazz) {
+      List<MappedField> results = byAnnotation.get(clazz);
+      if (results == null) {
+        final List<MappedField> found = new ArrayList<MappedField>();
+        for (final MappedField mf : fields) {
+          if (mf.foundAnnotations.containsKey(clazz)) {
+            found.add(mf);
+          }
+        }
+        results = found.isEmpty() ? Collections.<MappedField>emptyList() : Collections.unmodifiableList(found);
+        byAnnotation.put(clazz, results);
+      }
+      return results;
+    }
+  }
+
+  /**
+   * changed whenever annotations are added or {@link #update()} is called, on this class or its fields
+   */
+  private final AtomicInteger metadataVersion = new AtomicInteger();
+  // set once the class is discovered; the changes after that are changes of the metadata of the mapper too
+  private volatile boolean discovered;
+
   /**
    * special fields representing the Key of the object
    */
@@ -71,6 +178,8 @@ public class MappedClass {
   private Entity entityAn;
   private Embedded embeddedAn;
   //    private Polymorphic polymorphicAn;
+  private String alias;
+  private long cacheTTL;
 
   /**
    * Annotations we are interested in looking for.
@@ -82,6 +191,12 @@ public class MappedClass {
    */
   private static final Class<? extends Annotation>[] lifecycleAnnotations = new Class[] {PrePersist.class, PreSave.class, PostPersist.class,
     PreLoad.class, PostLoad.class};
+  // the indexes of the events in lifecycleAnnotations
+  private static final int PRE_PERSIST = 0;
+  private static final int PRE_SAVE = 1;
+  private static final int POST_PERSIST = 2;
+  private static final int PRE_LOAD = 3;
+  private static final int POST_LOAD = 4;
 
   /**
    * Annotations we were interested in, and found.
@@ -96,7 +211,22 @@ public class MappedClass {
   /**
    * a list of the fields to map
    */
-  private final List<MappedField> persistenceFields = new ArrayList<MappedField>();
+  private final FieldList persistenceFields = new FieldList();
+
+  /**
+   * the (lazily built) callbacks for each life-cycle event
+   */
+  private volatile LifecycleInvoker[][] lifecycleInvokers;
+
+  /**
+   * the (lazily built) lookup tables for the fields
+   */
+  private volatile FieldIndex fieldIndex;
+
+  /**
+   * the (lazily built) steps to read/write instances
+   */
+  private volatile CodecPlan codecPlan;
 
   /**
    * the type we are mapping to/from
@@ -117,6 +247,7 @@ public class MappedClass {
 
     basicValidate();
     discover();
+    discovered = true;
 
     if (log.isDebugEnabled()) {
       log.debug("MappedClass done: " + toString());
@@ -135,8 +266,14 @@ public class MappedClass {
    */
   // TODO: Remove this and make these fields dynamic or auto-set some other way
   public void update() {
+    metadataChanged();
     embeddedAn = (Embedded) getAnnotation(Embedded.class);
     entityAn = (Entity) getFirstAnnotation(Entity.class);
+    // not inherited, so only the alias declared on this class
+    final Alias aliasAn = clazz.getAnnotation(Alias.class);
+    alias = aliasAn == null ? null : aliasAn.value();
+    final CacheTTL ttlAn = clazz.getAnnotation(CacheTTL.class);
+    cacheTTL = ttlAn == null ? 0 : ttlAn.unit().toMillis(ttlAn.value());
     // polymorphicAn = (Polymorphic) getAnnotation(Polymorphic.class);
     final List<MappedField> fields = getFieldsAnnotatedWith(Id.class);
     if (fields != null && !fields.isEmpty()) {
@@ -174,6 +311,7 @@ public class MappedClass {
 
     update();
 
+    final FieldAccessorFactory accessorFactory = mapper.getOptions().fieldAccessorFactory;
     for (final Field field : ReflectionUtils.getDeclaredAndInheritedFields(clazz, true)) {
       field.setAccessible(true);
       final int fieldMods = field.getModifiers();
@@ -182,8 +320,7 @@ public class MappedClass {
       } else if (mapper.getOptions().actLikeSerializer && ((fieldMods & Modifier.TRANSIENT) == Modifier.TRANSIENT)) {
       } else if (mapper.getOptions().ignoreFinals && ((fieldMods & Modifier.FINAL) == Modifier.FINAL)) {
       } else if (field.isAnnotationPresent(Id.class)) {
-        final MappedField mf = new MappedField(field, clazz);
-        persistenceFields.add(mf);
+        persistenceFields.add(newMappedField(field, accessorFactory));
         update();
       } else if (field.isAnnotationPresent(Property.class) ||
         field.isAnnotationPresent(Reference.class) ||
@@ -191,10 +328,10 @@ public class MappedClass {
         field.isAnnotationPresent(Serialized.class) ||
         isSupportedType(field.getType()) ||
         ReflectionUtils.implementsInterface(field.getType(), Serializable.class)) {
-        persistenceFields.add(new MappedField(field, clazz));
+        persistenceFields.add(newMappedField(field, accessorFactory));
       } else {
         if (mapper.getOptions().defaultMapper != null) {
-          persistenceFields.add(new MappedField(field, clazz));
+          persistenceFields.add(newMappedField(field, accessorFactory));
         } else if (log.isWarningEnabled()) {
           log.warning(
             "Ignoring (will not persist) field: " + clazz.getName() + "." + field.getName() + " [type:" + field.getType().getName() + "]");
@@ -203,6 +340,12 @@ public class MappedClass {
     }
   }
 
+  private MappedField newMappedField(final Field field, final FieldAccessorFactory accessorFactory) {
+    final MappedField mf = new MappedField(field, clazz, accessorFactory);
+    mf.mappedClass = this;
+    return mf;
+  }
+
   private void addLifecycleEventMethod(final Class<? extends Annotation> lceClazz, final Method m, final Class<?> clazz) {
     final ClassMethodPair cm = new ClassMethodPair(clazz, m);
     if (lifecycleMethods.containsKey(lceClazz)) {
@@ -228,12 +371,20 @@ public class MappedClass {
     }
 
     foundAnnotations.get(clazz).add(ann);
+    metadataChanged();
   }
 
   public List<ClassMethodPair> getLifecycleMethods(final Class<Annotation> clazz) {
     return lifecycleMethods.get(clazz);
   }
 
+  /**
+   * Returns true if there are methods (on the class or its EntityListeners) for the life-cycle event
+   */
+  boolean hasLifecycleMethods(final Class<? extends Annotation> event) {
+    return lifecycleMethods.containsKey(event);
+  }
+
   /**
    * Adds the annotation, if it exists on the field.
    */
@@ -244,37 +395,66 @@ public class MappedClass {
     }
   }
 
+  void metadataChanged() {
+    metadataVersion.incrementAndGet();
+    if (discovered) {
+      mapper.metadataChanged();
+    }
+  }
+
+  /**
+   * Returns a number which changes whenever the metadata of this class or of its fields changes; used to know if anything derived from it
+   * is still valid.
+   */
+  public int getMetadataVersion() {
+    return metadataVersion.get();
+  }
+
+  int getPersistenceFieldsModCount() {
+    return persistenceFields.getModCount();
+  }
+
+  private FieldIndex getFieldIndex() {
+    FieldIndex index = fieldIndex;
+    final int version = getMetadataVersion();
+    final int modCount = getPersistenceFieldsModCount();
+    if (index == null || index.metadataVersion != version || index.fieldsModCount != modCount) {
+      index = new FieldIndex(version, modCount, persistenceFields);
+      fieldIndex = index;
+    }
+    return index;
+  }
+
+  /**
+   * Returns the plan to read/write instances of this class, building it if the mapping changed.
+   */
+  CodecPlan getCodecPlan() {
+    CodecPlan plan = codecPlan;
+    if (plan == null || !plan.isCurrent()) {
+      plan = new CodecPlan(this, mapper);
+      codecPlan = plan;
+    }
+    return plan;
+  }
+
   @Override
   public String toString() {
     return "MappedClass - kind:" + getCollectionName() + " for " + getClazz().getName() + " fields:" + persistenceFields;
   }
 
   /**
-   * Returns fields annotated with the clazz
+   * Returns fields annotated with the clazz (a read-only list)
    */
   public List<MappedField> getFieldsAnnotatedWith(final Class<? extends Annotation> clazz) {
-    final List<MappedField> results = new ArrayList<MappedField>();
-    for (final MappedField mf : persistenceFields) {
-      if (mf.foundAnnotations.containsKey(clazz)) {
-        results.add(mf);
-      }
-    }
-    return results;
+    return getFieldIndex().getFieldsAnnotatedWith(clazz);
   }
 
   /**
-   * Returns the MappedField by the name that it will stored in mongodb as
+   * Returns the MappedField by the name that it will stored in mongodb as (or any of its {@link
+   * com.google.code.morphia.annotations.AlsoLoad} names)
    */
   public MappedField getMappedField(final String storedName) {
-    for (final MappedField mf : persistenceFields) {
-      for (final String n : mf.getLoadNames()) {
-        if (storedName.equals(n)) {
-          return mf;
-        }
-      }
-    }
-
-    return null;
+    return getFieldIndex().byStoredName.get(storedName);
   }
 
   /**
@@ -288,13 +468,7 @@ public class MappedClass {
    * Returns MappedField for a given java field name on the this MappedClass
    */
   public MappedField getMappedFieldByJavaField(final String name) {
-    for (final MappedField mf : persistenceFields) {
-      if (name.equals(mf.getJavaFieldName())) {
-        return mf;
-      }
-    }
-
-    return null;
+    return getFieldIndex().byJavaName.get(name);
   }
 
   /**
@@ -352,53 +526,32 @@ public class MappedClass {
    */
   public DBObject callLifecycleMethods(final Class<? extends Annotation> event, final Object entity, final DBObject dbObj,
     final Mapper mapper) {
-    final List<ClassMethodPair> methodPairs = getLifecycleMethods((Class<Annotation>) event);
+    final int eventIndex = getEventIndex(event);
+    if (eventIndex < 0) {
+      return dbObj;
+    }
+    final LifecycleInvoker[] invokers = getLifecycleInvokers()[eventIndex];
+    final Collection<EntityInterceptor> interceptors = mapper.getInterceptors();
+    if (invokers.length == 0 && interceptors.isEmpty()) {
+      return dbObj;
+    }
+
     DBObject retDbObj = dbObj;
     try {
-      Object tempObj;
-      if (methodPairs != null) {
-        final HashMap<Class<?>, Object> toCall = new HashMap<Class<?>, Object>((int) (methodPairs.size() * 1.3));
-        for (final ClassMethodPair cm : methodPairs) {
-          toCall.put(cm.clazz, null);
-        }
-        for (final Class<?> c : toCall.keySet()) {
-          if (c != null) {
-            toCall.put(c, getOrCreateInstance(c));
-          }
+      for (final LifecycleInvoker invoker : invokers) {
+        if (log.isDebugEnabled()) {
+          log.debug("Calling lifecycle method(@" + event.getSimpleName() + " " + invoker.method + ") on " + invoker.listener);
         }
 
-        for (final ClassMethodPair cm : methodPairs) {
-          final Method method = cm.method;
-          final Class<?> type = cm.clazz;
-
-          final Object inst = toCall.get(type);
-          method.setAccessible(true);
-
-          if (log.isDebugEnabled()) {
-            log.debug("Calling lifecycle method(@" + event.getSimpleName() + " " + method + ") on " + inst);
-          }
-
-          if (inst == null) {
-            if (method.getParameterTypes().length == 0) {
-              tempObj = method.invoke(entity);
-            } else {
-              tempObj = method.invoke(entity, retDbObj);
-            }
-          } else if (method.getParameterTypes().length == 0) {
-            tempObj = method.invoke(inst);
-          } else if (method.getParameterTypes().length == 1) {
-            tempObj = method.invoke(inst, entity);
-          } else {
-            tempObj = method.invoke(inst, entity, retDbObj);
-          }
-
-          if (tempObj != null) {
-            retDbObj = (DBObject) tempObj;
-          }
+        final Object tempObj = invoker.invoke(entity, retDbObj);
+        if (tempObj != null) {
+          retDbObj = (DBObject) tempObj;
         }
       }
 
-      callGlobalInterceptors(event, entity, dbObj, mapper, mapper.getInterceptors());
+      if (!interceptors.isEmpty()) {
+        callGlobalInterceptors(eventIndex, entity, dbObj, mapper, interceptors);
+      }
     } catch (IllegalAccessException e) {
       throw new RuntimeException(e);
     } catch (InvocationTargetException e) {
@@ -408,6 +561,39 @@ public class MappedClass {
     return retDbObj;
   }
 
+  private static int getEventIndex(final Class<? extends Annotation> event) {
+    for (int i = 0; i < lifecycleAnnotations.length; i++) {
+      if (lifecycleAnnotations[i] == event) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Returns the callbacks for each life-cycle event (in the order of lifecycleAnnotations), resolving the EntityListeners the first time.
+   */
+  private LifecycleInvoker[][] getLifecycleInvokers() {
+    LifecycleInvoker[][] invokers = lifecycleInvokers;
+    if (invokers == null) {
+      invokers = new LifecycleInvoker[lifecycleAnnotations.length][];
+      for (int i = 0; i < lifecycleAnnotations.length; i++) {
+        final List<ClassMethodPair> methodPairs = lifecycleMethods.get(lifecycleAnnotations[i]);
+        if (methodPairs == null) {
+          invokers[i] = NO_INVOKERS;
+        } else {
+          invokers[i] = new LifecycleInvoker[methodPairs.size()];
+          for (int j = 0; j < invokers[i].length; j++) {
+            final ClassMethodPair cm = methodPairs.get(j);
+            invokers[i][j] = new LifecycleInvoker(cm.method, cm.clazz == null ? null : getOrCreateInstance(cm.clazz));
+          }
+        }
+      }
+      lifecycleInvokers = invokers;
+    }
+    return invokers;
+  }
+
   private Object getOrCreateInstance(final Class<?> clazz) {
     if (mapper.instanceCache.containsKey(clazz)) {
       return mapper.instanceCache.get(clazz);
@@ -425,23 +611,31 @@ public class MappedClass {
 
   }
 
-  private void callGlobalInterceptors(final Class<? extends Annotation> event, final Object entity, final DBObject dbObj,
-    final Mapper mapper, final Collection<EntityInterceptor> interceptors) {
+  private void callGlobalInterceptors(final int eventIndex, final Object entity, final DBObject dbObj, final Mapper mapper,
+    final Collection<EntityInterceptor> interceptors) {
     for (final EntityInterceptor ei : interceptors) {
       if (log.isDebugEnabled()) {
-        log.debug("Calling interceptor method " + event.getSimpleName() + " on " + ei);
+        log.debug("Calling interceptor method " + lifecycleAnnotations[eventIndex].getSimpleName() + " on " + ei);
       }
 
-      if (event.equals(PreLoad.class)) {
-        ei.preLoad(entity, dbObj, mapper);
-      } else if (event.equals(PostLoad.class)) {
-        ei.postLoad(entity, dbObj, mapper);
-      } else if (event.equals(PrePersist.class)) {
-        ei.prePersist(entity, dbObj, mapper);
-      } else if (event.equals(PreSave.class)) {
-        ei.preSave(entity, dbObj, mapper);
-      } else if (event.equals(PostPersist.class)) {
-        ei.postPersist(entity, dbObj, mapper);
+      switch (eventIndex) {
+        case PRE_PERSIST:
+          ei.prePersist(entity, dbObj, mapper);
+          break;
+        case PRE_SAVE:
+          ei.preSave(entity, dbObj, mapper);
+          break;
+        case POST_PERSIST:
+          ei.postPersist(entity, dbObj, mapper);
+          break;
+        case PRE_LOAD:
+          ei.preLoad(entity, dbObj, mapper);
+          break;
+        case POST_LOAD:
+          ei.postLoad(entity, dbObj, mapper);
+          break;
+        default:
+          break;
       }
     }
   }
@@ -467,6 +661,21 @@ public class MappedClass {
     return embeddedAn;
   }
 
+  /**
+   * Returns the {@link Alias} of the class, or null if it has none.
+   */
+  public String getAlias() {
+    return alias;
+  }
+
+  /**
+   * Returns how long (in milliseconds) the documents of the class are kept in the second level cache; 0 for no limit (see {@link
+   * CacheTTL}).
+   */
+  public long getCacheTTL() {
+    return cacheTTL;
+  }
+
   /**
    * @return the relevantAnnotations
    */
@@ -527,8 +736,18 @@ public class MappedClass {
     return mapper;
   }
 
+  /**
+   * @return the field annotated with {@link Id}, or null
+   */
   public MappedField getMappedIdField() {
-    return getFieldsAnnotatedWith(Id.class).get(0);
+    return getFieldIndex().idField;
+  }
+
+  /**
+   * @return the field annotated with {@link Version}, or null
+   */
+  public MappedField getMappedVersionField() {
+    return getFieldIndex().versionField;
   }
 
 }
\ No newline at end of file
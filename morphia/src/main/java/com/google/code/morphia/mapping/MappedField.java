@@ -15,10 +15,12 @@ import java.lang.reflect.WildcardType;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import com.google.code.morphia.annotations.AlsoLoad;
 import com.google.code.morphia.annotations.ConstructorArgs;
@@ -32,6 +34,8 @@ import com.google.code.morphia.annotations.Serialized;
 import com.google.code.morphia.annotations.Version;
 import com.google.code.morphia.logging.Logr;
 import com.google.code.morphia.logging.MorphiaLoggerFactory;
+import com.google.code.morphia.mapping.lazy.LazyRef;
+import com.google.code.morphia.mapping.lazy.LazyRefList;
 import com.google.code.morphia.utils.ReflectionUtils;
 import com.mongodb.DBObject;
 
@@ -51,6 +55,7 @@ public class MappedField {
 
   protected Class persistedClass;
   protected Field field; // the field :)
+  protected FieldAccessor accessor; // reads/writes the field value
   protected Class realType; // the real type
   protected Constructor constructor; // the constructor for the type
   // Annotations that have been found relevant to mapping
@@ -65,14 +70,43 @@ public class MappedField {
   //for debugging
   protected boolean isArray; // indicated if it is an Array
   protected boolean isCollection; // indicated if the collection is a list)
+  protected boolean isLazyRef; // indicates the field is a LazyRef<T>/LazyRefList<T>
+  private volatile FieldNames names; // the (lazily built) stored/load names
+  // changed whenever annotations are added; see getMetadataVersion()
+  private final AtomicInteger metadataVersion = new AtomicInteger();
+  // the class this field belongs to, told of its changes; null for the fields which stand for a value only
+  MappedClass mappedClass;
+
+  /**
+   * The names of the field in mongodb, for one version of the metadata (see {@link #getMetadataVersion()}).
+   */
+  private static final class FieldNames {
+    private final int metadataVersion;
+    private final String nameToStore;
+    private final List<String> loadNames;
+
+    FieldNames(final int metadataVersion, final String nameToStore, final List<String> loadNames) {
+      this.metadataVersion = metadataVersion;
+      this.nameToStore = nameToStore;
+      this.loadNames = loadNames;
+    }
+  }
 
   /**
    * the constructor
    */
   MappedField(final Field f, final Class<?> clazz) {
+    this(f, clazz, new ReflectiveFieldAccessorFactory());
+  }
+
+  /**
+   * the constructor
+   */
+  MappedField(final Field f, final Class<?> clazz, final FieldAccessorFactory accessorFactory) {
     f.setAccessible(true);
     field = f;
     persistedClass = clazz;
+    accessor = accessorFactory.createAccessor(f);
     discover();
   }
 
@@ -138,6 +172,10 @@ public class MappedField {
       if (isMap) {
         mapKeyType = ReflectionUtils.getParameterizedType(field, 0);
       }
+    } else if (LazyRef.class.isAssignableFrom(realType) || LazyRefList.class.isAssignableFrom(realType)) {
+      // a single value, which references the subtype T of LazyRef<T>/LazyRefList<T>
+      isLazyRef = true;
+      subType = ReflectionUtils.getParameterizedType(field, 0);
     }
   }
 
@@ -236,37 +274,54 @@ public class MappedField {
    * Returns the name of the field's (key)name for mongodb
    */
   public String getNameToStore() {
-    return getMappedFieldName();
+    return getNames().nameToStore;
   }
 
   /**
-   * Returns the name of the field's (key)name for mongodb, in order of loading.
+   * Returns the name of the field's (key)name for mongodb, in order of loading (a read-only list).
    */
   public List<String> getLoadNames() {
-    final ArrayList<String> names = new ArrayList<String>();
-    names.add(getMappedFieldName());
-
-    final AlsoLoad al = (AlsoLoad) foundAnnotations.get(AlsoLoad.class);
-    if (al != null && al.value() != null && al.value().length > 0) {
-      names.addAll(Arrays.asList(al.value()));
+    return getNames().loadNames;
+  }
+
+  private FieldNames getNames() {
+    FieldNames n = names;
+    final int version = metadataVersion.get();
+    if (n == null || n.metadataVersion != version) {
+      final String nameToStore = getMappedFieldName();
+      final AlsoLoad al = (AlsoLoad) foundAnnotations.get(AlsoLoad.class);
+      final List<String> loadNames;
+      if (al != null && al.value() != null && al.value().length > 0) {
+        final ArrayList<String> all = new ArrayList<String>();
+        all.add(nameToStore);
+        all.addAll(Arrays.asList(al.value()));
+        loadNames = Collections.unmodifiableList(all);
+      } else {
+        loadNames = Collections.singletonList(nameToStore);
+      }
+      n = new FieldNames(version, nameToStore, loadNames);
+      names = n;
     }
-
-    return names;
+    return n;
   }
 
   /**
    * @return the value of this field mapped from the DBObject
    */
   public String getFirstFieldName(final DBObject dbObj) {
-    String fieldName = getNameToStore();
+    final FieldNames names = getNames();
+    if (names.loadNames.size() == 1) {
+      return names.nameToStore;
+    }
+    String fieldName = names.nameToStore;
     boolean foundField = false;
-    for (final String n : getLoadNames()) {
+    for (final String n : names.loadNames) {
       if (dbObj.containsField(n)) {
         if (!foundField) {
           foundField = true;
           fieldName = n;
         } else {
-          throw new MappingException(String.format("Found more than one field from @AlsoLoad %s", getLoadNames()));
+          throw new MappingException(String.format("Found more than one field from @AlsoLoad %s", names.loadNames));
         }
       }
     }
@@ -311,6 +366,7 @@ public class MappedField {
   public void addAnnotation(final Class<? extends Annotation> clazz) {
     if (field.isAnnotationPresent(clazz)) {
       foundAnnotations.put(clazz, field.getAnnotation(clazz));
+      metadataChanged();
     }
   }
 
@@ -319,15 +375,32 @@ public class MappedField {
    */
   public void addAnnotation(final Class<? extends Annotation> clazz, final Annotation ann) {
     foundAnnotations.put(clazz, ann);
+    metadataChanged();
   }
 
   /**
    * Adds the annotation even if not on the declared class/field.
    */
   public Annotation putAnnotation(final Annotation ann) {
+    metadataChanged();
     return foundAnnotations.put(ann.getClass(), ann);
   }
 
+  private void metadataChanged() {
+    metadataVersion.incrementAndGet();
+    if (mappedClass != null) {
+      mappedClass.metadataChanged();
+    }
+  }
+
+  /**
+   * Returns a number which changes whenever the annotations of this field change; used to know if anything derived from them is still
+   * valid.
+   */
+  public int getMetadataVersion() {
+    return metadataVersion.get();
+  }
+
   /**
    * returns the full name of the class plus java field name
    */
@@ -451,7 +524,7 @@ public class MappedField {
   }
 
   /**
-   * If the java field is a list/array/map then the sub-type T is returned (ex. List<T>, T[], Map<?,T>
+   * If the java field is a list/array/map then the sub-type T is returned (ex. List<T>, T[], Map<?,T>, or LazyRef<T>/LazyRefList<T>)
    */
   public Class getSubClass() {
     return toClass(subType);
@@ -476,6 +549,13 @@ public class MappedField {
     return isMongoType;
   }
 
+  /**
+   * Returns true if the java field is a {@link LazyRef}/{@link LazyRefList}
+   */
+  public boolean isLazyRef() {
+    return isLazyRef;
+  }
+
   public boolean isMap() {
     return isMap;
   }
@@ -495,24 +575,21 @@ public class MappedField {
    * Returns the value stored in the java field
    */
   public Object getFieldValue(final Object classInst) throws IllegalArgumentException {
-    try {
-      field.setAccessible(true);
-      return field.get(classInst);
-    } catch (IllegalAccessException e) {
-      throw new RuntimeException(e);
-    }
+    return accessor.get(classInst);
   }
 
   /**
    * Sets the value for the java field
    */
   public void setFieldValue(final Object classInst, final Object value) throws IllegalArgumentException {
-    try {
-      field.setAccessible(true);
-      field.set(classInst, value);
-    } catch (IllegalAccessException e) {
-      throw new RuntimeException(e);
-    }
+    accessor.set(classInst, value);
+  }
+
+  /**
+   * Returns the accessor bound to the java field; use the primitive methods to read/write primitive fields without boxing.
+   */
+  public FieldAccessor getFieldAccessor() {
+    return accessor;
   }
 
   /**
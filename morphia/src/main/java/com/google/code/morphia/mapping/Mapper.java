@@ -15,7 +15,6 @@ package com.google.code.morphia.mapping;
 
 import java.io.IOException;
 import java.io.Serializable;
-import java.lang.annotation.Annotation;
 import java.lang.reflect.Array;
 import java.util.ArrayList;
 import java.util.Collection;
@@ -27,6 +26,7 @@ import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.regex.Pattern;
 
 import org.bson.BSONEncoder;
@@ -37,7 +37,6 @@ import com.google.code.morphia.annotations.Converters;
 import com.google.code.morphia.annotations.Embedded;
 import com.google.code.morphia.annotations.Entity;
 import com.google.code.morphia.annotations.Id;
-import com.google.code.morphia.annotations.NotSaved;
 import com.google.code.morphia.annotations.PostLoad;
 import com.google.code.morphia.annotations.PreLoad;
 import com.google.code.morphia.annotations.PrePersist;
@@ -51,6 +50,7 @@ import com.google.code.morphia.logging.Logr;
 import com.google.code.morphia.logging.MorphiaLoggerFactory;
 import com.google.code.morphia.mapping.cache.DefaultEntityCache;
 import com.google.code.morphia.mapping.cache.EntityCache;
+import com.google.code.morphia.mapping.cache.SecondLevelCache;
 import com.google.code.morphia.mapping.lazy.DatastoreProvider;
 import com.google.code.morphia.mapping.lazy.DefaultDatastoreProvider;
 import com.google.code.morphia.mapping.lazy.LazyFeatureDependencies;
@@ -62,6 +62,7 @@ import com.google.code.morphia.query.ValidationException;
 import com.google.code.morphia.utils.ReflectionUtils;
 import com.mongodb.BasicDBList;
 import com.mongodb.BasicDBObject;
+import com.mongodb.DB;
 import com.mongodb.DBObject;
 import com.mongodb.DBRef;
 
@@ -90,12 +91,17 @@ public class Mapper {
      * support polymorphism
      */
     public static final String CLASS_NAME_FIELDNAME = "className";
+    /**
+     * Special suffix of the name of the value the snapshots of a reference are stored in; see {@link Reference#snapshot()}
+     */
+    public static final String SNAPSHOT_SUFFIX = "_snapshot";
 
     /**
      * Set of classes that registered by this mapper
      */
     private final Map<String, MappedClass> mappedClasses = new ConcurrentHashMap<String, MappedClass>();
     private final ConcurrentHashMap<String, Set<MappedClass>> mappedClassesByCollection = new ConcurrentHashMap<String, Set<MappedClass>>();
+    private final ConcurrentHashMap<String, MappedClass> mappedClassesByAlias = new ConcurrentHashMap<String, MappedClass>();
 
     //EntityInterceptors; these are called before EntityListeners and lifecycle methods on an Entity, for all Entities
     private final List<EntityInterceptor> interceptors = new LinkedList<EntityInterceptor>();
@@ -109,6 +115,12 @@ public class Mapper {
     final LazyProxyFactory proxyFactory = LazyFeatureDependencies.createDefaultProxyFactory();
     final DatastoreProvider datastoreProvider = new DefaultDatastoreProvider();
     final DefaultConverters converters = new DefaultConverters();
+    // changed whenever the metadata of a mapped class changes; see getMetadataGeneration()
+    private final AtomicInteger metadataGeneration = new AtomicInteger();
+    private final PathCache pathCache = new PathCache(this);
+    // referencing field -> the fields of its Reference annotation to fetch (Boolean.FALSE for all of them)
+    private final Map<MappedField, Object> referenceFields = new ConcurrentHashMap<MappedField, Object>();
+    private final PartialEntities partialEntities = new PartialEntities();
 
     public Mapper() {
         converters.setMapper(this);
@@ -168,6 +180,21 @@ public class Mapper {
             mc.validate();
         }
 
+        final String alias = mc.getAlias();
+        if (alias != null) {
+            if (alias.length() == 0) {
+                throw new MappingException("Empty @Alias on " + mc.getClazz().getName());
+            }
+            final MappedClass aliased = mappedClassesByAlias.putIfAbsent(alias, mc);
+            if (aliased != null) {
+                if (!aliased.getClazz().getName().equals(mc.getClazz().getName())) {
+                    throw new MappingException("@Alias '" + alias + "' of " + mc.getClazz().getName() + " is already used by "
+                                               + aliased.getClazz().getName());
+                }
+                mappedClassesByAlias.put(alias, mc);
+            }
+        }
+
         final Converters c = (Converters) mc.getAnnotation(Converters.class);
         if (c != null) {
             for (final Class<? extends TypeConverter> clazz : c.value()) {
@@ -193,6 +220,19 @@ public class Mapper {
         return mc;
     }
 
+    /**
+     * Returns the (mapped) class whose {@link com.google.code.morphia.annotations.Alias} is stored in the {@link #CLASS_NAME_FIELDNAME}
+     * field of the DBObject, or null if the field holds no known alias (but, say, a class name).
+     */
+    public Class<?> getAliasedClass(final DBObject dbObj) {
+        if (mappedClassesByAlias.isEmpty()) {
+            return null;
+        }
+        final Object storedClassName = dbObj.get(CLASS_NAME_FIELDNAME);
+        final MappedClass mc = storedClassName instanceof String ? mappedClassesByAlias.get(storedClassName) : null;
+        return mc == null ? null : mc.getClazz();
+    }
+
     /**
      * Returns collection of MappedClasses
      */
@@ -290,7 +330,12 @@ public class Mapper {
         }
 
         Object entity;
-        entity = opts.objectFactory.createInstance(entityClass, dbObject);
+        final Class aliasedClass = getAliasedClass(dbObject);
+        if (aliasedClass != null) {
+            entity = opts.objectFactory.createInstance(aliasedClass);
+        } else {
+            entity = opts.objectFactory.createInstance(entityClass, dbObject);
+        }
         entity = fromDb(dbObject, entity, cache);
         return entity;
     }
@@ -384,9 +429,10 @@ public class Mapper {
         //convert the value to Key (DBRef) if the field is @Reference or type is Key/DBRef, or if the destination class is an @Entity
         if (isAssignable(mf, value) || isEntity(mc)) {
             try {
+                final boolean idOnly = mf != null && mf.hasAnnotation(Reference.class) && mf.getAnnotation(Reference.class).idOnly();
                 if (value instanceof Iterable) {
                     if(isMapped(mf.getSubClass())) {
-                      mappedValue = getDBRefs((Iterable) value);
+                      mappedValue = getDBRefs((Iterable) value, idOnly);
                     } else {
                       mappedValue = value;
                     }
@@ -395,7 +441,7 @@ public class Mapper {
                     if (key == null) {
                         mappedValue = toMongoObject(value, false);
                     } else {
-                        mappedValue = keyToRef(key);
+                        mappedValue = idOnly ? key.getId() : keyToRef(key);
                         if (mappedValue == value) {
                             throw new ValidationException("cannot map to @Reference/Key<T>/DBRef field: " + value);
                         }
@@ -438,12 +484,12 @@ public class Mapper {
         return value.getClass().isArray() ? Array.get(value, 0) : ((Iterable) value).iterator().next();
     }
 
-    private Object getDBRefs(final Iterable value) {
+    private Object getDBRefs(final Iterable value, final boolean idOnly) {
         final Object mappedValue;
-        final ArrayList<DBRef> refs = new ArrayList<DBRef>();
+        final ArrayList<Object> refs = new ArrayList<Object>();
         for (final Object o : (Iterable) value) {
             final Key<?> key = (o instanceof Key) ? (Key<?>) o : getKey(o);
-            refs.add(keyToRef(key));
+            refs.add(idOnly ? key.getId() : keyToRef(key));
         }
         mappedValue = refs;
         return mappedValue;
@@ -531,20 +577,15 @@ public class Mapper {
         final MappedClass mc = getMappedClass(entity);
 
         if (mc.getEntityAnnotation() == null || !mc.getEntityAnnotation().noClassnameStored()) {
-            dbObject.put(CLASS_NAME_FIELDNAME, entity.getClass().getName());
+            dbObject.put(CLASS_NAME_FIELDNAME, mc.getAlias() == null ? entity.getClass().getName() : mc.getAlias());
         }
 
         if (lifecycle) {
             dbObject = mc.callLifecycleMethods(PrePersist.class, entity, dbObject, this);
         }
 
-        for (final MappedField mf : mc.getPersistenceFields()) {
-            try {
-                writeMappedField(dbObject, mf, entity, involvedObjects);
-            } catch (Exception e) {
-                throw new MappingException("Error mapping field:" + mf.getFullName(), e);
-            }
-        }
+        mc.getCodecPlan().write(entity, dbObject, involvedObjects);
+
         if (involvedObjects != null) {
             involvedObjects.put(entity, dbObject);
         }
@@ -556,6 +597,29 @@ public class Mapper {
         return dbObject;
     }
 
+    /**
+     * <p> Returns a DBObject for the entity which is encoded straight to BSON by {@link EntityDBEncoder} (see {@link EntityDBObject}), or
+     * null if the mapped DBObject is needed: the entity has lifecycle methods or a @{@link com.google.code.morphia.annotations.Version}
+     * field, there are {@link EntityInterceptor}s, or {@link MapperOptions#directEncoding} is off. </p>
+     *
+     * @param entity The POJO
+     * @param involvedObjects A Map of (already converted) POJOs; the entity is added when it is encoded
+     */
+    public DBObject toEncodableDBObject(final Object entity, final Map<Object, DBObject> involvedObjects) {
+        final MappedClass mc = getMappedClass(entity);
+        if (!opts.directEncoding || !interceptors.isEmpty()) {
+            return null;
+        }
+        final CodecPlan plan = mc.getCodecPlan();
+        if (!plan.isEncodable()) {
+            return null;
+        }
+
+        final DBObject idObj = new BasicDBObject();
+        plan.writeId(entity, idObj, involvedObjects);
+        return new EntityDBObject(entity, mc, idObj.get(ID_KEY), involvedObjects);
+    }
+
     Object fromDb(DBObject dbObject, final Object entity, final EntityCache cache) {
         //hack to bypass things and just read the value.
         if (entity instanceof MappedField) {
@@ -563,28 +627,34 @@ public class Mapper {
             return entity;
         }
 
-        // check the history key (a key is the namespace + id)
+        final MappedClass mc = getMappedClass(entity);
+        final CodecPlan plan = mc.getCodecPlan();
+        // nothing can refer back to an entity of plain values, so it is not cached
+        final boolean cached = plan.usesEntityCache();
 
-        if (dbObject.containsField(ID_KEY) && getMappedClass(entity).getIdField() != null && getMappedClass(entity).getEntityAnnotation()
-            != null) {
-            final Key key = new Key(entity.getClass(), dbObject.get(ID_KEY));
-            final Object cachedInstance = cache.getEntity(key);
-            if (cachedInstance != null) {
-                return cachedInstance;
-            } else {
-                cache.putEntity(key, entity); // to avoid stackOverflow in recursive refs
+        // check the history key (a key is the namespace + id)
+        Key key = null;
+        if (cached && mc.getIdField() != null && dbObject.containsField(ID_KEY)) {
+            key = new Key(entity.getClass(), dbObject.get(ID_KEY));
+            if (mc.getEntityAnnotation() != null) {
+                final Object cachedInstance = cache.getEntity(key);
+                if (cachedInstance != null) {
+                    return cachedInstance;
+                } else {
+                    cache.putEntity(key, entity); // to avoid stackOverflow in recursive refs
+                }
             }
         }
 
-        final MappedClass mc = getMappedClass(entity);
-
+        final DBObject loadedObject = dbObject;
         dbObject = mc.callLifecycleMethods(PreLoad.class, entity, dbObject, this);
-        for (final MappedField mf : mc.getPersistenceFields()) {
-            readMappedField(dbObject, mf, entity, cache);
-        }
+        plan.read(dbObject, entity, cache);
 
-        if (dbObject.containsField(ID_KEY) && getMappedClass(entity).getIdField() != null) {
-            final Key key = new Key(entity.getClass(), dbObject.get(ID_KEY));
+        if (cached && mc.getIdField() != null && dbObject.containsField(ID_KEY)) {
+            // the PreLoad methods may have replaced the id
+            if (key == null || dbObject != loadedObject || key.getId() != dbObject.get(ID_KEY)) {
+                key = new Key(entity.getClass(), dbObject.get(ID_KEY));
+            }
             cache.putEntity(key, entity);
         }
         mc.callLifecycleMethods(PostLoad.class, entity, dbObject, this);
@@ -604,44 +674,162 @@ public class Mapper {
         }
     }
 
-    private void writeMappedField(final DBObject dbObject, final MappedField mf, final Object entity,
-        final Map<Object, DBObject> involvedObjects) {
-        Class<? extends Annotation> annType = null;
+    // TODO might be better to expose via some "options" object?
+    public DefaultConverters getConverters() {
+        return converters;
+    }
+
+    /**
+     * Returns the cache of validated query/update field paths (see {@link #validate}), with its hit/miss counts.
+     */
+    void metadataChanged() {
+        metadataGeneration.incrementAndGet();
+    }
+
+    /**
+     * Returns a number which changes whenever the metadata of a class (or field) changes after it was mapped; mapping more classes does not
+     * change it. Used to know if anything derived from the metadata of several classes is still valid.
+     */
+    public int getMetadataGeneration() {
+        return metadataGeneration.get();
+    }
+
+    public PathCache getPathCache() {
+        return pathCache;
+    }
 
-        //skip not saved fields.
-        if (mf.hasAnnotation(NotSaved.class)) {
+    /**
+     * Fetches the documents referenced (through non-lazy {@link Reference}s, at any depth) by the dbObjects, with one query per collection
+     * and level, and returns the cache to map the dbObjects with (see {@link #fromDBObject(Class, DBObject, EntityCache)}), which holds
+     * them.
+     */
+    public EntityCache prefetchReferences(final Class entityClass, final List<DBObject> dbObjects, final EntityCache cache) {
+        return prefetchReferences(entityClass, dbObjects, cache, null);
+    }
+
+    /**
+     * Same as {@link #prefetchReferences(Class, List, EntityCache)}, but the references are loaded as the plan (if any) says.
+     */
+    public EntityCache prefetchReferences(final Class entityClass, final List<DBObject> dbObjects, final EntityCache cache,
+        final FetchPlan plan) {
+        final ReferenceBatch batch = new ReferenceBatch(this, cache, plan);
+        batch.prefetch(entityClass, dbObjects);
+        return batch;
+    }
+
+    /**
+     * Returns the document of the kind and id from the second level cache, or null if it is not there (or there is no such cache; see
+     * {@link MapperOptions#secondLevelCache}).
+     */
+    public DBObject getCachedDocument(final String kind, final Object id) {
+        final SecondLevelCache secondLevelCache = opts.secondLevelCache;
+        return secondLevelCache == null || id == null ? null : secondLevelCache.get(new Key<Object>(kind, id));
+    }
+
+    /**
+     * Puts the (complete) document of the kind in the second level cache, if there is one, for the {@link MappedClass#getCacheTTL()} of
+     * the type.
+     */
+    public void cacheDocument(final Class type, final String kind, final DBObject dbObj) {
+        final SecondLevelCache secondLevelCache = opts.secondLevelCache;
+        final Object id = dbObj.get(ID_KEY);
+        if (secondLevelCache == null || id == null) {
             return;
         }
+        final MappedClass mc = type == null ? null : getMappedClass(type);
+        secondLevelCache.put(new Key<Object>(kind, id), dbObj, mc == null ? 0 : mc.getCacheTTL());
+    }
 
-        // get the annotation from the field.
-        for (final Class<? extends Annotation> testType : new Class[] {Property.class, Embedded.class, Serialized.class, Reference.class}) {
-            if (mf.hasAnnotation(testType)) {
-                annType = testType;
-                break;
-            }
+    public EntityCache createEntityCache() {
+        return new DefaultEntityCache();// TODO choose impl
+    }
+
+    /**
+     * Returns the DB of the datastore the provider gives, where the references stored as ids only (see {@link Reference#idOnly()}) are
+     * fetched from.
+     */
+    DB getReferenceDB() {
+        return datastoreProvider.get().getDB();
+    }
+
+    /**
+     * Returns the fields the references of the field are fetched with: the ones the plan (if any) gives, or else the ones of its {@link
+     * Reference#fields()}; null for all of them.
+     */
+    DBObject getReferenceFields(final MappedField mf, final FetchPlan plan) {
+        final DBObject planned = plan == null ? null : plan.getReferenceFields(mf);
+        if (planned != null) {
+            return planned;
+        }
+        Object fields = referenceFields.get(mf);
+        if (fields == null) {
+            final Reference refAnn = mf.getAnnotation(Reference.class);
+            fields = refAnn == null || refAnn.fields().length == 0 ? Boolean.FALSE : createReferenceFields(mf, refAnn.fields());
+            referenceFields.put(mf, fields);
         }
+        return fields instanceof DBObject ? (DBObject) fields : null;
+    }
 
-        if (Property.class.equals(annType) || Serialized.class.equals(annType) || mf.isTypeMongoCompatible() ||
-            (converters.hasSimpleValueConverter(mf) || (converters.hasSimpleValueConverter(mf.getFieldValue(entity))))) {
-            opts.valueMapper.toDBObject(entity, mf, dbObject, involvedObjects, this);
-        } else if (Reference.class.equals(annType)) {
-            opts.referenceMapper.toDBObject(entity, mf, dbObject, involvedObjects, this);
-        } else if (Embedded.class.equals(annType)) {
-            opts.embeddedMapper.toDBObject(entity, mf, dbObject, involvedObjects, this);
-        } else {
-            log.debug("No annotation was found, using default mapper " + opts.defaultMapper + " for " + mf);
-            opts.defaultMapper.toDBObject(entity, mf, dbObject, involvedObjects, this);
+    /**
+     * Returns the fields to fetch the references of the field with, given their (java or stored) names; the class name is always fetched.
+     */
+    public DBObject createReferenceFields(final MappedField mf, final String... names) {
+        final MappedClass mc = getMappedClass(mf.isSingleValue() && !mf.isLazyRef() ? mf.getType() : mf.getSubClass());
+        final BasicDBObject fields = new BasicDBObject();
+        for (final String name : names) {
+            final MappedField field = mc == null ? null : mc.getMappedFieldByJavaField(name);
+            fields.put(field == null ? name : field.getNameToStore(), 1);
         }
+        fields.put(CLASS_NAME_FIELDNAME, 1);
+        return fields;
+    }
 
+    /**
+     * Returns the name of the value the snapshots of the references of the field are stored in (see {@link Reference#snapshot()}), or null
+     * if it has none.
+     */
+    public String getSnapshotName(final MappedField mf) {
+        final Reference refAnn = mf.getAnnotation(Reference.class);
+        if (refAnn == null || refAnn.snapshot().length == 0 || mf.isMap() || mf.isLazyRef()) {
+            return null;
+        }
+        return mf.getNameToStore() + SNAPSHOT_SUFFIX;
     }
 
-    // TODO might be better to expose via some "options" object?
-    public DefaultConverters getConverters() {
-        return converters;
+    /**
+     * Returns the snapshot of the entity referenced by the field: its id, its class name (if not the referenced type), and the values of
+     * the fields of {@link Reference#snapshot()}, as stored.
+     */
+    public DBObject createSnapshot(final MappedField mf, final Object entity) {
+        final Object unwrapped = ProxyHelper.unwrap(entity);
+        final MappedClass mc = getMappedClass(unwrapped);
+        final CodecPlan plan = mc.getCodecPlan();
+        final DBObject snapshot = new BasicDBObject();
+        plan.writeId(unwrapped, snapshot, null);
+        if (unwrapped.getClass() != (mf.isSingleValue() ? mf.getType() : mf.getSubClass())) {
+            snapshot.put(CLASS_NAME_FIELDNAME, mc.getAlias() == null ? unwrapped.getClass().getName() : mc.getAlias());
+        }
+        for (final String name : mf.getAnnotation(Reference.class).snapshot()) {
+            final MappedField field = mc.getMappedFieldByJavaField(name);
+            if (field == null) {
+                throw new MappingException("The snapshot field '" + name + "' of " + mf.getFullName() + " could not be found in "
+                    + mc.getClazz().getName());
+            }
+            plan.write(field, unwrapped, snapshot);
+        }
+        return snapshot;
     }
 
-    public EntityCache createEntityCache() {
-        return new DefaultEntityCache();// TODO choose impl
+    /**
+     * Returns true if the entity was loaded with only some of its fields (see {@link Reference#fields()} and {@link Reference#snapshot()});
+     * saving it would lose the others.
+     */
+    public boolean isPartial(final Object entity) {
+        return entity != null && partialEntities.contains(entity);
+    }
+
+    void markPartial(final Object entity) {
+        partialEntities.add(entity);
     }
 
     public <T> Key<T> refToKey(final DBRef ref) {
@@ -691,63 +879,26 @@ public class Mapper {
      */
     public static MappedField validate(final Class clazz, final Mapper mapper, final StringBuffer origProp, final FilterOperator op,
         final Object val, final boolean validateNames, final boolean validateTypes) {
-        //TODO: cache validations (in static?).
-
         MappedField mf = null;
         final String prop = origProp.toString();
-        boolean hasTranslations = false;
 
         if (validateNames) {
-            final String[] parts = prop.split("\\.");
             if (clazz == null) {
                 return null;
             }
 
-            MappedClass mc = mapper.getMappedClass(clazz);
-            for (int i = 0; ; ) {
-                final String part = parts[i];
-                mf = mc.getMappedField(part);
-
-                //translate from java field name to stored field name
-                if (mf == null) {
-                    mf = mc.getMappedFieldByJavaField(part);
-                    if (mf == null) {
-                        throw new ValidationException("The field '" + part + "' could not be found in '" + clazz.getName() +
-                            "' while validating - " + prop +
-                            "; if you wish to continue please disable validation.");
-                    }
-                    hasTranslations = true;
-                    parts[i] = mf.getNameToStore();
-                }
-
-                i++;
-                if (mf.isMap()) {
-                    //skip the map key validation, and move to the next part
-                    i++;
-                }
-
-                //catch people trying to search/update into @Reference/@Serialized fields
-                if (i < parts.length && !canQueryPast(mf)) {
-                    throw new ValidationException(
-                        "Can not use dot-notation past '" + part + "' could not be found in '" + clazz.getName() + "' while validating - "
-                            + prop);
-                }
-
-                if (i >= parts.length) {
-                    break;
-                }
-                //get the next MappedClass for the next field validation
-                mc = mapper.getMappedClass((mf.isSingleValue()) ? mf.getType() : mf.getSubClass());
-            }
-
-            //record new property string if there has been a translation to any part
-            if (hasTranslations) {
-                origProp.setLength(0); // clear existing content
-                origProp.append(parts[0]);
-                for (int i = 1; i < parts.length; i++) {
-                    origProp.append('.');
-                    origProp.append(parts[i]);
+            final PathCache.ValidatedPath cached = mapper.pathCache.get(clazz, prop);
+            if (cached != null) {
+                mf = cached.mf;
+                if (cached.translated != null) {
+                    origProp.setLength(0);
+                    origProp.append(cached.translated);
                 }
+            } else {
+                mf = validateNames(clazz, mapper, origProp);
+                final String translated = origProp.toString();
+                mapper.pathCache.put(clazz, prop, new PathCache.ValidatedPath(mf, prop.equals(translated) ? null : translated),
+                    mapper.getOptions().pathCacheSize);
             }
 
             if (validateTypes) {
@@ -773,6 +924,64 @@ public class Mapper {
         return mf;
     }
 
+    /**
+     * Validates the names of the path, translating java field names to stored names (in origProp); returns the mapped field at the end.
+     */
+    private static MappedField validateNames(final Class clazz, final Mapper mapper, final StringBuffer origProp) {
+        final String prop = origProp.toString();
+        final String[] parts = prop.split("\\.");
+        boolean hasTranslations = false;
+        MappedField mf;
+
+        MappedClass mc = mapper.getMappedClass(clazz);
+        for (int i = 0; ; ) {
+            final String part = parts[i];
+            mf = mc.getMappedField(part);
+
+            //translate from java field name to stored field name
+            if (mf == null) {
+                mf = mc.getMappedFieldByJavaField(part);
+                if (mf == null) {
+                    throw new ValidationException("The field '" + part + "' could not be found in '" + clazz.getName() +
+                        "' while validating - " + prop +
+                        "; if you wish to continue please disable validation.");
+                }
+                hasTranslations = true;
+                parts[i] = mf.getNameToStore();
+            }
+
+            i++;
+            if (mf.isMap()) {
+                //skip the map key validation, and move to the next part
+                i++;
+            }
+
+            //catch people trying to search/update into @Reference/@Serialized fields
+            if (i < parts.length && !canQueryPast(mf)) {
+                throw new ValidationException(
+                    "Can not use dot-notation past '" + part + "' could not be found in '" + clazz.getName() + "' while validating - "
+                        + prop);
+            }
+
+            if (i >= parts.length) {
+                break;
+            }
+            //get the next MappedClass for the next field validation
+            mc = mapper.getMappedClass((mf.isSingleValue()) ? mf.getType() : mf.getSubClass());
+        }
+
+        //record new property string if there has been a translation to any part
+        if (hasTranslations) {
+            origProp.setLength(0); // clear existing content
+            origProp.append(parts[0]);
+            for (int i = 1; i < parts.length; i++) {
+                origProp.append('.');
+                origProp.append(parts[i]);
+            }
+        }
+        return mf;
+    }
+
     /**
      * Return the first {@link StackTraceElement} not in our code (package).
      */
@@ -2,6 +2,7 @@ package com.google.code.morphia.mapping;
 
 
 import com.google.code.morphia.ObjectFactory;
+import com.google.code.morphia.mapping.cache.SecondLevelCache;
 
 
 /**
@@ -26,6 +27,41 @@ public class MapperOptions {
    * <p>Controls if final fields are stored. </p>
    */
   public boolean ignoreFinals; //ignore final fields.
+  /**
+   * <p>Controls if entities are encoded straight to BSON when saved/inserted (see {@link EntityDBEncoder}), when nothing needs their
+   * mapped DBObject. </p>
+   */
+  public boolean directEncoding = true;
+  /**
+   * <p>Controls if query results are decoded to {@link CompactDBObject}s (see {@link EntityDBDecoder}) rather than {@link
+   * com.mongodb.BasicDBObject}s, when no decoder factory is set on the datastore. Off by default: the cursors of queries, and the
+   * (raw DBObject) fields of entities, then hold {@code CompactDBObject}s too, which code expecting {@code BasicDBObject}s cannot take.
+   * </p>
+   */
+  public boolean directDecoding;
+  /**
+   * <p>The maximum number of validated query/update field paths to cache (see {@link Mapper#getPathCache()}); 0 disables the cache. </p>
+   */
+  public int pathCacheSize = 1000;
+  /**
+   * <p>The number of query results whose (non-lazy) references are fetched together, with one query per collection (see {@link
+   * Mapper#prefetchReferences}); 0 fetches each reference on its own. </p>
+   */
+  public int referenceBatchSize = 100;
+  /**
+   * <p>The most ids sent in one {@code $in} query, by {@code getByKeys}/{@code getKeysByRefs} and when fetching the references of a batch
+   * of results; larger lists are split in several queries (0 sends all the ids of a collection in one). </p>
+   */
+  public int maxIdsPerQuery = 1000;
+  /**
+   * <p>Controls if the first lazy reference collection/map (of a batch of query results) which is used fetches the entities of all the
+   * others in the batch too. </p>
+   */
+  public boolean fetchLazySiblings;
+  /**
+   * <p>Controls how the existence of lazily referenced entities is checked (see {@link LazyReferenceCheck}). </p>
+   */
+  public LazyReferenceCheck lazyReferenceCheck = LazyReferenceCheck.BATCH;
 
   public final CustomMapper referenceMapper = new ReferenceMapper();
   public final CustomMapper embeddedMapper  = new EmbeddedMapper();
@@ -33,4 +69,19 @@ public class MapperOptions {
   public final CustomMapper defaultMapper   = embeddedMapper;
 
   public ObjectFactory objectFactory = new DefaultCreator();
+
+  /**
+   * <p>The documents cache shared by all requests (see {@link SecondLevelCache}); null (the default) for none. When set, {@code
+   * Datastore.get}, {@code getByKey(s)} and the resolution of references look there before querying, and the writes of the datastore
+   * invalidate what they touch. Writes made any other way are only picked up once the documents expire (see {@link
+   * com.google.code.morphia.annotations.CacheTTL}). Keys do not name the database, so do not share a mapper using one between
+   * databases.</p>
+   */
+  public SecondLevelCache secondLevelCache;
+
+  /**
+   * <p>Creates the accessors used to read/write the mapped fields; plain reflection by default. Only applies to classes mapped after it
+   * is set.</p>
+   */
+  public FieldAccessorFactory fieldAccessorFactory = new ReflectiveFieldAccessorFactory();
 }
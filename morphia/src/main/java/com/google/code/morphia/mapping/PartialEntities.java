@@ -0,0 +1,67 @@
+package com.google.code.morphia.mapping;
+
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.HashSet;
+import java.util.Set;
+
+
+/**
+ * The entities which were loaded with only some of their fields (see {@link com.google.code.morphia.annotations.Reference#fields()}), by
+ * identity; they are held weakly, so they are dropped once no longer used.
+ */
+class PartialEntities {
+  /**
+   * A weak reference which is equal to the ones to the same (live) entity
+   */
+  private static final class EntityRef extends WeakReference<Object> {
+    private final int hash;
+
+    EntityRef(final Object entity, final ReferenceQueue<Object> queue) {
+      super(entity, queue);
+      hash = System.identityHashCode(entity);
+    }
+
+    @Override
+    public int hashCode() {
+      return hash;
+    }
+
+    @Override
+    public boolean equals(final Object obj) {
+      if (this == obj) {
+        return true;
+      }
+      if (!(obj instanceof EntityRef)) {
+        return false;
+      }
+      final Object entity = get();
+      return entity != null && entity == ((EntityRef) obj).get();
+    }
+  }
+
+  private final ReferenceQueue<Object> queue = new ReferenceQueue<Object>();
+  private final Set<EntityRef> entities = new HashSet<EntityRef>();
+
+  synchronized void add(final Object entity) {
+    expunge();
+    entities.add(new EntityRef(entity, queue));
+  }
+
+  synchronized boolean contains(final Object entity) {
+    if (entities.isEmpty()) {
+      return false;
+    }
+    expunge();
+    return entities.contains(new EntityRef(entity, null));
+  }
+
+  private void expunge() {
+    Reference<?> ref;
+    while ((ref = queue.poll()) != null) {
+      entities.remove(ref);
+    }
+  }
+}
@@ -0,0 +1,148 @@
+package com.google.code.morphia.mapping;
+
+
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * Caches the outcome of validating a (dotted) field path against a class (see {@link Mapper#validate}): the {@link MappedField} at the end
+ * of the path, and the path translated to the stored names. Only paths which validated are cached.
+ * <p/>
+ * The cache is emptied when the metadata of the mapped classes changes (see {@link Mapper#getMetadataGeneration()}). Lookups take no
+ * lock; when it is full, some paths (whichever the map gives first) make room for a quarter of it.
+ */
+@SuppressWarnings("rawtypes")
+public class PathCache {
+  /**
+   * A validated path.
+   */
+  static final class ValidatedPath {
+    final MappedField mf;
+    // null if the path is not translated
+    final String translated;
+
+    ValidatedPath(final MappedField mf, final String translated) {
+      this.mf = mf;
+      this.translated = translated;
+    }
+  }
+
+  /**
+   * A path of a class.
+   */
+  private static final class PathKey {
+    private final Class clazz;
+    private final String path;
+
+    PathKey(final Class clazz, final String path) {
+      this.clazz = clazz;
+      this.path = path;
+    }
+
+    @Override
+    public int hashCode() {
+      return 31 * clazz.hashCode() + path.hashCode();
+    }
+
+    @Override
+    public boolean equals(final Object obj) {
+      if (!(obj instanceof PathKey)) {
+        return false;
+      }
+      final PathKey other = (PathKey) obj;
+      return clazz == other.clazz && path.equals(other.path);
+    }
+  }
+
+  /**
+   * The paths validated against a generation of the metadata; replaced (rather than emptied) when it changes, so that no lock is needed
+   * to tell which generation the map is of.
+   */
+  private static final class Paths {
+    private final int metadataGeneration;
+    private final ConcurrentHashMap<PathKey, ValidatedPath> map = new ConcurrentHashMap<PathKey, ValidatedPath>();
+
+    Paths(final int metadataGeneration) {
+      this.metadataGeneration = metadataGeneration;
+    }
+  }
+
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+  private final Mapper mapper;
+  private volatile Paths paths;
+
+  PathCache(final Mapper mapper) {
+    this.mapper = mapper;
+    paths = new Paths(mapper.getMetadataGeneration());
+  }
+
+  // returns the paths of the current metadata, replacing them if it changed since
+  private Paths paths() {
+    final int generation = mapper.getMetadataGeneration();
+    Paths current = paths;
+    if (current.metadataGeneration != generation) {
+      current = new Paths(generation);
+      paths = current;
+    }
+    return current;
+  }
+
+  ValidatedPath get(final Class clazz, final String path) {
+    final ValidatedPath found = paths().map.get(new PathKey(clazz, path));
+    if (found == null) {
+      misses.incrementAndGet();
+    } else {
+      hits.incrementAndGet();
+    }
+    return found;
+  }
+
+  void put(final Class clazz, final String path, final ValidatedPath validated, final int maxSize) {
+    if (maxSize <= 0) {
+      return;
+    }
+    final ConcurrentHashMap<PathKey, ValidatedPath> map = paths().map;
+    if (map.size() >= maxSize) {
+      // the size may have been lowered since, so more than a quarter may go
+      final int room = Math.max(maxSize / 4, 1);
+      for (final Iterator<PathKey> it = map.keySet().iterator(); map.size() > maxSize - room && it.hasNext();) {
+        it.next();
+        it.remove();
+      }
+    }
+    map.put(new PathKey(clazz, path), validated);
+  }
+
+  /**
+   * Returns the number of lookups which found a validated path.
+   */
+  public long getHits() {
+    return hits.get();
+  }
+
+  /**
+   * Returns the number of lookups which did not find a validated path (and had to validate it).
+   */
+  public long getMisses() {
+    return misses.get();
+  }
+
+  /**
+   * Returns the number of cached paths.
+   */
+  public int size() {
+    return paths().map.size();
+  }
+
+  /**
+   * Empties the cache, and resets the counters.
+   */
+  public void clear() {
+    paths = new Paths(mapper.getMetadataGeneration());
+    hits.set(0);
+    misses.set(0);
+  }
+}
@@ -0,0 +1,490 @@
+package com.google.code.morphia.mapping;
+
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.google.code.morphia.Key;
+import com.google.code.morphia.mapping.cache.EntityCache;
+import com.google.code.morphia.mapping.cache.EntityCacheStatistics;
+import com.google.code.morphia.mapping.lazy.proxy.LazyReferenceGroup;
+import com.mongodb.BasicDBList;
+import com.mongodb.BasicDBObject;
+import com.mongodb.DB;
+import com.mongodb.DBCursor;
+import com.mongodb.DBObject;
+import com.mongodb.DBRef;
+
+
+/**
+ * The {@link EntityCache} used to map a batch of query results: besides delegating to the cache of the query, it holds the documents
+ * referenced by the batch (through non-lazy {@link com.google.code.morphia.annotations.Reference}s, at any depth), fetched with one
+ * {@code _id $in} query per collection and level. {@link ReferenceMapper} takes them from here instead of fetching each one.
+ * <p/>
+ * The lazy references of the batch are checked for existence the same way, with one keys only query per collection (see {@link
+ * LazyReferenceCheck#BATCH}); the results go to the cache, where {@link ReferenceMapper} looks before checking each one.
+ * <p/>
+ * Documents in the second level cache (see {@link MapperOptions#secondLevelCache}) are taken from there, and the fetched ones are put in it.
+ * <p/>
+ * A {@link FetchPlan} adds the lazy references at its prefetch paths to the ones fetched (which {@link ReferenceMapper} then loads as the
+ * entities), or has nothing fetched at all.
+ * <p/>
+ * The references of a field with a projection (see {@link com.google.code.morphia.annotations.Reference#fields()}) are fetched with only
+ * those fields, apart from the others to the same collection; their own references are not collected, nor are they cached. The
+ * references with snapshots in the document are not fetched at all.
+ * <p/>
+ * References which were not fetched (say, a stored id which does not match the type of the {@code _id}) are still fetched one at a time.
+ */
+@SuppressWarnings({"unchecked", "rawtypes"})
+class ReferenceBatch implements EntityCache {
+  /**
+   * The references to fetch from one collection: id -> the type of the field which referenced it.
+   */
+  private static final class Pending {
+    private final DB db;
+    private final String collection;
+    // the fields to fetch; null for all of them
+    private final DBObject fields;
+    private final Map<Object, Class> types = new LinkedHashMap<Object, Class>();
+    // id -> the path of the field which referenced it, if tracked
+    private final Map<Object, String> paths = new HashMap<Object, String>();
+
+    Pending(final DB db, final String collection, final DBObject fields) {
+      this.db = db;
+      this.collection = collection;
+      this.fields = fields;
+    }
+  }
+
+  private final Mapper mapper;
+  private final EntityCache cache;
+  private final FetchPlan plan;
+  // namespace -> id -> document (null if it was not found)
+  private final Map<String, Map<Object, DBObject>> fetched = new HashMap<String, Map<Object, DBObject>>();
+  // namespace -> id -> the lazy reference to check for existence
+  private final Map<String, Map<Object, DBRef>> unchecked = new LinkedHashMap<String, Map<Object, DBRef>>();
+  // namespace -> ids of the lazy references fetched for the prefetch paths of the plan
+  private final Map<String, Set<Object>> prefetched = new HashMap<String, Set<Object>>();
+  // the lazy reference collections/maps of the batch; see MapperOptions.fetchLazySiblings
+  private LazyReferenceGroup lazyReferences;
+
+  ReferenceBatch(final Mapper mapper, final EntityCache cache) {
+    this(mapper, cache, null);
+  }
+
+  ReferenceBatch(final Mapper mapper, final EntityCache cache, final FetchPlan plan) {
+    this.mapper = mapper;
+    this.cache = cache;
+    this.plan = plan;
+  }
+
+  private static String getNamespace(final DB db, final String collection) {
+    return db == null ? collection : db.getName() + "." + collection;
+  }
+
+  /**
+   * Returns the namespace the documents fetched with the fields (null for all of them) are kept under.
+   */
+  private static String getNamespace(final DB db, final String collection, final DBObject fields) {
+    final String ns = getNamespace(db, collection);
+    return fields == null ? ns : ns + "|" + fields;
+  }
+
+  /**
+   * Fetches the documents referenced by the dbObjects (instances of the entityClass, unless they say otherwise), and the documents those
+   * reference, and so on.
+   */
+  void prefetch(final Class entityClass, final List<DBObject> dbObjects) {
+    if (isStubs()) {
+      return;
+    }
+
+    // the paths of the fields are only needed to match the prefetch paths
+    final String root = plan != null && plan.hasPrefetchPaths() ? "" : null;
+    Map<String, Pending> pending = new LinkedHashMap<String, Pending>();
+    for (final DBObject dbObj : dbObjects) {
+      collect(dbObj, getMappedClass(dbObj, entityClass), pending, root);
+    }
+
+    while (!pending.isEmpty()) {
+      final Map<String, Pending> next = new LinkedHashMap<String, Pending>();
+      for (final Map.Entry<String, Pending> entry : pending.entrySet()) {
+        final Pending refs = entry.getValue();
+        final Map<Object, DBObject> docs = fetched.get(entry.getKey());
+        for (final DBObject doc : findAll(refs.db, refs.collection, new ArrayList<Object>(refs.types.keySet()), refs.fields)) {
+          final Object id = doc.get(Mapper.ID_KEY);
+          docs.put(id, doc);
+          if (refs.fields == null) {
+            mapper.cacheDocument(refs.types.get(id), refs.collection, doc);
+            collect(doc, getMappedClass(doc, refs.types.get(id)), next, refs.paths.get(id));
+          }
+        }
+      }
+      pending = next;
+    }
+
+    checkExistence();
+  }
+
+  /**
+   * Tells the cache which of the lazy references exist: the ones fetched as documents do, the others are looked up by key.
+   */
+  private void checkExistence() {
+    for (final Map.Entry<String, Map<Object, DBRef>> entry : unchecked.entrySet()) {
+      final Map<Object, DBObject> docs = fetched.get(entry.getKey());
+      final Map<Object, DBRef> refs = entry.getValue();
+      final List<Object> ids = new ArrayList<Object>();
+      for (final DBRef dbRef : refs.values()) {
+        if (docs != null && docs.get(dbRef.getId()) != null) {
+          cache.notifyExists(mapper.refToKey(dbRef), true);
+        } else {
+          ids.add(dbRef.getId());
+        }
+      }
+      if (ids.isEmpty()) {
+        continue;
+      }
+
+      final DBRef first = refs.get(ids.get(0));
+      for (final DBObject doc : findAll(first.getDB(), first.getRef(), ids, new BasicDBObject(Mapper.ID_KEY, 1))) {
+        final DBRef dbRef = refs.remove(doc.get(Mapper.ID_KEY));
+        if (dbRef != null) {
+          cache.notifyExists(mapper.refToKey(dbRef), true);
+        }
+      }
+      for (final Object id : ids) {
+        final DBRef dbRef = refs.get(id);
+        if (dbRef != null) {
+          cache.notifyExists(mapper.refToKey(dbRef), false);
+        }
+      }
+    }
+    unchecked.clear();
+  }
+
+  /**
+   * Returns the documents in the collection with the ids, with at most {@link MapperOptions#maxIdsPerQuery} ids per query, so that a
+   * batch with many (lists of) references does not make a query too large to send.
+   */
+  private List<DBObject> findAll(final DB db, final String collection, final List<Object> ids, final DBObject fields) {
+    final int maxIdsPerQuery = mapper.getOptions().maxIdsPerQuery;
+    final int chunkSize = maxIdsPerQuery > 0 ? maxIdsPerQuery : ids.size();
+    final List<DBObject> docs = new ArrayList<DBObject>();
+    for (int i = 0; i < ids.size(); i += chunkSize) {
+      for (final DBObject doc : find(db, collection, ids.subList(i, Math.min(ids.size(), i + chunkSize)), fields)) {
+        docs.add(doc);
+      }
+    }
+    return docs;
+  }
+
+  /**
+   * Returns the documents in the collection with the ids; only the fields given, if any.
+   */
+  Iterable<DBObject> find(final DB db, final String collection, final List<Object> ids, final DBObject fields) {
+    // the references stored as ids only have no DB
+    final DB refDB = db == null ? mapper.getReferenceDB() : db;
+    final DBCursor cursor = refDB.getCollectionFromString(collection).find(new BasicDBObject(Mapper.ID_KEY, new BasicDBObject("$in", ids)),
+      fields);
+    try {
+      final List<DBObject> docs = new ArrayList<DBObject>();
+      while (cursor.hasNext()) {
+        docs.add(cursor.next());
+      }
+      return docs;
+    } finally {
+      cursor.close();
+    }
+  }
+
+  /**
+   * Returns the referenced document, if it was fetched
+   */
+  DBObject getFetched(final DBRef dbRef) {
+    return getFetched(dbRef, null);
+  }
+
+  /**
+   * Returns the referenced document with the fields (null for all of them), if it was fetched
+   */
+  DBObject getFetched(final DBRef dbRef, final DBObject fields) {
+    final Map<Object, DBObject> docs = fetched.get(getNamespace(dbRef.getDB(), dbRef.getRef(), fields));
+    return docs == null ? null : docs.get(dbRef.getId());
+  }
+
+  FetchPlan getPlan() {
+    return plan;
+  }
+
+  /**
+   * Returns true if the (lazy) reference was fetched for a prefetch path of the plan
+   */
+  boolean isPrefetched(final DBRef dbRef) {
+    final Set<Object> ids = prefetched.get(getNamespace(dbRef.getDB(), dbRef.getRef()));
+    return ids != null && ids.contains(dbRef.getId());
+  }
+
+  /**
+   * Returns true if some reference was fetched for a prefetch path of the plan
+   */
+  boolean hasPrefetched() {
+    return !prefetched.isEmpty();
+  }
+
+  /**
+   * Returns true if the references are loaded as instances with only their ids set; see {@link FetchPlan#isStubs()}
+   */
+  boolean isStubs() {
+    return plan != null && plan.isStubs();
+  }
+
+  /**
+   * Returns the group of the lazy reference collections/maps of the batch
+   */
+  LazyReferenceGroup getLazyReferences() {
+    if (lazyReferences == null) {
+      lazyReferences = new LazyReferenceGroup();
+    }
+    return lazyReferences;
+  }
+
+  /**
+   * The class the dbObject is read as: the one it was stored from, if that is mapped, or the type of its field.
+   */
+  private MappedClass getMappedClass(final DBObject dbObj, final Class type) {
+    final Class aliased = mapper.getAliasedClass(dbObj);
+    if (aliased != null) {
+      return mapper.getMappedClass(aliased);
+    }
+    final Map<String, MappedClass> mcs = mapper.getMCMap();
+    final Object className = dbObj.get(Mapper.CLASS_NAME_FIELDNAME);
+    MappedClass mc = className instanceof String ? mcs.get(className) : null;
+    if (mc == null && type != null) {
+      mc = mcs.get(type.getName());
+    }
+    return mc;
+  }
+
+  /**
+   * Collects the references of the dbObject, which is at the path (null if the paths are not tracked).
+   */
+  private void collect(final DBObject dbObj, final MappedClass mc, final Map<String, Pending> pending, final String path) {
+    if (mc == null) {
+      return;
+    }
+    final CodecPlan codecPlan = mc.getCodecPlan();
+
+    for (final MappedField mf : codecPlan.getEagerReferenceFields()) {
+      final Object val = withoutSnapshots(mf, dbObj, ReferenceMapper.toDBRefs(mf.getDbObjectValue(dbObj), mf, mapper));
+      addReferences(mf, val, pending, getPath(path, mf), false);
+    }
+
+    for (final MappedField mf : codecPlan.getLazyReferenceFields()) {
+      final String fieldPath = getPath(path, mf);
+      if (hasSnapshots(mf, dbObj)) {
+        // the ones without a snapshot are resolved as if eager
+        final Object val = withoutSnapshots(mf, dbObj, ReferenceMapper.toDBRefs(mf.getDbObjectValue(dbObj), mf, mapper));
+        addReferences(mf, val, pending, fieldPath, false);
+      } else if (fieldPath != null && plan.prefetches(fieldPath)) {
+        addReferences(mf, ReferenceMapper.toDBRefs(mf.getDbObjectValue(dbObj), mf, mapper), pending, fieldPath, true);
+      } else if (mapper.getOptions().lazyReferenceCheck == LazyReferenceCheck.BATCH && !mf.isLazyRef()) {
+        final Object val = ReferenceMapper.toDBRefs(mf.getDbObjectValue(dbObj), mf, mapper);
+        if (val instanceof DBRef) {
+          addUnchecked((DBRef) val);
+        } else if (val instanceof List) {
+          for (final Object ref : (List) val) {
+            if (ref instanceof DBRef) {
+              addUnchecked((DBRef) ref);
+            }
+          }
+        }
+      }
+    }
+
+    for (final MappedField mf : codecPlan.getEmbeddedFields()) {
+      final Object val = mf.getDbObjectValue(dbObj);
+      if (!(val instanceof DBObject)) {
+        continue;
+      }
+      if (mf.isSingleValue() && !(val instanceof List)) {
+        collect((DBObject) val, getMappedClass((DBObject) val, mf.getConcreteType()), pending, getPath(path, mf));
+      } else {
+        for (final Object embedded : getValues(mf, (DBObject) val)) {
+          if (embedded instanceof DBObject && !(embedded instanceof List)) {
+            collect((DBObject) embedded, getMappedClass((DBObject) embedded, mf.getSubClass()), pending, getPath(path, mf));
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Returns true if the references of the field are loaded from their snapshots (see {@link
+   * com.google.code.morphia.annotations.Reference#snapshot()}), which need not be fetched.
+   */
+  private boolean hasSnapshots(final MappedField mf, final DBObject dbObj) {
+    final String snapshotName = mapper.getSnapshotName(mf);
+    return snapshotName != null && dbObj.get(snapshotName) != null;
+  }
+
+  /**
+   * Returns the reference(s) of the value which have no snapshot in the dbObject; the others are loaded from their snapshots.
+   */
+  private Object withoutSnapshots(final MappedField mf, final DBObject dbObj, final Object val) {
+    final String snapshotName = mapper.getSnapshotName(mf);
+    final Object snapshots = snapshotName == null ? null : dbObj.get(snapshotName);
+    if (snapshots == null) {
+      return val;
+    }
+    final Set<Object> ids = new HashSet<Object>();
+    for (final Object snapshot : snapshots instanceof List ? (List) snapshots : Collections.singletonList(snapshots)) {
+      if (snapshot instanceof DBObject) {
+        ids.add(((DBObject) snapshot).get(Mapper.ID_KEY));
+      }
+    }
+    if (val instanceof DBRef) {
+      return ids.contains(((DBRef) val).getId()) ? null : val;
+    } else if (!(val instanceof List)) {
+      return val;
+    }
+    final BasicDBList refs = new BasicDBList();
+    for (final Object ref : (List) val) {
+      if (ref instanceof DBRef && !ids.contains(((DBRef) ref).getId())) {
+        refs.add(ref);
+      }
+    }
+    return refs;
+  }
+
+  private static String getPath(final String path, final MappedField mf) {
+    if (path == null) {
+      return null;
+    }
+    return path.length() == 0 ? mf.getJavaFieldName() : path + "." + mf.getJavaFieldName();
+  }
+
+  /**
+   * Adds the reference(s) of the field value to the ones to fetch; marked as prefetched, if they are lazy ones.
+   */
+  private void addReferences(final MappedField mf, final Object val, final Map<String, Pending> pending, final String path,
+    final boolean lazy) {
+    final Class type = mf.isSingleValue() && !mf.isLazyRef() ? mf.getType() : mf.getSubClass();
+    final DBObject fields = mapper.getReferenceFields(mf, plan);
+    if (val instanceof DBRef) {
+      addReference((DBRef) val, type, fields, pending, path, lazy);
+    } else if (val instanceof DBObject) {
+      for (final Object ref : getValues(mf, (DBObject) val)) {
+        if (ref instanceof DBRef) {
+          addReference((DBRef) ref, type, fields, pending, path, lazy);
+        }
+      }
+    }
+  }
+
+  private static Collection<?> getValues(final MappedField mf, final DBObject val) {
+    if (val instanceof List) {
+      return (List) val;
+    }
+    return mf.isMap() ? val.toMap().values() : Collections.emptyList();
+  }
+
+  private void addReference(final DBRef dbRef, final Class type, final DBObject fields, final Map<String, Pending> pending,
+    final String path, final boolean lazy) {
+    final Object id = dbRef.getId();
+    final String ns = getNamespace(dbRef.getDB(), dbRef.getRef());
+    if (lazy && id != null) {
+      Set<Object> ids = prefetched.get(ns);
+      if (ids == null) {
+        ids = new HashSet<Object>();
+        prefetched.put(ns, ids);
+      }
+      ids.add(id);
+    }
+    final String fetchedNs = getNamespace(dbRef.getDB(), dbRef.getRef(), fields);
+    Map<Object, DBObject> docs = fetched.get(fetchedNs);
+    if (docs == null) {
+      docs = new HashMap<Object, DBObject>();
+      fetched.put(fetchedNs, docs);
+    } else if (docs.containsKey(id)) {
+      return;
+    }
+    if (id == null || cache.getEntity(mapper.createKey(type, id)) != null) {
+      return;
+    }
+
+    // the whole document is loaded instead, when it is there (see ReferenceMapper.resolveObject)
+    final DBObject cached = mapper.getCachedDocument(dbRef.getRef(), id);
+    if (cached != null) {
+      docs.put(id, cached);
+      collect(cached, getMappedClass(cached, type), pending, path);
+      return;
+    }
+
+    // marks it as requested
+    docs.put(id, null);
+    Pending refs = pending.get(fetchedNs);
+    if (refs == null) {
+      refs = new Pending(dbRef.getDB(), dbRef.getRef(), fields);
+      pending.put(fetchedNs, refs);
+    }
+    refs.types.put(id, type);
+    if (path != null) {
+      refs.paths.put(id, path);
+    }
+  }
+
+  private void addUnchecked(final DBRef dbRef) {
+    if (dbRef.getId() == null) {
+      return;
+    }
+    final String ns = getNamespace(dbRef.getDB(), dbRef.getRef());
+    Map<Object, DBRef> refs = unchecked.get(ns);
+    if (refs == null) {
+      refs = new LinkedHashMap<Object, DBRef>();
+      unchecked.put(ns, refs);
+    }
+    if (!refs.containsKey(dbRef.getId())) {
+      refs.put(dbRef.getId(), dbRef);
+    }
+  }
+
+  public Boolean exists(final Key<?> k) {
+    return cache.exists(k);
+  }
+
+  public void notifyExists(final Key<?> k, final boolean exists) {
+    cache.notifyExists(k, exists);
+  }
+
+  public <T> T getEntity(final Key<T> k) {
+    return cache.getEntity(k);
+  }
+
+  public <T> T getProxy(final Key<T> k) {
+    return cache.getProxy(k);
+  }
+
+  public <T> void putProxy(final Key<T> k, final T t) {
+    cache.putProxy(k, t);
+  }
+
+  public <T> void putEntity(final Key<T> k, final T t) {
+    cache.putEntity(k, t);
+  }
+
+  public void flush() {
+    fetched.clear();
+    cache.flush();
+  }
+
+  public EntityCacheStatistics stats() {
+    return cache.stats();
+  }
+}
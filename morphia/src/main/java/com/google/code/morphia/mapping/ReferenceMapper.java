@@ -2,7 +2,10 @@ package com.google.code.morphia.mapping;
 
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -12,15 +15,22 @@ import com.google.code.morphia.annotations.Reference;
 import com.google.code.morphia.logging.Logr;
 import com.google.code.morphia.logging.MorphiaLoggerFactory;
 import com.google.code.morphia.mapping.cache.EntityCache;
+import com.google.code.morphia.mapping.cache.EntityCacheStatistics;
 import com.google.code.morphia.mapping.lazy.LazyFeatureDependencies;
+import com.google.code.morphia.mapping.lazy.LazyRef;
+import com.google.code.morphia.mapping.lazy.LazyRefList;
 import com.google.code.morphia.mapping.lazy.proxy.ProxiedEntityReference;
 import com.google.code.morphia.mapping.lazy.proxy.ProxiedEntityReferenceList;
 import com.google.code.morphia.mapping.lazy.proxy.ProxiedEntityReferenceMap;
+import com.google.code.morphia.mapping.lazy.proxy.ProxiedReference;
 import com.google.code.morphia.mapping.lazy.proxy.ProxyHelper;
 import com.google.code.morphia.utils.IterHelper;
 import com.google.code.morphia.utils.IterHelper.IterCallback;
 import com.google.code.morphia.utils.IterHelper.MapIterCallback;
 import com.google.code.morphia.utils.ReflectionUtils;
+import com.mongodb.BasicDBList;
+import com.mongodb.BasicDBObject;
+import com.mongodb.DB;
 import com.mongodb.DBCollection;
 import com.mongodb.DBObject;
 import com.mongodb.DBRef;
@@ -40,28 +50,102 @@ class ReferenceMapper implements CustomMapper {
       return;
     }
 
-    if (mf.isMap()) {
-      writeMap(mf, dbObject, name, fieldValue, mapper);
+    final boolean idOnly = mf.getAnnotation(Reference.class).idOnly();
+    if (mf.isLazyRef()) {
+      writeLazyRef(mf, dbObject, name, fieldValue, idOnly, mapper);
+    } else if (mf.isMap()) {
+      writeMap(mf, dbObject, name, fieldValue, idOnly, mapper);
     } else if (mf.isMultipleValues()) {
-      writeCollection(mf, dbObject, name, fieldValue, mapper);
+      writeCollection(mf, dbObject, name, fieldValue, idOnly, mapper);
     } else {
-      writeSingle(dbObject, name, fieldValue, mapper);
+      writeSingle(mf, dbObject, name, fieldValue, idOnly, mapper);
     }
 
+    final String snapshotName = mapper.getSnapshotName(mf);
+    if (snapshotName != null && fieldValue != null) {
+      writeSnapshots(mf, dbObject, snapshotName, fieldValue, mapper);
+    }
+  }
+
+  /**
+   * Stores the snapshot(s) of the referenced entities; see {@link Reference#snapshot()}
+   */
+  private void writeSnapshots(final MappedField mf, final DBObject dbObject, final String snapshotName, final Object fieldValue,
+    final Mapper mapper) {
+    if (mf.isSingleValue()) {
+      dbObject.put(snapshotName, mapper.createSnapshot(mf, fieldValue));
+      return;
+    }
+    final List snapshots = new ArrayList();
+    for (final Object o : mf.getType().isArray() ? Arrays.asList((Object[]) fieldValue) : (Iterable) fieldValue) {
+      if (o != null) {
+        snapshots.add(mapper.createSnapshot(mf, o));
+      }
+    }
+    if (!snapshots.isEmpty() || mapper.getOptions().storeEmpties) {
+      dbObject.put(snapshotName, snapshots);
+    }
   }
 
-  private void writeSingle(final DBObject dbObject, final String name, final Object fieldValue, final Mapper mapper) {
+  /**
+   * Returns what is stored for the key: a DBRef, or just the id (see {@link Reference#idOnly()}), which is only allowed for keys to the
+   * collection of the declared type, since that is where it is read from.
+   */
+  private static Object toRef(final Key key, final MappedField mf, final boolean idOnly, final Mapper mapper) {
+    if (idOnly) {
+      if (key == null) {
+        return null;
+      }
+      final String collection = mapper.getCollectionName(referencedType(mf));
+      if (!collection.equals(mapper.updateKind(key))) {
+        throw new MappingException("Cannot store only the id of " + key + " in " + mf.getFullName() + "; it is read from the collection '"
+          + collection + "'");
+      }
+      return key.getId();
+    }
+    return mapper.keyToRef(key);
+  }
+
+  /**
+   * Returns the declared type of the referenced entities.
+   */
+  private static Class referencedType(final MappedField mf) {
+    return mf.isSingleValue() && !mf.isLazyRef() ? mf.getType() : mf.getSubClass();
+  }
+
+  private void writeSingle(final MappedField mf, final DBObject dbObject, final String name, final Object fieldValue, final boolean idOnly,
+    final Mapper mapper) {
     if (fieldValue == null) {
       if (mapper.getOptions().storeNulls) {
         dbObject.put(name, null);
       }
     }
 
-    dbObject.put(name, mapper.keyToRef(getKey(fieldValue, mapper)));
+    dbObject.put(name, toRef(getKey(fieldValue, mapper), mf, idOnly, mapper));
   }
 
-  private void writeCollection(final MappedField mf, final DBObject dbObject, final String name, final Object fieldValue,
+  private void writeLazyRef(final MappedField mf, final DBObject dbObject, final String name, final Object fieldValue, final boolean idOnly,
     final Mapper mapper) {
+    if (fieldValue instanceof LazyRefList) {
+      final LazyRefList refs = (LazyRefList) fieldValue;
+      final List values = new ArrayList();
+      // the entities are only fetched if the references were created from them
+      for (final Object o : refs.getKeys() == null ? refs.get() : refs.getKeys()) {
+        addValue(values, o, mf, idOnly, mapper);
+      }
+      if (!values.isEmpty() || mapper.getOptions().storeEmpties) {
+        dbObject.put(name, values);
+      }
+    } else if (fieldValue instanceof LazyRef) {
+      final LazyRef ref = (LazyRef) fieldValue;
+      dbObject.put(name, toRef(ref.getKey() == null ? getKey(ref.get(), mapper) : ref.getKey(), mf, idOnly, mapper));
+    } else {
+      dbObject.put(name, null);
+    }
+  }
+
+  private void writeCollection(final MappedField mf, final DBObject dbObject, final String name, final Object fieldValue,
+    final boolean idOnly, final Mapper mapper) {
     if (fieldValue != null) {
       final List values = new ArrayList();
 
@@ -69,17 +153,17 @@ class ReferenceMapper implements CustomMapper {
         final ProxiedEntityReferenceList p = (ProxiedEntityReferenceList) fieldValue;
         final List<Key<?>> getKeysAsList = p.__getKeysAsList();
         for (final Key<?> key : getKeysAsList) {
-          addValue(values, key, mapper);
+          addValue(values, key, mf, idOnly, mapper);
         }
       } else {
 
         if (mf.getType().isArray()) {
           for (final Object o : (Object[]) fieldValue) {
-            addValue(values, o, mapper);
+            addValue(values, o, mf, idOnly, mapper);
           }
         } else {
           for (final Object o : (Iterable) fieldValue) {
-            addValue(values, o, mapper);
+            addValue(values, o, mf, idOnly, mapper);
           }
         }
       }
@@ -89,20 +173,21 @@ class ReferenceMapper implements CustomMapper {
     }
   }
 
-  private void addValue(final List values, final Object o, final Mapper mapper) {
+  private void addValue(final List values, final Object o, final MappedField mf, final boolean idOnly, final Mapper mapper) {
     if (o == null && mapper.getOptions().storeNulls) {
       values.add(null);
       return;
     }
 
     if (o instanceof Key) {
-      values.add(mapper.keyToRef((Key) o));
+      values.add(toRef((Key) o, mf, idOnly, mapper));
     } else {
-      values.add(mapper.keyToRef(getKey(o, mapper)));
+      values.add(toRef(getKey(o, mapper), mf, idOnly, mapper));
     }
   }
 
-  private void writeMap(final MappedField mf, final DBObject dbObject, final String name, final Object fieldValue, final Mapper mapper) {
+  private void writeMap(final MappedField mf, final DBObject dbObject, final String name, final Object fieldValue, final boolean idOnly,
+    final Mapper mapper) {
     final Map<Object, Object> map = (Map<Object, Object>) fieldValue;
     if ((map != null)) {
       final Map values = mapper.getOptions().objectFactory.createMap(mf);
@@ -113,12 +198,12 @@ class ReferenceMapper implements CustomMapper {
         final Map<Object, Key<?>> refMap = proxy.__getReferenceMap();
         for (final Map.Entry<Object, Key<?>> entry : refMap.entrySet()) {
           final Object key = entry.getKey();
-          values.put(key, mapper.keyToRef(entry.getValue()));
+          values.put(key, toRef(entry.getValue(), mf, idOnly, mapper));
         }
       } else {
         for (final Map.Entry<Object, Object> entry : map.entrySet()) {
           final String strKey = mapper.converters.encode(entry.getKey()).toString();
-          values.put(strKey, mapper.keyToRef(getKey(entry.getValue(), mapper)));
+          values.put(strKey, toRef(getKey(entry.getValue(), mapper), mf, idOnly, mapper));
         }
       }
       if (!values.isEmpty() || mapper.getOptions().storeEmpties) {
@@ -157,7 +242,13 @@ class ReferenceMapper implements CustomMapper {
     final Class fieldType = mf.getType();
 
     final Reference refAnn = mf.getAnnotation(Reference.class);
-    if (mf.isMap()) {
+    final String snapshotName = mapper.getSnapshotName(mf);
+    final Object snapshots = snapshotName == null ? null : dbObject.get(snapshotName);
+    if (snapshots != null) {
+      readSnapshots(dbObject, mf, entity, snapshots, cache, mapper);
+    } else if (mf.isLazyRef()) {
+      readLazyRef(dbObject, mf, entity, cache, mapper);
+    } else if (mf.isMap()) {
       readMap(dbObject, mf, entity, refAnn, cache, mapper);
     } else if (mf.isMultipleValues()) {
       readCollection(dbObject, mf, entity, refAnn, cache, mapper);
@@ -170,11 +261,13 @@ class ReferenceMapper implements CustomMapper {
   private void readSingle(final DBObject dbObject, final MappedField mf, final Object entity, final Class fieldType, final Reference refAnn,
     final EntityCache cache, final Mapper mapper) {
 
-    final DBRef dbRef = (DBRef) mf.getDbObjectValue(dbObject);
+    final DBRef dbRef = (DBRef) toDBRefs(mf.getDbObjectValue(dbObject), mf, mapper);
     if (dbRef != null) {
       Object resolvedObject = null;
-      if (refAnn.lazy() && LazyFeatureDependencies.assertDependencyFullFilled()) {
-        if (exists(fieldType, dbRef, cache, mapper)) {
+      if (isStubs(cache)) {
+        resolvedObject = createStub(fieldType, dbRef, mapper);
+      } else if (refAnn.lazy() && !isPrefetched(dbRef, cache) && LazyFeatureDependencies.assertDependencyFullFilled()) {
+        if (!checksExistence(mapper) || exists(fieldType, dbRef, cache, mapper)) {
           resolvedObject = createOrReuseProxy(fieldType, dbRef, cache, mapper);
         } else {
           if (!refAnn.ignoreMissing()) {
@@ -192,22 +285,226 @@ class ReferenceMapper implements CustomMapper {
     }
   }
 
+  /**
+   * Sets the references from their snapshots (see {@link Reference#snapshot()}), without fetching them; the ones without a snapshot are
+   * resolved as usual.
+   */
+  private void readSnapshots(final DBObject dbObject, final MappedField mf, final Object entity, final Object snapshots,
+    final EntityCache cache, final Mapper mapper) {
+    final Map<Object, DBObject> byId = new HashMap<Object, DBObject>();
+    for (final Object snapshot : snapshots instanceof List ? (List) snapshots : Collections.singletonList(snapshots)) {
+      if (snapshot instanceof DBObject) {
+        byId.put(((DBObject) snapshot).get(Mapper.ID_KEY), (DBObject) snapshot);
+      }
+    }
+
+    final Object dbVal = toDBRefs(mf.getDbObjectValue(dbObject), mf, mapper);
+    if (mf.isSingleValue()) {
+      final Object resolvedObject = fromSnapshot((DBRef) dbVal, byId, mf, cache, mapper);
+      if (resolvedObject != null) {
+        mf.setFieldValue(entity, resolvedObject);
+      }
+      return;
+    }
+
+    final Collection references = mf.isSet() ? mapper.getOptions().objectFactory.createSet(mf)
+      : mapper.getOptions().objectFactory.createList(mf);
+    new IterHelper<String, Object>().loopOrSingle(dbVal, new IterCallback<Object>() {
+      @Override
+      public void eval(final Object val) {
+        final Object ent = fromSnapshot((DBRef) val, byId, mf, cache, mapper);
+        if (ent == null) {
+          log.warning("Null reference found when retrieving value for " + mf.getFullName());
+        } else {
+          references.add(ent);
+        }
+      }
+    });
+    if (mf.getType().isArray()) {
+      mf.setFieldValue(entity, ReflectionUtils.convertToArray(mf.getSubClass(), ReflectionUtils.iterToList(references)));
+    } else {
+      mf.setFieldValue(entity, references);
+    }
+  }
+
+  /**
+   * Returns the entity of the reference: the one in the cache, if any, or else a partial one loaded from its snapshot.
+   */
+  private Object fromSnapshot(final DBRef dbRef, final Map<Object, DBObject> snapshots, final MappedField mf, final EntityCache cache,
+    final Mapper mapper) {
+    if (dbRef == null) {
+      return null;
+    }
+    final DBObject snapshot = snapshots.get(dbRef.getId());
+    if (snapshot == null) {
+      return resolveObject(dbRef, mf, cache, mapper);
+    }
+    final Object cached = cache.getEntity(mapper.createKey(mf.isSingleValue() ? mf.getType() : mf.getSubClass(), dbRef.getId()));
+    if (cached != null) {
+      return cached;
+    }
+    final Object refObj = mapper.getOptions().objectFactory.createInstance(mapper, mf, snapshot);
+    mapper.fromDb(snapshot, refObj, new PartialEntityCache(cache, refObj));
+    mapper.markPartial(refObj);
+    return refObj;
+  }
+
+  /**
+   * Returns the stored reference(s) with each id stored on its own (see {@link Reference#idOnly()}) turned into a DBRef (without a DB) to
+   * the collection of the referenced type; DBRefs are left as they are, so either format is read.
+   */
+  static Object toDBRefs(final Object dbVal, final MappedField mf, final Mapper mapper) {
+    if (dbVal == null || dbVal instanceof DBRef) {
+      return dbVal;
+    }
+    if (dbVal instanceof List) {
+      final List refs = (List) dbVal;
+      List converted = null;
+      for (int i = 0; i < refs.size(); i++) {
+        final Object ref = refs.get(i);
+        if (ref != null && !(ref instanceof DBRef)) {
+          if (converted == null) {
+            converted = new BasicDBList();
+            converted.addAll(refs);
+          }
+          converted.set(i, toDBRef(ref, mf, mapper));
+        }
+      }
+      return converted == null ? refs : converted;
+    }
+    if (mf.isMap() && dbVal instanceof DBObject) {
+      final DBObject refs = (DBObject) dbVal;
+      for (final String key : refs.keySet()) {
+        if (refs.get(key) != null && !(refs.get(key) instanceof DBRef)) {
+          final DBObject converted = new BasicDBObject();
+          for (final String k : refs.keySet()) {
+            final Object ref = refs.get(k);
+            converted.put(k, ref instanceof DBRef ? ref : toDBRef(ref, mf, mapper));
+          }
+          return converted;
+        }
+      }
+      return refs;
+    }
+    return toDBRef(dbVal, mf, mapper);
+  }
+
+  private static DBRef toDBRef(final Object id, final MappedField mf, final Mapper mapper) {
+    if (id == null) {
+      return null;
+    }
+    return new DBRef(null, mapper.getCollectionName(referencedType(mf)), id);
+  }
+
+  /**
+   * Sets a {@link LazyRef}/{@link LazyRefList} of the stored keys; the entities are neither fetched nor checked for existence.
+   */
+  private void readLazyRef(final DBObject dbObject, final MappedField mf, final Object entity, final EntityCache cache,
+    final Mapper mapper) {
+    final Object dbVal = toDBRefs(mf.getDbObjectValue(dbObject), mf, mapper);
+    if (dbVal == null) {
+      return;
+    }
+
+    final Class referenceObjClass = mf.getSubClass();
+    final boolean prefetched = isPrefetched(dbVal, cache);
+    if (LazyRefList.class.isAssignableFrom(mf.getType())) {
+      final List<Key> keys = new ArrayList<Key>();
+      final List<Object> entities = new ArrayList<Object>();
+      new IterHelper<String, Object>().loopOrSingle(dbVal, new IterCallback<Object>() {
+        @Override
+        public void eval(final Object val) {
+          if (val != null) {
+            keys.add(mapper.refToKey((DBRef) val));
+            if (prefetched) {
+              entities.add(resolvePrefetched((DBRef) val, mf, cache, mapper));
+            }
+          }
+        }
+      });
+      final LazyRefList refs = new LazyRefList(referenceObjClass, keys, mapper.datastoreProvider);
+      if (prefetched) {
+        refs.__resolve(entities);
+      }
+      mf.setFieldValue(entity, refs);
+    } else {
+      final LazyRef ref = new LazyRef(referenceObjClass, mapper.refToKey((DBRef) dbVal), mapper.datastoreProvider);
+      if (prefetched) {
+        ref.__resolve(resolvePrefetched((DBRef) dbVal, mf, cache, mapper));
+      }
+      mf.setFieldValue(entity, ref);
+    }
+  }
+
+  /**
+   * Returns true if the reference(s) of the value were all fetched for the prefetch paths of the batch the cache is (see {@link
+   * FetchPlan}); then they are loaded as the entities, even if lazy.
+   */
+  private static boolean isPrefetched(final Object dbVal, final EntityCache cache) {
+    if (!(cache instanceof ReferenceBatch) || !((ReferenceBatch) cache).hasPrefetched()) {
+      return false;
+    }
+    final ReferenceBatch batch = (ReferenceBatch) cache;
+    if (dbVal instanceof DBRef) {
+      return batch.isPrefetched((DBRef) dbVal);
+    }
+    final Collection refs = dbVal instanceof List ? (List) dbVal : dbVal instanceof DBObject ? ((DBObject) dbVal).toMap().values() : null;
+    if (refs == null) {
+      return false;
+    }
+    for (final Object ref : refs) {
+      if (!(ref instanceof DBRef) || !batch.isPrefetched((DBRef) ref)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Returns the entity of the prefetched reference, or null if it is missing
+   */
+  private Object resolvePrefetched(final DBRef dbRef, final MappedField mf, final EntityCache cache, final Mapper mapper) {
+    final Object cached = cache.getEntity(mapper.createKey(mf.getSubClass(), dbRef.getId()));
+    if (cached != null) {
+      return cached;
+    }
+    final ReferenceBatch batch = (ReferenceBatch) cache;
+    final DBObject fields = mapper.getReferenceFields(mf, batch.getPlan());
+    if (batch.getFetched(dbRef) == null && (fields == null || batch.getFetched(dbRef, fields) == null)) {
+      return null;
+    }
+    return resolveObject(dbRef, mf, cache, mapper);
+  }
+
+  private static boolean isStubs(final EntityCache cache) {
+    return cache instanceof ReferenceBatch && ((ReferenceBatch) cache).isStubs();
+  }
+
+  /**
+   * Returns an instance of the type with only the id of the reference set, which is not fetched; see {@link FetchPlan#isStubs()}
+   */
+  private Object createStub(final Class type, final DBRef dbRef, final Mapper mapper) {
+    final Object stub = mapper.getOptions().objectFactory.createInstance(type);
+    mapper.converters.fromDBObject(new BasicDBObject(Mapper.ID_KEY, dbRef.getId()), mapper.getMappedClass(type).getMappedIdField(), stub);
+    return stub;
+  }
+
   private void readCollection(final DBObject dbObject, final MappedField mf, final Object entity, final Reference refAnn,
     final EntityCache cache, final Mapper mapper) {
     // multiple references in a List
     final Class referenceObjClass = mf.getSubClass();
     Collection references = mf.isSet() ? mapper.getOptions().objectFactory.createSet(mf) : mapper.getOptions().objectFactory.createList(mf);
 
-    if (refAnn.lazy() && LazyFeatureDependencies.assertDependencyFullFilled()) {
-      final Object dbVal = mf.getDbObjectValue(dbObject);
+    final Object dbVal = toDBRefs(mf.getDbObjectValue(dbObject), mf, mapper);
+    final boolean stubs = isStubs(cache);
+    if (refAnn.lazy() && !stubs && !isPrefetched(dbVal, cache) && LazyFeatureDependencies.assertDependencyFullFilled()) {
       if (dbVal != null) {
         references = mapper.proxyFactory.createListProxy(references, referenceObjClass, refAnn.ignoreMissing(), mapper.datastoreProvider);
         final ProxiedEntityReferenceList referencesAsProxy = (ProxiedEntityReferenceList) references;
 
         if (dbVal instanceof List) {
           final List<DBRef> refList = (List) dbVal;
-          final DatastoreImpl dsi = (DatastoreImpl) mapper.datastoreProvider.get();
-          final List<Key<Object>> keys = dsi.getKeysByRefs(refList);
+          final List<Key<Object>> keys = getKeys(refList, cache, mapper);
 
           if (keys.size() != refList.size()) {
             final String msg = "Some of the references could not be fetched for " + mf.getFullName() + ". " + refList + " != " + keys;
@@ -219,9 +516,10 @@ class ReferenceMapper implements CustomMapper {
           }
 
           referencesAsProxy.__addAll(keys);
+          addToLazyGroup(referencesAsProxy, cache, mapper);
         } else {
           final DBRef dbRef = (DBRef) dbVal;
-          if (!exists(mf.getSubClass(), dbRef, cache, mapper)) {
+          if (checksExistence(mapper) && !exists(mf.getSubClass(), dbRef, cache, mapper)) {
             final String msg = "The reference(" + dbRef.toString() + ") could not be fetched for " + mf.getFullName();
             if (!refAnn.ignoreMissing()) {
               throw new MappingException(msg);
@@ -230,17 +528,17 @@ class ReferenceMapper implements CustomMapper {
             }
           } else {
             referencesAsProxy.__add(mapper.refToKey(dbRef));
+            addToLazyGroup(referencesAsProxy, cache, mapper);
           }
         }
       }
     } else {
-      final Object dbVal = mf.getDbObjectValue(dbObject);
       final Collection refs = references;
       new IterHelper<String, Object>().loopOrSingle(dbVal, new IterCallback<Object>() {
         @Override
         public void eval(final Object val) {
           final DBRef dbRef = (DBRef) val;
-          final Object ent = resolveObject(dbRef, mf, cache, mapper);
+          final Object ent = stubs && dbRef != null ? createStub(referenceObjClass, dbRef, mapper) : resolveObject(dbRef, mf, cache, mapper);
           if (ent == null) {
             log.warning("Null reference found when retrieving value for " + mf.getFullName());
           } else {
@@ -257,6 +555,40 @@ class ReferenceMapper implements CustomMapper {
     }
   }
 
+  private void addToLazyGroup(final ProxiedReference proxy, final EntityCache cache, final Mapper mapper) {
+    if (mapper.getOptions().fetchLazySiblings && cache instanceof ReferenceBatch) {
+      ((ReferenceBatch) cache).getLazyReferences().add(proxy);
+    }
+  }
+
+  private static boolean checksExistence(final Mapper mapper) {
+    return mapper.getOptions().lazyReferenceCheck != LazyReferenceCheck.NONE;
+  }
+
+  /**
+   * Returns the keys of the references which exist; all of them if existence is not checked, or the ones the cache knows to exist if it
+   * knows about all of them (see {@link ReferenceBatch}).
+   */
+  private List<Key<Object>> getKeys(final List<DBRef> refList, final EntityCache cache, final Mapper mapper) {
+    final List<Key<Object>> keys = new ArrayList<Key<Object>>(refList.size());
+    final boolean check = checksExistence(mapper);
+    for (final DBRef dbRef : refList) {
+      final Key<Object> key = mapper.refToKey(dbRef);
+      if (check) {
+        final Boolean exists = cache instanceof ReferenceBatch ? cache.exists(key) : null;
+        if (exists == null) {
+          final DatastoreImpl dsi = (DatastoreImpl) mapper.datastoreProvider.get();
+          return dsi.getKeysByRefs(refList);
+        }
+        if (!exists) {
+          continue;
+        }
+      }
+      keys.add(key);
+    }
+    return keys;
+  }
+
   boolean exists(final Class c, final DBRef dbRef, final EntityCache cache, final Mapper mapper) {
     final Key key = mapper.refToKey(dbRef);
     final Boolean cached = cache.exists(key);
@@ -282,16 +614,45 @@ class ReferenceMapper implements CustomMapper {
       return null;
     }
 
-    final Key key = mapper.createKey(mf.isSingleValue() ? mf.getType() : mf.getSubClass(), dbRef.getId());
+    final Class type = mf.isSingleValue() && !mf.isLazyRef() ? mf.getType() : mf.getSubClass();
+    final Key key = mapper.createKey(type, dbRef.getId());
 
     final Object cached = cache.getEntity(key);
     if (cached != null) {
       return cached;
     }
 
-    //TODO: if _db is null, set it?
-    final DBObject refDbObject = dbRef.fetch();
+    final ReferenceBatch batch = cache instanceof ReferenceBatch ? (ReferenceBatch) cache : null;
+    final DBObject fields = mapper.getReferenceFields(mf, batch == null ? null : batch.getPlan());
+
+    // the whole document is used whenever it is at hand
+    DBObject refDbObject = batch != null ? batch.getFetched(dbRef) : null;
+    if (refDbObject == null) {
+      refDbObject = mapper.getCachedDocument(dbRef.getRef(), dbRef.getId());
+    }
+    boolean partial = false;
+    if (refDbObject == null && fields != null) {
+      refDbObject = batch != null ? batch.getFetched(dbRef, fields) : null;
+      if (refDbObject == null) {
+        final DB db = dbRef.getDB() == null ? mapper.getReferenceDB() : dbRef.getDB();
+        refDbObject = db.getCollection(dbRef.getRef()).findOne(dbRef.getId(), fields);
+      }
+      partial = refDbObject != null;
+    } else if (refDbObject == null) {
+      //TODO: if _db is null, set it?
+      refDbObject = dbRef.getDB() == null ? mapper.getReferenceDB().getCollection(dbRef.getRef()).findOne(dbRef.getId()) : dbRef.fetch();
+      if (refDbObject != null) {
+        mapper.cacheDocument(type, dbRef.getRef(), refDbObject);
+      }
+    }
 
+    if (partial) {
+      // kept out of the cache, so that it is not loaded for the references to the whole entity
+      final Object refObj = mapper.getOptions().objectFactory.createInstance(mapper, mf, refDbObject);
+      mapper.fromDb(refDbObject, refObj, new PartialEntityCache(cache, refObj));
+      mapper.markPartial(refObj);
+      return refObj;
+    }
     if (refDbObject != null) {
       Object refObj = mapper.getOptions().objectFactory.createInstance(mapper, mf, refDbObject);
       refObj = mapper.fromDb(refDbObject, refObj, cache);
@@ -312,13 +673,19 @@ class ReferenceMapper implements CustomMapper {
     final Class referenceObjClass = mf.getSubClass();
     Map m = mapper.getOptions().objectFactory.createMap(mf);
 
-    final DBObject dbVal = (DBObject) mf.getDbObjectValue(dbObject);
+    final DBObject dbVal = (DBObject) toDBRefs(mf.getDbObjectValue(dbObject), mf, mapper);
     if (dbVal != null) {
-      if (refAnn.lazy() && LazyFeatureDependencies.assertDependencyFullFilled()) {
+      final boolean stubs = isStubs(cache);
+      final boolean lazy = refAnn.lazy() && !stubs && !isPrefetched(dbVal, cache) && LazyFeatureDependencies.assertDependencyFullFilled();
+      if (lazy) {
         // replace map by proxy to it.
         m = mapper.proxyFactory.createMapProxy(m, referenceObjClass, refAnn.ignoreMissing(), mapper.datastoreProvider);
       }
 
+      if (m instanceof ProxiedEntityReferenceMap) {
+        addToLazyGroup((ProxiedEntityReferenceMap) m, cache, mapper);
+      }
+
       final Map map = m;
       new IterHelper<Object, Object>().loopMap(dbVal, new MapIterCallback<Object, Object>() {
         @Override
@@ -327,11 +694,11 @@ class ReferenceMapper implements CustomMapper {
 
           final Object objKey = mapper.converters.decode(mf.getMapKeyClass(), key);
 
-          if (refAnn.lazy() && LazyFeatureDependencies.assertDependencyFullFilled()) {
+          if (lazy) {
             final ProxiedEntityReferenceMap proxiedMap = (ProxiedEntityReferenceMap) map;
             proxiedMap.__put(objKey, mapper.refToKey(dbRef));
           } else {
-            final Object resolvedObject = resolveObject(dbRef, mf, cache, mapper);
+            final Object resolvedObject = stubs && dbRef != null ? createStub(referenceObjClass, dbRef, mapper) : resolveObject(dbRef, mf, cache, mapper);
             map.put(objKey, resolvedObject);
           }
         }
@@ -350,4 +717,57 @@ class ReferenceMapper implements CustomMapper {
     cache.putProxy(key, newProxy);
     return newProxy;
   }
+
+  /**
+   * The cache to load a partial entity with: it keeps the entity itself (which the references back to it within get) apart from the
+   * others.
+   */
+  private static final class PartialEntityCache implements EntityCache {
+    private final EntityCache cache;
+    private final Object partial;
+    private final Map<Key, Object> entities = new HashMap<Key, Object>();
+
+    PartialEntityCache(final EntityCache cache, final Object partial) {
+      this.cache = cache;
+      this.partial = partial;
+    }
+
+    public Boolean exists(final Key<?> k) {
+      return entities.containsKey(k) ? Boolean.TRUE : cache.exists(k);
+    }
+
+    public void notifyExists(final Key<?> k, final boolean exists) {
+      cache.notifyExists(k, exists);
+    }
+
+    public <T> T getEntity(final Key<T> k) {
+      final Object entity = entities.get(k);
+      return entity != null ? (T) entity : cache.getEntity(k);
+    }
+
+    public <T> T getProxy(final Key<T> k) {
+      return cache.getProxy(k);
+    }
+
+    public <T> void putProxy(final Key<T> k, final T t) {
+      cache.putProxy(k, t);
+    }
+
+    public <T> void putEntity(final Key<T> k, final T t) {
+      if (t == partial) {
+        entities.put(k, t);
+      } else {
+        cache.putEntity(k, t);
+      }
+    }
+
+    public void flush() {
+      entities.clear();
+      cache.flush();
+    }
+
+    public EntityCacheStatistics stats() {
+      return cache.stats();
+    }
+  }
 }
@@ -0,0 +1,110 @@
+package com.google.code.morphia.mapping;
+
+
+import java.lang.reflect.Field;
+
+
+/**
+ * Creates accessors which use {@link Field#get(Object)}/{@link Field#set(Object, Object)} (and the primitive variants). The field is made
+ * accessible once, when the accessor is created.
+ */
+public class ReflectiveFieldAccessorFactory implements FieldAccessorFactory {
+
+  public FieldAccessor createAccessor(final Field field) {
+    return new ReflectiveFieldAccessor(field);
+  }
+
+  static class ReflectiveFieldAccessor implements FieldAccessor {
+    protected final Field field;
+
+    ReflectiveFieldAccessor(final Field field) {
+      field.setAccessible(true);
+      this.field = field;
+    }
+
+    public Object get(final Object target) {
+      try {
+        return field.get(target);
+      } catch (IllegalAccessException e) {
+        throw new RuntimeException(e);
+      }
+    }
+
+    public void set(final Object target, final Object value) {
+      try {
+        field.set(target, value);
+      } catch (IllegalAccessException e) {
+        throw new RuntimeException(e);
+      }
+    }
+
+    public int getInt(final Object target) {
+      try {
+        return field.getInt(target);
+      } catch (IllegalAccessException e) {
+        throw new RuntimeException(e);
+      }
+    }
+
+    public void setInt(final Object target, final int value) {
+      try {
+        field.setInt(target, value);
+      } catch (IllegalAccessException e) {
+        throw new RuntimeException(e);
+      }
+    }
+
+    public long getLong(final Object target) {
+      try {
+        return field.getLong(target);
+      } catch (IllegalAccessException e) {
+        throw new RuntimeException(e);
+      }
+    }
+
+    public void setLong(final Object target, final long value) {
+      try {
+        field.setLong(target, value);
+      } catch (IllegalAccessException e) {
+        throw new RuntimeException(e);
+      }
+    }
+
+    public double getDouble(final Object target) {
+      try {
+        return field.getDouble(target);
+      } catch (IllegalAccessException e) {
+        throw new RuntimeException(e);
+      }
+    }
+
+    public void setDouble(final Object target, final double value) {
+      try {
+        field.setDouble(target, value);
+      } catch (IllegalAccessException e) {
+        throw new RuntimeException(e);
+      }
+    }
+
+    public boolean getBoolean(final Object target) {
+      try {
+        return field.getBoolean(target);
+      } catch (IllegalAccessException e) {
+        throw new RuntimeException(e);
+      }
+    }
+
+    public void setBoolean(final Object target, final boolean value) {
+      try {
+        field.setBoolean(target, value);
+      } catch (IllegalAccessException e) {
+        throw new RuntimeException(e);
+      }
+    }
+
+    @Override
+    public String toString() {
+      return "ReflectiveFieldAccessor(" + field + ")";
+    }
+  }
+}
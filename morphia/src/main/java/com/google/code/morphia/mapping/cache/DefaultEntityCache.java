@@ -17,18 +17,28 @@ public class DefaultEntityCache implements EntityCache {
   private final Map<Key, Object>      proxyMap     = new ReferenceMap(ReferenceMap.WEAK, ReferenceMap.WEAK);
   private final Map<Key, Boolean>     existenceMap = new HashMap<Key, Boolean>();
   private final EntityCacheStatistics stats        = new EntityCacheStatistics();
+  // the counts of all the caches of a datastore, if any
+  private final EntityCacheCounters   counters;
+
+  public DefaultEntityCache() {
+    this(null);
+  }
+
+  public DefaultEntityCache(final EntityCacheCounters counters) {
+    this.counters = counters;
+  }
 
   public Boolean exists(final Key<?> k) {
     if (entityMap.containsKey(k)) {
-      stats.hits++;
+      hit(k);
       return true;
     }
 
     final Boolean b = existenceMap.get(k);
     if (b == null) {
-      stats.misses++;
+      miss(k);
     } else {
-      stats.hits++;
+      hit(k);
     }
     return b;
   }
@@ -36,7 +46,7 @@ public class DefaultEntityCache implements EntityCache {
   public void notifyExists(final Key<?> k, final boolean exists) {
       final Boolean put = existenceMap.put(k, exists);
       if(put == null || !put) {
-          stats.entities++;
+          entity(k);
       }
   }
 
@@ -47,14 +57,14 @@ public class DefaultEntityCache implements EntityCache {
         final Object proxy = proxyMap.get(k);
         if (proxy != null) {
           ProxyHelper.isFetched(proxy);
-          stats.hits++;
+          hit(k);
           return (T) ProxyHelper.unwrap(proxy);
         }
       }
       // System.out.println("miss entity " + k + ":" + this);
-      stats.misses++;
+      miss(k);
     } else {
-      stats.hits++;
+      hit(k);
     }
     return (T) o;
   }
@@ -63,16 +73,16 @@ public class DefaultEntityCache implements EntityCache {
     final Object o = proxyMap.get(k);
     if (o == null) {
       // System.out.println("miss proxy " + k);
-      stats.misses++;
+      miss(k);
     } else {
-      stats.hits++;
+      hit(k);
     }
     return (T) o;
   }
 
   public <T> void putProxy(final Key<T> k, final T t) {
     proxyMap.put(k, t);
-    stats.entities++;
+    entity(k);
 
   }
 
@@ -88,6 +98,27 @@ public class DefaultEntityCache implements EntityCache {
     stats.reset();
   }
 
+  private void hit(final Key<?> k) {
+    stats.hits++;
+    if (counters != null) {
+      counters.hit(k);
+    }
+  }
+
+  private void miss(final Key<?> k) {
+    stats.misses++;
+    if (counters != null) {
+      counters.miss(k);
+    }
+  }
+
+  private void entity(final Key<?> k) {
+    stats.entities++;
+    if (counters != null) {
+      counters.entity(k);
+    }
+  }
+
   public EntityCacheStatistics stats() {
     return stats.copy();
   }
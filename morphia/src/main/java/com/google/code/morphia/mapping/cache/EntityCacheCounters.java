@@ -0,0 +1,114 @@
+package com.google.code.morphia.mapping.cache;
+
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import com.google.code.morphia.Key;
+
+
+/**
+ * Counts the entities, hits and misses of many caches at once (the ones a datastore creates), per kind, from many threads.
+ */
+public class EntityCacheCounters implements EntityCacheMetrics, EntityCacheCountersMBean {
+  private static final class KindCounters {
+    private final StripedCounter entities = new StripedCounter();
+    private final StripedCounter hits = new StripedCounter();
+    private final StripedCounter misses = new StripedCounter();
+
+    private void addTo(final EntityCacheStatistics stats) {
+      stats.entities += entities.sum();
+      stats.hits += hits.sum();
+      stats.misses += misses.sum();
+    }
+  }
+
+  private final ConcurrentMap<String, KindCounters> kinds = new ConcurrentHashMap<String, KindCounters>();
+
+  private KindCounters getCounters(final Key<?> k) {
+    final String kind = k.getKindClass() != null ? k.getKindClass().getName() : String.valueOf(k.getKind());
+    KindCounters counters = kinds.get(kind);
+    if (counters == null) {
+      counters = new KindCounters();
+      final KindCounters existing = kinds.putIfAbsent(kind, counters);
+      if (existing != null) {
+        counters = existing;
+      }
+    }
+    return counters;
+  }
+
+  void entity(final Key<?> k) {
+    getCounters(k).entities.increment();
+  }
+
+  void hit(final Key<?> k) {
+    getCounters(k).hits.increment();
+  }
+
+  void miss(final Key<?> k) {
+    getCounters(k).misses.increment();
+  }
+
+  public EntityCacheStatistics getStatistics() {
+    final EntityCacheStatistics stats = new EntityCacheStatistics();
+    for (final KindCounters counters : kinds.values()) {
+      counters.addTo(stats);
+    }
+    return stats;
+  }
+
+  public Map<String, EntityCacheStatistics> getStatisticsByKind() {
+    final Map<String, EntityCacheStatistics> byKind = new TreeMap<String, EntityCacheStatistics>();
+    for (final Map.Entry<String, KindCounters> entry : kinds.entrySet()) {
+      final EntityCacheStatistics stats = new EntityCacheStatistics();
+      entry.getValue().addTo(stats);
+      byKind.put(entry.getKey(), stats);
+    }
+    return byKind;
+  }
+
+  public void reset() {
+    for (final KindCounters counters : kinds.values()) {
+      counters.entities.reset();
+      counters.hits.reset();
+      counters.misses.reset();
+    }
+  }
+
+  public long getEntities() {
+    return getStatistics().entities;
+  }
+
+  public long getHits() {
+    return getStatistics().hits;
+  }
+
+  public long getMisses() {
+    return getStatistics().misses;
+  }
+
+  public double getHitRatio() {
+    final EntityCacheStatistics stats = getStatistics();
+    final long lookups = stats.hits + stats.misses;
+    return lookups == 0 ? 0 : (double) stats.hits / lookups;
+  }
+
+  public String[] getKindStatistics() {
+    final Map<String, EntityCacheStatistics> byKind = getStatisticsByKind();
+    final String[] lines = new String[byKind.size()];
+    int i = 0;
+    for (final Map.Entry<String, EntityCacheStatistics> entry : byKind.entrySet()) {
+      final EntityCacheStatistics stats = entry.getValue();
+      lines[i++] = entry.getKey() + ": " + stats.entities + " entities, " + stats.hits + " hits, " + stats.misses + " misses";
+    }
+    return lines;
+  }
+
+  @Override
+  public String toString() {
+    return getClass().getSimpleName() + ": " + getStatistics();
+  }
+}
@@ -0,0 +1,25 @@
+package com.google.code.morphia.mapping.cache;
+
+
+/**
+ * The JMX view of the {@link EntityCacheCounters} of a datastore (see {@link com.google.code.morphia.DatastoreImpl#registerEntityCacheMBean()}).
+ */
+public interface EntityCacheCountersMBean {
+  long getEntities();
+
+  long getHits();
+
+  long getMisses();
+
+  /**
+   * Returns the hits over the lookups, or 0 if there were none
+   */
+  double getHitRatio();
+
+  /**
+   * Returns the counts of each kind, one per line
+   */
+  String[] getKindStatistics();
+
+  void reset();
+}
@@ -0,0 +1,22 @@
+package com.google.code.morphia.mapping.cache;
+
+
+import java.util.Map;
+
+
+/**
+ * The entity cache counts of a datastore, summed over all the caches of its queries and operations.
+ */
+public interface EntityCacheMetrics {
+  /**
+   * Returns the counts over all the kinds
+   */
+  EntityCacheStatistics getStatistics();
+
+  /**
+   * Returns the counts of each kind: the entity class name or, for the keys made from references, the collection name
+   */
+  Map<String, EntityCacheStatistics> getStatisticsByKind();
+
+  void reset();
+}
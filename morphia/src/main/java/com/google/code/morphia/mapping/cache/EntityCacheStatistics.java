@@ -1,11 +1,23 @@
 package com.google.code.morphia.mapping.cache;
 
 
-// note that it is not thread safe, currently it does not need to be.
+// the counts of one cache (which is only used by one thread), or a snapshot of the counts of many; see EntityCacheCounters
 public class EntityCacheStatistics {
-  int entities;
-  int hits;
-  int misses;
+  long entities;
+  long hits;
+  long misses;
+
+  public long getEntities() {
+    return entities;
+  }
+
+  public long getHits() {
+    return hits;
+  }
+
+  public long getMisses() {
+    return misses;
+  }
 
   @Override
   public String toString() {
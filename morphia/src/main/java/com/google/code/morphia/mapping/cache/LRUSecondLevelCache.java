@@ -0,0 +1,134 @@
+package com.google.code.morphia.mapping.cache;
+
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.google.code.morphia.Key;
+import com.mongodb.BasicDBList;
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBObject;
+
+
+/**
+ * A {@link SecondLevelCache} which holds up to a number of documents, evicting the least recently used one to make room. It keeps copies
+ * of the documents put, and hands out copies of them, so that changing a document (in a {@link com.google.code.morphia.annotations.PreLoad}
+ * method, say) does not change what the other requests get.
+ */
+public class LRUSecondLevelCache implements SecondLevelCache {
+  // the document is a private copy that is never changed, so it can be copied again without holding the lock
+  private static final class CachedDocument {
+    private final DBObject dbObj;
+    // System.currentTimeMillis() after which it is stale; 0 for never
+    private final long expires;
+
+    CachedDocument(final DBObject dbObj, final long expires) {
+      this.dbObj = dbObj;
+      this.expires = expires;
+    }
+  }
+
+  private final int maxSize;
+  private final Map<Key<?>, CachedDocument> entries;
+  private final SecondLevelCacheStatistics stats = new SecondLevelCacheStatistics();
+
+  public LRUSecondLevelCache(final int maxSize) {
+    if (maxSize <= 0) {
+      throw new IllegalArgumentException("maxSize must be positive: " + maxSize);
+    }
+    this.maxSize = maxSize;
+    entries = new LinkedHashMap<Key<?>, CachedDocument>(16, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(final Map.Entry<Key<?>, CachedDocument> eldest) {
+        if (size() > LRUSecondLevelCache.this.maxSize) {
+          stats.evictions++;
+          return true;
+        }
+        return false;
+      }
+    };
+  }
+
+  // the kind class is left out, so that keys of the same document made from different classes (sub classes, say) match
+  private static Key<?> normalize(final Key<?> key) {
+    return key.getKindClass() == null ? key : new Key<Object>(key.getKind(), key.getId());
+  }
+
+  public DBObject get(final Key<?> key) {
+    final Key<?> k = normalize(key);
+    final CachedDocument cached;
+    synchronized (this) {
+      cached = entries.get(k);
+      if (cached == null) {
+        stats.misses++;
+        return null;
+      }
+      if (cached.expires != 0 && cached.expires < System.currentTimeMillis()) {
+        entries.remove(k);
+        stats.evictions++;
+        stats.misses++;
+        return null;
+      }
+      stats.hits++;
+    }
+    return (DBObject) copy(cached.dbObj);
+  }
+
+  public void put(final Key<?> key, final DBObject dbObj, final long ttl) {
+    final CachedDocument cached = new CachedDocument((DBObject) copy(dbObj), ttl > 0 ? System.currentTimeMillis() + ttl : 0);
+    synchronized (this) {
+      entries.put(normalize(key), cached);
+    }
+  }
+
+  /**
+   * Returns a deep copy of the value, of its documents, lists, dates and byte arrays; the other values are immutable.
+   */
+  private static Object copy(final Object value) {
+    if (value instanceof List) {
+      final List<?> list = (List<?>) value;
+      final List<Object> copy = value instanceof DBObject ? new BasicDBList() : new ArrayList<Object>(list.size());
+      for (final Object item : list) {
+        copy.add(copy(item));
+      }
+      return copy;
+    } else if (value instanceof DBObject) {
+      final DBObject dbObj = (DBObject) value;
+      final BasicDBObject copy = new BasicDBObject();
+      for (final String name : dbObj.keySet()) {
+        copy.put(name, copy(dbObj.get(name)));
+      }
+      return copy;
+    } else if (value instanceof Date) {
+      return new Date(((Date) value).getTime());
+    } else if (value instanceof byte[]) {
+      return ((byte[]) value).clone();
+    }
+    return value;
+  }
+
+  public synchronized void remove(final Key<?> key) {
+    entries.remove(normalize(key));
+  }
+
+  public synchronized void removeKind(final String kind) {
+    for (final Iterator<Key<?>> it = entries.keySet().iterator(); it.hasNext();) {
+      if (kind.equals(it.next().getKind())) {
+        it.remove();
+      }
+    }
+  }
+
+  public synchronized void clear() {
+    entries.clear();
+  }
+
+  public synchronized SecondLevelCacheStatistics stats() {
+    stats.entries = entries.size();
+    return stats.copy();
+  }
+}
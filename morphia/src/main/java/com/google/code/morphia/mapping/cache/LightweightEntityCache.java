@@ -0,0 +1,143 @@
+package com.google.code.morphia.mapping.cache;
+
+
+import java.util.HashMap;
+import java.util.Map;
+
+import com.google.code.morphia.Key;
+import com.google.code.morphia.mapping.lazy.LazyFeatureDependencies;
+import com.google.code.morphia.mapping.lazy.proxy.ProxyHelper;
+
+
+/**
+ * An {@link EntityCache} for one short operation (a get, a save, a findAndModify...): it holds its entities strongly, in plain maps which
+ * are only created by the first put, so an operation which caches nothing allocates nothing. A query, whose results may be iterated at
+ * length, should use a {@link DefaultEntityCache}, which lets go of the entities nobody else holds.
+ */
+@SuppressWarnings({ "rawtypes", "unchecked" })
+public class LightweightEntityCache implements EntityCache {
+
+  private Map<Key, Object>  entityMap;
+  private Map<Key, Object>  proxyMap;
+  private Map<Key, Boolean> existenceMap;
+  private int               entities;
+  private int               hits;
+  private int               misses;
+  // the counts of all the caches of a datastore, if any
+  private final EntityCacheCounters counters;
+
+  public LightweightEntityCache() {
+    this(null);
+  }
+
+  public LightweightEntityCache(final EntityCacheCounters counters) {
+    this.counters = counters;
+  }
+
+  public Boolean exists(final Key<?> k) {
+    if (entityMap != null && entityMap.containsKey(k)) {
+      hit(k);
+      return true;
+    }
+
+    final Boolean b = existenceMap == null ? null : existenceMap.get(k);
+    if (b == null) {
+      miss(k);
+    } else {
+      hit(k);
+    }
+    return b;
+  }
+
+  public void notifyExists(final Key<?> k, final boolean exists) {
+    if (existenceMap == null) {
+      existenceMap = new HashMap<Key, Boolean>();
+    }
+    final Boolean put = existenceMap.put(k, exists);
+    if (put == null || !put) {
+      entity(k);
+    }
+  }
+
+  public <T> T getEntity(final Key<T> k) {
+    final Object o = entityMap == null ? null : entityMap.get(k);
+    if (o == null) {
+      if (proxyMap != null && LazyFeatureDependencies.testDependencyFullFilled()) {
+        final Object proxy = proxyMap.get(k);
+        if (proxy != null) {
+          ProxyHelper.isFetched(proxy);
+          hit(k);
+          return (T) ProxyHelper.unwrap(proxy);
+        }
+      }
+      miss(k);
+    } else {
+      hit(k);
+    }
+    return (T) o;
+  }
+
+  public <T> T getProxy(final Key<T> k) {
+    final Object o = proxyMap == null ? null : proxyMap.get(k);
+    if (o == null) {
+      miss(k);
+    } else {
+      hit(k);
+    }
+    return (T) o;
+  }
+
+  public <T> void putProxy(final Key<T> k, final T t) {
+    if (proxyMap == null) {
+      proxyMap = new HashMap<Key, Object>();
+    }
+    proxyMap.put(k, t);
+    entity(k);
+  }
+
+  public <T> void putEntity(final Key<T> k, final T t) {
+    notifyExists(k, true); // already registers a write
+    if (entityMap == null) {
+      entityMap = new HashMap<Key, Object>();
+    }
+    entityMap.put(k, t);
+  }
+
+  private void hit(final Key<?> k) {
+    hits++;
+    if (counters != null) {
+      counters.hit(k);
+    }
+  }
+
+  private void miss(final Key<?> k) {
+    misses++;
+    if (counters != null) {
+      counters.miss(k);
+    }
+  }
+
+  private void entity(final Key<?> k) {
+    entities++;
+    if (counters != null) {
+      counters.entity(k);
+    }
+  }
+
+  public void flush() {
+    entityMap = null;
+    proxyMap = null;
+    existenceMap = null;
+    entities = 0;
+    hits = 0;
+    misses = 0;
+  }
+
+  public EntityCacheStatistics stats() {
+    final EntityCacheStatistics stats = new EntityCacheStatistics();
+    stats.entities = entities;
+    stats.hits = hits;
+    stats.misses = misses;
+    return stats;
+  }
+}
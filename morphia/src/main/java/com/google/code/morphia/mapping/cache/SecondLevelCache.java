@@ -0,0 +1,41 @@
+package com.google.code.morphia.mapping.cache;
+
+
+import com.google.code.morphia.Key;
+import com.mongodb.DBObject;
+
+
+/**
+ * A cache of stored entity documents, keyed by {@link Key} (collection name and id), which is shared by all the requests (and threads)
+ * using a mapper; see {@link com.google.code.morphia.mapping.MapperOptions#secondLevelCache}. Unlike an {@link EntityCache}, it holds the
+ * documents rather than the entities, so every request still gets entities of its own. Implementations must be thread safe, and must not
+ * hand the same document instance to several requests, since mapping may change it.
+ */
+public interface SecondLevelCache {
+  /**
+   * Returns the document of the key, or null if it is not cached (or has expired)
+   */
+  DBObject get(Key<?> key);
+
+  /**
+   * Caches the document of the key for ttl milliseconds; until it is evicted or removed if ttl is 0 or less
+   */
+  void put(Key<?> key, DBObject dbObj, long ttl);
+
+  /**
+   * Removes the document of the key
+   */
+  void remove(Key<?> key);
+
+  /**
+   * Removes all the documents of the kind (collection)
+   */
+  void removeKind(String kind);
+
+  void clear();
+
+  /**
+   * Returns a snapshot of the hit/miss/eviction counts
+   */
+  SecondLevelCacheStatistics stats();
+}
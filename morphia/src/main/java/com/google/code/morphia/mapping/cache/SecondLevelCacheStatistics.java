@@ -0,0 +1,42 @@
+package com.google.code.morphia.mapping.cache;
+
+
+/**
+ * The counts of a {@link SecondLevelCache}; expired documents count as misses, and as evictions.
+ */
+public class SecondLevelCacheStatistics {
+  int entries;
+  long hits;
+  long misses;
+  long evictions;
+
+  public int getEntries() {
+    return entries;
+  }
+
+  public long getHits() {
+    return hits;
+  }
+
+  public long getMisses() {
+    return misses;
+  }
+
+  public long getEvictions() {
+    return evictions;
+  }
+
+  @Override
+  public String toString() {
+    return getClass().getSimpleName() + ": " + entries + " entries, " + hits + " hits, " + misses + " misses, " + evictions + " evictions.";
+  }
+
+  public SecondLevelCacheStatistics copy() {
+    final SecondLevelCacheStatistics copy = new SecondLevelCacheStatistics();
+    copy.entries = entries;
+    copy.hits = hits;
+    copy.misses = misses;
+    copy.evictions = evictions;
+    return copy;
+  }
+}
@@ -0,0 +1,45 @@
+package com.google.code.morphia.mapping.cache;
+
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+
+/**
+ * A counter which many threads can increment without contending: each thread adds to one of several cells (a cache line apart), which
+ * are summed when read.
+ */
+final class StripedCounter {
+  // longs per cache line
+  private static final int PAD = 8;
+  private static final int STRIPES;
+
+  static {
+    int stripes = 1;
+    while (stripes < Runtime.getRuntime().availableProcessors() * 2 && stripes < 64) {
+      stripes <<= 1;
+    }
+    STRIPES = stripes;
+  }
+
+  private final AtomicLongArray cells = new AtomicLongArray(STRIPES * PAD);
+
+  void increment() {
+    long id = Thread.currentThread().getId();
+    id ^= id >>> 7;
+    cells.incrementAndGet((int) (id & (STRIPES - 1)) * PAD);
+  }
+
+  long sum() {
+    long sum = 0;
+    for (int i = 0; i < STRIPES; i++) {
+      sum += cells.get(i * PAD);
+    }
+    return sum;
+  }
+
+  void reset() {
+    for (int i = 0; i < STRIPES; i++) {
+      cells.set(i * PAD, 0);
+    }
+  }
+}
@@ -0,0 +1,158 @@
+package com.google.code.morphia.mapping.lazy;
+
+
+import java.io.ObjectStreamException;
+import java.io.Serializable;
+import java.lang.reflect.Method;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import com.google.code.morphia.Key;
+import com.google.code.morphia.mapping.lazy.proxy.AbstractReference;
+import com.google.code.morphia.mapping.lazy.proxy.ProxiedEntityReference;
+import com.google.code.morphia.mapping.lazy.proxy.ProxiedEntityReferenceList;
+import com.google.code.morphia.mapping.lazy.proxy.ProxiedEntityReferenceMap;
+import com.google.code.morphia.mapping.lazy.proxy.ProxiedReference;
+import com.google.code.morphia.mapping.lazy.proxy.SerializableCollectionObjectReference;
+import com.google.code.morphia.mapping.lazy.proxy.SerializableEntityObjectReference;
+import com.google.code.morphia.mapping.lazy.proxy.SerializableMapObjectReference;
+import net.sf.cglib.proxy.Callback;
+import net.sf.cglib.proxy.CallbackFilter;
+import net.sf.cglib.proxy.Dispatcher;
+import net.sf.cglib.proxy.Enhancer;
+import net.sf.cglib.proxy.Factory;
+import net.sf.cglib.proxy.FixedValue;
+import net.sf.cglib.proxy.NoOp;
+
+
+/**
+ * A {@link LazyProxyFactory} which generates one proxy class per target class (and kind of reference), with cglib alone: the methods of
+ * the {@link ProxiedReference} interfaces go straight to the reference, and all the others straight to the entity (or collection/map) it
+ * fetched, without reflection. A serialized proxy is replaced by what it stands for.
+ */
+@SuppressWarnings({"unchecked", "rawtypes"})
+public class DirectLazyProxyFactory implements LazyProxyFactory {
+  /**
+   * Lets a proxy be replaced by its referent when it is serialized.
+   */
+  public interface WriteReplaced {
+    Object writeReplace() throws ObjectStreamException;
+  }
+
+  // the callback indexes
+  private static final int REFERENCE = 0;
+  private static final int REFERENT = 1;
+  private static final int NO_OP = 2;
+  private static final int REPLACE = 3;
+
+  private static final Class[] CALLBACK_TYPES = {Dispatcher.class, Dispatcher.class, NoOp.class, FixedValue.class};
+
+  private static final CallbackFilter FILTER = new CallbackFilter() {
+    public int accept(final Method method) {
+      final Class<?> declaring = method.getDeclaringClass();
+      if (ProxiedReference.class.isAssignableFrom(declaring)) {
+        return REFERENCE;
+      }
+      if (declaring == WriteReplaced.class) {
+        return REPLACE;
+      }
+      if ("finalize".equals(method.getName()) && method.getParameterTypes().length == 0) {
+        return NO_OP;
+      }
+      return REFERENT;
+    }
+  };
+
+  /**
+   * Hands out the reference (for the {@link ProxiedReference} methods).
+   */
+  private static final class ReferenceDispatcher implements Dispatcher {
+    private final AbstractReference reference;
+
+    ReferenceDispatcher(final AbstractReference reference) {
+      this.reference = reference;
+    }
+
+    public Object loadObject() {
+      return reference;
+    }
+  }
+
+  /**
+   * Hands out what the reference fetched (for all the other methods, and as the replacement of a serialized proxy).
+   */
+  private static final class ReferentDispatcher implements Dispatcher, FixedValue {
+    private final AbstractReference reference;
+
+    ReferentDispatcher(final AbstractReference reference) {
+      this.reference = reference;
+    }
+
+    public Object loadObject() {
+      return reference.get();
+    }
+  }
+
+  // target class -> a proxy to create the others with, for each kind of reference
+  private final ConcurrentMap<Class, Factory> entityProxies = new ConcurrentHashMap<Class, Factory>();
+  private final ConcurrentMap<Class, Factory> listProxies = new ConcurrentHashMap<Class, Factory>();
+  private final ConcurrentMap<Class, Factory> mapProxies = new ConcurrentHashMap<Class, Factory>();
+
+  public <T> T createProxy(final Class<T> targetClass, final Key<T> key, final DatastoreProvider p) {
+    return (T) createProxy(entityProxies, targetClass, ProxiedEntityReference.class, new SerializableEntityObjectReference(targetClass, p,
+      key));
+  }
+
+  public <T extends Collection> T createListProxy(final T listToProxy, final Class referenceObjClass, final boolean ignoreMissing,
+    final DatastoreProvider p) {
+    return (T) createProxy(listProxies, listToProxy.getClass(), ProxiedEntityReferenceList.class,
+      new SerializableCollectionObjectReference(listToProxy, referenceObjClass, ignoreMissing, p));
+  }
+
+  public <T extends Map> T createMapProxy(final T mapToProxy, final Class referenceObjClass, final boolean ignoreMissing,
+    final DatastoreProvider p) {
+    return (T) createProxy(mapProxies, mapToProxy.getClass(), ProxiedEntityReferenceMap.class,
+      new SerializableMapObjectReference(mapToProxy, referenceObjClass, ignoreMissing, p));
+  }
+
+  private static Object createProxy(final ConcurrentMap<Class, Factory> proxies, final Class targetClass, final Class referenceInterface,
+    final AbstractReference reference) {
+    final Callback[] callbacks = {new ReferenceDispatcher(reference), new ReferentDispatcher(reference), NoOp.INSTANCE,
+      new ReferentDispatcher(reference)};
+    Factory factory = proxies.get(targetClass);
+    if (factory == null) {
+      final Object proxy = createProxyClass(targetClass, referenceInterface, callbacks);
+      // another thread may have got there first; either one does
+      proxies.putIfAbsent(targetClass, (Factory) proxy);
+      return proxy;
+    }
+    return factory.newInstance(callbacks);
+  }
+
+  private static Object createProxyClass(final Class targetClass, final Class referenceInterface, final Callback[] callbacks) {
+    final Enhancer enhancer = new Enhancer();
+    if (targetClass.isInterface()) {
+      enhancer.setInterfaces(new Class[] {targetClass, referenceInterface, Serializable.class, WriteReplaced.class});
+    } else {
+      enhancer.setSuperclass(targetClass);
+      enhancer.setInterfaces(new Class[] {referenceInterface, Serializable.class, WriteReplaced.class});
+    }
+    enhancer.setCallbackTypes(CALLBACK_TYPES);
+    enhancer.setCallbackFilter(FILTER);
+    enhancer.setUseFactory(true);
+    final Class proxyClass = enhancer.createClass();
+
+    Enhancer.registerCallbacks(proxyClass, callbacks);
+    try {
+      return proxyClass.newInstance();
+    } catch (InstantiationException e) {
+      throw new IllegalArgumentException("Could not create a lazy proxy for " + targetClass.getName(), e);
+    } catch (IllegalAccessException e) {
+      throw new IllegalArgumentException("Could not create a lazy proxy for " + targetClass.getName(), e);
+    } finally {
+      Enhancer.registerCallbacks(proxyClass, null);
+    }
+  }
+}
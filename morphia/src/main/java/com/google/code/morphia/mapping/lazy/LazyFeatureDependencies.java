@@ -39,7 +39,7 @@ public final class LazyFeatureDependencies {
 
   public static LazyProxyFactory createDefaultProxyFactory() {
     if (testDependencyFullFilled()) {
-      final String factoryClassName = "com.google.code.morphia.mapping.lazy.CGLibLazyProxyFactory";
+      final String factoryClassName = "com.google.code.morphia.mapping.lazy.DirectLazyProxyFactory";
       try {
         return (LazyProxyFactory) Class.forName(factoryClassName).newInstance();
       } catch (Exception e) {
@@ -0,0 +1,94 @@
+package com.google.code.morphia.mapping.lazy;
+
+
+import java.io.Serializable;
+
+import com.google.code.morphia.Key;
+
+
+/**
+ * A reference to an entity which is fetched the first time {@link #get()} is called; declare a {@code @Reference LazyRef<T>} field to
+ * have it loaded as the {@link Key} only. Unlike {@code @Reference(lazy = true)} it needs no proxy (nor CGLib/Proxytoys), and the handles
+ * of many entities can be resolved together with {@link com.google.code.morphia.Datastore#resolveLazyRefs(Iterable, String...)}.
+ * <p/>
+ * The referenced entity is not checked for existence when loaded; {@link #get()} returns null if it is missing.
+ *
+ * @see LazyRefList
+ */
+@SuppressWarnings("unchecked")
+public class LazyRef<T> implements Serializable {
+  private static final long serialVersionUID = 1L;
+
+  private final Class<T> referenceObjClass;
+  private final Key<T> key;
+  private final DatastoreProvider p;
+  private T entity;
+  // written after the entity, so that a thread which sees it set sees the entity too
+  private volatile boolean isFetched;
+
+  /**
+   * Creates a reference to the entity (saved with its key)
+   */
+  public LazyRef(final T entity) {
+    this((Class<T>) entity.getClass(), null, null);
+    this.entity = entity;
+    isFetched = true;
+  }
+
+  /**
+   * Creates a reference to the entity with the key, which is fetched through the datastore the provider gives
+   */
+  public LazyRef(final Class<T> referenceObjClass, final Key<T> key, final DatastoreProvider p) {
+    this.referenceObjClass = referenceObjClass;
+    this.key = key;
+    this.p = p;
+  }
+
+  /**
+   * Returns the referenced entity (null if it is missing), fetching it the first time.
+   */
+  public T get() {
+    if (isFetched) {
+      return entity;
+    }
+
+    synchronized (this) {
+      if (!isFetched) {
+        entity = p.get().getByKey(referenceObjClass, key);
+        isFetched = true;
+      }
+      return entity;
+    }
+  }
+
+  /**
+   * Returns the key of the referenced entity; null if the reference was created from the entity.
+   */
+  public Key<T> getKey() {
+    return key;
+  }
+
+  public Class<T> getReferenceObjClass() {
+    return referenceObjClass;
+  }
+
+  public boolean isFetched() {
+    return isFetched;
+  }
+
+  /**
+   * Sets the referenced entity, fetched along with others; see {@link com.google.code.morphia.Datastore#resolveLazyRefs(Iterable,
+   * String...)}.
+   */
+  public synchronized void __resolve(final T fetched) {
+    if (!isFetched) {
+      entity = fetched;
+      isFetched = true;
+    }
+  }
+
+  @Override
+  public String toString() {
+    return "LazyRef(" + (key == null ? entity : key) + ")";
+  }
+}
@@ -0,0 +1,104 @@
+package com.google.code.morphia.mapping.lazy;
+
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+import com.google.code.morphia.Key;
+
+
+/**
+ * References to entities which are fetched (with one query per collection) the first time {@link #get()} is called; declare a
+ * {@code @Reference LazyRefList<T>} field to have them loaded as {@link Key}s only. See {@link LazyRef}.
+ * <p/>
+ * The referenced entities are not checked for existence when loaded; {@link #get()} leaves the missing ones out.
+ */
+public class LazyRefList<T> implements Iterable<T>, Serializable {
+  private static final long serialVersionUID = 1L;
+
+  private final Class<T> referenceObjClass;
+  private final List<Key<T>> keys;
+  private final DatastoreProvider p;
+  private List<T> entities;
+  // written after the entities, so that a thread which sees it set sees them too
+  private volatile boolean isFetched;
+
+  /**
+   * Creates references to the entities (saved with their keys)
+   */
+  public LazyRefList(final Class<T> referenceObjClass, final List<T> entities) {
+    this(referenceObjClass, null, null);
+    this.entities = entities;
+    isFetched = true;
+  }
+
+  /**
+   * Creates references to the entities with the keys, which are fetched through the datastore the provider gives
+   */
+  public LazyRefList(final Class<T> referenceObjClass, final List<Key<T>> keys, final DatastoreProvider p) {
+    this.referenceObjClass = referenceObjClass;
+    this.keys = keys;
+    this.p = p;
+  }
+
+  /**
+   * Returns the referenced entities which exist, in order, fetching them the first time.
+   */
+  public List<T> get() {
+    if (isFetched) {
+      return entities;
+    }
+
+    synchronized (this) {
+      if (!isFetched) {
+        entities = p.get().getByKeys(referenceObjClass, keys);
+        isFetched = true;
+      }
+      return entities;
+    }
+  }
+
+  public Iterator<T> iterator() {
+    return get().iterator();
+  }
+
+  /**
+   * Returns the keys of the referenced entities; null if the references were created from the entities.
+   */
+  public List<Key<T>> getKeys() {
+    return keys == null ? null : Collections.unmodifiableList(keys);
+  }
+
+  public Class<T> getReferenceObjClass() {
+    return referenceObjClass;
+  }
+
+  public boolean isFetched() {
+    return isFetched;
+  }
+
+  /**
+   * Sets the referenced entities from the ones fetched along with others (in the order of the keys, null for the missing ones); see
+   * {@link com.google.code.morphia.Datastore#resolveLazyRefs(Iterable, String...)}.
+   */
+  public synchronized void __resolve(final List<T> fetched) {
+    if (!isFetched) {
+      final List<T> found = new ArrayList<T>(fetched.size());
+      for (final T entity : fetched) {
+        if (entity != null) {
+          found.add(entity);
+        }
+      }
+      entities = found;
+      isFetched = true;
+    }
+  }
+
+  @Override
+  public String toString() {
+    return "LazyRefList(" + (keys == null ? entities : keys) + ")";
+  }
+}
@@ -4,7 +4,12 @@ package com.google.code.morphia.mapping.lazy.proxy;
 import java.io.IOException;
 import java.io.ObjectOutputStream;
 import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
 
+import com.google.code.morphia.AdvancedDatastore;
+import com.google.code.morphia.Datastore;
 import com.google.code.morphia.Key;
 import com.google.code.morphia.mapping.lazy.DatastoreProvider;
 import com.thoughtworks.proxy.kit.ObjectReference;
@@ -13,15 +18,18 @@ import com.thoughtworks.proxy.kit.ObjectReference;
 /**
  * @author Uwe Schaefer, (us@thomas-daily.de)
  */
-@SuppressWarnings({"rawtypes" })
+@SuppressWarnings({"rawtypes", "unchecked"})
 public abstract class AbstractReference implements Serializable, ObjectReference, ProxiedReference {
 
   private static final long serialVersionUID = 1L;
   protected final DatastoreProvider p;
   protected final boolean           ignoreMissing;
   protected       Object            object;
-  private boolean isFetched;
+  // written after the object, so that a thread which sees it set sees the object too
+  private volatile boolean isFetched;
   protected final Class referenceObjClass;
+  // the references fetched along with this one; not kept when serialized
+  private transient LazyReferenceGroup group;
 
   protected AbstractReference(final DatastoreProvider p, final Class referenceObjClass, final boolean ignoreMissing) {
     this.p = p;
@@ -29,14 +37,18 @@ public abstract class AbstractReference implements Serializable, ObjectReference
     this.ignoreMissing = ignoreMissing;
   }
 
-  public final synchronized Object get() {
+  public final Object get() {
     if (isFetched) {
       return object;
     }
 
-    object = fetch();
-    isFetched = true;
-    return object;
+    synchronized (this) {
+      if (!isFetched) {
+        object = fetch();
+        isFetched = true;
+      }
+      return object;
+    }
   }
 
   protected abstract Object fetch();
@@ -53,6 +65,40 @@ public abstract class AbstractReference implements Serializable, ObjectReference
     return p.get().getByKey(referenceObjClass, id);
   }
 
+  /**
+   * Fetches the entities of the keys (with one query per collection), in order, with a null for each missing one; along with the
+   * entities of the rest of the group, if the reference is in one.
+   */
+  protected final List<Object> fetch(final List<Key<?>> keys) {
+    final Datastore ds = p.get();
+    if (group != null) {
+      final Map<Key<?>, Object> entities = group.fetch(ds);
+      if (entities.keySet().containsAll(keys)) {
+        final List<Object> found = new ArrayList<Object>(keys.size());
+        for (final Key<?> key : keys) {
+          found.add(entities.get(key));
+        }
+        return found;
+      }
+    }
+    return fetch(ds, referenceObjClass, keys);
+  }
+
+  static List<Object> fetch(final Datastore ds, final Class referenceObjClass, final List<Key<?>> keys) {
+    if (ds instanceof AdvancedDatastore) {
+      return ((AdvancedDatastore) ds).getByKeys(referenceObjClass, (List) keys, true);
+    }
+    final List<Object> found = new ArrayList<Object>(keys.size());
+    for (final Key<?> key : keys) {
+      found.add(ds.getByKey(referenceObjClass, key));
+    }
+    return found;
+  }
+
+  public final void __setGroup(final LazyReferenceGroup group) {
+    this.group = group;
+  }
+
 
   private void writeObject(final ObjectOutputStream out) throws IOException {
     // excessive hoop-jumping in order not to have to recreate the
@@ -0,0 +1,67 @@
+package com.google.code.morphia.mapping.lazy.proxy;
+
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.google.code.morphia.Datastore;
+import com.google.code.morphia.Key;
+
+
+/**
+ * Lazy reference collections/maps which are fetched together: the first one used fetches the entities of all of them, with one query per
+ * collection (see {@link com.google.code.morphia.mapping.MapperOptions#fetchLazySiblings}).
+ */
+@SuppressWarnings("rawtypes")
+public class LazyReferenceGroup {
+  private List<ProxiedReference> references = new ArrayList<ProxiedReference>();
+  private Map<Key<?>, Object> entities;
+
+  /**
+   * Adds the reference (a collection/map proxy) to the group
+   */
+  public synchronized void add(final ProxiedReference reference) {
+    if (references != null) {
+      references.add(reference);
+      reference.__setGroup(this);
+    }
+  }
+
+  /**
+   * Returns the entities of the keys of all the references in the group (null for the missing ones), fetching them the first time.
+   */
+  synchronized Map<Key<?>, Object> fetch(final Datastore ds) {
+    if (entities == null) {
+      final Map<Class, Set<Key<?>>> keysByClass = new LinkedHashMap<Class, Set<Key<?>>>();
+      for (final ProxiedReference reference : references) {
+        Set<Key<?>> keys = keysByClass.get(reference.__getReferenceObjClass());
+        if (keys == null) {
+          keys = new LinkedHashSet<Key<?>>();
+          keysByClass.put(reference.__getReferenceObjClass(), keys);
+        }
+        if (reference instanceof ProxiedEntityReferenceList) {
+          keys.addAll(((ProxiedEntityReferenceList) reference).__getKeysAsList());
+        } else if (reference instanceof ProxiedEntityReferenceMap) {
+          keys.addAll(((ProxiedEntityReferenceMap) reference).__getReferenceMap().values());
+        }
+      }
+
+      entities = new HashMap<Key<?>, Object>();
+      for (final Map.Entry<Class, Set<Key<?>>> entry : keysByClass.entrySet()) {
+        final List<Key<?>> keys = new ArrayList<Key<?>>(entry.getValue());
+        final List<Object> found = AbstractReference.fetch(ds, entry.getKey(), keys);
+        for (int i = 0; i < keys.size(); i++) {
+          entities.put(keys.get(i), found.get(i));
+        }
+      }
+      // the references are done with
+      references = null;
+    }
+    return entities;
+  }
+}
@@ -10,4 +10,9 @@ public interface ProxiedReference {
   Class __getReferenceObjClass();
 
   Object __unwrap();
+
+  /**
+   * Sets the group the reference is fetched with
+   */
+  void __setGroup(LazyReferenceGroup group);
 }
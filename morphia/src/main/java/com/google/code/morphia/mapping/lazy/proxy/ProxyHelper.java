@@ -8,8 +8,8 @@ package com.google.code.morphia.mapping.lazy.proxy;
 public final class ProxyHelper {
 
   public static <T> T unwrap(final T entity) {
-    if (isProxy(entity)) {
-      return (T) asProxy(entity).__unwrap();
+    if (entity instanceof ProxiedReference) {
+      return (T) ((ProxiedReference) entity).__unwrap();
     }
     return entity;
   }
@@ -19,7 +19,7 @@ public final class ProxyHelper {
   }
 
   public static boolean isProxy(final Object entity) {
-    return (entity != null && isProxied(entity.getClass()));
+    return entity instanceof ProxiedReference;
   }
 
   public static boolean isProxied(final Class<?> clazz) {
@@ -31,19 +31,10 @@ public class SerializableCollectionObjectReference<T> extends AbstractReference
     final Collection<T> c = (Collection<T>) object;
     c.clear();
 
-    final int numberOfEntitiesExpected = listOfKeys.size();
-    // does not retain order:
-    // List<T> retrievedEntities = p.get().getByKeys(referenceObjClass,
-    // (List) __getKeysAsList());
+    // a null for each missing one
+    final List<T> retrievedEntities = (List<T>) fetch(listOfKeys);
 
-    // so we do it the lousy way: FIXME
-    final List<T> retrievedEntities = new ArrayList<T>(listOfKeys.size());
-    final Datastore ds = p.get();
-    for (final Key<?> k : listOfKeys) {
-      retrievedEntities.add((T) ds.getByKey(referenceObjClass, k));
-    }
-
-    if (!ignoreMissing && (numberOfEntitiesExpected != retrievedEntities.size())) {
+    if (!ignoreMissing && retrievedEntities.contains(null)) {
       throw new LazyReferenceFetchingException(
         "During the lifetime of a proxy of type '" + c.getClass().getSimpleName() + "', some referenced Entities of type '"
           + referenceObjClass.getSimpleName() + "' have disappeared from the Datastore.");
@@ -1,8 +1,10 @@
 package com.google.code.morphia.mapping.lazy.proxy;
 
 
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 
 import com.google.code.morphia.Datastore;
@@ -35,14 +37,16 @@ public class SerializableMapObjectReference extends AbstractReference implements
   protected Object fetch() {
     final Map m = (Map) object;
     m.clear();
-    // TODO us: change to getting them all at once and yell according to
-    // ignoreMissing in order to a) increase performance and b) resolve
-    // equals keys to the same instance
-    // that should really be done in datastore.
-    for (final Map.Entry<?, Key<?>> e : keyMap.entrySet()) {
-      final Key<?> entityKey = e.getValue();
-      final Object entity = fetch(entityKey);
-      m.put(e.getKey(), entity);
+    final List<Key<?>> keys = new ArrayList<Key<?>>(keyMap.values());
+    final List<Object> entities = fetch(keys);
+    if (!ignoreMissing && entities.contains(null)) {
+      throw new LazyReferenceFetchingException(
+        "During the lifetime of a proxy of type '" + m.getClass().getSimpleName() + "', some referenced Entities of type '"
+          + referenceObjClass.getSimpleName() + "' have disappeared from the Datastore.");
+    }
+    int i = 0;
+    for (final Object key : keyMap.keySet()) {
+      m.put(key, entities.get(i++));
     }
     return m;
   }
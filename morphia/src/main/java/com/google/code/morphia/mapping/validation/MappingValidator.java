@@ -30,6 +30,8 @@ import com.google.code.morphia.mapping.validation.fieldrules.LazyReferenceOnArra
 import com.google.code.morphia.mapping.validation.fieldrules.MapKeyDifferentFromString;
 import com.google.code.morphia.mapping.validation.fieldrules.MapNotSerializable;
 import com.google.code.morphia.mapping.validation.fieldrules.MisplacedProperty;
+import com.google.code.morphia.mapping.validation.fieldrules.ReferenceIdOnlyMisuse;
+import com.google.code.morphia.mapping.validation.fieldrules.ReferenceSnapshotMisuse;
 import com.google.code.morphia.mapping.validation.fieldrules.ReferenceToUnidentifiable;
 import com.google.code.morphia.mapping.validation.fieldrules.VersionMisuse;
 
@@ -97,6 +99,8 @@ public class MappingValidator {
     constraints.add(new ReferenceToUnidentifiable());
     constraints.add(new LazyReferenceMissingDependencies());
     constraints.add(new LazyReferenceOnArray());
+    constraints.add(new ReferenceSnapshotMisuse());
+    constraints.add(new ReferenceIdOnlyMisuse());
     constraints.add(new MapKeyDifferentFromString());
     constraints.add(new MapNotSerializable());
     constraints.add(new VersionMisuse());
@@ -0,0 +1,33 @@
+package com.google.code.morphia.mapping.validation.fieldrules;
+
+
+import java.lang.reflect.Modifier;
+import java.util.Set;
+
+import com.google.code.morphia.annotations.Reference;
+import com.google.code.morphia.mapping.MappedClass;
+import com.google.code.morphia.mapping.MappedField;
+import com.google.code.morphia.mapping.validation.ConstraintViolation;
+import com.google.code.morphia.mapping.validation.ConstraintViolation.Level;
+
+
+/**
+ * Checks that a {@link Reference} storing only ids (see {@link Reference#idOnly()}) is declared with a concrete type, whose collection is
+ * the one the ids are read from.
+ */
+public class ReferenceIdOnlyMisuse extends FieldConstraint {
+
+  @Override
+  protected void check(final MappedClass mc, final MappedField mf, final Set<ConstraintViolation> ve) {
+    final Reference ref = mf.getAnnotation(Reference.class);
+    if (ref == null || !ref.idOnly()) {
+      return;
+    }
+    final Class realType = mf.isSingleValue() && !mf.isLazyRef() ? mf.getType() : mf.getSubClass();
+    if (realType == null || realType.isInterface() || Modifier.isAbstract(realType.getModifiers())) {
+      ve.add(new ConstraintViolation(Level.FATAL, mc, mf, getClass(), mf.getFullName() + " stores only ids, so it must be declared with a "
+        + "concrete entity type, not " + (realType == null ? "an unknown type" : realType.getName())));
+    }
+  }
+
+}
@@ -0,0 +1,44 @@
+package com.google.code.morphia.mapping.validation.fieldrules;
+
+
+import java.util.Set;
+
+import com.google.code.morphia.annotations.Reference;
+import com.google.code.morphia.mapping.MappedClass;
+import com.google.code.morphia.mapping.MappedField;
+import com.google.code.morphia.mapping.validation.ConstraintViolation;
+import com.google.code.morphia.mapping.validation.ConstraintViolation.Level;
+
+
+/**
+ * Checks that the snapshots of a {@link Reference} (see {@link Reference#snapshot()}) can be kept: the field is a single reference or a
+ * collection of them, and the fields of the snapshots are fields of the referenced class.
+ */
+public class ReferenceSnapshotMisuse extends FieldConstraint {
+
+  @Override
+  protected void check(final MappedClass mc, final MappedField mf, final Set<ConstraintViolation> ve) {
+    final Reference ref = mf.getAnnotation(Reference.class);
+    if (ref == null || ref.snapshot().length == 0) {
+      return;
+    }
+    if (mf.isMap() || mf.isLazyRef()) {
+      ve.add(new ConstraintViolation(Level.FATAL, mc, mf, getClass(),
+        mf.getFullName() + " has a snapshot, which only single references and collections of them can have"));
+      return;
+    }
+
+    final Class realType = mf.isSingleValue() ? mf.getType() : mf.getSubClass();
+    if (realType == null || realType.isInterface()) {
+      return;
+    }
+    final MappedClass referenced = mc.getMapper().getMappedClass(realType);
+    for (final String name : ref.snapshot()) {
+      if (referenced.getMappedFieldByJavaField(name) == null) {
+        ve.add(new ConstraintViolation(Level.FATAL, mc, mf, getClass(),
+          "The snapshot field '" + name + "' of " + mf.getFullName() + " is not a field of " + realType.getName()));
+      }
+    }
+  }
+
+}
@@ -0,0 +1,208 @@
+package com.google.code.morphia.query;
+
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.ListIterator;
+import java.util.Map;
+
+import com.google.code.morphia.Key;
+import com.google.code.morphia.annotations.Property;
+import com.google.code.morphia.annotations.Reference;
+import com.google.code.morphia.annotations.Serialized;
+import com.google.code.morphia.mapping.MappedField;
+import com.google.code.morphia.mapping.Mapper;
+import com.google.code.morphia.mapping.cache.EntityCache;
+import com.google.code.morphia.mapping.cache.EntityCacheStatistics;
+import com.google.code.morphia.mapping.lazy.proxy.ProxyHelper;
+
+
+/**
+ * The {@link EntityCache} of one chunk of {@link Query#asList(int)}: each chunk is mapped with a cache of its own, so that the mapping
+ * threads share nothing, and the caches are merged into the one of the query afterwards (see {@link #mergeInto}).
+ */
+@SuppressWarnings({"unchecked", "rawtypes"})
+class ChunkCache implements EntityCache {
+  private final EntityCache cache;
+  // what was put, in order
+  private final Map<Key, Object> entities = new LinkedHashMap<Key, Object>();
+  private final Map<Key, Object> proxies = new LinkedHashMap<Key, Object>();
+
+  ChunkCache(final EntityCache cache) {
+    this.cache = cache;
+  }
+
+  public Boolean exists(final Key<?> k) {
+    return cache.exists(k);
+  }
+
+  public void notifyExists(final Key<?> k, final boolean exists) {
+    cache.notifyExists(k, exists);
+  }
+
+  public <T> T getEntity(final Key<T> k) {
+    return cache.getEntity(k);
+  }
+
+  public <T> T getProxy(final Key<T> k) {
+    return cache.getProxy(k);
+  }
+
+  public <T> void putProxy(final Key<T> k, final T t) {
+    proxies.put(k, t);
+    cache.putProxy(k, t);
+  }
+
+  public <T> void putEntity(final Key<T> k, final T t) {
+    entities.put(k, t);
+    cache.putEntity(k, t);
+  }
+
+  public void flush() {
+    entities.clear();
+    proxies.clear();
+    cache.flush();
+  }
+
+  public EntityCacheStatistics stats() {
+    return cache.stats();
+  }
+
+  /**
+   * Puts the entities of the chunk into the target, unless it already has an instance of them (from an earlier chunk, say); the results
+   * and the references of the chunk to such entities are then pointed at that instance, so that each entity is only there once.
+   */
+  <T> void mergeInto(final EntityCache target, final List<T> results, final Mapper mapper) {
+    final Map<Object, Object> replaced = new IdentityHashMap<Object, Object>();
+    for (final Map.Entry<Key, Object> entry : entities.entrySet()) {
+      final Object existing = target.getEntity(entry.getKey());
+      if (existing == null) {
+        target.putEntity(entry.getKey(), entry.getValue());
+      } else if (existing != entry.getValue()) {
+        replaced.put(entry.getValue(), existing);
+      }
+    }
+    for (final Map.Entry<Key, Object> entry : proxies.entrySet()) {
+      if (target.getProxy(entry.getKey()) == null) {
+        target.putProxy(entry.getKey(), entry.getValue());
+      }
+    }
+    if (replaced.isEmpty()) {
+      return;
+    }
+
+    final Map<Object, Boolean> visited = new IdentityHashMap<Object, Boolean>();
+    for (final Object entity : entities.values()) {
+      if (!replaced.containsKey(entity)) {
+        relink(entity, replaced, visited, mapper);
+      }
+    }
+    for (final ListIterator<T> it = results.listIterator(); it.hasNext();) {
+      final Object existing = replaced.get(it.next());
+      if (existing != null) {
+        it.set((T) existing);
+      }
+    }
+  }
+
+  /**
+   * Points the (eager) references of the object, and of the objects embedded in it, at the replacements of what they refer to
+   */
+  private static void relink(final Object obj, final Map<Object, Object> replaced, final Map<Object, Boolean> visited,
+    final Mapper mapper) {
+    if (visited.put(obj, Boolean.TRUE) != null) {
+      return;
+    }
+    for (final MappedField mf : mapper.getMappedClass(obj).getPersistenceFields()) {
+      final Object value = mf.getFieldValue(obj);
+      if (value == null || ProxyHelper.isProxy(value)) {
+        continue;
+      }
+      if (mf.hasAnnotation(Reference.class)) {
+        if (!mf.isLazyRef()) {
+          final Object relinked = relinked(value, replaced);
+          if (relinked != value) {
+            mf.setFieldValue(obj, relinked);
+          }
+        }
+      } else if (isEmbedded(mf, mapper)) {
+        for (final Object item : items(value)) {
+          if (item != null && !(item instanceof Collection || item instanceof Map || item.getClass().isArray())
+            && !mapper.getConverters().hasSimpleValueConverter(item)) {
+            relink(item, replaced, visited, mapper);
+          }
+        }
+      }
+    }
+  }
+
+  // as the mapper reads it: neither a plain value nor serialized
+  private static boolean isEmbedded(final MappedField mf, final Mapper mapper) {
+    return !(mf.hasAnnotation(Property.class) || mf.hasAnnotation(Serialized.class) || mf.isTypeMongoCompatible()
+      || mapper.getConverters().hasSimpleValueConverter(mf));
+  }
+
+  /**
+   * Returns the value with the referenced entities replaced; collections, maps and arrays are changed in place
+   */
+  private static Object relinked(final Object value, final Map<Object, Object> replaced) {
+    if (value instanceof Object[]) {
+      final Object[] array = (Object[]) value;
+      for (int i = 0; i < array.length; i++) {
+        final Object existing = replaced.get(array[i]);
+        if (existing != null) {
+          array[i] = existing;
+        }
+      }
+    } else if (value instanceof List) {
+      for (final ListIterator it = ((List) value).listIterator(); it.hasNext();) {
+        final Object existing = replaced.get(it.next());
+        if (existing != null) {
+          it.set(existing);
+        }
+      }
+    } else if (value instanceof Collection) {
+      final Collection collection = (Collection) value;
+      final List items = new ArrayList(collection.size());
+      boolean changed = false;
+      for (final Object item : collection) {
+        final Object existing = replaced.get(item);
+        changed |= existing != null;
+        items.add(existing != null ? existing : item);
+      }
+      if (changed) {
+        collection.clear();
+        collection.addAll(items);
+      }
+    } else if (value instanceof Map) {
+      for (final Map.Entry entry : ((Map<Object, Object>) value).entrySet()) {
+        final Object existing = replaced.get(entry.getValue());
+        if (existing != null) {
+          entry.setValue(existing);
+        }
+      }
+    } else {
+      final Object existing = replaced.get(value);
+      if (existing != null) {
+        return existing;
+      }
+    }
+    return value;
+  }
+
+  private static Collection<?> items(final Object value) {
+    if (value instanceof Object[]) {
+      return Arrays.asList((Object[]) value);
+    } else if (value instanceof Collection) {
+      return (Collection<?>) value;
+    } else if (value instanceof Map) {
+      return ((Map<?, ?>) value).values();
+    }
+    return Collections.singletonList(value);
+  }
+}
@@ -2,10 +2,13 @@ package com.google.code.morphia.query;
 
 
 import java.util.Iterator;
+import java.util.LinkedList;
 import java.util.NoSuchElementException;
 
+import com.google.code.morphia.mapping.FetchPlan;
 import com.google.code.morphia.mapping.Mapper;
 import com.google.code.morphia.mapping.cache.EntityCache;
+import com.mongodb.Bytes;
 import com.mongodb.DBCursor;
 import com.mongodb.DBObject;
 
@@ -22,13 +25,33 @@ public class MorphiaIterator<T, V> implements Iterable<V>, Iterator<V> {
   protected final EntityCache        cache;
   protected long driverTime;
   protected long mapperTime;
+  // the results read ahead, and the cache (with their references) to map them with; see Mapper.prefetchReferences
+  private final int batchSize;
+  private final LinkedList<DBObject> batch = new LinkedList<DBObject>();
+  private EntityCache batchCache;
+  private final FetchPlan plan;
 
   public MorphiaIterator(final Iterator<DBObject> it, final Mapper m, final Class<T> clazz, final String kind, final EntityCache cache) {
+    this(it, m, clazz, kind, cache, null);
+  }
+
+  /**
+   * Creates an iterator which loads the references of the results as the plan says; the results are read ahead (one at a time, if
+   * {@link com.google.code.morphia.mapping.MapperOptions#referenceBatchSize} is 0) unless the cursor is tailable, which ignores the plan.
+   */
+  public MorphiaIterator(final Iterator<DBObject> it, final Mapper m, final Class<T> clazz, final String kind, final EntityCache cache,
+    final FetchPlan plan) {
     wrapped = it;
     this.m = m;
     this.clazz = clazz;
     this.kind = kind;
     this.cache = cache;
+    this.plan = plan;
+
+    // a tailable cursor waits for results, so it cannot read ahead
+    final boolean tailable = it instanceof DBCursor && (((DBCursor) it).getOptions() & Bytes.QUERYOPTION_TAILABLE) != 0;
+    final int referenceBatchSize = m.getOptions().referenceBatchSize;
+    batchSize = cache == null || tailable ? 0 : plan != null ? Math.max(referenceBatchSize, 1) : referenceBatchSize;
   }
 
   public Iterator<V> iterator() {
@@ -36,6 +59,9 @@ public class MorphiaIterator<T, V> implements Iterable<V>, Iterator<V> {
   }
 
   public boolean hasNext() {
+    if (!batch.isEmpty()) {
+      return true;
+    }
     if (wrapped == null) {
       return false;
     }
@@ -61,14 +87,29 @@ public class MorphiaIterator<T, V> implements Iterable<V>, Iterator<V> {
   }
 
   protected DBObject getNext() {
+    if (batchSize > 0 && batch.isEmpty()) {
+      readBatch();
+    }
+    if (!batch.isEmpty()) {
+      return batch.removeFirst();
+    }
     final long start = System.currentTimeMillis();
     final DBObject dbObj = wrapped.next();
     driverTime += System.currentTimeMillis() - start;
     return dbObj;
   }
 
+  private void readBatch() {
+    final long start = System.currentTimeMillis();
+    do {
+      batch.add(wrapped.next());
+    } while (batch.size() < batchSize && wrapped.hasNext());
+    batchCache = m.prefetchReferences(clazz, batch, cache, plan);
+    driverTime += System.currentTimeMillis() - start;
+  }
+
   protected V convertItem(final DBObject dbObj) {
-    return (V) m.fromDBObject(clazz, dbObj, cache);
+    return (V) m.fromDBObject(clazz, dbObj, batchCache == null ? cache : batchCache);
   }
 
   public void remove() {
@@ -0,0 +1,210 @@
+package com.google.code.morphia.query;
+
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import com.google.code.morphia.logging.Logr;
+import com.google.code.morphia.logging.MorphiaLoggerFactory;
+import com.mongodb.DBCursor;
+
+
+/**
+ * A {@link MorphiaIterator} which reads and maps the results of another one on an executor, in chunks, while the caller goes through
+ * the ones before; at most the given number of chunks wait to be taken, then the worker waits too (holding its executor thread).
+ * <p/>
+ * The worker closes the cursor when it is done, when {@link #close()} is called, or when the iterator is no longer referenced (once it
+ * is collected, the worker stops at its next wait for room). An iterator which is not read to the end should be closed in a finally
+ * block, rather than left to the collector. The cache of the results is only used by the worker until then, and the cursor is only
+ * used by the worker; see {@link #getCursor()}.
+ */
+@SuppressWarnings("unchecked")
+public class PipelinedMorphiaIterator<T> extends MorphiaIterator<T, T> {
+  private static final Logr log = MorphiaLoggerFactory.get(PipelinedMorphiaIterator.class);
+  // what the worker puts after the last chunk
+  private static final Object END = new Object();
+  // how long the worker waits for room before checking the iterator is still used
+  private static final long OFFER_WAIT_MS = 100;
+
+  /**
+   * Thrown by the worker, to be rethrown to the caller
+   */
+  private static final class Failure {
+    private final RuntimeException e;
+
+    Failure(final RuntimeException e) {
+      this.e = e;
+    }
+  }
+
+  /**
+   * Reads and maps the results; it only holds the iterator weakly, so that an abandoned one can be collected (and the cursor closed).
+   */
+  private static final class Worker<T> implements Runnable {
+    private final MorphiaIterator<T, T> source;
+    private final BlockingQueue<Object> queue;
+    private final int chunkSize;
+    private final WeakReference<PipelinedMorphiaIterator<T>> owner;
+    private volatile boolean closed;
+
+    Worker(final MorphiaIterator<T, T> source, final BlockingQueue<Object> queue, final int chunkSize,
+      final PipelinedMorphiaIterator<T> owner) {
+      this.source = source;
+      this.queue = queue;
+      this.chunkSize = chunkSize;
+      this.owner = new WeakReference<PipelinedMorphiaIterator<T>>(owner);
+    }
+
+    public void run() {
+      try {
+        List<T> chunk = new ArrayList<T>(chunkSize);
+        while (!closed && source.hasNext()) {
+          chunk.add(source.next());
+          if (chunk.size() == chunkSize) {
+            if (!put(chunk)) {
+              return;
+            }
+            chunk = new ArrayList<T>(chunkSize);
+          }
+        }
+        if (!chunk.isEmpty() && !put(chunk)) {
+          return;
+        }
+        put(END);
+      } catch (Throwable t) {
+        put(new Failure(t instanceof RuntimeException ? (RuntimeException) t : new RuntimeException(t)));
+      } finally {
+        source.close();
+      }
+    }
+
+    /**
+     * Waits for room for the item; returns false if the iterator was closed or abandoned meanwhile.
+     */
+    private boolean put(final Object item) {
+      try {
+        while (!closed) {
+          if (queue.offer(item, OFFER_WAIT_MS, TimeUnit.MILLISECONDS)) {
+            return true;
+          }
+          if (owner.get() == null) {
+            log.debug("Closing the cursor of an abandoned iterator");
+            return false;
+          }
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      return false;
+    }
+  }
+
+  private final MorphiaIterator<T, T> source;
+  private final BlockingQueue<Object> queue;
+  private final Worker<T> worker;
+  private Iterator<T> chunk;
+  private boolean done;
+  private long waitTime;
+
+  /**
+   * Creates an iterator which has the executor read the source, keeping up to chunks (at least one) of chunkSize results ready ahead of
+   * the caller; the source is only used by the worker from then on.
+   */
+  public PipelinedMorphiaIterator(final MorphiaIterator<T, T> source, final Executor executor, final int chunkSize, final int chunks) {
+    // the results all come from the source
+    super(null, source.m, source.clazz, source.kind, null);
+    this.source = source;
+    queue = new ArrayBlockingQueue<Object>(Math.max(chunks, 1));
+    worker = new Worker<T>(source, queue, Math.max(chunkSize, 1), this);
+    try {
+      executor.execute(worker);
+    } catch (RejectedExecutionException e) {
+      source.close();
+      throw e;
+    }
+  }
+
+  @Override
+  public boolean hasNext() {
+    while (chunk == null || !chunk.hasNext()) {
+      if (done) {
+        return false;
+      }
+      final Object item;
+      final long start = System.currentTimeMillis();
+      try {
+        item = queue.take();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new RuntimeException(e);
+      } finally {
+        waitTime += System.currentTimeMillis() - start;
+      }
+      if (item == END) {
+        done = true;
+      } else if (item instanceof Failure) {
+        done = true;
+        throw ((Failure) item).e;
+      } else {
+        chunk = ((List<T>) item).iterator();
+      }
+    }
+    return true;
+  }
+
+  @Override
+  public T next() {
+    if (!hasNext()) {
+      throw new NoSuchElementException();
+    }
+    return chunk.next();
+  }
+
+  @Override
+  public void remove() {
+    throw new UnsupportedOperationException("The results are read ahead; remove them with a query instead");
+  }
+
+  /**
+   * Not supported: the cursor is being read by the worker thread, and {@link DBCursor} is not thread safe.
+   */
+  @Override
+  public DBCursor getCursor() {
+    throw new UnsupportedOperationException("The cursor is read by another thread; use a query without pipelined() to get at it");
+  }
+
+  /**
+   * Returns the time the caller spent waiting for results in ms; the driver and mapper times are the worker's
+   */
+  public long getWaitTime() {
+    return waitTime;
+  }
+
+  @Override
+  public long getDriverTime() {
+    return source.getDriverTime();
+  }
+
+  @Override
+  public long getMapperTime() {
+    return source.getMapperTime();
+  }
+
+  /**
+   * Stops the worker, which closes the cursor
+   */
+  @Override
+  public void close() {
+    worker.closed = true;
+    done = true;
+    queue.clear();
+  }
+}
@@ -1,6 +1,8 @@
 package com.google.code.morphia.query;
 
 
+import java.util.List;
+
 import org.bson.types.CodeWScope;
 import com.mongodb.ReadPreference;
 
@@ -69,6 +71,21 @@ public interface Query<T> extends QueryResults<T>, Cloneable {
    */
   Query<T> batchSize(int value);
 
+  /**
+   * Reads and maps the results on a background thread while they are gone through, keeping up to the given number of batches (of the
+   * batch size, or {@link QueryImpl#DEFAULT_PIPELINE_BATCH_SIZE} results) ready; 0 (the default) reads them on the calling thread. Close
+   * the iterator (see {@link MorphiaIterator#close()}) to stop early; an abandoned one is closed when collected.
+   */
+  Query<T> pipelined(int batches);
+
+  /**
+   * Same as {@link #asList()}, but the results are mapped in up to parallelism chunks at once: one by the calling thread, the others by
+   * the mapping executor of the datastore (see {@link com.google.code.morphia.DatastoreImpl#setMappingExecutor}), or else a shared pool.
+   * The chunks are mapped as they are read; the order is kept, and an entity referenced from several chunks is the same instance in all
+   * of them.
+   */
+  List<T> asList(int parallelism);
+
   /**
    * Starts the query results at a particular zero-based offset.
    *
@@ -109,6 +126,24 @@ public interface Query<T> extends QueryResults<T>, Cloneable {
    */
   Query<T> retrieveKnownFields();
 
+  /**
+   * Fetches the references at the paths (of java field names, such as {@code "customer.address"}) of all the results along with the
+   * non-lazy ones, with one query per collection and level; lazy references (and {@code LazyRef}s) at the paths are loaded as the
+   * entities.
+   */
+  Query<T> prefetch(String... paths);
+
+  /**
+   * Loads the references of the results as instances with only their ids set, without fetching them (or checking they exist).
+   */
+  Query<T> stubReferences();
+
+  /**
+   * Fetches the references at the path (of java field names, as for {@link #prefetch(String...)}) with only the (java or stored) fields
+   * given, instead of the ones of their {@code @Reference}; the entities loaded this way are partial, and cannot be saved.
+   */
+  Query<T> referenceFields(String path, String... fields);
+
   /**
    * Enabled snapshotted mode where duplicate results (which may be updated during the lifetime of the cursor) will not be returned. Not
    * compatible with order/sort and hint. *
@@ -6,6 +6,15 @@ import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.bson.BSONObject;
 import org.bson.types.CodeWScope;
@@ -13,8 +22,10 @@ import com.google.code.morphia.Datastore;
 import com.google.code.morphia.DatastoreImpl;
 import com.google.code.morphia.Key;
 import com.google.code.morphia.annotations.Entity;
+import com.google.code.morphia.annotations.Reference;
 import com.google.code.morphia.logging.Logr;
 import com.google.code.morphia.logging.MorphiaLoggerFactory;
+import com.google.code.morphia.mapping.FetchPlan;
 import com.google.code.morphia.mapping.MappedClass;
 import com.google.code.morphia.mapping.MappedField;
 import com.google.code.morphia.mapping.Mapper;
@@ -36,7 +47,16 @@ import com.mongodb.ReadPreference;
  */
 public class QueryImpl<T> extends CriteriaContainerImpl implements Query<T> {
     private static final Logr log = MorphiaLoggerFactory.get(QueryImpl.class);
+    /**
+     * The number of results read and mapped at a time by a pipelined query without a batch size; see {@link #pipelined(int)}
+     */
+    public static final int DEFAULT_PIPELINE_BATCH_SIZE = 100;
+
+    // maps the chunks of asList(parallelism) for the datastores without a mapping executor; created on first use
+    private static ExecutorService sharedMappingExecutor;
+    private static ExecutorService sharedPipelineExecutor;
 
+    // created by the first fetch; queries which are only counted, updated or deleted by never need one
     private EntityCache cache;
     private boolean validateName = true;
     private boolean validateType = true;
@@ -49,6 +69,7 @@ public class QueryImpl<T> extends CriteriaContainerImpl implements Query<T> {
     private int offset;
     private int limit = -1;
     private int batchSize;
+    private int pipelinedBatches;
     private String indexHint;
     private final Class<T> clazz;
     private BasicDBObject baseQuery;
@@ -57,6 +78,9 @@ public class QueryImpl<T> extends CriteriaContainerImpl implements Query<T> {
     private boolean tail;
     private boolean tail_await_data;
     private ReadPreference readPref;
+    private String[] prefetchPaths;
+    private boolean stubReferences;
+    private Map<MappedField, DBObject> referenceFields;
 
     public QueryImpl(final Class<T> clazz, final DBCollection coll, final Datastore ds) {
         super(CriteriaJoin.AND);
@@ -65,7 +89,6 @@ public class QueryImpl<T> extends CriteriaContainerImpl implements Query<T> {
         this.clazz = clazz;
         this.ds = ((DatastoreImpl) ds);
         dbColl = coll;
-        cache = this.ds.getMapper().createEntityCache();
 
         final MappedClass mc = this.ds.getMapper().getMappedClass(clazz);
         final Entity entAn = mc == null ? null : mc.getEntityAnnotation();
@@ -91,7 +114,7 @@ public class QueryImpl<T> extends CriteriaContainerImpl implements Query<T> {
     public QueryImpl<T> clone() {
         final QueryImpl<T> n = new QueryImpl<T>(clazz, dbColl, ds);
         n.batchSize = batchSize;
-        n.cache = ds.getMapper().createEntityCache(); // fresh cache
+        n.pipelinedBatches = pipelinedBatches;
         n.fields = fields == null ? null : copy();
         n.includeFields = includeFields;
         n.indexHint = indexHint;
@@ -100,6 +123,9 @@ public class QueryImpl<T> extends CriteriaContainerImpl implements Query<T> {
         n.query = n; // feels weird, correct?
         n.offset = offset;
         n.readPref = readPref;
+        n.prefetchPaths = prefetchPaths;
+        n.stubReferences = stubReferences;
+        n.referenceFields = referenceFields == null ? null : new HashMap<MappedField, DBObject>(referenceFields);
         n.snapshotted = snapshotted;
         n.validateName = validateName;
         n.validateType = validateType;
@@ -259,7 +285,29 @@ public class QueryImpl<T> extends CriteriaContainerImpl implements Query<T> {
             log.trace("Getting cursor(" + dbColl.getName() + ")  for query:" + cursor.getQuery());
         }
 
-        return new MorphiaIterator<T, T>(cursor, ds.getMapper(), clazz, dbColl.getName(), cache);
+        final EntityCache fetchCache;
+        if (cache != null) {
+            fetchCache = cache;
+        } else if (limit == 1) {
+            // a single result (say, get()); nothing worth keeping for later fetches
+            fetchCache = ds.createOperationCache();
+        } else {
+            fetchCache = cache = ds.createEntityCache();
+        }
+        final FetchPlan plan = createFetchPlan();
+        // a single result (or a tailable cursor, which waits for results) gains nothing from another thread
+        if (pipelinedBatches > 0 && !tail && limit != 1) {
+            final Executor executor = ds.getMappingExecutor() != null ? ds.getMappingExecutor() : getSharedPipelineExecutor();
+            return new PipelinedMorphiaIterator<T>(new MorphiaIterator<T, T>(cursor, ds.getMapper(), clazz, dbColl.getName(), fetchCache,
+                plan), executor, batchSize > 0 ? batchSize : DEFAULT_PIPELINE_BATCH_SIZE, pipelinedBatches);
+        }
+        return new MorphiaIterator<T, T>(cursor, ds.getMapper(), clazz, dbColl.getName(), fetchCache, plan);
+    }
+
+
+    private FetchPlan createFetchPlan() {
+        return prefetchPaths != null || stubReferences || referenceFields != null
+            ? new FetchPlan(prefetchPaths, stubReferences, referenceFields) : null;
     }
 
 
@@ -283,19 +331,172 @@ public class QueryImpl<T> extends CriteriaContainerImpl implements Query<T> {
     public List<T> asList() {
         final List<T> results = new ArrayList<T>();
         final MorphiaIterator<T, T> iter = (MorphiaIterator<T, T>) fetch().iterator();
-        for (final T ent : iter) {
-            results.add(ent);
+        try {
+            for (final T ent : iter) {
+                results.add(ent);
+            }
+        } finally {
+            // stops the worker of a pipelined iterator, if mapping failed
+            iter.close();
         }
 
         if (log.isTraceEnabled()) {
             log.trace(String.format("asList: %s \t %d entities, iterator time: driver %n ms, mapper %n ms \n\t cache: %s \n\t for %s",
-                dbColl.getName(), results.size(), iter.getDriverTime(), iter.getMapperTime(), cache.stats().toString(), getQueryObject()));
+                dbColl.getName(), results.size(), iter.getDriverTime(), iter.getMapperTime(), cache == null ? null : cache.stats(), getQueryObject()));
         }
 
         return results;
     }
 
 
+    public List<T> asList(final int parallelism) {
+        if (parallelism < 2 || tail) {
+            return asList();
+        }
+
+        final long start = System.currentTimeMillis();
+        if (cache == null) {
+            cache = ds.createEntityCache();
+        }
+        final long[] driverTime = new long[1];
+        final List<T> results = mapInParallel(prepareCursor(), parallelism, driverTime);
+
+        if (log.isTraceEnabled()) {
+            log.trace(String.format("asList(%d): %s \t %d entities, driver %d ms, total %d ms \n\t cache: %s \n\t for %s", parallelism,
+                dbColl.getName(), results.size(), driverTime[0], System.currentTimeMillis() - start, cache.stats(), getQueryObject()));
+        }
+        return results;
+    }
+
+    /**
+     * Maps the results in chunks as they are read from the cursor: up to parallelism - 1 chunks at once on the mapping executor, and the
+     * last one (or one the executor has no room for) by the calling thread. Each chunk has a cache of its own, merged into the one of the
+     * query in order once it is mapped (see {@link ChunkCache}); the references of each chunk are fetched in batches, as by {@link
+     * MorphiaIterator}.
+     */
+    private List<T> mapInParallel(final DBCursor cursor, final int parallelism, final long[] driverTime) {
+        final Mapper mapper = ds.getMapper();
+        final FetchPlan plan = createFetchPlan();
+        final int chunkSize = batchSize > 0 ? batchSize : DEFAULT_PIPELINE_BATCH_SIZE;
+        final ExecutorService executor = ds.getMappingExecutor() != null ? ds.getMappingExecutor() : getSharedMappingExecutor();
+        final AtomicInteger busy = new AtomicInteger();
+        final List<Future<List<T>>> futures = new ArrayList<Future<List<T>>>();
+        final List<ChunkCache> caches = new ArrayList<ChunkCache>();
+        boolean done = false;
+        try {
+            try {
+                List<DBObject> chunk = new ArrayList<DBObject>(chunkSize);
+                boolean hasNext;
+                do {
+                    final long start = System.currentTimeMillis();
+                    hasNext = cursor.hasNext();
+                    if (hasNext) {
+                        chunk.add(cursor.next());
+                    }
+                    driverTime[0] += System.currentTimeMillis() - start;
+                    if (chunk.size() == chunkSize || !hasNext && !chunk.isEmpty()) {
+                        final ChunkCache chunkCache = new ChunkCache(ds.createEntityCache());
+                        final FutureTask<List<T>> task = new FutureTask<List<T>>(mapChunk(chunk, chunkCache, plan)) {
+                            @Override
+                            protected void done() {
+                                busy.decrementAndGet();
+                            }
+                        };
+                        busy.incrementAndGet();
+                        futures.add(task);
+                        caches.add(chunkCache);
+                        if (hasNext && busy.get() < parallelism) {
+                            executor.execute(task);
+                        } else {
+                            task.run();
+                        }
+                        chunk = new ArrayList<DBObject>(chunkSize);
+                    }
+                } while (hasNext);
+            } finally {
+                cursor.close();
+            }
+
+            final List<T> results = new ArrayList<T>();
+            for (int i = 0; i < futures.size(); i++) {
+                final List<T> entities = futures.get(i).get();
+                caches.get(i).mergeInto(cache, entities, mapper);
+                results.addAll(entities);
+            }
+            done = true;
+            return results;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new RuntimeException(e.getCause());
+        } finally {
+            if (!done) {
+                for (final Future<List<T>> future : futures) {
+                    future.cancel(false);
+                }
+            }
+        }
+    }
+
+    private Callable<List<T>> mapChunk(final List<DBObject> chunk, final EntityCache chunkCache, final FetchPlan plan) {
+        final Mapper mapper = ds.getMapper();
+        final int referenceBatchSize = mapper.getOptions().referenceBatchSize;
+        final int batchSize = plan != null ? Math.max(referenceBatchSize, 1) : referenceBatchSize;
+        return new Callable<List<T>>() {
+            public List<T> call() {
+                final List<T> entities = new ArrayList<T>(chunk.size());
+                final int step = batchSize > 0 ? batchSize : chunk.size();
+                for (int i = 0; i < chunk.size(); i += step) {
+                    final List<DBObject> batch = chunk.subList(i, Math.min(chunk.size(), i + step));
+                    final EntityCache batchCache = batchSize > 0 ? mapper.prefetchReferences(clazz, batch, chunkCache, plan) : chunkCache;
+                    for (final DBObject dbObj : batch) {
+                        entities.add((T) mapper.fromDBObject(clazz, dbObj, batchCache));
+                    }
+                }
+                return entities;
+            }
+        };
+    }
+
+    private static synchronized ExecutorService getSharedMappingExecutor() {
+        if (sharedMappingExecutor == null) {
+            sharedMappingExecutor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), new ThreadFactory() {
+                private final AtomicInteger count = new AtomicInteger();
+
+                public Thread newThread(final Runnable r) {
+                    final Thread thread = new Thread(r, "morphia-mapping-" + count.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return sharedMappingExecutor;
+    }
+
+    /**
+     * Returns the pool the workers of pipelined queries run on, when the datastore has no mapping executor; each holds a thread until its
+     * iterator is done, closed or collected, so it grows as needed and its threads are reused.
+     */
+    private static synchronized Executor getSharedPipelineExecutor() {
+        if (sharedPipelineExecutor == null) {
+            sharedPipelineExecutor = Executors.newCachedThreadPool(new ThreadFactory() {
+                private final AtomicInteger count = new AtomicInteger();
+
+                public Thread newThread(final Runnable r) {
+                    final Thread thread = new Thread(r, "morphia-pipeline-" + count.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return sharedPipelineExecutor;
+    }
+
+
     public List<Key<T>> asKeyList() {
         final List<Key<T>> results = new ArrayList<Key<T>>();
         for (final Key<T> key : fetchKeys()) {
@@ -435,6 +636,11 @@ public class QueryImpl<T> extends CriteriaContainerImpl implements Query<T> {
         return batchSize;
     }
 
+    public Query<T> pipelined(final int batches) {
+        pipelinedBatches = batches;
+        return this;
+    }
+
     public Query<T> skip(final int value) {
         offset = value;
         return this;
@@ -555,6 +761,55 @@ public class QueryImpl<T> extends CriteriaContainerImpl implements Query<T> {
         return this;
     }
 
+    public Query<T> prefetch(final String... paths) {
+        if (validateName) {
+            for (final String path : paths) {
+                validatePrefetchPath(path);
+            }
+        }
+        prefetchPaths = paths;
+        return this;
+    }
+
+    /**
+     * Checks that each part of the path is a (java) field of the class the previous one references, or is of, and returns the last one.
+     */
+    private MappedField validatePrefetchPath(final String path) {
+        final Mapper mapper = ds.getMapper();
+        MappedClass mc = mapper.getMappedClass(clazz);
+        MappedField mf = null;
+        for (final String part : path.split("\\.")) {
+            mf = mc == null ? null : mc.getMappedFieldByJavaField(part);
+            if (mf == null) {
+                throw new ValidationException("The field '" + part + "' of the prefetch path '" + path + "' could not be found in '"
+                    + (mc == null ? null : mc.getClazz().getName()) + "'");
+            }
+            if (mf.isTypeMongoCompatible()) {
+                mc = null;
+            } else {
+                mc = mapper.getMappedClass(mf.isSingleValue() && !mf.isLazyRef() ? mf.getConcreteType() : mf.getSubClass());
+            }
+        }
+        return mf;
+    }
+
+    public Query<T> referenceFields(final String path, final String... fields) {
+        final MappedField mf = validatePrefetchPath(path);
+        if (!mf.hasAnnotation(Reference.class)) {
+            throw new ValidationException("The field at '" + path + "' is not a @Reference: " + mf.getFullName());
+        }
+        if (referenceFields == null) {
+            referenceFields = new HashMap<MappedField, DBObject>();
+        }
+        referenceFields.put(mf, ds.getMapper().createReferenceFields(mf, fields));
+        return this;
+    }
+
+    public Query<T> stubReferences() {
+        stubReferences = true;
+        return this;
+    }
+
     /**
      * Enabled snapshotted mode where duplicate results (which may be updated during the lifetime of the cursor) will not be returned. Not
      * compatible with order/sort and hint.
@@ -1,12 +1,18 @@
 package com.google.code.morphia;
 
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
+import org.bson.types.ObjectId;
 import org.junit.Assert;
 import org.junit.Test;
 import com.google.code.morphia.testutil.TestEntity;
+import com.mongodb.DBRef;
 
 
 /**
@@ -28,6 +34,47 @@ public class TestGetByKeys extends TestBase {
     Assert.assertFalse(i.hasNext());
   }
 
+  @Test
+  public void testOrderedAndChunked() {
+    final List<Key<A>> keys = new ArrayList<Key<A>>();
+    for (int i = 0; i < 25; i++) {
+      keys.add(ds.save(new A()));
+    }
+    Collections.reverse(keys);
+    final Key<A> missing = new Key<A>(A.class, new ObjectId().toString());
+    keys.add(3, missing);
+
+    final DatastoreImpl dsi = (DatastoreImpl) ds;
+    final ExecutorService executor = Executors.newFixedThreadPool(3);
+    dsi.setMaxIdsPerQuery(4);
+    dsi.setQueryExecutor(executor);
+    try {
+      final List<A> reloaded = dsi.getByKeys(A.class, keys);
+      Assert.assertEquals(25, reloaded.size());
+      final List<A> withMissing = dsi.getByKeys(A.class, keys, true);
+      Assert.assertEquals(26, withMissing.size());
+      Assert.assertNull(withMissing.get(3));
+      for (int i = 0; i < keys.size(); i++) {
+        if (i != 3) {
+          Assert.assertEquals(keys.get(i).getId(), withMissing.get(i).getId());
+        }
+      }
+
+      final List<DBRef> refs = new ArrayList<DBRef>();
+      for (final Key<A> key : keys) {
+        refs.add(dsi.getMapper().keyToRef(key));
+      }
+      final List<Key<A>> found = dsi.getKeysByRefs(refs);
+      Assert.assertEquals(25, found.size());
+      Assert.assertEquals(keys.get(0).getId(), found.get(0).getId());
+      Assert.assertEquals(keys.get(4).getId(), found.get(3).getId());
+    } finally {
+      dsi.setQueryExecutor(null);
+      dsi.setMaxIdsPerQuery(1000);
+      executor.shutdown();
+    }
+  }
+
   public static class A extends TestEntity {
     private static final long serialVersionUID = 1L;
     String foo = "bar";
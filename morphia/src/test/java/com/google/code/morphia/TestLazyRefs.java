@@ -0,0 +1,103 @@
+package com.google.code.morphia;
+
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.bson.types.ObjectId;
+import org.junit.Assert;
+import org.junit.Test;
+import com.google.code.morphia.annotations.Entity;
+import com.google.code.morphia.annotations.Id;
+import com.google.code.morphia.annotations.Reference;
+import com.google.code.morphia.mapping.lazy.LazyRef;
+import com.google.code.morphia.mapping.lazy.LazyRefList;
+import com.google.code.morphia.query.ValidationException;
+
+
+/**
+ * Checks that the {@link LazyRef}/{@link LazyRefList} fields of many entities are resolved together.
+ */
+public class TestLazyRefs extends TestBase {
+
+  @Entity
+  public static class Author {
+    @Id ObjectId id;
+    String name;
+
+    Author() {
+    }
+
+    Author(final String name) {
+      this.name = name;
+    }
+  }
+
+  @Entity
+  public static class Book {
+    @Id ObjectId id;
+    @Reference LazyRef<Author> author;
+    @Reference LazyRefList<Author> reviewers;
+  }
+
+  private Book book(final Author author, final Author... reviewers) {
+    final Book book = new Book();
+    book.author = new LazyRef<Author>(author);
+    book.reviewers = new LazyRefList<Author>(Author.class, Arrays.asList(reviewers));
+    ds.save(book);
+    return book;
+  }
+
+  @Test
+  public void testResolveLazyRefs() {
+    final Author ann = new Author("ann");
+    final Author bob = new Author("bob");
+    final Author gone = new Author("gone");
+    ds.save(ann, bob, gone);
+    book(ann, bob);
+    book(bob, ann, gone);
+    ds.delete(gone);
+
+    final List<Book> books = ds.find(Book.class).asList();
+    Assert.assertFalse(books.get(0).author.isFetched());
+    ds.resolveLazyRefs(books, "author");
+    Assert.assertEquals("ann", books.get(0).author.get().name);
+    Assert.assertEquals("bob", books.get(1).author.get().name);
+    Assert.assertFalse(books.get(1).reviewers.isFetched());
+
+    ds.resolveLazyRefs(books);
+    Assert.assertTrue(books.get(1).reviewers.isFetched());
+    Assert.assertEquals(1, books.get(1).reviewers.get().size());
+    Assert.assertEquals("ann", books.get(1).reviewers.get().get(0).name);
+  }
+
+  @Test
+  public void testPrefetch() {
+    final Author ann = new Author("ann");
+    ds.save(ann);
+    book(ann, ann);
+
+    final Book book = ds.find(Book.class).prefetch("author", "reviewers").get();
+    Assert.assertTrue(book.author.isFetched());
+    Assert.assertTrue(book.reviewers.isFetched());
+    Assert.assertSame(book.author.get(), book.reviewers.get().get(0));
+  }
+
+  @Test(expected = ValidationException.class)
+  public void testPrefetchUnknownPath() {
+    ds.find(Book.class).prefetch("author.books");
+  }
+
+  @Test
+  public void testGetFetches() {
+    final Author ann = new Author("ann");
+    ds.save(ann);
+    book(ann);
+
+    final Book book = ds.find(Book.class).get();
+    Assert.assertEquals(ann.id, book.author.getKey().getId());
+    Assert.assertEquals("ann", book.author.get().name);
+    // not stored when empty
+    Assert.assertNull(book.reviewers);
+  }
+}
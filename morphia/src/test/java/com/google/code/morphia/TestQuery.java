@@ -25,6 +25,10 @@ import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 import java.util.regex.Pattern;
 
 import org.bson.types.CodeWScope;
@@ -41,6 +45,8 @@ import com.google.code.morphia.annotations.Id;
 import com.google.code.morphia.annotations.Indexed;
 import com.google.code.morphia.annotations.Property;
 import com.google.code.morphia.annotations.Reference;
+import com.google.code.morphia.mapping.MappingException;
+import com.google.code.morphia.mapping.lazy.proxy.ProxyHelper;
 import com.google.code.morphia.query.Query;
 import com.google.code.morphia.query.QueryImpl;
 import com.google.code.morphia.query.ValidationException;
@@ -291,6 +297,91 @@ public class TestQuery extends TestBase {
   }
 
 
+  @Test
+  public void testPrefetchAndStubReferences() throws Exception {
+    final ContainsPic cpk = new ContainsPic();
+    final Pic p = new Pic("pic");
+    ds.save(p);
+    cpk.pic = p;
+    cpk.lazyPic = p;
+    ds.save(cpk);
+
+    final ContainsPic prefetched = ds.find(ContainsPic.class).prefetch("lazyPic").get();
+    Assert.assertFalse(ProxyHelper.isProxy(prefetched.lazyPic));
+    assertEquals("pic", prefetched.lazyPic.name);
+
+    final ContainsPic stubbed = ds.find(ContainsPic.class).stubReferences().get();
+    assertEquals(p.id, stubbed.pic.id);
+    assertNull(stubbed.pic.name);
+    Assert.assertFalse(ProxyHelper.isProxy(stubbed.lazyPic));
+    assertNull(stubbed.lazyPic.name);
+  }
+
+  @Test
+  public void testReferenceFields() throws Exception {
+    final ContainsPic cpk = new ContainsPic();
+    final Pic p = new Pic("pic");
+    ds.save(p);
+    cpk.pic = p;
+    ds.save(cpk);
+
+    final ContainsPic loaded = ds.find(ContainsPic.class).referenceFields("pic", "id").get();
+    assertEquals(p.id, loaded.pic.id);
+    assertNull(loaded.pic.name);
+    assertTrue(morphia.getMapper().isPartial(loaded.pic));
+    Assert.assertFalse(morphia.getMapper().isPartial(loaded));
+    try {
+      ds.save(loaded.pic);
+      Assert.fail("a partial entity was saved");
+    } catch (MappingException e) {
+      // expected
+    }
+    assertEquals("pic", ds.get(p).name);
+    ds.save(loaded);
+  }
+
+  @Entity
+  public static class HasExtras {
+    @Id ObjectId id;
+    BasicDBObject extras;
+  }
+
+  @Test
+  public void testBasicDBObjectResults() throws Exception {
+    final HasExtras he = new HasExtras();
+    he.extras = new BasicDBObject("color", "red");
+    ds.save(he);
+
+    final Query<HasExtras> q = ds.find(HasExtras.class);
+    assertTrue(((QueryImpl<HasExtras>) q).prepareCursor().next() instanceof BasicDBObject);
+    final HasExtras loaded = q.get();
+    assertEquals("red", loaded.extras.getString("color"));
+  }
+
+  @Test
+  public void testPartialReferenceNotMerged() throws Exception {
+    final ContainsPic cpk = new ContainsPic();
+    final Pic p = new Pic("pic");
+    ds.save(p);
+    cpk.pic = p;
+    ds.save(cpk);
+
+    final ContainsPic loaded = ds.find(ContainsPic.class).referenceFields("pic", "id").get();
+    try {
+      ds.merge(loaded.pic);
+      Assert.fail("a partial entity was merged");
+    } catch (MappingException e) {
+      // expected
+    }
+    try {
+      ads.insert(loaded.pic);
+      Assert.fail("a partial entity was inserted");
+    } catch (MappingException e) {
+      // expected
+    }
+    assertEquals("pic", ds.get(p).name);
+  }
+
   @Test
   public void testWhereCodeWScopeQuery() throws Exception {
     ds.save(new PhotoWithKeywords());
@@ -700,6 +791,35 @@ public class TestQuery extends TestBase {
     assertEquals(10, r1.getWidth(), 0);
   }
 
+  @Test
+  public void testParallelAsList() throws Exception {
+    for (int i = 0; i < 25; i++) {
+      ds.save(new Rectangle(i, 10));
+    }
+
+    final List<Rectangle> sequential = ds.find(Rectangle.class).order("width").asList();
+    final List<Rectangle> parallel = ds.find(Rectangle.class).order("width").asList(4);
+    assertEquals(25, parallel.size());
+    for (int i = 0; i < 25; i++) {
+      assertEquals(sequential.get(i).getWidth(), parallel.get(i).getWidth(), 0);
+    }
+    assertEquals(0, ds.find(Rectangle.class, "width >", 100).asList(4).size());
+
+    // called from the only thread of the query executor, which the chunks do not need
+    final ExecutorService queryExecutor = Executors.newFixedThreadPool(1);
+    ((DatastoreImpl) ds).setQueryExecutor(queryExecutor);
+    try {
+      assertEquals(25, queryExecutor.submit(new Callable<List<Rectangle>>() {
+        public List<Rectangle> call() {
+          return ds.find(Rectangle.class).asList(4);
+        }
+      }).get(10, TimeUnit.SECONDS).size());
+    } finally {
+      ((DatastoreImpl) ds).setQueryExecutor(null);
+      queryExecutor.shutdown();
+    }
+  }
+
   @Test
   public void testAliasedFieldSort() throws Exception {
     final Rectangle[] array = {new Rectangle(1, 10), new Rectangle(3, 8), new Rectangle(6, 10), new Rectangle(10, 10), new Rectangle(10,
@@ -0,0 +1,112 @@
+package com.google.code.morphia;
+
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.bson.types.ObjectId;
+import org.junit.Assert;
+import org.junit.Test;
+import com.google.code.morphia.annotations.Entity;
+import com.google.code.morphia.annotations.Id;
+import com.google.code.morphia.annotations.Reference;
+import com.google.code.morphia.mapping.cache.LRUSecondLevelCache;
+
+
+/**
+ * Checks that references are loaded from the snapshots kept next to them, and that the snapshots are kept up to date.
+ */
+public class TestReferenceSnapshots extends TestBase {
+
+  @Entity
+  public static class Customer {
+    @Id ObjectId id;
+    String name;
+    String tier;
+    String email;
+
+    Customer() {
+    }
+
+    Customer(final String name, final String tier) {
+      this.name = name;
+      this.tier = tier;
+      email = name + "@example.com";
+    }
+  }
+
+  @Entity
+  public static class Order {
+    @Id ObjectId id;
+    @Reference(snapshot = {"name", "tier"}) Customer customer;
+    @Reference(snapshot = "name") List<Customer> contacts = new ArrayList<Customer>();
+  }
+
+  @Test
+  public void testLoadedFromSnapshots() {
+    final Customer ann = new Customer("ann", "gold");
+    final Customer bob = new Customer("bob", "silver");
+    ds.save(ann, bob);
+    final Order order = new Order();
+    order.customer = ann;
+    order.contacts.add(bob);
+    order.contacts.add(ann);
+    ds.save(order);
+
+    final Order loaded = ds.get(order);
+    Assert.assertEquals("gold", loaded.customer.tier);
+    Assert.assertNull(loaded.customer.email);
+    Assert.assertTrue(morphia.getMapper().isPartial(loaded.customer));
+    Assert.assertEquals("bob", loaded.contacts.get(0).name);
+    Assert.assertNull(loaded.contacts.get(0).tier);
+  }
+
+  @Test
+  public void testUpdateSnapshots() {
+    final Customer ann = new Customer("ann", "gold");
+    final Customer bob = new Customer("bob", "silver");
+    ds.save(ann, bob);
+    for (int i = 0; i < 3; i++) {
+      final Order order = new Order();
+      order.customer = i == 0 ? bob : ann;
+      order.contacts.add(bob);
+      ds.save(order);
+    }
+
+    ann.tier = null;
+    bob.name = "robert";
+    ds.save(ann, bob);
+    Assert.assertEquals(2, ds.updateSnapshots(ann));
+    Assert.assertEquals(4, ds.updateSnapshots(bob));
+
+    for (final Order order : ds.find(Order.class)) {
+      Assert.assertEquals("robert", order.contacts.get(0).name);
+      if (order.customer.id.equals(ann.id)) {
+        Assert.assertNull(order.customer.tier);
+        Assert.assertEquals("ann", order.customer.name);
+      } else {
+        Assert.assertEquals("robert", order.customer.name);
+      }
+    }
+  }
+
+  @Test
+  public void testUpdateSnapshotsInvalidatesCache() {
+    morphia.getMapper().getOptions().secondLevelCache = new LRUSecondLevelCache(100);
+    try {
+      final Customer ann = new Customer("ann", "gold");
+      ds.save(ann);
+      final Order order = new Order();
+      order.customer = ann;
+      ds.save(order);
+      Assert.assertEquals("gold", ds.get(Order.class, order.id).customer.tier);
+
+      ann.tier = "platinum";
+      ds.save(ann);
+      Assert.assertEquals(1, ds.updateSnapshots(ann));
+      Assert.assertEquals("platinum", ds.get(Order.class, order.id).customer.tier);
+    } finally {
+      morphia.getMapper().getOptions().secondLevelCache = null;
+    }
+  }
+}
@@ -0,0 +1,91 @@
+package com.google.code.morphia;
+
+
+import org.bson.types.ObjectId;
+import org.junit.Assert;
+import org.junit.Test;
+import com.google.code.morphia.annotations.Entity;
+import com.google.code.morphia.annotations.Id;
+import com.google.code.morphia.annotations.Reference;
+import com.google.code.morphia.mapping.cache.LRUSecondLevelCache;
+
+
+/**
+ * Checks that reads go through the second level cache, and that writes through the datastore invalidate it.
+ */
+public class TestSecondLevelCache extends TestBase {
+
+  @Entity
+  public static class Country {
+    @Id ObjectId id;
+    String name;
+  }
+
+  @Entity
+  public static class City {
+    @Id ObjectId id;
+    @Reference Country country;
+  }
+
+  private LRUSecondLevelCache cache;
+
+  @Override
+  public void setUp() {
+    super.setUp();
+    cache = new LRUSecondLevelCache(100);
+    morphia.getMapper().getOptions().secondLevelCache = cache;
+  }
+
+  @Override
+  public void tearDown() {
+    morphia.getMapper().getOptions().secondLevelCache = null;
+    super.tearDown();
+  }
+
+  @Test
+  public void testGetCached() {
+    final Country country = new Country();
+    country.name = "Iceland";
+    ds.save(country);
+
+    Assert.assertEquals("Iceland", ds.get(Country.class, country.id).name);
+    Assert.assertEquals(1, cache.stats().getMisses());
+    final Country cached = ds.get(Country.class, country.id);
+    Assert.assertEquals("Iceland", cached.name);
+    Assert.assertEquals(1, cache.stats().getHits());
+    // each read gets an entity of its own
+    Assert.assertNotSame(cached, ds.get(Country.class, country.id));
+  }
+
+  @Test
+  public void testReferenceCached() {
+    final Country country = new Country();
+    ds.save(country);
+    final City city = new City();
+    city.country = country;
+    ds.save(city);
+
+    ds.get(Country.class, country.id);
+    final long hits = cache.stats().getHits();
+    Assert.assertEquals(country.id, ds.createQuery(City.class).get().country.id);
+    Assert.assertEquals(hits + 1, cache.stats().getHits());
+  }
+
+  @Test
+  public void testWritesInvalidate() {
+    final Country country = new Country();
+    country.name = "Iceland";
+    ds.save(country);
+    ds.get(Country.class, country.id);
+
+    ds.update(ds.createQuery(Country.class).field("name").equal("Iceland"), ds.createUpdateOperations(Country.class).set("name", "Island"));
+    Assert.assertEquals("Island", ds.get(Country.class, country.id).name);
+
+    country.name = "Ísland";
+    ds.save(country);
+    Assert.assertEquals("Ísland", ds.get(Country.class, country.id).name);
+
+    ds.delete(country);
+    Assert.assertNull(ds.get(Country.class, country.id));
+  }
+}
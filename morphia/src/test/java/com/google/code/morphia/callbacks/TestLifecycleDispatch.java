@@ -0,0 +1,108 @@
+package com.google.code.morphia.callbacks;
+
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.bson.types.ObjectId;
+import org.junit.Assert;
+import org.junit.Test;
+import com.google.code.morphia.AbstractEntityInterceptor;
+import com.google.code.morphia.Morphia;
+import com.google.code.morphia.annotations.EntityListeners;
+import com.google.code.morphia.annotations.Id;
+import com.google.code.morphia.annotations.PostLoad;
+import com.google.code.morphia.annotations.PreLoad;
+import com.google.code.morphia.annotations.PrePersist;
+import com.google.code.morphia.mapping.Mapper;
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBObject;
+
+
+/**
+ * Checks the order and arguments of life-cycle callbacks, without a database.
+ */
+public class TestLifecycleDispatch {
+  private static final List<String> CALLS = new ArrayList<String>();
+
+  public static class Listener {
+    @PrePersist
+    void prePersist(final Object entity, final DBObject dbObj) {
+      CALLS.add("listener.prePersist " + (dbObj != null));
+    }
+
+    @PostLoad
+    void postLoad(final Object entity) {
+      CALLS.add("listener.postLoad " + entity.getClass().getSimpleName());
+    }
+  }
+
+  @EntityListeners(Listener.class)
+  public static class E {
+    @Id ObjectId id = new ObjectId();
+    String name = "e";
+
+    @PrePersist
+    void prePersist() {
+      CALLS.add("entity.prePersist");
+    }
+
+    @PreLoad
+    DBObject preLoad(final DBObject dbObj) {
+      CALLS.add("entity.preLoad");
+      final DBObject changed = new BasicDBObject(dbObj.toMap());
+      changed.put("name", "changed");
+      return changed;
+    }
+  }
+
+  public static class Plain {
+    @Id ObjectId id = new ObjectId();
+  }
+
+  @Test
+  public void testCallbacks() {
+    final Mapper mapper = new Morphia().map(E.class).getMapper();
+    CALLS.clear();
+    final DBObject dbObj = mapper.toDBObject(new E());
+    Assert.assertEquals(2, CALLS.size());
+    Assert.assertTrue(CALLS.contains("entity.prePersist"));
+    Assert.assertTrue(CALLS.contains("listener.prePersist true"));
+
+    CALLS.clear();
+    final E e = (E) mapper.fromDBObject(E.class, dbObj, mapper.createEntityCache());
+    Assert.assertEquals("changed", e.name);
+    Assert.assertEquals("[entity.preLoad, listener.postLoad E]", CALLS.toString());
+  }
+
+  @Test
+  public void testInterceptors() {
+    final Mapper mapper = new Morphia().map(Plain.class).getMapper();
+    final List<String> events = new ArrayList<String>();
+    mapper.addInterceptor(new AbstractEntityInterceptor() {
+      @Override
+      public void prePersist(final Object ent, final DBObject dbObj, final Mapper mapr) {
+        events.add("prePersist");
+      }
+
+      @Override
+      public void preSave(final Object ent, final DBObject dbObj, final Mapper mapr) {
+        events.add("preSave");
+      }
+
+      @Override
+      public void preLoad(final Object ent, final DBObject dbObj, final Mapper mapr) {
+        events.add("preLoad");
+      }
+
+      @Override
+      public void postLoad(final Object ent, final DBObject dbObj, final Mapper mapr) {
+        events.add("postLoad");
+      }
+    });
+
+    final DBObject dbObj = mapper.toDBObject(new Plain());
+    mapper.fromDBObject(Plain.class, dbObj, mapper.createEntityCache());
+    Assert.assertEquals("[prePersist, preSave, preLoad, postLoad]", events.toString());
+  }
+}
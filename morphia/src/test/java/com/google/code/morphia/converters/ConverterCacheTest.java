@@ -0,0 +1,98 @@
+package com.google.code.morphia.converters;
+
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.bson.types.ObjectId;
+import org.junit.Assert;
+import org.junit.Test;
+import com.google.code.morphia.Morphia;
+import com.google.code.morphia.annotations.Entity;
+import com.google.code.morphia.annotations.Id;
+import com.google.code.morphia.mapping.MappedClass;
+import com.google.code.morphia.mapping.MappedField;
+import com.google.code.morphia.mapping.Mapper;
+
+
+/**
+ * Checks that the converters cached by {@link DefaultConverters} follow added/removed converters.
+ */
+public class ConverterCacheTest {
+
+  @Entity
+  public static class Holder {
+    @Id ObjectId id;
+    String name = "a";
+    List<String> names = new ArrayList<String>();
+  }
+
+  @Entity
+  public static class Other {
+    @Id ObjectId id;
+    String label;
+  }
+
+  public static class UpperCaseConverter extends TypeConverter implements SimpleValueConverter {
+    public UpperCaseConverter() {
+      super(String.class);
+    }
+
+    @Override
+    public Object decode(final Class targetClass, final Object fromDBObject, final MappedField optionalExtraInfo) {
+      return fromDBObject == null ? null : fromDBObject.toString().toLowerCase();
+    }
+
+    @Override
+    public Object encode(final Object value, final MappedField optionalExtraInfo) {
+      return value == null ? null : value.toString().toUpperCase();
+    }
+  }
+
+  @Test
+  public void testCacheFollowsConverters() {
+    final Mapper mapper = new Morphia().map(Holder.class).getMapper();
+    final DefaultConverters converters = mapper.getConverters();
+    final MappedField name = mapper.getMappedClass(Holder.class).getMappedField("name");
+
+    final TypeConverter tc = converters.getEncoder(String.class, name);
+    Assert.assertTrue(tc instanceof StringConverter);
+    Assert.assertSame(tc, converters.getDecoder(name));
+    Assert.assertEquals("x", converters.encode("x"));
+
+    final UpperCaseConverter upper = new UpperCaseConverter();
+    converters.addConverter(upper);
+    Assert.assertSame(upper, converters.getEncoder(String.class, name));
+    Assert.assertSame(upper, converters.getDecoder(name));
+    Assert.assertEquals("X", converters.encode("x"));
+    final Holder h = new Holder();
+    h.name = "x";
+    h.names.add("y");
+    Assert.assertEquals("X", mapper.toDBObject(h).get("name"));
+
+    converters.removeConverter(upper);
+    Assert.assertTrue(converters.getEncoder(String.class, name) instanceof StringConverter);
+    Assert.assertEquals("x", converters.encode("x"));
+  }
+
+  @Test
+  public void testMappingMoreClassesKeepsResolved() {
+    final Morphia morphia = new Morphia().map(Holder.class);
+    final Mapper mapper = morphia.getMapper();
+    final MappedClass holder = mapper.getMappedClass(Holder.class);
+    final int version = holder.getMetadataVersion();
+    final int generation = mapper.getMetadataGeneration();
+
+    morphia.map(Other.class);
+    final MappedClass other = mapper.getMappedClass(Other.class);
+
+    Assert.assertEquals(version, holder.getMetadataVersion());
+    Assert.assertEquals(generation, mapper.getMetadataGeneration());
+    for (final MappedField mf : holder.getPersistenceFields()) {
+      Assert.assertTrue(mf.getFullName(), mapper.getConverters().isResolved(mf));
+    }
+    for (final MappedField mf : other.getPersistenceFields()) {
+      Assert.assertTrue(mf.getFullName(), mapper.getConverters().isResolved(mf));
+    }
+  }
+}
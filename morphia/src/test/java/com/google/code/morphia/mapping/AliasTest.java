@@ -0,0 +1,106 @@
+package com.google.code.morphia.mapping;
+
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.bson.types.ObjectId;
+import org.junit.Assert;
+import org.junit.Test;
+import com.google.code.morphia.Morphia;
+import com.google.code.morphia.annotations.Alias;
+import com.google.code.morphia.annotations.Embedded;
+import com.google.code.morphia.annotations.Entity;
+import com.google.code.morphia.annotations.Id;
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBObject;
+
+
+/**
+ * Checks that an {@link Alias} is stored instead of the class name, and read back (along with class names).
+ */
+public class AliasTest {
+
+  @Embedded
+  @Alias("s")
+  public static class Shape {
+    double area;
+  }
+
+  @Alias("c")
+  public static class Circle extends Shape {
+    double radius;
+  }
+
+  // no alias of its own
+  public static class Square extends Shape {
+    double side;
+  }
+
+  @Entity
+  @Alias("d")
+  public static class Drawing {
+    @Id ObjectId id;
+    List<Shape> shapes = new ArrayList<Shape>();
+  }
+
+  @Entity
+  @Alias("d")
+  public static class Sketch {
+    @Id ObjectId id;
+  }
+
+  private static Morphia morphia() {
+    return new Morphia().map(Drawing.class, Shape.class, Circle.class, Square.class);
+  }
+
+  @Test
+  public void testAliasStored() {
+    final Morphia morphia = morphia();
+    final Drawing drawing = new Drawing();
+    drawing.shapes.add(new Circle());
+    drawing.shapes.add(new Square());
+
+    final DBObject dbObj = morphia.toDBObject(drawing);
+    Assert.assertEquals("d", dbObj.get(Mapper.CLASS_NAME_FIELDNAME));
+    final List<DBObject> shapes = (List<DBObject>) dbObj.get("shapes");
+    Assert.assertEquals("c", shapes.get(0).get(Mapper.CLASS_NAME_FIELDNAME));
+    Assert.assertEquals(Square.class.getName(), shapes.get(1).get(Mapper.CLASS_NAME_FIELDNAME));
+  }
+
+  @Test
+  public void testAliasLoaded() {
+    final Morphia morphia = morphia();
+    final Drawing drawing = new Drawing();
+    drawing.shapes.add(new Circle());
+    drawing.shapes.add(new Square());
+    drawing.shapes.add(new Shape());
+
+    final Drawing loaded = morphia.fromDBObject(Drawing.class, morphia.toDBObject(drawing));
+    Assert.assertEquals(3, loaded.shapes.size());
+    Assert.assertEquals(Circle.class, loaded.shapes.get(0).getClass());
+    Assert.assertEquals(Square.class, loaded.shapes.get(1).getClass());
+    Assert.assertEquals(Shape.class, loaded.shapes.get(2).getClass());
+
+    final Object entity = morphia.getMapper().fromDBObject(Object.class, new BasicDBObject(Mapper.CLASS_NAME_FIELDNAME, "d"),
+      morphia.getMapper().createEntityCache());
+    Assert.assertEquals(Drawing.class, entity.getClass());
+  }
+
+  @Test
+  public void testClassNameLoaded() {
+    final Morphia morphia = morphia();
+    final DBObject circle = new BasicDBObject(Mapper.CLASS_NAME_FIELDNAME, Circle.class.getName());
+    final List<DBObject> shapes = new ArrayList<DBObject>();
+    shapes.add(circle);
+    final DBObject dbObj = new BasicDBObject(Mapper.CLASS_NAME_FIELDNAME, Drawing.class.getName()).append("shapes", shapes);
+
+    final Drawing loaded = morphia.fromDBObject(Drawing.class, dbObj);
+    Assert.assertEquals(Circle.class, loaded.shapes.get(0).getClass());
+  }
+
+  @Test(expected = MappingException.class)
+  public void testDuplicateAlias() {
+    morphia().map(Sketch.class);
+  }
+}
@@ -0,0 +1,117 @@
+package com.google.code.morphia.mapping;
+
+
+import org.bson.types.ObjectId;
+import org.junit.Assert;
+import org.junit.Test;
+import com.google.code.morphia.Key;
+import com.google.code.morphia.Morphia;
+import com.google.code.morphia.annotations.Entity;
+import com.google.code.morphia.annotations.Id;
+import com.google.code.morphia.annotations.PostLoad;
+import com.google.code.morphia.converters.SimpleValueConverter;
+import com.google.code.morphia.converters.TypeConverter;
+import com.google.code.morphia.mapping.cache.LightweightEntityCache;
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBObject;
+
+
+/**
+ * Checks that the (cached) codec plan follows changes to the mapping metadata.
+ */
+public class CodecPlanTest {
+
+  public static class Point {
+    int x;
+    int y;
+
+    public Point() {
+    }
+
+    public Point(final int x, final int y) {
+      this.x = x;
+      this.y = y;
+    }
+  }
+
+  public static class PointConverter extends TypeConverter implements SimpleValueConverter {
+    public PointConverter() {
+      super(Point.class);
+    }
+
+    @Override
+    public Object decode(final Class targetClass, final Object fromDBObject, final MappedField optionalExtraInfo) {
+      final String[] parts = ((String) fromDBObject).split(",");
+      return new Point(Integer.parseInt(parts[0]), Integer.parseInt(parts[1]));
+    }
+
+    @Override
+    public Object encode(final Object value, final MappedField optionalExtraInfo) {
+      final Point p = (Point) value;
+      return p == null ? null : p.x + "," + p.y;
+    }
+  }
+
+  @Entity
+  public static class Shape {
+    @Id ObjectId id = new ObjectId();
+    String name = "box";
+    Point corner = new Point(1, 2);
+    transient int loaded;
+
+    @PostLoad
+    void postLoad() {
+      loaded++;
+    }
+  }
+
+  @Test
+  public void testPlanFollowsConverters() {
+    final Morphia morphia = new Morphia().map(Shape.class);
+    final Mapper mapper = morphia.getMapper();
+
+    DBObject dbObj = mapper.toDBObject(new Shape());
+    Assert.assertTrue(dbObj.get("corner") instanceof DBObject);
+
+    mapper.getConverters().addConverter(new PointConverter());
+    dbObj = mapper.toDBObject(new Shape());
+    Assert.assertEquals("1,2", dbObj.get("corner"));
+
+    final Shape s = (Shape) mapper.fromDBObject(Shape.class, dbObj, mapper.createEntityCache());
+    Assert.assertEquals(1, s.corner.x);
+    Assert.assertEquals(2, s.corner.y);
+    Assert.assertEquals(1, s.loaded);
+  }
+
+  @Test
+  public void testPlanFollowsFields() {
+    final Morphia morphia = new Morphia().map(Shape.class);
+    final Mapper mapper = morphia.getMapper();
+    final MappedClass mc = mapper.getMappedClass(Shape.class);
+
+    Assert.assertTrue(mapper.toDBObject(new Shape()).containsField("name"));
+
+    mc.getPersistenceFields().remove(mc.getMappedFieldByJavaField("name"));
+    Assert.assertFalse(mapper.toDBObject(new Shape()).containsField("name"));
+
+    final Shape s = (Shape) mapper.fromDBObject(Shape.class, new BasicDBObject("name", "circle"), mapper.createEntityCache());
+    Assert.assertEquals("box", s.name);
+  }
+
+  @Test
+  public void testEntityCacheSkippedForPlainValues() {
+    final Mapper mapper = new Morphia().map(Shape.class).getMapper();
+    final Shape shape = new Shape();
+    final Key<Shape> key = new Key<Shape>(Shape.class, shape.id);
+
+    // the corner is embedded, so it may hold references
+    LightweightEntityCache cache = new LightweightEntityCache();
+    mapper.fromDBObject(Shape.class, mapper.toDBObject(shape), cache);
+    Assert.assertEquals(Boolean.TRUE, cache.exists(key));
+
+    mapper.getConverters().addConverter(new PointConverter());
+    cache = new LightweightEntityCache();
+    mapper.fromDBObject(Shape.class, mapper.toDBObject(shape), cache);
+    Assert.assertNull(cache.exists(key));
+  }
+}
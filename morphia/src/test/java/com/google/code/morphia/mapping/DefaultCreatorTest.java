@@ -0,0 +1,109 @@
+package com.google.code.morphia.mapping;
+
+
+import org.junit.Assert;
+import org.junit.Test;
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBObject;
+
+
+/**
+ * Checks that cached class names and constructors create the same instances as before.
+ */
+public class DefaultCreatorTest {
+
+  public static class Shape {
+  }
+
+  public static class Circle extends Shape {
+    private Circle() {
+    }
+  }
+
+  @Test
+  public void testResolvesStoredClassName() {
+    final DefaultCreator creator = new DefaultCreator();
+    for (int i = 0; i < 3; i++) {
+      final BasicDBObject dbObj = new BasicDBObject(Mapper.CLASS_NAME_FIELDNAME, Circle.class.getName());
+      Assert.assertEquals(Circle.class, creator.createInstance(Shape.class, dbObj).getClass());
+    }
+  }
+
+  @Test
+  public void testUnknownClassNameFallsBack() {
+    final DefaultCreator creator = new DefaultCreator();
+    for (int i = 0; i < 3; i++) {
+      final BasicDBObject dbObj = new BasicDBObject(Mapper.CLASS_NAME_FIELDNAME, "com.example.DoesNotExist");
+      Assert.assertEquals(Shape.class, creator.createInstance(Shape.class, dbObj).getClass());
+    }
+    Assert.assertEquals(Shape.class, creator.createInstance(Shape.class, new BasicDBObject()).getClass());
+  }
+
+  @Test
+  public void testMissNotCached() {
+    final boolean[] available = {false};
+    final ClassLoader loader = new ClassLoader(getClass().getClassLoader()) {
+      @Override
+      protected Class<?> loadClass(final String name, final boolean resolve) throws ClassNotFoundException {
+        if (!available[0] && name.equals(Circle.class.getName())) {
+          throw new ClassNotFoundException(name);
+        }
+        return super.loadClass(name, resolve);
+      }
+    };
+    final DefaultCreator creator = new DefaultCreator() {
+      @Override
+      protected ClassLoader getClassLoaderForClass(final String clazz, final DBObject object) {
+        return loader;
+      }
+    };
+
+    final BasicDBObject dbObj = new BasicDBObject(Mapper.CLASS_NAME_FIELDNAME, Circle.class.getName());
+    Assert.assertEquals(Shape.class, creator.createInstance(Shape.class, dbObj).getClass());
+    // the class turns up later
+    available[0] = true;
+    Assert.assertEquals(Circle.class, creator.createInstance(Shape.class, dbObj).getClass());
+  }
+
+  @Test
+  public void testCachedPerClassLoader() {
+    final ClassLoader missing = new ClassLoader(getClass().getClassLoader()) {
+      @Override
+      protected Class<?> loadClass(final String name, final boolean resolve) throws ClassNotFoundException {
+        if (name.equals(Circle.class.getName())) {
+          throw new ClassNotFoundException(name);
+        }
+        return super.loadClass(name, resolve);
+      }
+    };
+    final ClassLoader[] loader = {getClass().getClassLoader()};
+    final DefaultCreator creator = new DefaultCreator() {
+      @Override
+      protected ClassLoader getClassLoaderForClass(final String clazz, final DBObject object) {
+        return loader[0];
+      }
+    };
+
+    final BasicDBObject dbObj = new BasicDBObject(Mapper.CLASS_NAME_FIELDNAME, Circle.class.getName());
+    Assert.assertEquals(Circle.class, creator.createInstance(Shape.class, dbObj).getClass());
+    loader[0] = missing;
+    Assert.assertEquals(Shape.class, creator.createInstance(Shape.class, dbObj).getClass());
+    loader[0] = getClass().getClassLoader();
+    Assert.assertEquals(Circle.class, creator.createInstance(Shape.class, dbObj).getClass());
+  }
+
+  @Test
+  public void testCachedConstructorCreatesNewInstances() {
+    final DefaultCreator creator = new DefaultCreator();
+    final Object first = creator.createInstance(Circle.class);
+    final Object second = creator.createInstance(Circle.class);
+    Assert.assertEquals(Circle.class, first.getClass());
+    Assert.assertEquals(Circle.class, second.getClass());
+    Assert.assertNotSame(first, second);
+  }
+
+  @Test(expected = MappingException.class)
+  public void testNoUsableConstructor() {
+    new DefaultCreator().createInstance(Integer.class);
+  }
+}
@@ -0,0 +1,134 @@
+package com.google.code.morphia.mapping;
+
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import org.bson.types.ObjectId;
+import org.junit.Assert;
+import org.junit.Test;
+import com.google.code.morphia.Morphia;
+import com.google.code.morphia.annotations.AlsoLoad;
+import com.google.code.morphia.annotations.Embedded;
+import com.google.code.morphia.annotations.Entity;
+import com.google.code.morphia.annotations.Id;
+import com.mongodb.BasicDBList;
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBCollection;
+import com.mongodb.DBObject;
+import com.mongodb.DefaultDBEncoder;
+
+
+/**
+ * Checks that documents decoded by the {@link EntityDBDecoder} map to the same entities.
+ */
+public class EntityDBDecoderTest {
+
+  @Embedded
+  public static class Address {
+    String street = "main";
+    int number = 12;
+  }
+
+  @Embedded
+  public static class ExtendedAddress extends Address {
+    String extra = "apt. 1";
+  }
+
+  @Entity
+  public static class Person {
+    @Id ObjectId id = new ObjectId();
+    String name = "Scott";
+    @AlsoLoad("years") int age = 33;
+    long big = Long.MAX_VALUE;
+    boolean active = true;
+    String[] tags = {"a", "b"};
+    List<Address> addresses = new ArrayList<Address>(Arrays.asList(new Address(), new ExtendedAddress()));
+    Address home = new ExtendedAddress();
+    Map<String, Address> others = new HashMap<String, Address>();
+  }
+
+  private static DBObject wire(final DBObject dbObj) {
+    return new EntityDBDecoder().decode(new DefaultDBEncoder().encode(dbObj), (DBCollection) null);
+  }
+
+  @Test
+  public void testSameEntity() {
+    final Mapper mapper = new Morphia().map(Person.class).getMapper();
+    final Person p = new Person();
+    p.others.put("work", new ExtendedAddress());
+    final DBObject dbObj = mapper.toDBObject(p);
+
+    final DBObject decoded = wire(dbObj);
+    Assert.assertTrue(decoded instanceof CompactDBObject);
+    Assert.assertTrue(decoded.get("home") instanceof CompactDBObject);
+    Assert.assertTrue(decoded.get("addresses") instanceof BasicDBList);
+    Assert.assertEquals(dbObj.keySet(), decoded.keySet());
+
+    final Person read = (Person) mapper.fromDBObject(Person.class, decoded, mapper.createEntityCache());
+    Assert.assertEquals(dbObj.toString(), mapper.toDBObject(read).toString());
+    Assert.assertTrue(read.home instanceof ExtendedAddress);
+    Assert.assertTrue(read.others.get("work") instanceof ExtendedAddress);
+  }
+
+  @Test
+  public void testAlsoLoad() {
+    final Mapper mapper = new Morphia().map(Person.class).getMapper();
+    final DBObject dbObj = mapper.toDBObject(new Person());
+    dbObj.removeField("age");
+    dbObj.put("years", 40);
+
+    final Person read = (Person) mapper.fromDBObject(Person.class, wire(dbObj), mapper.createEntityCache());
+    Assert.assertEquals(40, read.age);
+  }
+
+  @Test
+  public void testCompactDBObject() {
+    final CompactDBObject dbObj = new CompactDBObject();
+    for (int i = 0; i < 20; i++) {
+      dbObj.put("f" + i, i);
+    }
+    Assert.assertEquals(20, dbObj.size());
+    Assert.assertEquals(19, dbObj.get("f19"));
+    Assert.assertEquals(0, dbObj.get("f0"));
+    Assert.assertNull(dbObj.get("missing"));
+
+    Assert.assertEquals(5, dbObj.put("f5", "five"));
+    Assert.assertEquals("five", dbObj.get("f5"));
+    Assert.assertEquals(20, dbObj.size());
+
+    Assert.assertEquals(3, dbObj.removeField("f3"));
+    Assert.assertFalse(dbObj.containsField("f3"));
+    Assert.assertEquals(4, dbObj.get("f4"));
+
+    final Iterator<String> it = dbObj.keySet().iterator();
+    Assert.assertEquals("f0", it.next());
+    it.remove();
+    Assert.assertEquals("f1", it.next());
+    Assert.assertEquals(18, dbObj.size());
+    Assert.assertFalse(dbObj.containsField("f0"));
+
+    final BasicDBObject basic = new BasicDBObject(dbObj.toMap());
+    Assert.assertEquals(basic, dbObj);
+    Assert.assertEquals(dbObj, basic);
+    Assert.assertEquals(basic.toString(), dbObj.toString());
+
+    // down to a few fields, which are searched without the table
+    for (int i = 6; i < 20; i++) {
+      dbObj.removeField("f" + i);
+    }
+    Assert.assertEquals(4, dbObj.size());
+    Assert.assertEquals(4, dbObj.get("f4"));
+    Assert.assertNull(dbObj.get("f6"));
+    for (int i = 6; i < 20; i++) {
+      dbObj.put("f" + i, i);
+    }
+    Assert.assertEquals(18, dbObj.size());
+    Assert.assertEquals(19, dbObj.get("f19"));
+    Assert.assertEquals("five", dbObj.get("f5"));
+  }
+}
@@ -0,0 +1,130 @@
+package com.google.code.morphia.mapping;
+
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.bson.io.BasicOutputBuffer;
+import org.bson.types.ObjectId;
+import org.junit.Assert;
+import org.junit.Test;
+import com.google.code.morphia.Key;
+import com.google.code.morphia.Morphia;
+import com.google.code.morphia.annotations.Embedded;
+import com.google.code.morphia.annotations.Entity;
+import com.google.code.morphia.annotations.Id;
+import com.google.code.morphia.annotations.PrePersist;
+import com.google.code.morphia.annotations.Property;
+import com.google.code.morphia.annotations.Version;
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBEncoder;
+import com.mongodb.DBObject;
+import com.mongodb.DefaultDBEncoder;
+
+
+/**
+ * Checks that entities encoded by the {@link EntityDBEncoder} give the same bytes as their mapped DBObject.
+ */
+public class EntityDBEncoderTest {
+
+  @Embedded
+  public static class Address {
+    String street = "main";
+    int number = 12;
+  }
+
+  @Embedded
+  public static class ExtendedAddress extends Address {
+    String extra = "apt. 1";
+  }
+
+  @Entity
+  public static class Person {
+    @Id ObjectId id;
+    @Property("n") String name = "Scott";
+    int age = 33;
+    long big = Long.MAX_VALUE;
+    double ratio = 0.25;
+    boolean active = true;
+    Integer nothing;
+    String[] tags = {"a", "b"};
+    List<Address> addresses = new ArrayList<Address>(Arrays.asList(new Address(), new ExtendedAddress()));
+    Address home = new Address();
+    Map<String, String> attributes = new HashMap<String, String>();
+    Key<Person> friend = new Key<Person>(Person.class, new ObjectId());
+  }
+
+  @Entity
+  public static class Callbacks {
+    @Id ObjectId id;
+
+    @PrePersist
+    void prePersist() {
+    }
+  }
+
+  @Entity
+  public static class Versioned {
+    @Id ObjectId id;
+    @Version Long version;
+  }
+
+  private static byte[] encode(final DBEncoder encoder, final DBObject dbObj) {
+    final BasicOutputBuffer buf = new BasicOutputBuffer();
+    encoder.writeObject(buf, dbObj);
+    return buf.toByteArray();
+  }
+
+  @Test
+  public void testSameAsMapped() {
+    final Mapper mapper = new Morphia().map(Person.class).getMapper();
+    final Person p = new Person();
+    p.attributes.put("k", "v");
+
+    for (final ObjectId id : new ObjectId[] {new ObjectId(), null}) {
+      p.id = id;
+      final Map<Object, DBObject> involved = new LinkedHashMap<Object, DBObject>();
+      final Map<Object, DBObject> encodedInvolved = new LinkedHashMap<Object, DBObject>();
+      final DBObject mapped = mapper.toDBObject(p, involved);
+      final DBObject encodable = mapper.toEncodableDBObject(p, encodedInvolved);
+      Assert.assertEquals(id, encodable.get(Mapper.ID_KEY));
+      if (id == null) {
+        // as the driver does for new documents
+        final ObjectId newId = new ObjectId();
+        mapped.put(Mapper.ID_KEY, newId);
+        encodable.put(Mapper.ID_KEY, newId);
+      }
+
+      Assert.assertArrayEquals(encode(DefaultDBEncoder.FACTORY.create(), mapped), encode(EntityDBEncoder.FACTORY.create(), encodable));
+      Assert.assertEquals(involved.keySet(), encodedInvolved.keySet());
+    }
+  }
+
+  @Test
+  public void testPlainDBObject() {
+    final DBObject query = new BasicDBObject("a", 1).append("b", new BasicDBObject("$gt", 2));
+    Assert.assertArrayEquals(encode(DefaultDBEncoder.FACTORY.create(), query), encode(EntityDBEncoder.FACTORY.create(), query));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testDotInKey() {
+    final Mapper mapper = new Morphia().map(Person.class).getMapper();
+    final Person p = new Person();
+    p.attributes.put("a.b", "v");
+    encode(EntityDBEncoder.FACTORY.create(), mapper.toEncodableDBObject(p, null));
+  }
+
+  @Test
+  public void testNotEncodable() {
+    final Mapper mapper = new Morphia().map(Callbacks.class).map(Versioned.class).getMapper();
+    Assert.assertNull(mapper.toEncodableDBObject(new Callbacks(), null));
+    Assert.assertNull(mapper.toEncodableDBObject(new Versioned(), null));
+
+    mapper.getOptions().directEncoding = false;
+    Assert.assertNull(mapper.toEncodableDBObject(new Person(), null));
+  }
+}
@@ -0,0 +1,93 @@
+package com.google.code.morphia.mapping;
+
+
+import java.lang.reflect.Field;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+
+public class FieldAccessorTest {
+
+  private static class Holder {
+    private int i;
+    private long l;
+    private double d;
+    private boolean b;
+    private short s;
+    private String str;
+    private final String fin = "fin";
+  }
+
+  private static FieldAccessor accessor(final FieldAccessorFactory factory, final String name) throws Exception {
+    final Field f = Holder.class.getDeclaredField(name);
+    return factory.createAccessor(f);
+  }
+
+  private void checkAccessors(final FieldAccessorFactory factory) throws Exception {
+    final Holder h = new Holder();
+
+    accessor(factory, "i").setInt(h, 5);
+    Assert.assertEquals(5, h.i);
+    accessor(factory, "i").set(h, 6);
+    Assert.assertEquals(6, accessor(factory, "i").getInt(h));
+    Assert.assertEquals(6, accessor(factory, "i").get(h));
+
+    accessor(factory, "l").setLong(h, 7L);
+    Assert.assertEquals(7L, h.l);
+    // widening, as with Field.set
+    accessor(factory, "l").set(h, 8);
+    Assert.assertEquals(8L, accessor(factory, "l").getLong(h));
+
+    accessor(factory, "d").setDouble(h, 1.5);
+    Assert.assertEquals(1.5, accessor(factory, "d").getDouble(h), 0);
+    accessor(factory, "d").set(h, 2.5);
+    Assert.assertEquals(2.5, h.d, 0);
+
+    accessor(factory, "b").setBoolean(h, true);
+    Assert.assertTrue(h.b);
+    Assert.assertEquals(Boolean.TRUE, accessor(factory, "b").get(h));
+
+    accessor(factory, "s").set(h, (short) 3);
+    Assert.assertEquals((short) 3, accessor(factory, "s").get(h));
+
+    accessor(factory, "str").set(h, "foo");
+    Assert.assertEquals("foo", h.str);
+    accessor(factory, "str").set(h, null);
+    Assert.assertNull(accessor(factory, "str").get(h));
+
+    accessor(factory, "fin").set(h, "changed");
+    Assert.assertEquals("changed", accessor(factory, "fin").get(h));
+
+    try {
+      accessor(factory, "str").set(h, 1);
+      Assert.fail("should not be able to set an Integer on a String field");
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+
+    try {
+      accessor(factory, "i").set(h, null);
+      Assert.fail("should not be able to set null on a primitive field");
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+
+    try {
+      accessor(factory, "str").get("not a holder");
+      Assert.fail("should not be able to read from the wrong class");
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+  }
+
+  @Test
+  public void testReflectiveAccessors() throws Exception {
+    checkAccessors(new ReflectiveFieldAccessorFactory());
+  }
+
+  @Test
+  public void testReflectiveByDefault() throws Exception {
+    Assert.assertTrue(new MapperOptions().fieldAccessorFactory instanceof ReflectiveFieldAccessorFactory);
+  }
+}
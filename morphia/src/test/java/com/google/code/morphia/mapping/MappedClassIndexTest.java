@@ -0,0 +1,112 @@
+package com.google.code.morphia.mapping;
+
+
+import java.lang.annotation.Annotation;
+import java.util.List;
+
+import org.bson.types.ObjectId;
+import org.junit.Assert;
+import org.junit.Test;
+import com.google.code.morphia.Morphia;
+import com.google.code.morphia.annotations.AlsoLoad;
+import com.google.code.morphia.annotations.Entity;
+import com.google.code.morphia.annotations.Id;
+import com.google.code.morphia.annotations.Indexed;
+import com.google.code.morphia.annotations.Property;
+import com.google.code.morphia.annotations.Version;
+import com.mongodb.BasicDBObject;
+
+
+/**
+ * Checks the field lookups of {@link MappedClass}, and that they follow changes to the metadata.
+ */
+public class MappedClassIndexTest {
+
+  @Entity
+  public static class Account {
+    @Id ObjectId id;
+    @Property("n") @AlsoLoad({"nm", "fullName"}) String name;
+    @Indexed int balance;
+    @Version Long v;
+  }
+
+  @Entity
+  public static class Unversioned {
+    @Id ObjectId id;
+    String name;
+  }
+
+  @Test
+  public void testLookups() {
+    final Mapper mapper = new Morphia().map(Account.class).map(Unversioned.class).getMapper();
+    final MappedClass mc = mapper.getMappedClass(Account.class);
+
+    final MappedField name = mc.getMappedFieldByJavaField("name");
+    Assert.assertSame(name, mc.getMappedField("n"));
+    Assert.assertSame(name, mc.getMappedField("nm"));
+    Assert.assertSame(name, mc.getMappedField("fullName"));
+    Assert.assertNull(mc.getMappedField("name"));
+    Assert.assertNull(mc.getMappedFieldByJavaField("n"));
+    Assert.assertEquals("n", name.getNameToStore());
+    Assert.assertEquals(3, name.getLoadNames().size());
+
+    Assert.assertSame(mc.getMappedFieldByJavaField("id"), mc.getMappedIdField());
+    Assert.assertSame(mc.getMappedFieldByJavaField("v"), mc.getMappedVersionField());
+    Assert.assertNull(mapper.getMappedClass(Unversioned.class).getMappedVersionField());
+    Assert.assertTrue(mapper.getMappedClass(Unversioned.class).getFieldsAnnotatedWith(Version.class).isEmpty());
+
+    final List<MappedField> indexed = mc.getFieldsAnnotatedWith(Indexed.class);
+    Assert.assertEquals(1, indexed.size());
+    Assert.assertSame(indexed, mc.getFieldsAnnotatedWith(Indexed.class));
+    try {
+      indexed.clear();
+      Assert.fail("the list should be read-only");
+    } catch (UnsupportedOperationException e) {
+      // expected
+    }
+  }
+
+  @Test
+  public void testFirstFieldName() {
+    final MappedClass mc = new Morphia().map(Account.class).getMapper().getMappedClass(Account.class);
+    final MappedField name = mc.getMappedFieldByJavaField("name");
+    Assert.assertEquals("n", name.getFirstFieldName(new BasicDBObject()));
+    Assert.assertEquals("fullName", name.getFirstFieldName(new BasicDBObject("fullName", "a")));
+    try {
+      name.getFirstFieldName(new BasicDBObject("n", "a").append("nm", "b"));
+      Assert.fail("two names should not be allowed");
+    } catch (MappingException e) {
+      // expected
+    }
+  }
+
+  @Test
+  public void testFollowsMetadata() {
+    final MappedClass mc = new Morphia().map(Unversioned.class).getMapper().getMappedClass(Unversioned.class);
+    final MappedField name = mc.getMappedFieldByJavaField("name");
+    Assert.assertSame(name, mc.getMappedField("name"));
+    Assert.assertTrue(mc.getFieldsAnnotatedWith(Property.class).isEmpty());
+
+    name.addAnnotation(Property.class, new Property() {
+      public String value() {
+        return "title";
+      }
+
+      public Class<?> concreteClass() {
+        return Object.class;
+      }
+
+      public Class<? extends Annotation> annotationType() {
+        return Property.class;
+      }
+    });
+    Assert.assertEquals("title", name.getNameToStore());
+    Assert.assertSame(name, mc.getMappedField("title"));
+    Assert.assertNull(mc.getMappedField("name"));
+    Assert.assertEquals(1, mc.getFieldsAnnotatedWith(Property.class).size());
+
+    mc.getPersistenceFields().remove(name);
+    Assert.assertNull(mc.getMappedField("title"));
+    Assert.assertNull(mc.getMappedFieldByJavaField("name"));
+  }
+}
@@ -0,0 +1,103 @@
+package com.google.code.morphia.mapping;
+
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.bson.types.ObjectId;
+import org.junit.Assert;
+import org.junit.Test;
+import com.google.code.morphia.Morphia;
+import com.google.code.morphia.annotations.Embedded;
+import com.google.code.morphia.annotations.Entity;
+import com.google.code.morphia.annotations.Id;
+import com.google.code.morphia.annotations.Property;
+import com.google.code.morphia.query.FilterOperator;
+import com.google.code.morphia.query.ValidationException;
+
+
+/**
+ * Checks that validated field paths are cached, and translated like before.
+ */
+public class PathCacheTest {
+
+  @Embedded
+  public static class Line {
+    @Property("q") int quantity;
+    String sku;
+  }
+
+  @Entity
+  public static class Order {
+    @Id ObjectId id;
+    @Property("c") String customer;
+    List<Line> lines = new ArrayList<Line>();
+  }
+
+  private static String validate(final Mapper mapper, final String path) {
+    final StringBuffer sb = new StringBuffer(path);
+    Mapper.validate(Order.class, mapper, sb, FilterOperator.EQUAL, null, true, false);
+    return sb.toString();
+  }
+
+  @Test
+  public void testCachedTranslation() {
+    final Mapper mapper = new Morphia().map(Order.class).getMapper();
+    final PathCache cache = mapper.getPathCache();
+
+    Assert.assertEquals("lines.q", validate(mapper, "lines.quantity"));
+    Assert.assertEquals(0, cache.getHits());
+    Assert.assertEquals(1, cache.getMisses());
+
+    Assert.assertEquals("lines.q", validate(mapper, "lines.quantity"));
+    Assert.assertEquals("c", validate(mapper, "customer"));
+    Assert.assertEquals("c", validate(mapper, "c"));
+    Assert.assertEquals("c", validate(mapper, "c"));
+    Assert.assertEquals(2, cache.getHits());
+    Assert.assertEquals(3, cache.getMisses());
+    Assert.assertEquals(3, cache.size());
+
+    final StringBuffer sb = new StringBuffer("lines.sku");
+    final MappedField mf = Mapper.validate(Order.class, mapper, sb, FilterOperator.EQUAL, null, true, false);
+    Assert.assertSame(mf, Mapper.validate(Order.class, mapper, sb, FilterOperator.EQUAL, null, true, false));
+    Assert.assertEquals("sku", mf.getJavaFieldName());
+
+    try {
+      validate(mapper, "lines.missing");
+      Assert.fail("should not validate");
+    } catch (ValidationException e) {
+      // expected, and not cached
+    }
+    Assert.assertEquals(4, cache.size());
+  }
+
+  @Test
+  public void testBounded() {
+    final Mapper mapper = new Morphia().map(Order.class).getMapper();
+    mapper.getOptions().pathCacheSize = 2;
+    final PathCache cache = mapper.getPathCache();
+    // maps the embedded class first, so that its paths are not left out of the counts below
+    validate(mapper, "lines.sku");
+    cache.clear();
+    validate(mapper, "customer");
+    validate(mapper, "lines");
+    Assert.assertEquals(2, cache.size());
+    // some other path makes room, never the one just validated
+    validate(mapper, "lines.sku");
+    Assert.assertEquals(2, cache.size());
+    validate(mapper, "lines.sku");
+    Assert.assertEquals(1, cache.getHits());
+    for (final String path : new String[] {"customer", "lines", "lines.quantity", "c"}) {
+      validate(mapper, path);
+      validate(mapper, path);
+      Assert.assertTrue(cache.size() <= 2);
+    }
+    // the second validation of each, at least
+    Assert.assertTrue(cache.getHits() >= 5);
+
+    mapper.getOptions().pathCacheSize = 0;
+    mapper.getPathCache().clear();
+    Assert.assertEquals("c", validate(mapper, "customer"));
+    Assert.assertEquals(0, mapper.getPathCache().size());
+  }
+}
@@ -0,0 +1,537 @@
+package com.google.code.morphia.mapping;
+
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Test;
+import com.google.code.morphia.Key;
+import com.google.code.morphia.Morphia;
+import com.google.code.morphia.annotations.Embedded;
+import com.google.code.morphia.annotations.Entity;
+import com.google.code.morphia.annotations.Id;
+import com.google.code.morphia.annotations.PreLoad;
+import com.google.code.morphia.annotations.Reference;
+import com.google.code.morphia.mapping.cache.LRUSecondLevelCache;
+import com.google.code.morphia.mapping.lazy.LazyRef;
+import com.google.code.morphia.mapping.lazy.proxy.ProxiedEntityReferenceList;
+import com.google.code.morphia.mapping.lazy.proxy.ProxyHelper;
+import com.mongodb.BasicDBList;
+import com.mongodb.BasicDBObject;
+import com.mongodb.DB;
+import com.mongodb.DBObject;
+import com.mongodb.DBRef;
+
+
+/**
+ * Checks that the references of a batch of documents are fetched with one query per collection and level, and wired in when mapped.
+ */
+public class ReferenceBatchTest {
+
+  @Entity("addresses")
+  public static class Address {
+    @Id String id;
+    String city;
+    String street;
+  }
+
+  @Entity("customers")
+  public static class Customer {
+    @Id String id;
+    @Reference Address address;
+  }
+
+  @Entity("items")
+  public static class Item {
+    @Id String id;
+  }
+
+  @Embedded
+  public static class Line {
+    @Reference Item item;
+    int quantity;
+  }
+
+  @Entity("orders")
+  public static class Order {
+    @Id String id;
+    @Reference Customer customer;
+    @Reference List<Item> featured = new ArrayList<Item>();
+    List<Line> lines = new ArrayList<Line>();
+  }
+
+  @Entity("wishlists")
+  public static class Wishlist {
+    @Id String id;
+    @Reference Item top;
+    @Reference(lazy = true) Item favourite;
+    @Reference(lazy = true, ignoreMissing = true) List<Item> items = new ArrayList<Item>();
+  }
+
+  @Entity("readers")
+  public static class Reader {
+    @Id String id;
+    @Reference(lazy = true) Customer customer;
+    @Reference LazyRef<Item> item;
+  }
+
+  @Entity("baskets")
+  public static class Basket {
+    @Id String id;
+    @Reference(idOnly = true) Customer customer;
+    @Reference(idOnly = true) List<Item> items = new ArrayList<Item>();
+  }
+
+  @Entity("vips")
+  public static class Vip extends Customer {
+  }
+
+  @Entity("shipments")
+  public static class Shipment {
+    @Id String id;
+    @Reference(fields = "city") Address from;
+    @Reference Address to;
+  }
+
+  @Entity("trips")
+  public static class Trip {
+    @Id String id;
+    @Reference(snapshot = "city") Address start;
+    @Reference(snapshot = "city") List<Address> stops = new ArrayList<Address>();
+  }
+
+  @Entity("places")
+  public static class Place {
+    @Id String id;
+    String city;
+
+    @PreLoad
+    void preLoad(final DBObject dbObj) {
+      dbObj.put("city", "Old " + dbObj.get("city"));
+    }
+  }
+
+  @Entity("visits")
+  public static class Visit {
+    @Id String id;
+    @Reference Place place;
+  }
+
+  /**
+   * Serves the documents from memory (with only the fields asked for), and records the queries.
+   */
+  private static class InMemoryBatch extends ReferenceBatch {
+    private final Map<String, Map<Object, DBObject>> collections;
+    private final List<String> queries = new ArrayList<String>();
+
+    InMemoryBatch(final Mapper mapper, final Map<String, Map<Object, DBObject>> collections) {
+      this(mapper, collections, null);
+    }
+
+    InMemoryBatch(final Mapper mapper, final Map<String, Map<Object, DBObject>> collections, final FetchPlan plan) {
+      super(mapper, mapper.createEntityCache(), plan);
+      this.collections = collections;
+    }
+
+    @Override
+    Iterable<DBObject> find(final DB db, final String collection, final List<Object> ids, final DBObject fields) {
+      queries.add(collection + ids + (fields == null ? "" : fields.keySet()));
+      final List<DBObject> docs = new ArrayList<DBObject>();
+      for (final Object id : ids) {
+        final DBObject doc = collections.get(collection).get(id);
+        if (doc == null) {
+          continue;
+        }
+        if (fields == null) {
+          docs.add(doc);
+        } else {
+          final DBObject partial = new BasicDBObject(Mapper.ID_KEY, id);
+          for (final String field : fields.keySet()) {
+            if (doc.containsField(field)) {
+              partial.put(field, doc.get(field));
+            }
+          }
+          docs.add(partial);
+        }
+      }
+      return docs;
+    }
+  }
+
+  private final Map<String, Map<Object, DBObject>> collections = new HashMap<String, Map<Object, DBObject>>();
+
+  private DBObject add(final String collection, final DBObject doc) {
+    Map<Object, DBObject> docs = collections.get(collection);
+    if (docs == null) {
+      docs = new HashMap<Object, DBObject>();
+      collections.put(collection, docs);
+    }
+    docs.put(doc.get(Mapper.ID_KEY), doc);
+    return doc;
+  }
+
+  private static DBRef ref(final String collection, final Object id) {
+    return new DBRef(null, collection, id);
+  }
+
+  private static DBObject order(final String id, final String customer, final String... items) {
+    final BasicDBList featured = new BasicDBList();
+    final BasicDBList lines = new BasicDBList();
+    for (final String item : items) {
+      featured.add(ref("items", item));
+      lines.add(new BasicDBObject("item", ref("items", item)).append("quantity", 2));
+    }
+    return new BasicDBObject(Mapper.ID_KEY, id).append("customer", ref("customers", customer)).append("featured", featured)
+      .append("lines", lines);
+  }
+
+  @Test
+  public void testOneQueryPerCollectionAndLevel() {
+    final Mapper mapper = new Morphia().map(Order.class, Customer.class, Address.class, Item.class, Line.class).getMapper();
+    add("addresses", new BasicDBObject(Mapper.ID_KEY, "a1").append("city", "Reykjavik"));
+    add("customers", new BasicDBObject(Mapper.ID_KEY, "c1").append("address", ref("addresses", "a1")));
+    add("customers", new BasicDBObject(Mapper.ID_KEY, "c2").append("address", ref("addresses", "a1")));
+    add("items", new BasicDBObject(Mapper.ID_KEY, "i1"));
+    add("items", new BasicDBObject(Mapper.ID_KEY, "i2"));
+    add("items", new BasicDBObject(Mapper.ID_KEY, "i3"));
+
+    final List<DBObject> orders = new ArrayList<DBObject>();
+    orders.add(order("o1", "c1", "i1", "i2"));
+    orders.add(order("o2", "c2", "i2", "i3"));
+    orders.add(order("o3", "c1"));
+
+    final InMemoryBatch batch = new InMemoryBatch(mapper, collections);
+    batch.prefetch(Order.class, orders);
+    Assert.assertEquals(3, batch.queries.size());
+    Assert.assertEquals("customers[c1, c2]", batch.queries.get(0));
+    Assert.assertEquals("items[i1, i2, i3]", batch.queries.get(1));
+    Assert.assertEquals("addresses[a1]", batch.queries.get(2));
+
+    // the references have no DB, so fetching any of them one at a time would fail
+    final List<Order> loaded = new ArrayList<Order>();
+    for (final DBObject dbObj : orders) {
+      loaded.add((Order) mapper.fromDBObject(Order.class, dbObj, batch));
+    }
+    Assert.assertEquals("c1", loaded.get(0).customer.id);
+    Assert.assertEquals("Reykjavik", loaded.get(0).customer.address.city);
+    Assert.assertSame(loaded.get(0).customer, loaded.get(2).customer);
+    Assert.assertSame(loaded.get(0).customer.address, loaded.get(1).customer.address);
+    Assert.assertEquals(2, loaded.get(1).featured.size());
+    Assert.assertEquals("i3", loaded.get(1).featured.get(1).id);
+    Assert.assertSame(loaded.get(0).featured.get(1), loaded.get(1).lines.get(0).item);
+    Assert.assertEquals(0, loaded.get(2).lines.size());
+  }
+
+  private static DBObject wishlist(final String id, final String top, final String favourite, final String... items) {
+    final BasicDBList refs = new BasicDBList();
+    for (final String item : items) {
+      refs.add(ref("items", item));
+    }
+    return new BasicDBObject(Mapper.ID_KEY, id).append("top", ref("items", top)).append("favourite", ref("items", favourite))
+      .append("items", refs);
+  }
+
+  @Test
+  public void testMaxIdsPerQuery() {
+    final Mapper mapper = new Morphia().map(Order.class, Customer.class, Address.class, Item.class, Line.class).getMapper();
+    mapper.getOptions().maxIdsPerQuery = 2;
+    add("customers", new BasicDBObject(Mapper.ID_KEY, "c1"));
+    for (int i = 1; i <= 5; i++) {
+      add("items", new BasicDBObject(Mapper.ID_KEY, "i" + i));
+    }
+
+    final List<DBObject> orders = new ArrayList<DBObject>();
+    orders.add(order("o1", "c1", "i1", "i2", "i3", "i4", "i5"));
+    final InMemoryBatch batch = new InMemoryBatch(mapper, collections);
+    batch.prefetch(Order.class, orders);
+    Assert.assertEquals("[customers[c1], items[i1, i2], items[i3, i4], items[i5]]", batch.queries.toString());
+    Assert.assertEquals(5, ((Order) mapper.fromDBObject(Order.class, orders.get(0), batch)).featured.size());
+  }
+
+  @Test
+  public void testLazyReferencesCheckedAtOnce() {
+    final Mapper mapper = new Morphia().map(Wishlist.class, Item.class).getMapper();
+    add("items", new BasicDBObject(Mapper.ID_KEY, "i1"));
+    add("items", new BasicDBObject(Mapper.ID_KEY, "i2"));
+    add("items", new BasicDBObject(Mapper.ID_KEY, "i3"));
+
+    final List<DBObject> wishlists = new ArrayList<DBObject>();
+    wishlists.add(wishlist("w1", "i1", "i2", "i1", "gone"));
+    wishlists.add(wishlist("w2", "i1", "i3", "i3"));
+
+    final InMemoryBatch batch = new InMemoryBatch(mapper, collections);
+    batch.prefetch(Wishlist.class, wishlists);
+    Assert.assertEquals(2, batch.queries.size());
+    Assert.assertEquals("items[i1]", batch.queries.get(0));
+    // i1 was fetched already
+    Assert.assertEquals("items[i2, gone, i3][_id]", batch.queries.get(1));
+    Assert.assertEquals(Boolean.TRUE, batch.exists(new Key<Item>("items", "i1")));
+    Assert.assertEquals(Boolean.FALSE, batch.exists(new Key<Item>("items", "gone")));
+
+    // the references have no DB, so checking any of them one at a time would fail
+    final Wishlist w1 = (Wishlist) mapper.fromDBObject(Wishlist.class, wishlists.get(0), batch);
+    Assert.assertNotNull(w1.favourite);
+    Assert.assertEquals(1, ((ProxiedEntityReferenceList) w1.items).__getKeysAsList().size());
+  }
+
+  @Test
+  public void testLazyReferencesNotChecked() {
+    final Mapper mapper = new Morphia().map(Wishlist.class, Item.class).getMapper();
+    mapper.getOptions().lazyReferenceCheck = LazyReferenceCheck.NONE;
+    add("items", new BasicDBObject(Mapper.ID_KEY, "i1"));
+
+    final List<DBObject> wishlists = new ArrayList<DBObject>();
+    wishlists.add(wishlist("w1", "i1", "gone", "i1", "gone"));
+
+    final InMemoryBatch batch = new InMemoryBatch(mapper, collections);
+    batch.prefetch(Wishlist.class, wishlists);
+    Assert.assertEquals(1, batch.queries.size());
+
+    final Wishlist w1 = (Wishlist) mapper.fromDBObject(Wishlist.class, wishlists.get(0), batch);
+    Assert.assertNotNull(w1.favourite);
+    Assert.assertEquals(2, ((ProxiedEntityReferenceList) w1.items).__getKeysAsList().size());
+  }
+
+  @Test
+  public void testPrefetchPaths() {
+    final Mapper mapper = new Morphia().map(Reader.class, Customer.class, Address.class, Item.class).getMapper();
+    add("addresses", new BasicDBObject(Mapper.ID_KEY, "a1").append("city", "Reykjavik"));
+    add("customers", new BasicDBObject(Mapper.ID_KEY, "c1").append("address", ref("addresses", "a1")));
+    add("items", new BasicDBObject(Mapper.ID_KEY, "i1"));
+
+    final List<DBObject> readers = new ArrayList<DBObject>();
+    readers.add(new BasicDBObject(Mapper.ID_KEY, "r1").append("customer", ref("customers", "c1")).append("item", ref("items", "i1")));
+    readers.add(new BasicDBObject(Mapper.ID_KEY, "r2").append("customer", ref("customers", "c1")).append("item", ref("items", "gone")));
+
+    final InMemoryBatch batch = new InMemoryBatch(mapper, collections, new FetchPlan(new String[] {"customer.address", "item"}, false));
+    batch.prefetch(Reader.class, readers);
+    Assert.assertEquals("[customers[c1], items[i1, gone], addresses[a1]]", batch.queries.toString());
+
+    // the references have no DB, so fetching (or checking) any of them one at a time would fail
+    final Reader r1 = (Reader) mapper.fromDBObject(Reader.class, readers.get(0), batch);
+    Assert.assertFalse(ProxyHelper.isProxy(r1.customer));
+    Assert.assertEquals("Reykjavik", r1.customer.address.city);
+    Assert.assertTrue(r1.item.isFetched());
+    Assert.assertEquals("i1", r1.item.get().id);
+    final Reader r2 = (Reader) mapper.fromDBObject(Reader.class, readers.get(1), batch);
+    Assert.assertSame(r1.customer, r2.customer);
+    Assert.assertTrue(r2.item.isFetched());
+    Assert.assertNull(r2.item.get());
+  }
+
+  @Test
+  public void testLazyReferencesNotPrefetched() {
+    final Mapper mapper = new Morphia().map(Reader.class, Customer.class, Address.class, Item.class).getMapper();
+    final List<DBObject> readers = new ArrayList<DBObject>();
+    readers.add(new BasicDBObject(Mapper.ID_KEY, "r1").append("customer", ref("customers", "c1")).append("item", ref("items", "i1")));
+    add("customers", new BasicDBObject(Mapper.ID_KEY, "c1"));
+    add("items", new BasicDBObject(Mapper.ID_KEY, "i1"));
+
+    final InMemoryBatch batch = new InMemoryBatch(mapper, collections, new FetchPlan(new String[] {"item"}, false));
+    batch.prefetch(Reader.class, readers);
+    Assert.assertEquals("[items[i1], customers[c1][_id]]", batch.queries.toString());
+    final Reader r1 = (Reader) mapper.fromDBObject(Reader.class, readers.get(0), batch);
+    Assert.assertTrue(ProxyHelper.isProxy(r1.customer));
+  }
+
+  @Test
+  public void testStubs() {
+    final Mapper mapper = new Morphia().map(Order.class, Customer.class, Address.class, Item.class, Line.class).getMapper();
+    final List<DBObject> orders = new ArrayList<DBObject>();
+    orders.add(order("o1", "c1", "i1", "i2"));
+
+    final InMemoryBatch batch = new InMemoryBatch(mapper, collections, new FetchPlan(null, true));
+    batch.prefetch(Order.class, orders);
+    Assert.assertEquals(0, batch.queries.size());
+
+    final Order o1 = (Order) mapper.fromDBObject(Order.class, orders.get(0), batch);
+    Assert.assertEquals("c1", o1.customer.id);
+    Assert.assertNull(o1.customer.address);
+    Assert.assertEquals("i2", o1.featured.get(1).id);
+    Assert.assertEquals("i1", o1.lines.get(0).item.id);
+  }
+
+  @Test
+  public void testIdOnlyReferences() {
+    final Morphia morphia = new Morphia().map(Basket.class, Customer.class, Address.class, Item.class);
+    final Mapper mapper = morphia.getMapper();
+    final Basket basket = new Basket();
+    basket.id = "b1";
+    basket.customer = new Customer();
+    basket.customer.id = "c1";
+    basket.items.add(new Item());
+    basket.items.get(0).id = "i1";
+
+    final DBObject stored = morphia.toDBObject(basket);
+    Assert.assertEquals("c1", stored.get("customer"));
+    Assert.assertEquals("[i1]", stored.get("items").toString());
+    Assert.assertEquals("c1", mapper.toMongoObject(mapper.getMappedClass(Basket.class).getMappedField("customer"), null, basket.customer));
+
+    add("customers", new BasicDBObject(Mapper.ID_KEY, "c1"));
+    add("items", new BasicDBObject(Mapper.ID_KEY, "i1"));
+    add("items", new BasicDBObject(Mapper.ID_KEY, "i2"));
+    final List<DBObject> baskets = new ArrayList<DBObject>();
+    baskets.add(stored);
+    // stored before the references were id only
+    final BasicDBList items = new BasicDBList();
+    items.add(ref("items", "i2"));
+    items.add("i1");
+    baskets.add(new BasicDBObject(Mapper.ID_KEY, "b2").append("customer", ref("customers", "c1")).append("items", items));
+
+    final InMemoryBatch batch = new InMemoryBatch(mapper, collections);
+    batch.prefetch(Basket.class, baskets);
+    Assert.assertEquals("[customers[c1], items[i1, i2]]", batch.queries.toString());
+
+    final Basket b1 = (Basket) mapper.fromDBObject(Basket.class, baskets.get(0), batch);
+    final Basket b2 = (Basket) mapper.fromDBObject(Basket.class, baskets.get(1), batch);
+    Assert.assertSame(b1.customer, b2.customer);
+    Assert.assertEquals(2, b2.items.size());
+    Assert.assertSame(b1.items.get(0), b2.items.get(1));
+  }
+
+  @Test(expected = MappingException.class)
+  public void testIdOnlyReferenceToOtherCollection() {
+    final Morphia morphia = new Morphia().map(Basket.class, Customer.class, Vip.class, Address.class, Item.class);
+    final Basket basket = new Basket();
+    basket.id = "b1";
+    basket.customer = new Vip();
+    basket.customer.id = "c1";
+    // read back from customers, where it is not
+    morphia.toDBObject(basket);
+  }
+
+  @Test
+  public void testReferenceFields() {
+    final Mapper mapper = new Morphia().map(Shipment.class, Address.class).getMapper();
+    add("addresses", new BasicDBObject(Mapper.ID_KEY, "a1").append("city", "Reykjavik").append("street", "Laugavegur"));
+    add("addresses", new BasicDBObject(Mapper.ID_KEY, "a2").append("city", "Akureyri").append("street", "Hafnarstraeti"));
+    final List<DBObject> shipments = new ArrayList<DBObject>();
+    shipments.add(new BasicDBObject(Mapper.ID_KEY, "s1").append("from", ref("addresses", "a1")).append("to", ref("addresses", "a1")));
+    shipments.add(new BasicDBObject(Mapper.ID_KEY, "s2").append("from", ref("addresses", "a2")));
+
+    InMemoryBatch batch = new InMemoryBatch(mapper, collections);
+    batch.prefetch(Shipment.class, shipments);
+    Assert.assertEquals("[addresses[a1, a2][city, className], addresses[a1]]", batch.queries.toString());
+
+    // the whole document is used when it was fetched anyway
+    final Shipment s1 = (Shipment) mapper.fromDBObject(Shipment.class, shipments.get(0), batch);
+    Assert.assertSame(s1.from, s1.to);
+    Assert.assertFalse(mapper.isPartial(s1.from));
+
+    final Shipment s2 = (Shipment) mapper.fromDBObject(Shipment.class, shipments.get(1), batch);
+    Assert.assertEquals("Akureyri", s2.from.city);
+    Assert.assertNull(s2.from.street);
+    Assert.assertTrue(mapper.isPartial(s2.from));
+    Assert.assertNull(batch.getEntity(mapper.createKey(Address.class, "a2")));
+
+    // a query can fetch other fields
+    final Map<MappedField, DBObject> referenceFields = new HashMap<MappedField, DBObject>();
+    final MappedField to = mapper.getMappedClass(Shipment.class).getMappedFieldByJavaField("to");
+    referenceFields.put(to, mapper.createReferenceFields(to, "street"));
+    shipments.clear();
+    shipments.add(new BasicDBObject(Mapper.ID_KEY, "s3").append("to", ref("addresses", "a2")));
+    batch = new InMemoryBatch(mapper, collections, new FetchPlan(null, false, referenceFields));
+    batch.prefetch(Shipment.class, shipments);
+    Assert.assertEquals("[addresses[a2][street, className]]", batch.queries.toString());
+    final Shipment s3 = (Shipment) mapper.fromDBObject(Shipment.class, shipments.get(0), batch);
+    Assert.assertEquals("Hafnarstraeti", s3.to.street);
+    Assert.assertTrue(mapper.isPartial(s3.to));
+  }
+
+  @Test
+  public void testSnapshots() {
+    final Morphia morphia = new Morphia().map(Trip.class, Address.class);
+    final Mapper mapper = morphia.getMapper();
+    final Trip trip = new Trip();
+    trip.id = "t1";
+    trip.start = address("a1", "Reykjavik");
+    trip.stops.add(address("a2", "Akureyri"));
+    trip.stops.add(address("a3", "Selfoss"));
+
+    final DBObject stored = morphia.toDBObject(trip);
+    Assert.assertEquals(new BasicDBObject(Mapper.ID_KEY, "a1").append("city", "Reykjavik"), stored.get("start_snapshot"));
+    final List<DBObject> snapshots = (List<DBObject>) stored.get("stops_snapshot");
+    Assert.assertEquals(2, snapshots.size());
+    Assert.assertEquals("Selfoss", snapshots.get(1).get("city"));
+
+    // a reference without a snapshot (say, pushed by an update) is still fetched
+    snapshots.remove(1);
+    add("addresses", new BasicDBObject(Mapper.ID_KEY, "a3").append("city", "Selfoss").append("street", "Austurvegur"));
+    final List<DBObject> trips = new ArrayList<DBObject>();
+    trips.add(stored);
+    final InMemoryBatch batch = new InMemoryBatch(mapper, collections);
+    batch.prefetch(Trip.class, trips);
+    Assert.assertEquals("[addresses[a3]]", batch.queries.toString());
+
+    final Trip loaded = (Trip) mapper.fromDBObject(Trip.class, stored, batch);
+    Assert.assertEquals("Reykjavik", loaded.start.city);
+    Assert.assertNull(loaded.start.street);
+    Assert.assertTrue(mapper.isPartial(loaded.start));
+    Assert.assertEquals("Akureyri", loaded.stops.get(0).city);
+    Assert.assertTrue(mapper.isPartial(loaded.stops.get(0)));
+    Assert.assertEquals("Austurvegur", loaded.stops.get(1).street);
+    Assert.assertFalse(mapper.isPartial(loaded.stops.get(1)));
+  }
+
+  private static Address address(final String id, final String city) {
+    final Address address = new Address();
+    address.id = id;
+    address.city = city;
+    address.street = "Main";
+    return address;
+  }
+
+  @Test
+  public void testSecondLevelCache() {
+    final Mapper mapper = new Morphia().map(Customer.class, Address.class).getMapper();
+    mapper.getOptions().secondLevelCache = new LRUSecondLevelCache(10);
+    add("addresses", new BasicDBObject(Mapper.ID_KEY, "a1").append("city", "Reykjavik"));
+    mapper.cacheDocument(Address.class, "addresses", new BasicDBObject(Mapper.ID_KEY, "a2").append("city", "Akureyri"));
+
+    final List<DBObject> customers = new ArrayList<DBObject>();
+    customers.add(new BasicDBObject(Mapper.ID_KEY, "c1").append("address", ref("addresses", "a1")));
+    customers.add(new BasicDBObject(Mapper.ID_KEY, "c2").append("address", ref("addresses", "a2")));
+    InMemoryBatch batch = new InMemoryBatch(mapper, collections);
+    batch.prefetch(Customer.class, customers);
+    Assert.assertEquals("[addresses[a1]]", batch.queries.toString());
+    Assert.assertEquals("Akureyri", ((Customer) mapper.fromDBObject(Customer.class, customers.get(1), batch)).address.city);
+
+    // the fetched one was cached too
+    batch = new InMemoryBatch(mapper, collections);
+    batch.prefetch(Customer.class, customers);
+    Assert.assertEquals(0, batch.queries.size());
+  }
+
+  @Test
+  public void testSecondLevelCacheNotChangedByPreLoad() {
+    final Mapper mapper = new Morphia().map(Visit.class, Place.class).getMapper();
+    mapper.getOptions().secondLevelCache = new LRUSecondLevelCache(10);
+    mapper.cacheDocument(Place.class, "places", new BasicDBObject(Mapper.ID_KEY, "p1").append("city", "Reykjavik"));
+
+    final List<DBObject> visits = new ArrayList<DBObject>();
+    visits.add(new BasicDBObject(Mapper.ID_KEY, "v1").append("place", ref("places", "p1")));
+    for (int i = 0; i < 2; i++) {
+      final InMemoryBatch batch = new InMemoryBatch(mapper, collections);
+      batch.prefetch(Visit.class, visits);
+      Assert.assertEquals(0, batch.queries.size());
+      Assert.assertEquals("Old Reykjavik", ((Visit) mapper.fromDBObject(Visit.class, visits.get(0), batch)).place.city);
+    }
+    Assert.assertEquals("Reykjavik", mapper.getCachedDocument("places", "p1").get("city"));
+  }
+
+  @Test
+  public void testMissingReference() {
+    final Mapper mapper = new Morphia().map(Order.class, Customer.class, Address.class, Item.class, Line.class).getMapper();
+    final List<DBObject> orders = new ArrayList<DBObject>();
+    orders.add(order("o1", "c1"));
+    add("customers", new BasicDBObject(Mapper.ID_KEY, "c0"));
+
+    final InMemoryBatch batch = new InMemoryBatch(mapper, collections);
+    batch.prefetch(Order.class, orders);
+    Assert.assertEquals(1, batch.queries.size());
+    Assert.assertNull(batch.getFetched(ref("customers", "c1")));
+  }
+}
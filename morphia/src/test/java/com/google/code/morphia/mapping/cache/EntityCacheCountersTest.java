@@ -0,0 +1,78 @@
+package com.google.code.morphia.mapping.cache;
+
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.junit.Assert;
+import org.junit.Test;
+import com.google.code.morphia.Key;
+
+
+/**
+ * Checks that the counts of many caches, used from many threads, add up per kind, and that they can be read over JMX.
+ */
+public class EntityCacheCountersTest {
+
+  public static class Book {
+  }
+
+  @Test
+  public void testCountedAcrossCachesAndThreads() throws InterruptedException {
+    final EntityCacheCounters counters = new EntityCacheCounters();
+    final List<Thread> threads = new ArrayList<Thread>();
+    for (int t = 0; t < 4; t++) {
+      threads.add(new Thread() {
+        @Override
+        public void run() {
+          for (int i = 0; i < 1000; i++) {
+            final EntityCache cache = i % 2 == 0 ? new DefaultEntityCache(counters) : new LightweightEntityCache(counters);
+            final Key<Book> key = new Key<Book>(Book.class, i);
+            cache.getEntity(key);
+            cache.putEntity(key, new Book());
+            cache.getEntity(key);
+            cache.exists(new Key<Object>("authors", i));
+          }
+        }
+      });
+    }
+    for (final Thread thread : threads) {
+      thread.start();
+    }
+    for (final Thread thread : threads) {
+      thread.join();
+    }
+
+    final EntityCacheStatistics total = counters.getStatistics();
+    Assert.assertEquals(4000, total.getEntities());
+    Assert.assertEquals(4000, total.getHits());
+    Assert.assertEquals(8000, total.getMisses());
+    final Map<String, EntityCacheStatistics> byKind = counters.getStatisticsByKind();
+    Assert.assertEquals(4000, byKind.get(Book.class.getName()).getMisses());
+    Assert.assertEquals(4000, byKind.get("authors").getMisses());
+    Assert.assertEquals(1d / 3, counters.getHitRatio(), 0.0001);
+
+    counters.reset();
+    Assert.assertEquals(0, counters.getHits());
+  }
+
+  @Test
+  public void testMBean() throws Exception {
+    final EntityCacheCounters counters = new EntityCacheCounters();
+    new LightweightEntityCache(counters).getEntity(new Key<Book>(Book.class, 1));
+
+    final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+    final ObjectName name = new ObjectName("com.google.code.morphia:type=EntityCache,database=test");
+    server.registerMBean(counters, name);
+    try {
+      Assert.assertEquals(1L, server.getAttribute(name, "Misses"));
+      Assert.assertEquals(1, ((String[]) server.getAttribute(name, "KindStatistics")).length);
+    } finally {
+      server.unregisterMBean(name);
+    }
+  }
+}
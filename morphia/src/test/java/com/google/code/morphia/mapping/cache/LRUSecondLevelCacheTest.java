@@ -0,0 +1,79 @@
+package com.google.code.morphia.mapping.cache;
+
+
+import org.junit.Assert;
+import org.junit.Test;
+import com.google.code.morphia.Key;
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBObject;
+
+
+/**
+ * Checks the eviction, expiry and invalidation of the {@link LRUSecondLevelCache}, and its counts.
+ */
+public class LRUSecondLevelCacheTest {
+
+  private static DBObject doc(final Object id) {
+    return new BasicDBObject("_id", id);
+  }
+
+  @Test
+  public void testLeastRecentlyUsedEvicted() {
+    final LRUSecondLevelCache cache = new LRUSecondLevelCache(2);
+    cache.put(new Key<Object>("a", 1), doc(1), 0);
+    cache.put(new Key<Object>("a", 2), doc(2), 0);
+    Assert.assertNotNull(cache.get(new Key<Object>("a", 1)));
+    cache.put(new Key<Object>("a", 3), doc(3), 0);
+
+    Assert.assertNull(cache.get(new Key<Object>("a", 2)));
+    Assert.assertNotNull(cache.get(new Key<Object>("a", 1)));
+    Assert.assertNotNull(cache.get(new Key<Object>("a", 3)));
+    final SecondLevelCacheStatistics stats = cache.stats();
+    Assert.assertEquals(2, stats.getEntries());
+    Assert.assertEquals(3, stats.getHits());
+    Assert.assertEquals(1, stats.getMisses());
+    Assert.assertEquals(1, stats.getEvictions());
+  }
+
+  @Test
+  public void testCopied() {
+    final LRUSecondLevelCache cache = new LRUSecondLevelCache(10);
+    final DBObject doc = doc(1);
+    doc.put("nested", new BasicDBObject("name", "a"));
+    cache.put(new Key<Object>("a", 1), doc, 0);
+    ((DBObject) doc.get("nested")).put("name", "b");
+
+    final DBObject cached = cache.get(new Key<Object>("a", 1));
+    Assert.assertEquals("a", ((DBObject) cached.get("nested")).get("name"));
+    ((DBObject) cached.get("nested")).put("name", "c");
+    Assert.assertEquals("a", ((DBObject) cache.get(new Key<Object>("a", 1)).get("nested")).get("name"));
+  }
+
+  @Test
+  public void testExpired() throws InterruptedException {
+    final LRUSecondLevelCache cache = new LRUSecondLevelCache(10);
+    cache.put(new Key<Object>("a", 1), doc(1), 1);
+    cache.put(new Key<Object>("a", 2), doc(2), 0);
+    Thread.sleep(5);
+    Assert.assertNull(cache.get(new Key<Object>("a", 1)));
+    Assert.assertNotNull(cache.get(new Key<Object>("a", 2)));
+    Assert.assertEquals(1, cache.stats().getEntries());
+  }
+
+  @Test
+  public void testInvalidation() {
+    final LRUSecondLevelCache cache = new LRUSecondLevelCache(10);
+    cache.put(new Key<Object>("a", 1), doc(1), 0);
+    cache.put(new Key<Object>("a", 2), doc(2), 0);
+    cache.put(new Key<Object>("b", 1), doc(1), 0);
+
+    // the kind class does not matter
+    final Key<Object> key = new Key<Object>("a", 1);
+    key.setKindClass(Object.class);
+    cache.remove(key);
+    Assert.assertNull(cache.get(new Key<Object>("a", 1)));
+    cache.removeKind("a");
+    Assert.assertNull(cache.get(new Key<Object>("a", 2)));
+    Assert.assertNotNull(cache.get(new Key<Object>("b", 1)));
+  }
+}
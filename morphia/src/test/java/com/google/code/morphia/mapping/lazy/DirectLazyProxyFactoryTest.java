@@ -0,0 +1,120 @@
+package com.google.code.morphia.mapping.lazy;
+
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+import com.google.code.morphia.AdvancedDatastore;
+import com.google.code.morphia.Datastore;
+import com.google.code.morphia.Key;
+import com.google.code.morphia.mapping.lazy.proxy.ProxiedEntityReference;
+import com.google.code.morphia.mapping.lazy.proxy.ProxiedEntityReferenceList;
+import com.google.code.morphia.mapping.lazy.proxy.ProxyHelper;
+
+
+/**
+ * Checks that the proxies of the {@link DirectLazyProxyFactory} fetch once, delegate, share their class and serialize as their referent.
+ */
+public class DirectLazyProxyFactoryTest {
+
+  public static class Author implements Serializable {
+    String name;
+
+    public Author() {
+    }
+
+    Author(final String name) {
+      this.name = name;
+    }
+
+    public String getName() {
+      return name;
+    }
+  }
+
+  private final List<Object> fetched = new ArrayList<Object>();
+
+  /**
+   * A datastore which returns an author named after the id of each key.
+   */
+  private DatastoreProvider provider() {
+    final Datastore ds = (Datastore) Proxy.newProxyInstance(getClass().getClassLoader(), new Class[] {AdvancedDatastore.class},
+      new InvocationHandler() {
+        public Object invoke(final Object proxy, final Method method, final Object[] args) {
+          if (method.getName().equals("getByKey")) {
+            fetched.add(((Key) args[1]).getId());
+            return new Author((String) ((Key) args[1]).getId());
+          }
+          if (method.getName().equals("getByKeys")) {
+            final List<Author> authors = new ArrayList<Author>();
+            for (final Object key : (Iterable) args[1]) {
+              fetched.add(((Key) key).getId());
+              authors.add(new Author((String) ((Key) key).getId()));
+            }
+            return authors;
+          }
+          throw new UnsupportedOperationException(method.getName());
+        }
+      });
+    return new DatastoreProvider() {
+      public Datastore get() {
+        return ds;
+      }
+    };
+  }
+
+  @Test
+  public void testEntityProxy() {
+    final DirectLazyProxyFactory factory = new DirectLazyProxyFactory();
+    final DatastoreProvider p = provider();
+    final Author first = factory.createProxy(Author.class, new Key<Author>("authors", "austen"), p);
+    final Author second = factory.createProxy(Author.class, new Key<Author>("authors", "eliot"), p);
+
+    Assert.assertTrue(ProxyHelper.isProxy(first));
+    Assert.assertSame(first.getClass(), second.getClass());
+    Assert.assertEquals("austen", ((ProxiedEntityReference) first).__getKey().getId());
+    Assert.assertTrue(ProxyHelper.isUnFetched(first));
+    Assert.assertEquals(0, fetched.size());
+
+    Assert.assertEquals("austen", first.getName());
+    Assert.assertEquals("austen", first.getName());
+    Assert.assertEquals(1, fetched.size());
+    Assert.assertTrue(ProxyHelper.isFetched(first));
+    Assert.assertSame(Author.class, ProxyHelper.unwrap(first).getClass());
+    Assert.assertEquals("eliot", second.getName());
+  }
+
+  @Test
+  public void testListProxy() {
+    final List<Author> authors = new DirectLazyProxyFactory().createListProxy(new ArrayList<Author>(), Author.class, false, provider());
+    ((ProxiedEntityReferenceList) authors).__add(new Key<Author>("authors", "austen"));
+    ((ProxiedEntityReferenceList) authors).__add(new Key<Author>("authors", "eliot"));
+
+    Assert.assertEquals(2, authors.size());
+    Assert.assertEquals("eliot", authors.get(1).getName());
+    Assert.assertEquals(2, fetched.size());
+  }
+
+  @Test
+  public void testSerializedAsReferent() throws Exception {
+    final Author author = new DirectLazyProxyFactory().createProxy(Author.class, new Key<Author>("authors", "austen"), provider());
+    final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    final ObjectOutputStream out = new ObjectOutputStream(bytes);
+    out.writeObject(author);
+    out.close();
+
+    final Object read = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray())).readObject();
+    Assert.assertSame(Author.class, read.getClass());
+    Assert.assertEquals("austen", ((Author) read).getName());
+  }
+}
@@ -0,0 +1,153 @@
+package com.google.code.morphia.mapping.lazy;
+
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+import com.google.code.morphia.AdvancedDatastore;
+import com.google.code.morphia.Datastore;
+import com.google.code.morphia.Key;
+import com.google.code.morphia.Morphia;
+import com.google.code.morphia.annotations.Entity;
+import com.google.code.morphia.annotations.Id;
+import com.google.code.morphia.annotations.Reference;
+import com.mongodb.DBObject;
+import com.mongodb.DBRef;
+
+
+/**
+ * Checks that {@link LazyRef}/{@link LazyRefList} fields are stored as references, loaded as keys only, and fetched on use.
+ */
+public class LazyRefTest {
+
+  @Entity("authors")
+  public static class Author {
+    @Id String id;
+
+    Author() {
+    }
+
+    Author(final String id) {
+      this.id = id;
+    }
+  }
+
+  @Entity("books")
+  public static class Book {
+    @Id String id;
+    @Reference LazyRef<Author> author;
+    @Reference LazyRefList<Author> reviewers;
+  }
+
+  private final List<String> calls = new ArrayList<String>();
+
+  /**
+   * A datastore which returns an author for each key, except the ones with a "missing" id.
+   */
+  private DatastoreProvider provider() {
+    final Datastore ds = (Datastore) Proxy.newProxyInstance(getClass().getClassLoader(), new Class[] {AdvancedDatastore.class},
+      new InvocationHandler() {
+        public Object invoke(final Object proxy, final Method method, final Object[] args) {
+          calls.add(method.getName());
+          if (method.getName().equals("getByKey")) {
+            return author(((Key) args[1]).getId());
+          } else if (method.getName().equals("getByKeys")) {
+            final List<Object> authors = new ArrayList<Object>();
+            for (final Object key : (Iterable) args[1]) {
+              final Author author = author(((Key) key).getId());
+              if (author != null) {
+                authors.add(author);
+              }
+            }
+            return authors;
+          }
+          throw new UnsupportedOperationException(method.getName());
+        }
+      });
+    return new DatastoreProvider() {
+      public Datastore get() {
+        return ds;
+      }
+    };
+  }
+
+  private static Author author(final Object id) {
+    return "missing".equals(id) ? null : new Author((String) id);
+  }
+
+  private static Morphia morphia() {
+    return new Morphia().map(Book.class, Author.class);
+  }
+
+  @Test
+  public void testStoredAsReferences() {
+    final Book book = new Book();
+    book.id = "b1";
+    book.author = new LazyRef<Author>(new Author("a1"));
+    book.reviewers = new LazyRefList<Author>(Author.class, Arrays.asList(new Author("a2"), new Author("a3")));
+
+    final DBObject dbObj = morphia().toDBObject(book);
+    Assert.assertEquals("a1", ((DBRef) dbObj.get("author")).getId());
+    final List<DBRef> reviewers = (List<DBRef>) dbObj.get("reviewers");
+    Assert.assertEquals(2, reviewers.size());
+    Assert.assertEquals("authors", reviewers.get(1).getRef());
+    Assert.assertEquals("a3", reviewers.get(1).getId());
+  }
+
+  @Test
+  public void testLoadedAsKeys() {
+    final Morphia morphia = morphia();
+    final Book book = new Book();
+    book.id = "b1";
+    book.author = new LazyRef<Author>(new Author("a1"));
+    book.reviewers = new LazyRefList<Author>(Author.class, Arrays.asList(new Author("a2"), new Author("a3")));
+    final DBObject dbObj = morphia.toDBObject(book);
+
+    // there is no datastore to fetch from, so neither loading nor saving it again may fetch
+    final Book loaded = morphia.fromDBObject(Book.class, dbObj);
+    Assert.assertFalse(loaded.author.isFetched());
+    Assert.assertEquals(Author.class, loaded.author.getReferenceObjClass());
+    Assert.assertEquals("a1", loaded.author.getKey().getId());
+    Assert.assertFalse(loaded.reviewers.isFetched());
+    Assert.assertEquals(2, loaded.reviewers.getKeys().size());
+    Assert.assertEquals(dbObj, morphia.toDBObject(loaded));
+  }
+
+  @Test
+  public void testFetchedOnce() {
+    final LazyRef<Author> ref = new LazyRef<Author>(Author.class, new Key<Author>("authors", "a1"), provider());
+    Assert.assertEquals("a1", ref.get().id);
+    Assert.assertSame(ref.get(), ref.get());
+    Assert.assertEquals("[getByKey]", calls.toString());
+
+    final LazyRef<Author> missing = new LazyRef<Author>(Author.class, new Key<Author>("authors", "missing"), provider());
+    Assert.assertNull(missing.get());
+  }
+
+  @Test
+  public void testListFetchedAtOnce() {
+    final List<Key<Author>> keys = new ArrayList<Key<Author>>();
+    keys.add(new Key<Author>("authors", "a2"));
+    keys.add(new Key<Author>("authors", "missing"));
+    keys.add(new Key<Author>("authors", "a1"));
+    final LazyRefList<Author> refs = new LazyRefList<Author>(Author.class, keys, provider());
+    Assert.assertEquals(2, refs.get().size());
+    Assert.assertEquals("a1", refs.get().get(1).id);
+    Assert.assertEquals("[getByKeys]", calls.toString());
+  }
+
+  @Test
+  public void testResolved() {
+    final LazyRefList<Author> refs = new LazyRefList<Author>(Author.class, new ArrayList<Key<Author>>(), provider());
+    refs.__resolve(Arrays.asList(new Author("a1"), null, new Author("a2")));
+    Assert.assertTrue(refs.isFetched());
+    Assert.assertEquals(2, refs.get().size());
+    Assert.assertEquals(0, calls.size());
+  }
+}
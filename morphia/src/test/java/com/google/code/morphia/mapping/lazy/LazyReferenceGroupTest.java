@@ -0,0 +1,121 @@
+package com.google.code.morphia.mapping.lazy;
+
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Test;
+import com.google.code.morphia.AdvancedDatastore;
+import com.google.code.morphia.Datastore;
+import com.google.code.morphia.Key;
+import com.google.code.morphia.mapping.lazy.proxy.LazyReferenceFetchingException;
+import com.google.code.morphia.mapping.lazy.proxy.LazyReferenceGroup;
+import com.google.code.morphia.mapping.lazy.proxy.SerializableCollectionObjectReference;
+import com.google.code.morphia.mapping.lazy.proxy.SerializableMapObjectReference;
+
+
+/**
+ * Checks that lazy reference collections/maps fetch their entities with one call to getByKeys, and a group with one for all.
+ */
+public class LazyReferenceGroupTest {
+
+  private final List<List<Key>> calls = new ArrayList<List<Key>>();
+
+  /**
+   * A datastore whose getByKeys returns "entity-" + id for each key, except the ones with a "missing" id.
+   */
+  private DatastoreProvider provider() {
+    final Datastore ds = (Datastore) Proxy.newProxyInstance(getClass().getClassLoader(), new Class[] {AdvancedDatastore.class},
+      new InvocationHandler() {
+        public Object invoke(final Object proxy, final Method method, final Object[] args) {
+          if (!method.getName().equals("getByKeys") || args.length != 3) {
+            throw new UnsupportedOperationException(method.getName());
+          }
+          final List<Key> keys = new ArrayList<Key>();
+          final List<Object> entities = new ArrayList<Object>();
+          for (final Object key : (Iterable) args[1]) {
+            keys.add((Key) key);
+            final Object id = ((Key) key).getId();
+            entities.add("missing".equals(id) ? null : "entity-" + id);
+          }
+          calls.add(keys);
+          return entities;
+        }
+      });
+    return new DatastoreProvider() {
+      public Datastore get() {
+        return ds;
+      }
+    };
+  }
+
+  private static Key<String> key(final Object id) {
+    return new Key<String>("things", id);
+  }
+
+  private SerializableCollectionObjectReference<String> list(final DatastoreProvider p, final Object... ids) {
+    final SerializableCollectionObjectReference<String> ref = new SerializableCollectionObjectReference<String>(new ArrayList<String>(),
+      String.class, true, p);
+    for (final Object id : ids) {
+      ref.__add(key(id));
+    }
+    return ref;
+  }
+
+  @Test
+  public void testListFetchedAtOnce() {
+    final SerializableCollectionObjectReference<String> ref = list(provider(), 3, 1, "missing", 2);
+    final Collection<String> entities = (Collection<String>) ref.get();
+    Assert.assertEquals(1, calls.size());
+    Assert.assertEquals("[entity-3, entity-1, null, entity-2]", entities.toString());
+  }
+
+  @Test
+  public void testMapFetchedAtOnce() {
+    final SerializableMapObjectReference ref = new SerializableMapObjectReference(new LinkedHashMap(), String.class, true, provider());
+    ref.__put("b", key(2));
+    ref.__put("a", key(1));
+    final Map<String, String> entities = (Map<String, String>) ref.get();
+    Assert.assertEquals(1, calls.size());
+    Assert.assertEquals("{b=entity-2, a=entity-1}", entities.toString());
+  }
+
+  @Test(expected = LazyReferenceFetchingException.class)
+  public void testMissingInListFails() {
+    final SerializableCollectionObjectReference<String> ref = new SerializableCollectionObjectReference<String>(new ArrayList<String>(),
+      String.class, false, provider());
+    ref.__add(key(1));
+    ref.__add(key("missing"));
+    ref.get();
+  }
+
+  @Test(expected = LazyReferenceFetchingException.class)
+  public void testMissingInMapFails() {
+    final SerializableMapObjectReference ref = new SerializableMapObjectReference(new LinkedHashMap(), String.class, false, provider());
+    ref.__put("a", key(1));
+    ref.__put("b", key("missing"));
+    ref.get();
+  }
+
+  @Test
+  public void testGroupFetchedAtOnce() {
+    final DatastoreProvider p = provider();
+    final SerializableCollectionObjectReference<String> first = list(p, 1, 2);
+    final SerializableCollectionObjectReference<String> second = list(p, 2, 3);
+    final LazyReferenceGroup group = new LazyReferenceGroup();
+    group.add(first);
+    group.add(second);
+
+    Assert.assertEquals("[entity-2, entity-3]", second.get().toString());
+    Assert.assertEquals("[entity-1, entity-2]", first.get().toString());
+    Assert.assertEquals(1, calls.size());
+    Assert.assertEquals(3, calls.get(0).size());
+  }
+}
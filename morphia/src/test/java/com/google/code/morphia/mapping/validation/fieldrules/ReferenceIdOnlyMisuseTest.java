@@ -0,0 +1,58 @@
+package com.google.code.morphia.mapping.validation.fieldrules;
+
+
+import java.util.List;
+
+import org.junit.Test;
+import com.google.code.morphia.TestBase;
+import com.google.code.morphia.annotations.Reference;
+import com.google.code.morphia.mapping.validation.ConstraintViolationException;
+import com.google.code.morphia.testutil.AssertedFailure;
+import com.google.code.morphia.testutil.TestEntity;
+
+
+/**
+ * Checks that id only references to interfaces or abstract classes fail the mapping.
+ */
+public class ReferenceIdOnlyMisuseTest extends TestBase {
+
+  public static class IdOnlyToInterface extends TestEntity {
+    private static final long serialVersionUID = 1L;
+    @Reference(idOnly = true) Named r;
+  }
+
+  public static class IdOnlyToAbstract extends TestEntity {
+    private static final long serialVersionUID = 1L;
+    @Reference(idOnly = true) List<A> r;
+  }
+
+  public interface Named {
+    String getName();
+  }
+
+  public abstract static class A extends TestEntity {
+    private static final long serialVersionUID = 1L;
+  }
+
+  @Test
+  public void testIdOnlyToInterface() {
+    new AssertedFailure(ConstraintViolationException.class) {
+
+      @Override
+      protected void thisMustFail() {
+        morphia.map(IdOnlyToInterface.class);
+      }
+    };
+  }
+
+  @Test
+  public void testIdOnlyToAbstract() {
+    new AssertedFailure(ConstraintViolationException.class) {
+
+      @Override
+      protected void thisMustFail() {
+        morphia.map(IdOnlyToAbstract.class);
+      }
+    };
+  }
+}
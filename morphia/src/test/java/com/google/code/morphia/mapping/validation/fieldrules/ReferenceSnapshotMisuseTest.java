@@ -0,0 +1,55 @@
+package com.google.code.morphia.mapping.validation.fieldrules;
+
+
+import java.util.Map;
+
+import org.junit.Test;
+import com.google.code.morphia.TestBase;
+import com.google.code.morphia.annotations.Reference;
+import com.google.code.morphia.mapping.validation.ConstraintViolationException;
+import com.google.code.morphia.testutil.AssertedFailure;
+import com.google.code.morphia.testutil.TestEntity;
+
+
+/**
+ * Checks that snapshots of unknown fields, or of map references, fail the mapping.
+ */
+public class ReferenceSnapshotMisuseTest extends TestBase {
+
+  public static class UnknownSnapshotField extends TestEntity {
+    private static final long serialVersionUID = 1L;
+    @Reference(snapshot = "nickname") R r;
+  }
+
+  public static class SnapshotOnMap extends TestEntity {
+    private static final long serialVersionUID = 1L;
+    @Reference(snapshot = "name") Map<String, R> r;
+  }
+
+  public static class R extends TestEntity {
+    private static final long serialVersionUID = 1L;
+    String name;
+  }
+
+  @Test
+  public void testUnknownSnapshotField() {
+    new AssertedFailure(ConstraintViolationException.class) {
+
+      @Override
+      protected void thisMustFail() {
+        morphia.map(UnknownSnapshotField.class);
+      }
+    };
+  }
+
+  @Test
+  public void testSnapshotOnMap() {
+    new AssertedFailure(ConstraintViolationException.class) {
+
+      @Override
+      protected void thisMustFail() {
+        morphia.map(SnapshotOnMap.class);
+      }
+    };
+  }
+}
@@ -0,0 +1,111 @@
+package com.google.code.morphia.query;
+
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+import com.google.code.morphia.Key;
+import com.google.code.morphia.Morphia;
+import com.google.code.morphia.annotations.Embedded;
+import com.google.code.morphia.annotations.Entity;
+import com.google.code.morphia.annotations.Id;
+import com.google.code.morphia.annotations.Reference;
+import com.google.code.morphia.mapping.Mapper;
+import com.google.code.morphia.mapping.cache.DefaultEntityCache;
+import com.google.code.morphia.mapping.cache.EntityCache;
+
+
+/**
+ * Checks that merging the caches of the chunks keeps one instance of each entity, and points the references of the later chunks at it.
+ */
+public class ChunkCacheTest {
+
+  @Entity("authors")
+  public static class Author {
+    @Id String id;
+  }
+
+  @Embedded
+  public static class Note {
+    @Reference Author by;
+  }
+
+  @Entity("books")
+  public static class Book {
+    @Id String id;
+    @Reference Author author;
+    @Reference List<Author> editors = new ArrayList<Author>();
+    Note note;
+  }
+
+  private static Author author(final String id) {
+    final Author author = new Author();
+    author.id = id;
+    return author;
+  }
+
+  private static Book book(final String id, final Author author) {
+    final Book book = new Book();
+    book.id = id;
+    book.author = author;
+    book.editors.add(author);
+    book.note = new Note();
+    book.note.by = author;
+    return book;
+  }
+
+  private static ChunkCache chunk(final Object... entities) {
+    final ChunkCache cache = new ChunkCache(new DefaultEntityCache());
+    for (final Object entity : entities) {
+      final String id = entity instanceof Book ? ((Book) entity).id : ((Author) entity).id;
+      cache.putEntity(new Key<Object>(entity.getClass(), id), entity);
+    }
+    return cache;
+  }
+
+  @Test
+  public void testSharedReferencesMerged() {
+    final Mapper mapper = new Morphia().map(Book.class, Author.class).getMapper();
+    final EntityCache cache = new DefaultEntityCache();
+
+    final Author a1 = author("a1");
+    final Book b1 = book("b1", a1);
+    final List<Book> first = new ArrayList<Book>();
+    first.add(b1);
+    chunk(b1, a1).mergeInto(cache, first, mapper);
+
+    // the second chunk loaded its own copies of a1 and b1
+    final Author copy = author("a1");
+    final Book b2 = book("b2", copy);
+    final Book b1Copy = book("b1", copy);
+    final List<Book> second = new ArrayList<Book>();
+    second.add(b2);
+    second.add(b1Copy);
+    chunk(b2, copy, b1Copy).mergeInto(cache, second, mapper);
+
+    Assert.assertSame(a1, b2.author);
+    Assert.assertSame(a1, b2.editors.get(0));
+    Assert.assertSame(a1, b2.note.by);
+    Assert.assertSame(b2, second.get(0));
+    Assert.assertSame(b1, second.get(1));
+    Assert.assertSame(a1, cache.getEntity(new Key<Author>(Author.class, "a1")));
+    Assert.assertSame(b2, cache.getEntity(new Key<Book>(Book.class, "b2")));
+  }
+
+  @Test
+  public void testNothingToMerge() {
+    final Mapper mapper = new Morphia().map(Book.class, Author.class).getMapper();
+    final EntityCache cache = new DefaultEntityCache();
+    final Author a1 = author("a1");
+    final Book b1 = book("b1", a1);
+    final List<Book> results = new ArrayList<Book>();
+    results.add(b1);
+    chunk(b1, a1).mergeInto(cache, results, mapper);
+
+    Assert.assertSame(b1, results.get(0));
+    Assert.assertSame(a1, b1.author);
+    Assert.assertSame(b1, cache.getEntity(new Key<Book>(Book.class, "b1")));
+  }
+}
@@ -0,0 +1,153 @@
+package com.google.code.morphia.query;
+
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Test;
+import com.google.code.morphia.Morphia;
+import com.google.code.morphia.annotations.Entity;
+import com.google.code.morphia.annotations.Id;
+import com.google.code.morphia.mapping.Mapper;
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBObject;
+
+
+/**
+ * Checks that the results are read and mapped on another thread, in order, and that the worker stops when the iterator is closed.
+ */
+public class PipelinedMorphiaIteratorTest {
+
+  @Entity("rows")
+  public static class Row {
+    @Id int id;
+  }
+
+  /**
+   * Returns rows with increasing ids, up to count (forever if negative), failing at the one with the id given (if any)
+   */
+  private static Iterator<DBObject> rows(final int count, final int failAt, final AtomicInteger read) {
+    return new Iterator<DBObject>() {
+      public boolean hasNext() {
+        return count < 0 || read.get() < count;
+      }
+
+      public DBObject next() {
+        final int id = read.getAndIncrement();
+        if (id == failAt) {
+          throw new IllegalStateException("row " + id);
+        }
+        return new BasicDBObject(Mapper.ID_KEY, id);
+      }
+
+      public void remove() {
+        throw new UnsupportedOperationException();
+      }
+    };
+  }
+
+  /**
+   * Runs each worker on a thread of its own, named after the kind
+   */
+  private static Executor executor(final String kind) {
+    return new Executor() {
+      public void execute(final Runnable command) {
+        final Thread thread = new Thread(command, "morphia-pipeline-" + kind);
+        thread.setDaemon(true);
+        thread.start();
+      }
+    };
+  }
+
+  private static PipelinedMorphiaIterator<Row> iterator(final Iterator<DBObject> rows, final String kind, final int chunkSize) {
+    final Mapper mapper = new Morphia().map(Row.class).getMapper();
+    return new PipelinedMorphiaIterator<Row>(new MorphiaIterator<Row, Row>(rows, mapper, Row.class, "rows", mapper.createEntityCache()),
+      executor(kind), chunkSize, 1);
+  }
+
+  private static PipelinedMorphiaIterator<Row> iterator(final Iterator<DBObject> rows, final int chunkSize) {
+    return iterator(rows, "rows", chunkSize);
+  }
+
+  @Test
+  public void testInOrder() {
+    final List<Integer> ids = new ArrayList<Integer>();
+    for (final Row row : iterator(rows(250, -1, new AtomicInteger()), 100)) {
+      ids.add(row.id);
+    }
+    Assert.assertEquals(250, ids.size());
+    for (int i = 0; i < ids.size(); i++) {
+      Assert.assertEquals(i, (int) ids.get(i));
+    }
+  }
+
+  @Test
+  public void testFailurePassedOn() {
+    final PipelinedMorphiaIterator<Row> it = iterator(rows(10, 4, new AtomicInteger()), 2);
+    try {
+      // the rows before may come first, unless they were read ahead along with the failing one
+      while (it.hasNext()) {
+        Assert.assertTrue(it.next().id < 4);
+      }
+      Assert.fail("the failure of the worker was lost");
+    } catch (IllegalStateException e) {
+      Assert.assertEquals("row 4", e.getMessage());
+    }
+    Assert.assertFalse(it.hasNext());
+  }
+
+  @Test
+  public void testCloseStopsWorker() throws InterruptedException {
+    final AtomicInteger read = new AtomicInteger();
+    final PipelinedMorphiaIterator<Row> it = iterator(rows(-1, -1, read), 1);
+    for (int i = 0; i < 3; i++) {
+      Assert.assertEquals(i, it.next().id);
+    }
+    it.close();
+    Assert.assertFalse(it.hasNext());
+
+    // the worker notices within a wait for room
+    Thread.sleep(500);
+    final int stopped = read.get();
+    Thread.sleep(300);
+    Assert.assertEquals(stopped, read.get());
+  }
+
+  private static boolean workerAlive(final String kind) {
+    for (final Thread thread : Thread.getAllStackTraces().keySet()) {
+      if (thread.getName().equals("morphia-pipeline-" + kind) && thread.isAlive()) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  @Test
+  public void testAbandonedStopsWorker() throws InterruptedException {
+    PipelinedMorphiaIterator<Row> it = iterator(rows(-1, -1, new AtomicInteger()), "abandoned", 1);
+    Assert.assertEquals(0, it.next().id);
+    Assert.assertTrue(workerAlive("abandoned"));
+    it = null;
+
+    // the worker notices once the iterator is collected
+    for (int i = 0; i < 50 && workerAlive("abandoned"); i++) {
+      System.gc();
+      Thread.sleep(200);
+    }
+    Assert.assertFalse(workerAlive("abandoned"));
+  }
+
+  @Test(expected = UnsupportedOperationException.class)
+  public void testNoCursor() {
+    final PipelinedMorphiaIterator<Row> it = iterator(rows(10, -1, new AtomicInteger()), 2);
+    try {
+      it.getCursor();
+    } finally {
+      it.close();
+    }
+  }
+}